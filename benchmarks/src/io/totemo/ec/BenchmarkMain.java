@@ -0,0 +1,43 @@
+package io.totemo.ec;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// ----------------------------------------------------------------------------
+/**
+ * Runs the benchmarks with the GC profiler, so that allocation rates are
+ * reported alongside throughput and latency percentiles.
+ *
+ * Standard JMH command line options (e.g. a benchmark name regexp, or
+ * "-p chunks=20000") are accepted.
+ */
+public class BenchmarkMain {
+    // ------------------------------------------------------------------------
+    /**
+     * Main program.
+     *
+     * @param args JMH command line options.
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build()).run();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Install a {@link Configuration} with default settings, since the
+     * benchmarks run without a plugin instance.
+     */
+    public static void configure() {
+        Configuration config = new Configuration(null);
+        config.PAGE_SIZE = 10;
+        config.COUNT_BUDGET_MILLIS = 1.0;
+        EntityControl.CONFIG = config;
+    }
+} // class BenchmarkMain
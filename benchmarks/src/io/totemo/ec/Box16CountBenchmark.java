@@ -0,0 +1,82 @@
+package io.totemo.ec;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmark of {@link Box16Count#countEntity(int, double, double, double)},
+ * reported per counted entity.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Box16CountBenchmark {
+    /**
+     * Number of entities counted into each box.
+     */
+    public static final int ENTITIES = 64;
+
+    /**
+     * Number of distinct entity types in the box.
+     */
+    @Param({ "1", "3", "12" })
+    public int types;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Generate entity types and positions within one box.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < ENTITIES; ++i) {
+            _ordinals[i] = random.nextInt(types);
+            _coords[3 * i] = 16 * random.nextDouble();
+            _coords[3 * i + 1] = 64 + 16 * random.nextDouble();
+            _coords[3 * i + 2] = 16 * random.nextDouble();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count all entities into a new box.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ENTITIES)
+    public Box16Count countEntity() {
+        Box16Count box = new Box16Count();
+        for (int i = 0; i < ENTITIES; ++i) {
+            box.countEntity(_ordinals[i], _coords[3 * i], _coords[3 * i + 1], _coords[3 * i + 2]);
+        }
+        return box;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * EntityType ordinals.
+     */
+    protected final int[] _ordinals = new int[ENTITIES];
+
+    /**
+     * Packed X, Y and Z coordinates.
+     */
+    protected final double[] _coords = new double[3 * ENTITIES];
+} // class Box16CountBenchmark
@@ -0,0 +1,138 @@
+package io.totemo.ec;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmarks of reading and aggregating the entities of a whole synthetic
+ * World: capture of an {@link EntitySnapshot}, ChunkCount construction from
+ * the snapshot, and serial and parallel aggregation of the snapshot.
+ *
+ * The synthetic World has no Bukkit World, so counts are given a null World.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CountingBenchmark {
+    /**
+     * Number of loaded chunks.
+     */
+    @Param({ "4000", "20000" })
+    public int chunks;
+
+    /**
+     * Average number of entities per chunk.
+     */
+    @Param({ "5", "25" })
+    public int density;
+
+    /**
+     * Zipf exponent of the entity type distribution.
+     */
+    @Param({ "0.0", "1.5" })
+    public double skew;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Build the synthetic World and a snapshot of it.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkMain.configure();
+        _world = new SyntheticWorld(chunks, density, skew, 1);
+        _snapshot = _world.snapshot();
+        _aggregator = new ParallelAggregator(Runtime.getRuntime().availableProcessors());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Shut down the parallel aggregator.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _aggregator.shutdown();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Construct a ChunkCount for every chunk of the snapshot, as aggregation
+     * does.
+     */
+    @Benchmark
+    public void chunkCount(Blackhole blackhole) {
+        for (int chunk = 0; chunk < _snapshot.getChunkCount(); ++chunk) {
+            blackhole.consume(new ChunkCount(null, _snapshot, chunk));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Capture the types and positions of all entities, as CountTask does on
+     * the server thread.
+     */
+    @Benchmark
+    public EntitySnapshot snapshot() {
+        return _world.snapshot();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Aggregate the snapshot on one thread and select the first page.
+     */
+    @Benchmark
+    public WorldCount aggregateSerial() {
+        WorldCount count = new WorldCount();
+        count.clear(chunks);
+        count.countSnapshot(null, _snapshot);
+        count.prepare();
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Aggregate the snapshot on all available processors and select the
+     * first page.
+     */
+    @Benchmark
+    public WorldCount aggregateParallel() {
+        WorldCount count = new WorldCount();
+        _aggregator.aggregate(count, null, _snapshot, Collections.<ChunkCount> emptyList(),
+                              EntityControl.CONFIG.PAGE_SIZE);
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The synthetic World.
+     */
+    protected SyntheticWorld _world;
+
+    /**
+     * Snapshot of the synthetic World.
+     */
+    protected EntitySnapshot _snapshot;
+
+    /**
+     * Parallel aggregator using all available processors.
+     */
+    protected ParallelAggregator _aggregator;
+} // class CountingBenchmark
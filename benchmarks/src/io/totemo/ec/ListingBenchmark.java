@@ -0,0 +1,135 @@
+package io.totemo.ec;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.command.CommandSender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// ----------------------------------------------------------------------------
+/**
+ * Benchmarks of the stages that run on an existing {@link WorldCount}:
+ * summarising totals, selecting sorted groups and listing pages.
+ *
+ * The cached totals and selections are discarded before each invocation so
+ * that the full cost of each stage is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListingBenchmark {
+    /**
+     * Number of loaded chunks.
+     */
+    @Param({ "4000", "20000" })
+    public int chunks;
+
+    /**
+     * Average number of entities per chunk.
+     */
+    @Param({ "5", "25" })
+    public int density;
+
+    /**
+     * Zipf exponent of the entity type distribution.
+     */
+    @Param({ "0.0", "1.5" })
+    public double skew;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count the synthetic World.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkMain.configure();
+        SyntheticWorld world = new SyntheticWorld(chunks, density, skew, 1);
+        _count = new WorldCount();
+        _count.clear(chunks);
+        _count.countSnapshot(null, world.snapshot());
+        _sender = SyntheticWorld.silentSender();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard cached totals and selections.
+     */
+    @Setup(Level.Invocation)
+    public void reset() {
+        _count._totals = null;
+        _count._histogram = null;
+        _count._groupCount = 0;
+        _count._sortedGroups = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Total and report all entities by type.
+     */
+    @Benchmark
+    public void summarise() {
+        _count.summarise(_sender);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Select and sort the groups on the first page.
+     */
+    @Benchmark
+    public GroupTable selectGroups() {
+        _count.selectGroups(_sender, EntityControl.CONFIG.PAGE_SIZE);
+        return _count._sortedGroups;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Select all groups, as a full sort did before top-K selection.
+     */
+    @Benchmark
+    public GroupTable selectAllGroups() {
+        _count.selectGroups(_sender, Integer.MAX_VALUE);
+        return _count._sortedGroups;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * List the first page.
+     */
+    @Benchmark
+    public void listFirstPage() {
+        _count.list(_sender, 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * List a page well down the ranking.
+     */
+    @Benchmark
+    public void listPage50() {
+        _count.list(_sender, 50);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The counted World.
+     */
+    protected WorldCount _count;
+
+    /**
+     * Discards messages.
+     */
+    protected CommandSender _sender;
+} // class ListingBenchmark
@@ -0,0 +1,347 @@
+package io.totemo.ec;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.bukkit.Location;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.EntityType;
+
+// ----------------------------------------------------------------------------
+/**
+ * A synthetic World of loaded chunks populated with entities, for benchmarks.
+ *
+ * Its chunks and their entities are small concrete stand-ins, {@link StubChunk}
+ * and {@link StubEntity}, with only the methods that the counting code calls on
+ * a Chunk and an Entity. Since they are not Bukkit types, they are captured
+ * through the World-independent methods of {@link EntitySnapshot}, doing the
+ * same work as {@link EntitySnapshot#addChunk(org.bukkit.Chunk, Location)}
+ * without reflective dispatch in the measured code. Counts of this World have
+ * no Bukkit World.
+ *
+ * Entity types are drawn from a Zipf distribution over the living entity
+ * types, so that a skew of 0 gives uniformly mixed types and larger skews make
+ * a few types dominate, as in worlds with mob farms. Within a chunk, entities
+ * are clustered in a few boxes near the surface, with occasional dense
+ * clusters standing in for farms.
+ */
+public class SyntheticWorld {
+    /**
+     * The lowest block Y coordinate.
+     */
+    public static final int MIN_HEIGHT = -64;
+
+    /**
+     * One more than the highest block Y coordinate.
+     */
+    public static final int MAX_HEIGHT = 320;
+
+    // ------------------------------------------------------------------------
+    /**
+     * A stand-in for a loaded Chunk.
+     */
+    public static final class StubChunk {
+        /**
+         * Constructor.
+         *
+         * @param x the chunk X coordinate.
+         * @param z the chunk Z coordinate.
+         * @param entities the entities in the chunk.
+         */
+        public StubChunk(int x, int z, StubEntity[] entities) {
+            _x = x;
+            _z = z;
+            _entities = entities;
+        }
+
+        /**
+         * Return the chunk X coordinate.
+         *
+         * @return the chunk X coordinate.
+         */
+        public int getX() {
+            return _x;
+        }
+
+        /**
+         * Return the chunk Z coordinate.
+         *
+         * @return the chunk Z coordinate.
+         */
+        public int getZ() {
+            return _z;
+        }
+
+        /**
+         * Return the entities in the chunk.
+         *
+         * @return the entities in the chunk.
+         */
+        public StubEntity[] getEntities() {
+            return _entities;
+        }
+
+        /**
+         * The chunk X coordinate.
+         */
+        protected final int _x;
+
+        /**
+         * The chunk Z coordinate.
+         */
+        protected final int _z;
+
+        /**
+         * The entities in the chunk.
+         */
+        protected final StubEntity[] _entities;
+    } // class StubChunk
+
+    // ------------------------------------------------------------------------
+    /**
+     * A stand-in for an Entity.
+     */
+    public static final class StubEntity {
+        /**
+         * Constructor.
+         *
+         * @param type the entity type.
+         * @param x the X coordinate.
+         * @param y the Y coordinate.
+         * @param z the Z coordinate.
+         */
+        public StubEntity(EntityType type, double x, double y, double z) {
+            _type = type;
+            _x = x;
+            _y = y;
+            _z = z;
+        }
+
+        /**
+         * Return the entity type.
+         *
+         * @return the entity type.
+         */
+        public EntityType getType() {
+            return _type;
+        }
+
+        /**
+         * Copy the position of the entity into the specified Location.
+         *
+         * @param loc the Location to update.
+         * @return loc.
+         */
+        public Location getLocation(Location loc) {
+            loc.setX(_x);
+            loc.setY(_y);
+            loc.setZ(_z);
+            return loc;
+        }
+
+        /**
+         * The entity type.
+         */
+        protected final EntityType _type;
+
+        /**
+         * The X coordinate.
+         */
+        protected final double _x;
+
+        /**
+         * The Y coordinate.
+         */
+        protected final double _y;
+
+        /**
+         * The Z coordinate.
+         */
+        protected final double _z;
+    } // class StubEntity
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param chunkCount the number of loaded chunks.
+     * @param density the average number of entities per chunk.
+     * @param skew the Zipf exponent of the entity type distribution.
+     * @param seed the random number generator seed.
+     */
+    public SyntheticWorld(int chunkCount, int density, double skew, long seed) {
+        Random random = new Random(seed);
+        ArrayList<EntityType> types = new ArrayList<>();
+        for (EntityType type : EntityType.values()) {
+            if (type.isAlive() && type != EntityType.PLAYER) {
+                types.add(type);
+            }
+        }
+        double[] cumulative = new double[types.size()];
+        double sum = 0;
+        for (int i = 0; i < cumulative.length; ++i) {
+            sum += 1.0 / Math.pow(i + 1, skew);
+            cumulative[i] = sum;
+        }
+
+        int side = (int) Math.ceil(Math.sqrt(chunkCount));
+        _chunks = new StubChunk[chunkCount];
+        for (int c = 0; c < chunkCount; ++c) {
+            int chunkX = c % side - side / 2;
+            int chunkZ = c / side - side / 2;
+
+            // Exponentially distributed chunk populations with mean density,
+            // plus a dense "farm" in roughly 1% of chunks.
+            int entities = (int) (-density * Math.log(1 - random.nextDouble()));
+            if (random.nextInt(100) == 0) {
+                entities += 20 * density;
+            }
+
+            StubEntity[] chunkEntities = new StubEntity[entities];
+            int clusterY = 48 + random.nextInt(48);
+            EntityType farmType = types.get(pick(cumulative, random));
+            for (int e = 0; e < entities; ++e) {
+                EntityType type = (e < entities / 2 && entities > 2 * density) ? farmType
+                                                                               : types.get(pick(cumulative, random));
+                double x = (chunkX << 4) + 16 * random.nextDouble();
+                double y = clusterY + 24 * random.nextGaussian();
+                double z = (chunkZ << 4) + 16 * random.nextDouble();
+                chunkEntities[e] = new StubEntity(type, x, y, z);
+            }
+            _entityCount += entities;
+            _chunks[c] = new StubChunk(chunkX, chunkZ, chunkEntities);
+        }
+    } // constructor
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total number of entities.
+     *
+     * @return the total number of entities.
+     */
+    public int getEntityCount() {
+        return _entityCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new {@link EntitySnapshot} of all chunks.
+     *
+     * @return a new {@link EntitySnapshot} of all chunks.
+     */
+    public EntitySnapshot snapshot() {
+        EntitySnapshot snapshot = new EntitySnapshot(MIN_HEIGHT >> 4, (MAX_HEIGHT - 1) >> 4, _chunks.length, false);
+        Location loc = new Location(null, 0, 0, 0);
+        for (StubChunk chunk : _chunks) {
+            snapshot.beginChunk(Keys.chunk(chunk.getX(), chunk.getZ()));
+            for (StubEntity entity : chunk.getEntities()) {
+                entity.getLocation(loc);
+                snapshot.addEntity(entity.getType().ordinal(), loc.getX(), loc.getY(), loc.getZ());
+            }
+            snapshot.endChunk();
+        }
+        return snapshot;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a CommandSender that discards all messages.
+     *
+     * @return a CommandSender that discards all messages.
+     */
+    public static CommandSender silentSender() {
+        return proxy(CommandSender.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "getName":
+                return "benchmark";
+            case "hasPermission":
+                return true;
+            default:
+                return defaultValue(method);
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of a Zipf-distributed random choice.
+     */
+    protected static int pick(double[] cumulative, Random random) {
+        double r = random.nextDouble() * cumulative[cumulative.length - 1];
+        int lo = 0;
+        int hi = cumulative.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid] < r) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create a proxy implementing the specified interface, for objects such
+     * as the CommandSender that are not used in the counting code.
+     */
+    @SuppressWarnings("unchecked")
+    protected static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(SyntheticWorld.class.getClassLoader(), new Class<?>[] { type },
+            (proxy, method, args) -> {
+                if (method.getDeclaringClass() == Object.class) {
+                    switch (method.getName()) {
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return type.getSimpleName();
+                    }
+                }
+                return handler.invoke(proxy, method, args);
+            });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the default value for the return type of an unimplemented
+     * method.
+     */
+    protected static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == char.class) {
+            return '\0';
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == double.class) {
+            return 0d;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == short.class) {
+            return (short) 0;
+        }
+        return 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The loaded chunks.
+     */
+    protected StubChunk[] _chunks;
+
+    /**
+     * Total number of entities.
+     */
+    protected int _entityCount;
+} // class SyntheticWorld
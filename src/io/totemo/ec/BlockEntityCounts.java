@@ -0,0 +1,43 @@
+package io.totemo.ec;
+
+import org.bukkit.Material;
+
+// ----------------------------------------------------------------------------
+/**
+ * Stores counts of block entities (tile entities) such as hoppers and
+ * furnaces, by Material.
+ *
+ * The storage is that of {@link EntityCounts}, except that ordinals are
+ * Material.ordinal() values and the dense representation has one entry per
+ * Material. Since there are thousands of Materials, a dense array costs
+ * several kilobytes, so the counts stay sparse until one Material in eight is
+ * present. A box of a storage room with a dozen kinds of chest, sign and shulker
+ * box remains sparse; only the totals of a World with hundreds of kinds of
+ * block entity become dense.
+ */
+public class BlockEntityCounts extends EntityCounts {
+    // ------------------------------------------------------------------------
+    /**
+     * Cache the array of all Material enums to avoid unnecessary values()
+     * calls.
+     */
+    public static final Material[] MATERIALS = Material.values();
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see io.totemo.ec.EntityCounts#getTypeCount()
+     */
+    @Override
+    protected int getTypeCount() {
+        return MATERIALS.length;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * @see io.totemo.ec.EntityCounts#getDenseThreshold()
+     */
+    @Override
+    protected int getDenseThreshold() {
+        return Math.max(DENSE_THRESHOLD, MATERIALS.length / 8);
+    }
+} // class BlockEntityCounts
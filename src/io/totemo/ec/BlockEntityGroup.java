@@ -0,0 +1,76 @@
+package io.totemo.ec;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+
+// ----------------------------------------------------------------------------
+/**
+ * Represents a group of block entities of one Material in a 16x16x16 box,
+ * with a representative location used as a teleport target.
+ *
+ * This is the block entity counterpart of {@link EntityGroup}, sorted for
+ * use in /ec blocks.
+ */
+public final class BlockEntityGroup {
+    // ------------------------------------------------------------------------
+    /**
+     * Convenience constructor.
+     *
+     * @param material the Material of the blocks.
+     * @param count corresponding total number of block entities in the box.
+     * @param location the centre of one of the blocks, close to the average
+     *        location of the group.
+     */
+    public BlockEntityGroup(Material material, int count, Location location) {
+        _material = material;
+        _count = count;
+        _location = location;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Material of all blocks in this group.
+     *
+     * @return the Material of all blocks in this group.
+     */
+    public Material getMaterial() {
+        return _material;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of block entities in this group.
+     *
+     * @return the number of block entities in this group.
+     */
+    public int getCount() {
+        return _count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the centre of one block in this group that is close to the
+     * average location of all blocks in the group.
+     *
+     * @return the centre of one block in this group.
+     */
+    public Location getLocation() {
+        return _location;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The Material of the blocks.
+     */
+    protected Material _material;
+
+    /**
+     * Count of block entities.
+     */
+    protected int _count;
+
+    /**
+     * Representative location to use as a teleport target.
+     */
+    protected Location _location;
+} // class BlockEntityGroup
@@ -1,12 +1,10 @@
 package io.totemo.ec;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.World;
 import org.bukkit.entity.Entity;
-import org.bukkit.entity.EntityType;
 
 // ----------------------------------------------------------------------------
 /**
@@ -14,8 +12,37 @@ import org.bukkit.entity.EntityType;
  *
  * An instance of this class will not exist for a particular Location unless the
  * box contains at least one entity.
+ *
+ * Per-type coordinate sums and representative coordinates are stored as
+ * primitives in packed arrays that have one slot for each entity type that is
+ * actually present in the box, in the order first encountered. Since most
+ * boxes contain only one or two types of entity, the slot of a type is found
+ * by linear search.
+ *
+ * The same structure tallies block entities by Material, when constructed
+ * with {@link BlockEntityCounts}; the "type ordinals" are then
+ * Material.ordinal() values and the coordinates are those of block centres.
  */
 public class Box16Count {
+    // ------------------------------------------------------------------------
+    /**
+     * Construct a box that counts entities.
+     */
+    public Box16Count() {
+        this(new EntityCounts());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Construct a box that stores its counts in the specified object.
+     *
+     * @param counts the empty counts, which are {@link BlockEntityCounts} for
+     *        a box of block entities.
+     */
+    public Box16Count(EntityCounts counts) {
+        _counts = counts;
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Count the specified entity that is within this box.
@@ -26,38 +53,59 @@ public class Box16Count {
      * not guaranteed to be the entity location strictly closest to the average
      * as that would require that they are all considered *after* the average is
      * finalised.)
+     *
+     * @param entity the entity.
+     * @param loc the entity's location, which the caller may reuse
+     *        afterwards.
      */
-    public void countEntity(Entity entity) {
-        _counts.addEntity(entity);
+    public void countEntity(Entity entity, Location loc) {
+        countEntity(entity.getType().ordinal(), loc.getX(), loc.getY(), loc.getZ());
+    }
 
-        int typeOrdinal = entity.getType().ordinal();
-        Location entityLoc = entity.getLocation();
+    // ------------------------------------------------------------------------
+    /**
+     * Count an entity of the specified type at the specified position, which
+     * is within this box.
+     *
+     * @param typeOrdinal the EntityType.ordinal() value identifying the
+     *        EntityType.
+     * @param x the X coordinate of the entity.
+     * @param y the Y coordinate of the entity.
+     * @param z the Z coordinate of the entity.
+     * @see #countEntity(Entity, Location)
+     */
+    public void countEntity(int typeOrdinal, double x, double y, double z) {
+        _counts.add(typeOrdinal, 1);
 
-        if (_averageLocation[typeOrdinal] == null) {
+        int slot = findSlot(typeOrdinal);
+        if (slot < 0) {
             // First entity of this type.
-            _averageLocation[typeOrdinal] = entityLoc.clone();
-            _representativeLocation[typeOrdinal] = entityLoc;
+            slot = addSlot(typeOrdinal);
+            _sums[3 * slot] = x;
+            _sums[3 * slot + 1] = y;
+            _sums[3 * slot + 2] = z;
+            _representative[3 * slot] = x;
+            _representative[3 * slot + 1] = y;
+            _representative[3 * slot + 2] = z;
         } else {
-            try {
-                // At least one entity of this type has been counted before.
-                Location average = _averageLocation[typeOrdinal].multiply(_counts.getTotal(typeOrdinal) - 1);
-                average.add(entityLoc);
-                average.multiply(1.0 / _counts.getTotal(typeOrdinal));
-                _averageLocation[typeOrdinal] = average;
-
-                // Change the representative location to that of the new entity
-                // only if the new entity is closer to the new average that the
-                // old representative location (another entity location).
-                if (average.distanceSquared(entityLoc) < average.distanceSquared(_representativeLocation[typeOrdinal])) {
-                    _representativeLocation[typeOrdinal] = entityLoc;
-                }
-            } catch (Exception ex) {
-                World w1 = _averageLocation[typeOrdinal].getWorld();
-                World w2 = entityLoc.getWorld();
-                String w1Name = w1 != null ? w1.getName() : "null";
-                String w2Name = w2 != null ? w2.getName() : "null";
-                Bukkit.getServer().getLogger().info("Mixing worlds in countEntity():" +
-                                                    ex.getMessage() + ": " + w1Name + " vs " + w2Name);
+            // At least one entity of this type has been counted before.
+            double sumX = _sums[3 * slot] += x;
+            double sumY = _sums[3 * slot + 1] += y;
+            double sumZ = _sums[3 * slot + 2] += z;
+            double n = _counts.getTotal(typeOrdinal);
+            double averageX = sumX / n;
+            double averageY = sumY / n;
+            double averageZ = sumZ / n;
+
+            // Change the representative location to that of the new entity
+            // only if the new entity is closer to the new average that the
+            // old representative location (another entity location).
+            if (distanceSquared(averageX, averageY, averageZ, x, y, z) <
+                distanceSquared(averageX, averageY, averageZ,
+                                _representative[3 * slot], _representative[3 * slot + 1], _representative[3 * slot + 2])) {
+                _representative[3 * slot] = x;
+                _representative[3 * slot + 1] = y;
+                _representative[3 * slot + 2] = z;
             }
         }
     } // countEntity
@@ -75,36 +123,165 @@ public class Box16Count {
 
     // ------------------------------------------------------------------------
     /**
-     * Add all {@link EntityGroup}s corresponding to non-zero counts of specific
-     * entity types for this box to the parameter ArrayList<>.
+     * Return the number of entities of the specified type in this box.
+     *
+     * @param ordinal the EntityType.ordinal() value identifying the EntityType.
+     * @return the number of entities of that type.
+     */
+    public int getTotal(int ordinal) {
+        return _counts.getTotal(ordinal);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of distinct entity types in this box.
+     *
+     * @return the number of distinct entity types in this box.
+     */
+    public int getSlotCount() {
+        return _slotCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the EntityType.ordinal() value of the type in the specified slot.
+     *
+     * @param slot the slot index, from 0 to getSlotCount() - 1.
+     * @return the EntityType.ordinal() value of the type in the slot.
+     */
+    public int getSlotOrdinal(int slot) {
+        return _types[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of entities of the type in the specified slot.
+     *
+     * @param slot the slot index, from 0 to getSlotCount() - 1.
+     * @return the number of entities of the type in the slot.
+     */
+    public int getSlotTotal(int slot) {
+        return _counts.getTotal(_types[slot]);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new {@link EntityGroup} for the entities of the type in the
+     * specified slot.
+     *
+     * @param slot the slot index, from 0 to getSlotCount() - 1.
+     * @param world the World containing this box, for the group Location.
+     * @return a new {@link EntityGroup}.
+     */
+    public EntityGroup getSlotGroup(int slot, World world) {
+        int ordinal = _types[slot];
+        return new EntityGroup(EntityCounts.ENTITY_TYPES[ordinal], _counts.getTotal(ordinal),
+            new Location(world, _representative[3 * slot], _representative[3 * slot + 1], _representative[3 * slot + 2]));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a row for the entities of the type in the specified slot to a
+     * {@link GroupTable}.
+     *
+     * @param slot the slot index, from 0 to getSlotCount() - 1.
+     * @param table the table.
+     */
+    public void addSlotTo(int slot, GroupTable table) {
+        int ordinal = _types[slot];
+        table.add(ordinal, _counts.getTotal(ordinal),
+                  _representative[3 * slot], _representative[3 * slot + 1], _representative[3 * slot + 2]);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new {@link BlockEntityGroup} for the block entities of the
+     * Material in the specified slot of a box of block entities.
+     *
+     * @param slot the slot index, from 0 to getSlotCount() - 1.
+     * @param world the World containing this box, for the group Location.
+     * @return a new {@link BlockEntityGroup}.
+     */
+    public BlockEntityGroup getSlotBlockGroup(int slot, World world) {
+        int ordinal = _types[slot];
+        return new BlockEntityGroup(BlockEntityCounts.MATERIALS[ordinal], _counts.getTotal(ordinal),
+            new Location(world, _representative[3 * slot], _representative[3 * slot + 1], _representative[3 * slot + 2]));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the slot index of the specified entity type, or -1 if there is
+     * no entity of that type in this box.
      *
-     * @param groups ArrayList<> of EntityGroups to be added to.
+     * @param ordinal the EntityType.ordinal() value identifying the EntityType.
+     * @return the slot index, or -1.
      */
-    public void addEntityGroupsTo(ArrayList<EntityGroup> groups) {
-        for (EntityType type : EntityCounts.ENTITY_TYPES) {
-            int count = _counts.getTotal(type);
-            if (count != 0) {
-                groups.add(new EntityGroup(type, count, _representativeLocation[type.ordinal()]));
+    protected int findSlot(int ordinal) {
+        for (int slot = 0; slot < _slotCount; ++slot) {
+            if (_types[slot] == ordinal) {
+                return slot;
             }
         }
+        return -1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a slot for the specified entity type, growing the packed arrays if
+     * necessary.
+     *
+     * @param ordinal the EntityType.ordinal() value identifying the EntityType.
+     * @return the index of the new slot.
+     */
+    protected int addSlot(int ordinal) {
+        if (_slotCount == _types.length) {
+            int capacity = 2 * _types.length;
+            _types = Arrays.copyOf(_types, capacity);
+            _sums = Arrays.copyOf(_sums, 3 * capacity);
+            _representative = Arrays.copyOf(_representative, 3 * capacity);
+        }
+        _types[_slotCount] = (short) ordinal;
+        return _slotCount++;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the squared distance between two points.
+     */
+    protected static double distanceSquared(double x1, double y1, double z1, double x2, double y2, double z2) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        double dz = z1 - z2;
+        return dx * dx + dy * dy + dz * dz;
     }
 
     // ------------------------------------------------------------------------
     /**
      * Entity counts indexed by entity type.
      */
-    protected EntityCounts _counts = new EntityCounts();
+    protected final EntityCounts _counts;
+
+    /**
+     * Number of slots in use, equal to the number of distinct entity types in
+     * this box.
+     */
+    protected int _slotCount;
+
+    /**
+     * EntityType.ordinal() values of the types present, by slot.
+     */
+    protected short[] _types = new short[1];
 
     /**
-     * Median of the Locations of all entities in this 16x16x16 box, by entity
-     * type.
+     * Running sums of the X, Y and Z coordinates of all entities of each type,
+     * packed three per slot. Dividing by the count gives the average location.
      */
-    protected Location[] _averageLocation = new Location[EntityCounts.ENTITY_TYPES.length];
+    protected double[] _sums = new double[3];
 
     /**
-     * Location of the entity that is closest to the average entity location for
-     * its type.
+     * X, Y and Z coordinates of the entity that is closest to the average
+     * entity location for its type, packed three per slot.
      */
-    protected Location[] _representativeLocation = new Location[EntityCounts.ENTITY_TYPES.length];
+    protected double[] _representative = new double[3];
 
-} // class Box16Count
\ No newline at end of file
+} // class Box16Count
@@ -0,0 +1,215 @@
+package io.totemo.ec;
+
+import org.bukkit.Location;
+
+// ----------------------------------------------------------------------------
+/**
+ * A sparse spatial index of the populated 16x16x16 boxes of one World, for
+ * queries of the counts in a region or within a radius, such as /ec near.
+ *
+ * Boxes are stored in a {@link LongObjectMap} keyed by
+ * {@link Keys#box(int, int, int)}, which only holds the boxes that contain
+ * entities. A query of a region looks up each box position in the region's
+ * bounds, so its cost is proportional to the volume covered, not to the size
+ * of the World. A region covering more box positions than there are populated
+ * boxes is answered by visiting every populated box instead.
+ *
+ * As in {@link ChunkCount}, entities above or below the World's height range
+ * are counted in its highest or lowest box. The index is filled as chunks are
+ * added to a {@link WorldCount} and shares their {@link Box16Count}s.
+ */
+public class BoxIndex {
+    /**
+     * The radius of /ec near when none is specified.
+     */
+    public static final double DEFAULT_RADIUS = 64;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Receives the populated boxes matched by a query.
+     */
+    public interface BoxVisitor {
+        /**
+         * Visit a box.
+         *
+         * @param boxKey the box key.
+         * @param box the counts of the box.
+         */
+        void visit(long boxKey, Box16Count box);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param expectedBoxes the expected number of populated boxes.
+     */
+    public BoxIndex(int expectedBoxes) {
+        _boxes = new LongObjectMap<Box16Count>(expectedBoxes);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of populated boxes.
+     *
+     * @return the number of populated boxes.
+     */
+    public int size() {
+        return _boxes.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the box with the specified key, or null if it is not populated.
+     *
+     * @param boxKey the box key (see {@link Keys#box(int, int, int)}).
+     * @return the box, or null.
+     */
+    public Box16Count get(long boxKey) {
+        return _boxes.get(boxKey);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add the boxes of a chunk, replacing those of a previous count of the
+     * same chunk.
+     *
+     * @param chunkCount the chunk's counts.
+     */
+    public void add(ChunkCount chunkCount) {
+        long chunkKey = chunkCount.getChunkKey();
+        int chunkX = Keys.chunkX(chunkKey);
+        int chunkZ = Keys.chunkZ(chunkKey);
+        for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+            _boxes.put(Keys.box(chunkX, chunkCount.getBoxSection(i), chunkZ), chunkCount.getBox(i));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add a group of entities, such as one from the live census, to the box
+     * containing its location.
+     *
+     * @param group the group.
+     * @param minSection the lowest section of the World.
+     * @param maxSection the highest section of the World.
+     */
+    public void add(EntityGroup group, int minSection, int maxSection) {
+        Location loc = group.getLocation();
+        int section = Math.max(minSection, Math.min(maxSection, loc.getBlockY() >> 4));
+        long boxKey = Keys.box(loc.getBlockX() >> 4, section, loc.getBlockZ() >> 4);
+        Box16Count box = _boxes.get(boxKey);
+        if (box == null) {
+            box = new Box16Count();
+            _boxes.put(boxKey, box);
+        }
+        int ordinal = group.getEntityType().ordinal();
+        for (int i = 0; i < group.getCount(); ++i) {
+            box.countEntity(ordinal, loc.getX(), loc.getY(), loc.getZ());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Visit every populated box that overlaps the specified block bounds.
+     *
+     * @param minX the minimum block X coordinate.
+     * @param minY the minimum block Y coordinate.
+     * @param minZ the minimum block Z coordinate.
+     * @param maxX the maximum block X coordinate, inclusive.
+     * @param maxY the maximum block Y coordinate, inclusive.
+     * @param maxZ the maximum block Z coordinate, inclusive.
+     * @param visitor the visitor.
+     */
+    public void visit(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, BoxVisitor visitor) {
+        int minChunkX = minX >> 4;
+        int minChunkZ = minZ >> 4;
+        int maxChunkX = maxX >> 4;
+        int maxChunkZ = maxZ >> 4;
+        // Box keys hold the section in a signed byte.
+        int minSection = Math.max(Byte.MIN_VALUE, minY >> 4);
+        int maxSection = Math.min(Byte.MAX_VALUE, maxY >> 4);
+        if (minChunkX > maxChunkX || minChunkZ > maxChunkZ || minSection > maxSection) {
+            return;
+        }
+
+        long cells = (long) (maxChunkX - minChunkX + 1) * (maxSection - minSection + 1) * (maxChunkZ - minChunkZ + 1);
+        if (cells <= _boxes.size()) {
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; ++chunkX) {
+                for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; ++chunkZ) {
+                    for (int section = minSection; section <= maxSection; ++section) {
+                        long boxKey = Keys.box(chunkX, section, chunkZ);
+                        Box16Count box = _boxes.get(boxKey);
+                        if (box != null) {
+                            visitor.visit(boxKey, box);
+                        }
+                    }
+                }
+            }
+        } else {
+            for (int i = 0; i < _boxes.capacity(); ++i) {
+                Box16Count box = _boxes.valueAt(i);
+                if (box != null) {
+                    long boxKey = _boxes.keyAt(i);
+                    int chunkX = Keys.boxX(boxKey);
+                    int section = Keys.boxY(boxKey);
+                    int chunkZ = Keys.boxZ(boxKey);
+                    if (chunkX >= minChunkX && chunkX <= maxChunkX &&
+                        chunkZ >= minChunkZ && chunkZ <= maxChunkZ &&
+                        section >= minSection && section <= maxSection) {
+                        visitor.visit(boxKey, box);
+                    }
+                }
+            }
+        }
+    } // visit
+
+    // ------------------------------------------------------------------------
+    /**
+     * Visit every populated box that overlaps a sphere.
+     *
+     * @param x the X coordinate of the centre.
+     * @param y the Y coordinate of the centre.
+     * @param z the Z coordinate of the centre.
+     * @param radius the radius.
+     * @param visitor the visitor.
+     */
+    public void visit(double x, double y, double z, double radius, BoxVisitor visitor) {
+        double radiusSquared = radius * radius;
+        visit(Location.locToBlock(x - radius), Location.locToBlock(y - radius), Location.locToBlock(z - radius),
+              Location.locToBlock(x + radius), Location.locToBlock(y + radius), Location.locToBlock(z + radius),
+              (boxKey, box) -> {
+                  double dx = axisDistance(x, Keys.boxX(boxKey) << 4);
+                  double dy = axisDistance(y, Keys.boxY(boxKey) << 4);
+                  double dz = axisDistance(z, Keys.boxZ(boxKey) << 4);
+                  if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+                      visitor.visit(boxKey, box);
+                  }
+              });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the distance along one axis from a coordinate to the nearest
+     * point of a box.
+     *
+     * @param coord the coordinate.
+     * @param min the minimum coordinate of the box along the axis.
+     * @return the distance, or 0 if the coordinate is within the box.
+     */
+    protected static double axisDistance(double coord, int min) {
+        if (coord < min) {
+            return min - coord;
+        } else if (coord > min + 16) {
+            return coord - (min + 16);
+        } else {
+            return 0;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Map from box key to the counts of the box.
+     */
+    protected final LongObjectMap<Box16Count> _boxes;
+} // class BoxIndex
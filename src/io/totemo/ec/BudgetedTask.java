@@ -0,0 +1,21 @@
+package io.totemo.ec;
+
+// ----------------------------------------------------------------------------
+/**
+ * A task that does its work in steps on the server thread, each step lasting
+ * until a deadline set by the {@link CountScheduler}, so that all such tasks
+ * share one per-tick time budget.
+ */
+public interface BudgetedTask {
+    // ------------------------------------------------------------------------
+    /**
+     * Do work until the deadline passes or the task is complete.
+     *
+     * Implementations should always do at least one unit of work, to
+     * guarantee progress.
+     *
+     * @param deadline the System.nanoTime() value at which to stop.
+     * @return true if the task is complete and should no longer be stepped.
+     */
+    boolean step(long deadline);
+} // interface BudgetedTask
@@ -0,0 +1,504 @@
+package io.totemo.ec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * Records the totals of every published {@link WorldCount} on disk, so that
+ * entity numbers can be compared over time with /ec history.
+ *
+ * Each World's history is kept in the directory history/&lt;world&gt;/ in the
+ * plugin's data folder, as a series of {@link HistorySegment} files named
+ * after the time of their first record. Each record holds the per-type totals
+ * of the World and the per-chunk totals, delta-encoded against the previous
+ * record. The first record of each segment, and the first written by each
+ * server session, is a key frame, so that every segment can be decoded on its
+ * own. When a segment exceeds the configured size, a new one is started and
+ * the oldest segments beyond the configured number are deleted.
+ *
+ * The server thread only extracts the chunk totals from each count. Encoding,
+ * writing and reading segments are done on a single background thread, which
+ * forces written data to disk periodically rather than after every record.
+ */
+public class CensusHistory {
+    /**
+     * Name of the directory of the plugin's data folder containing histories.
+     */
+    public static final String DIRECTORY = "history";
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param plugin the owning plugin.
+     */
+    public CensusHistory(EntityControl plugin) {
+        _plugin = plugin;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Enable or disable recording.
+     *
+     * Any open segments are synced and closed, waiting for pending writes to
+     * finish. If enabled, recording restarts with the current configuration,
+     * beginning with a key frame in each World.
+     *
+     * @param enabled true to enable recording.
+     */
+    public void setEnabled(boolean enabled) {
+        if (isEnabled()) {
+            _executor.execute(this::closeAll);
+            _executor.shutdown();
+            try {
+                if (!_executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                    _plugin.getLogger().warning("Timed out waiting for census history to be written.");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            _executor = null;
+        }
+
+        if (enabled) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "EntityControl-History");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            long syncSeconds = Math.max(1, EntityControl.CONFIG.HISTORY_SYNC_SECONDS);
+            executor.scheduleWithFixedDelay(this::syncAll, syncSeconds, syncSeconds, TimeUnit.SECONDS);
+            _executor = executor;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if recording is enabled.
+     *
+     * @return true if recording is enabled.
+     */
+    public boolean isEnabled() {
+        return _executor != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the totals of a newly published count of a World.
+     *
+     * Must be called on the server thread. The per-chunk totals are extracted
+     * immediately; the record is encoded and written in the background.
+     *
+     * @param world the counted World.
+     * @param count the published counts.
+     */
+    public void record(World world, WorldCount count) {
+        if (!isEnabled() || !count.hasCounts()) {
+            return;
+        }
+
+        long millis = System.currentTimeMillis();
+        LongObjectMap<int[]> chunkTotals = getChunkTotals(count);
+        long[] keys = new long[chunkTotals.size()];
+        int size = 0;
+        for (int i = 0; i < chunkTotals.capacity(); ++i) {
+            if (chunkTotals.valueAt(i) != null) {
+                keys[size++] = chunkTotals.keyAt(i);
+            }
+        }
+        Arrays.sort(keys);
+        int[] totals = new int[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            totals[i] = chunkTotals.get(keys[i])[0];
+        }
+
+        EntityCounts worldTotals = count.getTotals();
+        int[] typeTotals = new int[EntityCounts.ENTITY_TYPES.length];
+        for (int slot = 0; slot < worldTotals.getSlotCount(); ++slot) {
+            typeTotals[worldTotals.getSlotOrdinal(slot)] += worldTotals.getSlotTotal(slot);
+        }
+
+        String worldName = world.getName();
+        _executor.execute(() -> write(worldName, millis, typeTotals, keys, totals));
+    } // record
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the history of a World in the background and pass it to a
+     * callback on the server thread.
+     *
+     * @param worldName the name of the World.
+     * @param typeName the name of the entity type whose totals are read, or
+     *        null to read the total of all types.
+     * @param sinceMillis the earliest time of interest.
+     * @param callback called with the recorded {time, total} pairs in
+     *        ascending order of time, or null if the history could not be
+     *        read.
+     */
+    public void query(String worldName, String typeName, long sinceMillis, Consumer<List<long[]>> callback) {
+        _executor.execute(() -> {
+            List<long[]> points = new ArrayList<long[]>();
+            try {
+                File[] files = listSegments(worldName);
+                for (int i = 0; i < files.length; ++i) {
+                    // Skip segments that end before the time of interest.
+                    if (i + 1 < files.length && getStartMillis(files[i + 1]) < sinceMillis) {
+                        continue;
+                    }
+                    HistorySegment.readTotals(files[i], typeName, sinceMillis, points);
+                }
+            } catch (IOException ex) {
+                _plugin.getLogger().log(Level.WARNING, "Could not read the census history of " + worldName + ".", ex);
+                points = null;
+            }
+            List<long[]> result = points;
+            if (_plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(_plugin, () -> callback.accept(result));
+            }
+        });
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total number of entities in each chunk of a count.
+     *
+     * Counts from the live census have no chunk counts, so their groups are
+     * totalled by chunk instead.
+     *
+     * @param count the counts.
+     * @return a map from chunk key to a single element array holding the
+     *         total.
+     */
+    protected static LongObjectMap<int[]> getChunkTotals(WorldCount count) {
+        LongObjectMap<int[]> chunkTotals = new LongObjectMap<int[]>(count._chunkCounts.size());
+        for (ChunkCount chunkCount : count._chunkCounts) {
+            int total = 0;
+            for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+                Box16Count box = chunkCount.getBox(i);
+                for (int slot = 0; slot < box.getSlotCount(); ++slot) {
+                    total += box.getSlotTotal(slot);
+                }
+            }
+            if (total != 0) {
+                chunkTotals.put(chunkCount.getChunkKey(), new int[] { total });
+            }
+        }
+
+        if (count._chunkCounts.isEmpty() && count._groups != null) {
+            for (EntityGroup group : count._groups) {
+                Location loc = group.getLocation();
+                long chunkKey = Keys.chunk(loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+                int[] total = chunkTotals.get(chunkKey);
+                if (total == null) {
+                    chunkTotals.put(chunkKey, new int[] { group.getCount() });
+                } else {
+                    total[0] += group.getCount();
+                }
+            }
+        }
+        return chunkTotals;
+    } // getChunkTotals
+
+    // ------------------------------------------------------------------------
+    /**
+     * Encode and append a record to the current segment of a World, rolling
+     * over to a new segment when the current one is full.
+     *
+     * Runs on the background thread.
+     *
+     * @param worldName the name of the World.
+     * @param millis the time of the count.
+     * @param typeTotals the total of each entity type, indexed by ordinal.
+     * @param keys the keys of the populated chunks, in ascending order.
+     * @param totals the total of each chunk in keys.
+     */
+    protected void write(String worldName, long millis, int[] typeTotals, long[] keys, int[] totals) {
+        Series series = _series.get(worldName);
+        if (series == null) {
+            series = new Series();
+            _series.put(worldName, series);
+        }
+
+        try {
+            if (series.segment == null) {
+                series.segment = openSegment(worldName, millis);
+                series.keys = null;
+                series.totals = null;
+            }
+
+            boolean keyFrame = (series.keys == null);
+            long[] previousKeys = keyFrame ? NO_KEYS : series.keys;
+            int[] previousTotals = keyFrame ? NO_TOTALS : series.totals;
+            byte[] payload = new byte[19 + 20 * typeTotals.length + 20 * (keys.length + previousKeys.length)];
+            ByteBuffer.wrap(payload).putLong(millis).put((byte) (keyFrame ? HistorySegment.KEY_FRAME : 0));
+
+            int typeCount = 0;
+            for (int total : typeTotals) {
+                if (total != 0) {
+                    ++typeCount;
+                }
+            }
+            int offset = HistorySegment.writeVarLong(payload, 9, typeCount);
+            for (int ordinal = 0; ordinal < typeTotals.length; ++ordinal) {
+                if (typeTotals[ordinal] != 0) {
+                    offset = HistorySegment.writeVarLong(payload, offset, ordinal);
+                    offset = HistorySegment.writeVarLong(payload, offset, typeTotals[ordinal]);
+                }
+            }
+
+            // Merge the sorted chunk keys of this and the previous record,
+            // reserving room for the count of changes.
+            int countOffset = offset;
+            offset += 10;
+            int changes = 0;
+            long lastKey = 0;
+            int i = 0;
+            int j = 0;
+            while (i < keys.length || j < previousKeys.length) {
+                long key;
+                int delta;
+                if (j >= previousKeys.length || (i < keys.length && keys[i] < previousKeys[j])) {
+                    key = keys[i];
+                    delta = totals[i++];
+                } else if (i >= keys.length || previousKeys[j] < keys[i]) {
+                    key = previousKeys[j];
+                    delta = -previousTotals[j++];
+                } else {
+                    key = keys[i];
+                    delta = totals[i++] - previousTotals[j++];
+                }
+                if (delta != 0) {
+                    offset = HistorySegment.writeVarLong(payload, offset, HistorySegment.zigZag(key - lastKey));
+                    offset = HistorySegment.writeVarLong(payload, offset, HistorySegment.zigZag(delta));
+                    lastKey = key;
+                    ++changes;
+                }
+            }
+            int countEnd = HistorySegment.writeVarLong(payload, countOffset, changes);
+            System.arraycopy(payload, countOffset + 10, payload, countEnd, offset - countOffset - 10);
+            offset -= countOffset + 10 - countEnd;
+
+            series.segment.append(payload, offset);
+            series.keys = keys;
+            series.totals = totals;
+
+            if (series.segment.size() >= 1024L * EntityControl.CONFIG.HISTORY_SEGMENT_KB) {
+                series.segment.close();
+                series.segment = null;
+            }
+        } catch (IOException ex) {
+            _plugin.getLogger().log(Level.WARNING, "Could not write the census history of " + worldName + ".", ex);
+            closeSegment(series);
+        }
+    } // write
+
+    // ------------------------------------------------------------------------
+    /**
+     * Open the most recent segment of a World for appending, if it is not
+     * full and has the same entity types as the server, or else start a new
+     * segment and delete the oldest segments beyond the configured number.
+     *
+     * @param worldName the name of the World.
+     * @param millis the time of the first record to be written.
+     * @return the segment.
+     * @throws IOException if the segment cannot be opened.
+     */
+    protected HistorySegment openSegment(String worldName, long millis) throws IOException {
+        File[] files = listSegments(worldName);
+        if (files.length != 0) {
+            File latest = files[files.length - 1];
+            if (latest.length() < 1024L * EntityControl.CONFIG.HISTORY_SEGMENT_KB
+                && HistorySegment.isAppendable(latest)) {
+                return new HistorySegment(latest);
+            }
+        }
+
+        File directory = getDirectory(worldName);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        HistorySegment segment = new HistorySegment(new File(directory, millis + HistorySegment.SUFFIX));
+        pruneSegments(worldName);
+        return segment;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Delete the oldest segments of a World beyond the configured number.
+     *
+     * @param worldName the name of the World.
+     */
+    protected void pruneSegments(String worldName) {
+        File[] files = listSegments(worldName);
+        int excess = files.length - Math.max(1, EntityControl.CONFIG.HISTORY_SEGMENTS);
+        for (int i = 0; i < excess; ++i) {
+            if (!files[i].delete()) {
+                _plugin.getLogger().warning("Could not delete " + files[i] + ".");
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the directory containing the segments of a World.
+     *
+     * @param worldName the name of the World.
+     * @return the directory.
+     */
+    protected File getDirectory(String worldName) {
+        return new File(new File(_plugin.getDataFolder(), DIRECTORY), worldName);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the segment files of a World, oldest first.
+     *
+     * @param worldName the name of the World.
+     * @return the segment files.
+     */
+    protected File[] listSegments(String worldName) {
+        File[] files = getDirectory(worldName).listFiles((dir, name) -> name.endsWith(HistorySegment.SUFFIX)
+                                                                        && getStartMillis(new File(dir, name)) >= 0);
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, (left, right) -> Long.compare(getStartMillis(left), getStartMillis(right)));
+        return files;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the time of the first record of a segment, from its name.
+     *
+     * @param file the segment file.
+     * @return the time in milliseconds since the epoch, or -1 if the name is
+     *         not a time.
+     */
+    protected static long getStartMillis(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - HistorySegment.SUFFIX.length()));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Force the data written to every open segment to disk.
+     *
+     * Runs periodically on the background thread.
+     */
+    protected void syncAll() {
+        for (Series series : _series.values()) {
+            if (series.segment != null) {
+                try {
+                    series.segment.sync();
+                } catch (IOException ex) {
+                    _plugin.getLogger().log(Level.WARNING, "Could not sync " + series.segment.getFile() + ".", ex);
+                    closeSegment(series);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Sync and close every open segment.
+     *
+     * Runs on the background thread when recording is disabled.
+     */
+    protected void closeAll() {
+        for (Series series : _series.values()) {
+            closeSegment(series);
+        }
+        _series.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Sync and close the segment of a series, if open, so that the next
+     * record starts with a key frame.
+     *
+     * @param series the series.
+     */
+    protected void closeSegment(Series series) {
+        if (series.segment != null) {
+            try {
+                series.segment.close();
+            } catch (IOException ex) {
+                _plugin.getLogger().log(Level.WARNING, "Could not close " + series.segment.getFile() + ".", ex);
+            }
+            series.segment = null;
+        }
+        series.keys = null;
+        series.totals = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The state of the history of one World, used only on the background
+     * thread.
+     */
+    protected static final class Series {
+        /**
+         * The segment being appended to, or null if none is open.
+         */
+        HistorySegment segment;
+
+        /**
+         * Chunk keys of the previous record, or null if the next record is a
+         * key frame.
+         */
+        long[] keys;
+
+        /**
+         * Chunk totals of the previous record, corresponding to keys.
+         */
+        int[] totals;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Chunk keys of an empty World.
+     */
+    protected static final long[] NO_KEYS = new long[0];
+
+    /**
+     * Chunk totals of an empty World.
+     */
+    protected static final int[] NO_TOTALS = new int[0];
+
+    /**
+     * The owning plugin.
+     */
+    protected final EntityControl _plugin;
+
+    /**
+     * Map from world name to the state of its history, used only on the
+     * background thread.
+     */
+    protected final HashMap<String, Series> _series = new HashMap<String, Series>();
+
+    /**
+     * Background thread that writes and reads segments, or null if recording
+     * is disabled.
+     */
+    protected ScheduledExecutorService _executor;
+} // class CensusHistory
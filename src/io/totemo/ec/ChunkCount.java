@@ -1,12 +1,30 @@
 package io.totemo.ec;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Entity;
 
 // ----------------------------------------------------------------------------
 /**
  * Stores the entity counts for one Chunk.
+ *
+ * The chunk is divided vertically into 16x16x16 boxes, one per chunk section,
+ * from the World's minimum height to its maximum height. Entities outside that
+ * range are counted in the lowest or highest box.
+ *
+ * Only populated boxes are stored, in a packed array in ascending order of
+ * section, alongside a parallel array of their section indices relative to the
+ * lowest section of the World. Since most chunks contain entities in only a
+ * few sections, this is much smaller than an array with an entry for every
+ * section, and aggregation visits only the populated boxes.
+ *
+ * Block entities captured in an {@link EntitySnapshot} are tallied by
+ * Material into a second, separate set of boxes stored in the same way.
  */
 public class ChunkCount {
     // ------------------------------------------------------------------------
@@ -17,52 +35,391 @@ public class ChunkCount {
      * @param chunk the Chunk to count.
      */
     public ChunkCount(Chunk chunk) {
-        for (Entity entity : chunk.getEntities()) {
-            Location loc = entity.getLocation();
-            int boxIndex = loc.getBlockY() / 16;
-            if (boxIndex < 0) {
-                boxIndex = 0;
-            } else if (boxIndex > 15) {
-                boxIndex = 15;
+        this(chunk, chunk.getEntities(), new Location(null, 0, 0, 0));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Construct a ChunkCount and populate it with entity counts for entities
+     * already read from the specified Chunk.
+     *
+     * @param chunk the Chunk to count.
+     * @param entities the entities in the Chunk.
+     * @param loc a Location to reuse when reading entity locations.
+     */
+    public ChunkCount(Chunk chunk, Entity[] entities, Location loc) {
+        _world = chunk.getWorld();
+        _chunkKey = Keys.chunk(chunk.getX(), chunk.getZ());
+        _countedMillis = System.currentTimeMillis();
+        _minSection = _world.getMinHeight() >> 4;
+        int maxSection = (_world.getMaxHeight() - 1) >> 4;
+        ArrayList<NamedEntity> named = null;
+        for (Entity entity : entities) {
+            entity.getLocation(loc);
+            int section = Math.max(_minSection, Math.min(maxSection, loc.getBlockY() >> 4));
+            getOrCreateBox(section).countEntity(entity, loc);
+
+            NamedEntity namedEntity = NamedEntity.of(entity, loc);
+            if (namedEntity != null) {
+                if (named == null) {
+                    named = new ArrayList<NamedEntity>();
+                }
+                named.add(namedEntity);
             }
-            getBox(boxIndex).countEntity(entity);
         }
+        if (named != null) {
+            _named = named.toArray(new NamedEntity[named.size()]);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Construct a ChunkCount and populate it with entity counts for one chunk
+     * of an {@link EntitySnapshot}.
+     *
+     * This constructor does not access the chunk and can be called from any
+     * thread.
+     *
+     * @param world the World containing the chunk.
+     * @param snapshot the snapshot.
+     * @param chunk the index of the chunk in the snapshot.
+     */
+    public ChunkCount(World world, EntitySnapshot snapshot, int chunk) {
+        _world = world;
+        _chunkKey = snapshot.getChunkKey(chunk);
+        _countedMillis = snapshot.getCaptureMillis();
+        _minSection = snapshot.getMinSection();
+        int maxSection = snapshot.getMaxSection();
+        for (int i = snapshot.getChunkStart(chunk); i < snapshot.getChunkEnd(chunk); ++i) {
+            double y = snapshot.getY(i);
+            int section = Math.max(_minSection, Math.min(maxSection, Location.locToBlock(y) >> 4));
+            getOrCreateBox(section).countEntity(snapshot.getOrdinal(i), snapshot.getX(i), y, snapshot.getZ(i));
+        }
+        for (int i = snapshot.getBlockStart(chunk); i < snapshot.getBlockEnd(chunk); ++i) {
+            int y = snapshot.getBlockY(i);
+            int section = Math.max(_minSection, Math.min(maxSection, y >> 4));
+            getOrCreateBlockBox(section).countEntity(snapshot.getBlockOrdinal(i), snapshot.getBlockX(i) + 0.5,
+                                                     y + 0.5, snapshot.getBlockZ(i) + 0.5);
+        }
+        List<NamedEntity> named = snapshot.getNamedEntities(chunk);
+        if (!named.isEmpty()) {
+            _named = named.toArray(new NamedEntity[named.size()]);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the World containing the chunk.
+     *
+     * @return the World containing the chunk.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key of the chunk (see {@link Keys#chunk(int, int)}).
+     *
+     * @return the key of the chunk.
+     */
+    public long getChunkKey() {
+        return _chunkKey;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the time when the chunk's entities were read, in milliseconds
+     * since the epoch.
+     *
+     * @return the time when the chunk's entities were read.
+     */
+    public long getCountedMillis() {
+        return _countedMillis;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if entities have been added to, removed from or moved within
+     * the chunk since it was counted.
+     *
+     * @return true if the counts may be out of date.
+     */
+    public boolean isDirty() {
+        return _dirty;
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Return true if the box with the specified index exists.
+     * Record that entities have been added to, removed from or moved within
+     * the chunk since it was counted.
      *
-     * @param index the index in the range [0,15], corresponding to Y
-     *        coordinates in the range [index*16, index*16+15].
-     * @return true if the box with the specified index exists.
+     * This must only be called on the server thread.
      */
-    public boolean hasBox(int index) {
-        return _boxes[index] != null;
+    public void markDirty() {
+        _dirty = true;
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Return the box with the specified index.
+     * Return the named entities and tamed mobs in this chunk.
      *
-     * The {@link Box16Count} instance is created on demand.
+     * @return the named entities and tamed mobs in this chunk.
+     */
+    public List<NamedEntity> getNamedEntities() {
+        return Arrays.asList(_named);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of populated boxes in this chunk.
      *
-     * @param index the index in the range [0,15], corresponding to Y
-     *        coordinates in the range [index*16, index*16+15].
+     * @return the number of populated boxes in this chunk.
+     */
+    public int getBoxCount() {
+        return _boxCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the populated box with the specified index.
      *
+     * @param index the index, from 0 to getBoxCount() - 1, in ascending order
+     *        of Y coordinate.
+     * @return the box.
      */
     public Box16Count getBox(int index) {
-        Box16Count box = _boxes[index];
-        if (box == null) {
-            box = _boxes[index] = new Box16Count();
+        return _boxes[index];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the section (block Y >> 4) of the populated box with the
+     * specified index.
+     *
+     * @param index the index, from 0 to getBoxCount() - 1, in ascending order
+     *        of Y coordinate.
+     * @return the section, such that the box contains Y coordinates in the
+     *         range [section*16, section*16+15].
+     */
+    public int getBoxSection(int index) {
+        return _minSection + (_sections[index] & 0xFF);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the box for the specified section exists.
+     *
+     * @param section the section (block Y >> 4).
+     * @return true if the box for the specified section exists.
+     */
+    public boolean hasBox(int section) {
+        return findBox(section) >= 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the box for the specified section, creating it on demand.
+     *
+     * @param section the section (block Y >> 4), which must be within the
+     *        World's height limits.
+     * @return the box.
+     */
+    public Box16Count getOrCreateBox(int section) {
+        int index = findBox(section);
+        if (index >= 0) {
+            return _boxes[index];
+        }
+
+        index = -(index + 1);
+        if (_boxCount == _boxes.length) {
+            _sections = Arrays.copyOf(_sections, 2 * _boxCount);
+            _boxes = Arrays.copyOf(_boxes, 2 * _boxCount);
+        }
+        System.arraycopy(_sections, index, _sections, index + 1, _boxCount - index);
+        System.arraycopy(_boxes, index, _boxes, index + 1, _boxCount - index);
+        _sections[index] = (byte) (section - _minSection);
+        Box16Count box = _boxes[index] = new Box16Count();
+        ++_boxCount;
+        return box;
+    } // getOrCreateBox
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of boxes containing block entities in this chunk.
+     *
+     * @return the number of boxes containing block entities.
+     */
+    public int getBlockBoxCount() {
+        return _blockBoxCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the box of block entities with the specified index.
+     *
+     * @param index the index, from 0 to getBlockBoxCount() - 1, in ascending
+     *        order of Y coordinate.
+     * @return the box, whose counts are {@link BlockEntityCounts}.
+     */
+    public Box16Count getBlockBox(int index) {
+        return _blockBoxes[index];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the section (block Y >> 4) of the box of block entities with the
+     * specified index.
+     *
+     * @param index the index, from 0 to getBlockBoxCount() - 1, in ascending
+     *        order of Y coordinate.
+     * @return the section.
+     */
+    public int getBlockBoxSection(int index) {
+        return _minSection + (_blockSections[index] & 0xFF);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the box of block entities for the specified section, creating it
+     * on demand.
+     *
+     * @param section the section (block Y >> 4), which must be within the
+     *        World's height limits.
+     * @return the box.
+     */
+    public Box16Count getOrCreateBlockBox(int section) {
+        int index = findBox(_blockSections, _blockBoxCount, section);
+        if (index >= 0) {
+            return _blockBoxes[index];
+        }
+
+        index = -(index + 1);
+        if (_blockBoxCount == _blockBoxes.length) {
+            _blockSections = Arrays.copyOf(_blockSections, Math.max(1, 2 * _blockBoxCount));
+            _blockBoxes = Arrays.copyOf(_blockBoxes, Math.max(1, 2 * _blockBoxCount));
         }
+        System.arraycopy(_blockSections, index, _blockSections, index + 1, _blockBoxCount - index);
+        System.arraycopy(_blockBoxes, index, _blockBoxes, index + 1, _blockBoxCount - index);
+        _blockSections[index] = (byte) (section - _minSection);
+        Box16Count box = _blockBoxes[index] = new Box16Count(new BlockEntityCounts());
+        ++_blockBoxCount;
         return box;
+    } // getOrCreateBlockBox
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the box for the specified section, or
+     * -(insertion point + 1) if there is no such box.
+     *
+     * @param section the section (block Y >> 4).
+     * @return the index of the box, or a negative value if not present.
+     */
+    protected int findBox(int section) {
+        return findBox(_sections, _boxCount, section);
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Counts for the 16 boxes in this chunk, listed from lowest altitude (Y in
-     * [0,15]) to highest (Y in [240,255]).
+     * Return the index of the box for the specified section in packed arrays
+     * of boxes, or -(insertion point + 1) if there is no such box.
+     *
+     * @param sections the sections of the boxes relative to _minSection.
+     * @param boxCount the number of boxes.
+     * @param section the section (block Y >> 4).
+     * @return the index of the box, or a negative value if not present.
+     */
+    protected int findBox(byte[] sections, int boxCount, int section) {
+        int relative = section - _minSection;
+        int index = 0;
+        while (index < boxCount) {
+            int current = sections[index] & 0xFF;
+            if (current == relative) {
+                return index;
+            } else if (current > relative) {
+                break;
+            }
+            ++index;
+        }
+        return -(index + 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The World containing the chunk.
+     */
+    protected World _world;
+
+    /**
+     * The key of the chunk.
+     */
+    protected long _chunkKey;
+
+    /**
+     * The time when the chunk's entities were read.
+     */
+    protected long _countedMillis;
+
+    /**
+     * True if the counts may be out of date; only accessed on the server
+     * thread.
+     */
+    protected boolean _dirty;
+
+    /**
+     * The lowest section (block Y >> 4) in the World.
+     */
+    protected int _minSection;
+
+    /**
+     * Number of populated boxes.
+     */
+    protected int _boxCount;
+
+    /**
+     * Sections of the populated boxes relative to _minSection, as unsigned
+     * bytes, in ascending order.
+     */
+    protected byte[] _sections = new byte[1];
+
+    /**
+     * Populated boxes, parallel to _sections.
+     */
+    protected Box16Count[] _boxes = new Box16Count[1];
+
+    /**
+     * Number of boxes containing block entities.
+     */
+    protected int _blockBoxCount;
+
+    /**
+     * Sections of the boxes of block entities relative to _minSection, as
+     * unsigned bytes, in ascending order; empty until the first is added.
+     */
+    protected byte[] _blockSections = NO_SECTIONS;
+
+    /**
+     * Boxes of block entities, parallel to _blockSections.
+     */
+    protected Box16Count[] _blockBoxes = NO_BOXES;
+
+    /**
+     * Named entities and tamed mobs in this chunk.
+     */
+    protected NamedEntity[] _named = NO_NAMED_ENTITIES;
+
+    /**
+     * Shared empty array of named entities.
+     */
+    protected static final NamedEntity[] NO_NAMED_ENTITIES = new NamedEntity[0];
+
+    /**
+     * Shared empty array of sections.
+     */
+    protected static final byte[] NO_SECTIONS = new byte[0];
+
+    /**
+     * Shared empty array of boxes.
      */
-    protected Box16Count[] _boxes = new Box16Count[16];
-} // class ChunkCount
\ No newline at end of file
+    protected static final Box16Count[] NO_BOXES = new Box16Count[0];
+} // class ChunkCount
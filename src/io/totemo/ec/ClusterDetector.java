@@ -0,0 +1,334 @@
+package io.totemo.ec;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * Joins the per-box groups of a {@link WorldCount} into {@link EntityCluster}s
+ * of face-adjacent boxes containing the same entity type.
+ *
+ * Each (box, type) pair with a non-zero count is an entry in parallel arrays,
+ * found by an open-addressing hash table keyed on the packed box key and type.
+ * Every entry is joined by union-find with its neighbours in the +X, +Y and
+ * +Z directions (which covers every adjacent pair once), then the entries are
+ * totalled by their root. Building, joining and totalling take time linear in
+ * the number of entries; only the resulting clusters are sorted.
+ */
+public class ClusterDetector {
+    // ------------------------------------------------------------------------
+    /**
+     * Find the clusters of a count.
+     *
+     * @param count the counts.
+     * @return the clusters in descending order of count; clusters with equal
+     *         counts are in the order that their first box was visited.
+     */
+    public static EntityCluster[] detect(WorldCount count) {
+        World world = null;
+        int entries = 0;
+        for (ChunkCount chunkCount : count._chunkCounts) {
+            world = chunkCount.getWorld();
+            for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+                entries += chunkCount.getBox(i).getSlotCount();
+            }
+        }
+        boolean groups = count._chunkCounts.isEmpty() && count._groups != null;
+        if (groups) {
+            entries = count._groups.size();
+        }
+
+        ClusterDetector detector = new ClusterDetector(entries);
+        if (groups) {
+            for (EntityGroup group : count._groups) {
+                Location loc = group.getLocation();
+                detector.add(Keys.boxAt(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()),
+                             group.getEntityType().ordinal(), group.getCount(), group, 0);
+            }
+        } else {
+            for (ChunkCount chunkCount : count._chunkCounts) {
+                long chunkKey = chunkCount.getChunkKey();
+                int chunkX = Keys.chunkX(chunkKey);
+                int chunkZ = Keys.chunkZ(chunkKey);
+                for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+                    Box16Count box = chunkCount.getBox(i);
+                    long boxKey = Keys.box(chunkX, chunkCount.getBoxSection(i), chunkZ);
+                    for (int slot = 0; slot < box.getSlotCount(); ++slot) {
+                        int ordinal = box.getSlotOrdinal(slot);
+                        int total = box.getSlotTotal(slot);
+                        if (total != 0) {
+                            detector.add(boxKey, ordinal, total, box, slot);
+                        }
+                    }
+                }
+            }
+        }
+        detector.join();
+        return detector.getClusters(world);
+    } // detect
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param capacity the maximum number of entries.
+     */
+    protected ClusterDetector(int capacity) {
+        _boxKeys = new long[capacity];
+        _ordinals = new short[capacity];
+        _counts = new int[capacity];
+        _sources = new Object[capacity];
+        _slots = new short[capacity];
+        _parents = new int[capacity];
+        _sizes = new int[capacity];
+        _table = new int[Integer.highestOneBit(Math.max(8, capacity)) << 2];
+        _mask = _table.length - 1;
+        Arrays.fill(_table, -1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add an entry.
+     *
+     * @param boxKey the box key.
+     * @param ordinal the EntityType ordinal.
+     * @param count the number of entities.
+     * @param source the {@link Box16Count} or {@link EntityGroup} that
+     *        supplies the teleport target.
+     * @param slot the slot of the type in a {@link Box16Count} source.
+     */
+    protected void add(long boxKey, int ordinal, int count, Object source, int slot) {
+        int entry = _size++;
+        _boxKeys[entry] = boxKey;
+        _ordinals[entry] = (short) ordinal;
+        _counts[entry] = count;
+        _sources[entry] = source;
+        _slots[entry] = (short) slot;
+        _parents[entry] = entry;
+        _sizes[entry] = 1;
+
+        int index = hash(boxKey, ordinal);
+        while (_table[index] >= 0) {
+            index = (index + 1) & _mask;
+        }
+        _table[index] = entry;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Join every entry with its neighbours of the same type in the +X, +Y and
+     * +Z directions.
+     */
+    protected void join() {
+        for (int entry = 0; entry < _size; ++entry) {
+            long boxKey = _boxKeys[entry];
+            int x = Keys.boxX(boxKey);
+            int y = Keys.boxY(boxKey);
+            int z = Keys.boxZ(boxKey);
+            int ordinal = _ordinals[entry];
+            union(entry, find(Keys.box(x + 1, y, z), ordinal));
+            union(entry, find(Keys.box(x, y + 1, z), ordinal));
+            union(entry, find(Keys.box(x, y, z + 1), ordinal));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Total the entries of each cluster and return the clusters.
+     *
+     * @param world the World, for teleport targets of {@link Box16Count}
+     *        sources.
+     * @return the clusters in descending order of count.
+     */
+    protected EntityCluster[] getClusters(World world) {
+        // Number the clusters in the order of their first entry.
+        int[] clusterOf = new int[_size];
+        Arrays.fill(clusterOf, -1);
+        int clusterCount = 0;
+        for (int entry = 0; entry < _size; ++entry) {
+            int root = root(entry);
+            if (clusterOf[root] < 0) {
+                clusterOf[root] = clusterCount++;
+            }
+        }
+
+        int[] totals = new int[clusterCount];
+        int[] boxes = new int[clusterCount];
+        int[] largest = new int[clusterCount];
+        int[] bounds = new int[6 * clusterCount];
+        Arrays.fill(largest, -1);
+        for (int entry = 0; entry < _size; ++entry) {
+            int cluster = clusterOf[root(entry)];
+            totals[cluster] += _counts[entry];
+            long boxKey = _boxKeys[entry];
+            int x = Keys.boxX(boxKey);
+            int y = Keys.boxY(boxKey);
+            int z = Keys.boxZ(boxKey);
+            int b = 6 * cluster;
+            if (boxes[cluster]++ == 0) {
+                bounds[b] = bounds[b + 3] = x;
+                bounds[b + 1] = bounds[b + 4] = y;
+                bounds[b + 2] = bounds[b + 5] = z;
+            } else {
+                bounds[b] = Math.min(bounds[b], x);
+                bounds[b + 1] = Math.min(bounds[b + 1], y);
+                bounds[b + 2] = Math.min(bounds[b + 2], z);
+                bounds[b + 3] = Math.max(bounds[b + 3], x);
+                bounds[b + 4] = Math.max(bounds[b + 4], y);
+                bounds[b + 5] = Math.max(bounds[b + 5], z);
+            }
+            if (largest[cluster] < 0 || _counts[entry] > _counts[largest[cluster]]) {
+                largest[cluster] = entry;
+            }
+        }
+
+        EntityCluster[] clusters = new EntityCluster[clusterCount];
+        for (int cluster = 0; cluster < clusterCount; ++cluster) {
+            int entry = largest[cluster];
+            Object source = _sources[entry];
+            Location location = (source instanceof EntityGroup)
+                ? ((EntityGroup) source).getLocation()
+                : ((Box16Count) source).getSlotGroup(_slots[entry], world).getLocation();
+            int b = 6 * cluster;
+            clusters[cluster] = new EntityCluster(EntityCounts.ENTITY_TYPES[_ordinals[entry]],
+                                                  totals[cluster], boxes[cluster],
+                                                  bounds[b], bounds[b + 1], bounds[b + 2],
+                                                  bounds[b + 3], bounds[b + 4], bounds[b + 5], location);
+        }
+
+        // Arrays.sort() of objects is stable.
+        Arrays.sort(clusters, new Comparator<EntityCluster>() {
+            @Override
+            public int compare(EntityCluster left, EntityCluster right) {
+                return right.getCount() - left.getCount();
+            }
+        });
+        return clusters;
+    } // getClusters
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the entry for a box and type, or -1 if there is none.
+     *
+     * @param boxKey the box key.
+     * @param ordinal the EntityType ordinal.
+     * @return the entry index, or -1.
+     */
+    protected int find(long boxKey, int ordinal) {
+        int index = hash(boxKey, ordinal);
+        int entry;
+        while ((entry = _table[index]) >= 0) {
+            if (_boxKeys[entry] == boxKey && _ordinals[entry] == ordinal) {
+                return entry;
+            }
+            index = (index + 1) & _mask;
+        }
+        return -1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the root of an entry's cluster, halving the path to it.
+     *
+     * @param entry the entry index.
+     * @return the root entry index.
+     */
+    protected int root(int entry) {
+        while (_parents[entry] != entry) {
+            _parents[entry] = _parents[_parents[entry]];
+            entry = _parents[entry];
+        }
+        return entry;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Join the clusters of two entries, attaching the smaller tree to the
+     * root of the larger.
+     *
+     * @param entry an entry index.
+     * @param other another entry index, or -1 to do nothing.
+     */
+    protected void union(int entry, int other) {
+        if (other >= 0) {
+            int root = root(entry);
+            int otherRoot = root(other);
+            if (root != otherRoot) {
+                if (_sizes[root] < _sizes[otherRoot]) {
+                    int swap = root;
+                    root = otherRoot;
+                    otherRoot = swap;
+                }
+                _parents[otherRoot] = root;
+                _sizes[root] += _sizes[otherRoot];
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the initial hash table index of a box and type.
+     *
+     * @param boxKey the box key.
+     * @param ordinal the EntityType ordinal.
+     * @return the table index.
+     */
+    protected int hash(long boxKey, int ordinal) {
+        long h = (boxKey ^ ((long) ordinal << 48)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & _mask;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Box key of each entry.
+     */
+    protected final long[] _boxKeys;
+
+    /**
+     * EntityType ordinal of each entry.
+     */
+    protected final short[] _ordinals;
+
+    /**
+     * Number of entities of each entry.
+     */
+    protected final int[] _counts;
+
+    /**
+     * The {@link Box16Count} or {@link EntityGroup} of each entry.
+     */
+    protected final Object[] _sources;
+
+    /**
+     * Slot of each entry in a {@link Box16Count} source.
+     */
+    protected final short[] _slots;
+
+    /**
+     * Union-find parent of each entry.
+     */
+    protected final int[] _parents;
+
+    /**
+     * Number of entries in the tree of each root entry.
+     */
+    protected final int[] _sizes;
+
+    /**
+     * Open-addressing hash table of entry indices, -1 where empty.
+     */
+    protected final int[] _table;
+
+    /**
+     * _table.length - 1.
+     */
+    protected final int _mask;
+
+    /**
+     * Number of entries added.
+     */
+    protected int _size;
+} // class ClusterDetector
@@ -17,6 +17,140 @@ public class Configuration {
      */
     public int PAGE_SIZE;
 
+    /**
+     * Maximum time in milliseconds spent counting entities per tick.
+     */
+    public double COUNT_BUDGET_MILLIS;
+
+    /**
+     * True if entity counts are maintained incrementally from entity events.
+     */
+    public boolean LIVE_CENSUS;
+
+    /**
+     * Period in seconds between reconciliations of the live census with the
+     * entities actually present in loaded chunks.
+     */
+    public int RECONCILE_PERIOD_SECONDS;
+
+    /**
+     * Number of threads used to aggregate counts; 0 or 1 to aggregate on a
+     * single asynchronous thread.
+     */
+    public int AGGREGATION_THREADS;
+
+    /**
+     * True if /ec count should only re-read chunks that have changed since
+     * the previous count.
+     */
+    public boolean INCREMENTAL_COUNT;
+
+    /**
+     * Maximum age in seconds of the counts of an unchanged chunk that can be
+     * reused by an incremental count.
+     */
+    public int CHUNK_RESCAN_SECONDS;
+
+    /**
+     * Period in seconds between passes that remove entities in excess of
+     * their caps; 0 to disable culling.
+     */
+    public int CULL_PERIOD_SECONDS;
+
+    /**
+     * The order in which excess entities are removed: "oldest" (longest
+     * lived first) or "farthest" (farthest from the nearest player first).
+     */
+    public String CULL_ORDER;
+
+    /**
+     * Per-type entity caps per box, chunk and world.
+     */
+    public EntityCaps CAPS = new EntityCaps();
+
+    /**
+     * Per-type limits per box, chunk and world beyond which spawns are
+     * cancelled.
+     */
+    public EntityCaps SPAWN_LIMITS = new EntityCaps();
+
+    /**
+     * True if the totals of every published count are recorded on disk.
+     */
+    public boolean HISTORY;
+
+    /**
+     * Size in kilobytes beyond which a new census history segment is started.
+     */
+    public int HISTORY_SEGMENT_KB;
+
+    /**
+     * Number of census history segments kept per world.
+     */
+    public int HISTORY_SEGMENTS;
+
+    /**
+     * Period in seconds between forcing census history writes to disk.
+     */
+    public int HISTORY_SYNC_SECONDS;
+
+    /**
+     * Time in minutes after which an unused /ec list session is discarded.
+     */
+    public int SESSION_IDLE_MINUTES;
+
+    /**
+     * TCP port of the Prometheus metrics endpoint, or 0 to disable it.
+     */
+    public int METRICS_PORT;
+
+    /**
+     * Address that the Prometheus metrics endpoint binds to.
+     */
+    public String METRICS_ADDRESS;
+
+    /**
+     * Path of the Prometheus metrics file, relative to the plugin's data
+     * folder unless absolute, or empty to disable it.
+     */
+    public String METRICS_FILE;
+
+    /**
+     * Period in seconds between rewrites of the Prometheus metrics file.
+     */
+    public int METRICS_FILE_SECONDS;
+
+    /**
+     * Number of worker threads reading region files for /ec scan-offline.
+     */
+    public int OFFLINE_SCAN_THREADS;
+
+    /**
+     * True if /ec count should also count block entities, for /ec blocks.
+     */
+    public boolean COUNT_BLOCK_ENTITIES;
+
+    /**
+     * Tick duration in milliseconds at or above which a tick counts as slow;
+     * 0 disables the lag monitor.
+     */
+    public double LAG_MSPT;
+
+    /**
+     * Number of consecutive slow ticks that start a lag diagnostic.
+     */
+    public int LAG_TICKS;
+
+    /**
+     * Minimum time in minutes between the starts of lag diagnostics.
+     */
+    public int LAG_COOLDOWN_MINUTES;
+
+    /**
+     * Number of the largest groups written to a lag diagnostic.
+     */
+    public int LAG_TOP_GROUPS;
+
     // ------------------------------------------------------------------------
     /**
      * Constructor.
@@ -35,6 +169,32 @@ public class Configuration {
         _plugin.reloadConfig();
         DEBUG = _plugin.getConfig().getBoolean("debug");
         PAGE_SIZE = _plugin.getConfig().getInt("page_size");
+        COUNT_BUDGET_MILLIS = _plugin.getConfig().getDouble("count_budget_millis", 1.0);
+        LIVE_CENSUS = _plugin.getConfig().getBoolean("live_census", false);
+        RECONCILE_PERIOD_SECONDS = _plugin.getConfig().getInt("reconcile_period_seconds", 300);
+        AGGREGATION_THREADS = _plugin.getConfig().getInt("aggregation_threads", 0);
+        INCREMENTAL_COUNT = _plugin.getConfig().getBoolean("incremental_count", false);
+        CHUNK_RESCAN_SECONDS = _plugin.getConfig().getInt("chunk_rescan_seconds", 60);
+        CULL_PERIOD_SECONDS = _plugin.getConfig().getInt("cull_period_seconds", 60);
+        CULL_ORDER = _plugin.getConfig().getString("cull_order", "oldest");
+        CAPS = EntityCaps.load(_plugin.getConfig().getConfigurationSection("caps"), "caps", _plugin.getLogger());
+        SPAWN_LIMITS = EntityCaps.load(_plugin.getConfig().getConfigurationSection("spawn_limits"), "spawn_limits",
+                                       _plugin.getLogger());
+        HISTORY = _plugin.getConfig().getBoolean("history", true);
+        HISTORY_SEGMENT_KB = _plugin.getConfig().getInt("history_segment_kb", 1024);
+        HISTORY_SEGMENTS = _plugin.getConfig().getInt("history_segments", 30);
+        HISTORY_SYNC_SECONDS = _plugin.getConfig().getInt("history_sync_seconds", 60);
+        SESSION_IDLE_MINUTES = _plugin.getConfig().getInt("session_idle_minutes", 15);
+        METRICS_PORT = _plugin.getConfig().getInt("metrics_port", 0);
+        METRICS_ADDRESS = _plugin.getConfig().getString("metrics_address", "127.0.0.1");
+        METRICS_FILE = _plugin.getConfig().getString("metrics_file", "");
+        METRICS_FILE_SECONDS = _plugin.getConfig().getInt("metrics_file_seconds", 60);
+        OFFLINE_SCAN_THREADS = _plugin.getConfig().getInt("offline_scan_threads", 2);
+        COUNT_BLOCK_ENTITIES = _plugin.getConfig().getBoolean("count_block_entities", true);
+        LAG_MSPT = _plugin.getConfig().getDouble("lag_mspt", 0.0);
+        LAG_TICKS = _plugin.getConfig().getInt("lag_ticks", 100);
+        LAG_COOLDOWN_MINUTES = _plugin.getConfig().getInt("lag_cooldown_minutes", 15);
+        LAG_TOP_GROUPS = _plugin.getConfig().getInt("lag_top_groups", 30);
     }
 
     // ------------------------------------------------------------------------
@@ -44,6 +204,29 @@ public class Configuration {
     public void save() {
         _plugin.getConfig().set("debug", DEBUG);
         _plugin.getConfig().set("page_size", PAGE_SIZE);
+        _plugin.getConfig().set("count_budget_millis", COUNT_BUDGET_MILLIS);
+        _plugin.getConfig().set("live_census", LIVE_CENSUS);
+        _plugin.getConfig().set("reconcile_period_seconds", RECONCILE_PERIOD_SECONDS);
+        _plugin.getConfig().set("aggregation_threads", AGGREGATION_THREADS);
+        _plugin.getConfig().set("incremental_count", INCREMENTAL_COUNT);
+        _plugin.getConfig().set("chunk_rescan_seconds", CHUNK_RESCAN_SECONDS);
+        _plugin.getConfig().set("cull_period_seconds", CULL_PERIOD_SECONDS);
+        _plugin.getConfig().set("cull_order", CULL_ORDER);
+        _plugin.getConfig().set("history", HISTORY);
+        _plugin.getConfig().set("history_segment_kb", HISTORY_SEGMENT_KB);
+        _plugin.getConfig().set("history_segments", HISTORY_SEGMENTS);
+        _plugin.getConfig().set("history_sync_seconds", HISTORY_SYNC_SECONDS);
+        _plugin.getConfig().set("session_idle_minutes", SESSION_IDLE_MINUTES);
+        _plugin.getConfig().set("metrics_port", METRICS_PORT);
+        _plugin.getConfig().set("metrics_address", METRICS_ADDRESS);
+        _plugin.getConfig().set("metrics_file", METRICS_FILE);
+        _plugin.getConfig().set("metrics_file_seconds", METRICS_FILE_SECONDS);
+        _plugin.getConfig().set("offline_scan_threads", OFFLINE_SCAN_THREADS);
+        _plugin.getConfig().set("count_block_entities", COUNT_BLOCK_ENTITIES);
+        _plugin.getConfig().set("lag_mspt", LAG_MSPT);
+        _plugin.getConfig().set("lag_ticks", LAG_TICKS);
+        _plugin.getConfig().set("lag_cooldown_minutes", LAG_COOLDOWN_MINUTES);
+        _plugin.getConfig().set("lag_top_groups", LAG_TOP_GROUPS);
         _plugin.saveConfig();
     }
 
@@ -0,0 +1,117 @@
+package io.totemo.ec;
+
+import java.util.ArrayList;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+// ----------------------------------------------------------------------------
+/**
+ * Runs the chunk capture of all active {@link CountTask}s, and the passes of
+ * all active {@link CullTask}s, {@link ReconcileTask}s and
+ * {@link RemoveTask}s, from a single repeating task, so that the total time
+ * spent visiting chunks in one tick stays within the configured budget
+ * however many Worlds are being processed.
+ *
+ * Each tick, the time remaining until the deadline is divided equally
+ * between the tasks that have not yet run in that tick, so time left unused
+ * by a task that finishes early passes to the tasks after it. The task that
+ * runs first is rotated each tick so that no World is always last in line.
+ * Every task captures at least one chunk per tick to guarantee progress, so
+ * the budget can be exceeded by at most one chunk per active task.
+ *
+ * The repeating task runs only while there are tasks to drive.
+ */
+public class CountScheduler {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param plugin the owning plugin.
+     */
+    public CountScheduler(EntityControl plugin) {
+        _plugin = plugin;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start driving a task, from the next tick.
+     *
+     * @param task the task.
+     */
+    public void add(BudgetedTask task) {
+        _tasks.add(task);
+        if (_timer == null) {
+            _timer = Bukkit.getScheduler().runTaskTimer(_plugin, this::run, 1, 1);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop driving a task.
+     *
+     * @param task the task.
+     */
+    public void remove(BudgetedTask task) {
+        _tasks.remove(task);
+        if (_tasks.isEmpty() && _timer != null) {
+            _timer.cancel();
+            _timer = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of tasks still being driven.
+     *
+     * @return the number of tasks.
+     */
+    public int getTaskCount() {
+        return _tasks.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Give each task its share of this tick's budget, and stop driving the
+     * tasks that have completed.
+     */
+    protected void run() {
+        long now = System.nanoTime();
+        long deadline = now + (long) (EntityControl.CONFIG.COUNT_BUDGET_MILLIS * 1e6);
+
+        // Tasks may be removed while stepping, so step a copy.
+        BudgetedTask[] tasks = _tasks.toArray(new BudgetedTask[_tasks.size()]);
+        int first = (tasks.length == 0) ? 0 : _rotation % tasks.length;
+        _rotation = first + 1;
+        for (int i = 0; i < tasks.length; ++i) {
+            BudgetedTask task = tasks[(first + i) % tasks.length];
+            long share = Math.max(0, deadline - now) / (tasks.length - i);
+            if (task.step(now + share)) {
+                remove(task);
+            }
+            now = System.nanoTime();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The owning plugin.
+     */
+    protected final EntityControl _plugin;
+
+    /**
+     * Tasks still being driven, in the order they were added.
+     */
+    protected final ArrayList<BudgetedTask> _tasks = new ArrayList<BudgetedTask>();
+
+    /**
+     * The repeating task, or null if there are no tasks to drive.
+     */
+    protected BukkitTask _timer;
+
+    /**
+     * Index of the task to run first in the next tick, modulo the number of
+     * tasks; advanced every tick to rotate the task that runs first.
+     */
+    protected int _rotation;
+} // class CountScheduler
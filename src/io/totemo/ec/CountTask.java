@@ -0,0 +1,322 @@
+package io.totemo.ec;
+
+import java.util.ArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+// ----------------------------------------------------------------------------
+/**
+ * A task that counts the entities in all loaded chunks of a World, spending
+ * at most its share of a configured amount of time per tick.
+ *
+ * The array of loaded chunks is captured when the task is created. Each tick,
+ * the {@link CountScheduler} steps the task, and the types and positions of
+ * the entities in each chunk (and, if configured, of its block entities) are
+ * copied into an {@link EntitySnapshot} until the task's share of the time
+ * budget is exhausted. The next tick resumes from where the previous one
+ * stopped. Chunks that were unloaded after the count started are skipped.
+ *
+ * If a previous count of the World is supplied, chunks whose counts are not
+ * marked dirty and are not older than the configured maximum age are not read
+ * again; their {@link ChunkCount}s are carried over into the new count.
+ * Chunks that have unloaded since the previous count are dropped, since only
+ * currently loaded chunks are visited.
+ *
+ * When all chunks have been visited, the snapshot is aggregated into a new
+ * {@link WorldCount} by an asynchronous task, which also computes the totals
+ * and selects the first page of groups. If configured, the aggregation is
+ * split across several threads by a {@link ParallelAggregator}. The result is
+ * then published to the plugin on the server thread, replacing the previous
+ * result, and, unless the count is part of /ec count -all, the summary is sent
+ * to the command sender. If parallel aggregation fails, the snapshot is
+ * aggregated serially instead; if that also fails, the failure is logged and
+ * the count is abandoned, so that it no longer blocks later counts.
+ */
+public class CountTask implements BudgetedTask {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param plugin the owning plugin, to which the finished count is
+     *        published.
+     * @param sender the command sender to be notified of results.
+     * @param world the (non-null) World to count.
+     * @param previous the previous count of the World, whose unchanged chunk
+     *        counts can be reused; null to read every chunk.
+     * @param report if true, send the results to the sender when finished.
+     */
+    public CountTask(EntityControl plugin, CommandSender sender, World world, WorldCount previous, boolean report) {
+        _plugin = plugin;
+        _sender = sender;
+        _world = world;
+        _previous = previous;
+        _report = report;
+        _chunks = world.getLoadedChunks();
+        _snapshot = new EntitySnapshot(world, _chunks.length, EntityControl.CONFIG.COUNT_BLOCK_ENTITIES);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start counting on the next tick.
+     */
+    public void start() {
+        _startMillis = System.currentTimeMillis();
+        _plugin.getCountScheduler().add(this);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop counting. A count that is already being aggregated is unaffected.
+     */
+    public void cancel() {
+        _plugin.getCountScheduler().remove(this);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the World being counted.
+     *
+     * @return the World being counted.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a short description of the progress of this count, suitable for
+     * sending to a command sender.
+     *
+     * @return a short description of the progress of this count.
+     */
+    public String getProgress() {
+        if (_index >= _chunks.length) {
+            return String.format("Counting %s: aggregating %d entities.",
+                                 _world.getName(), _snapshot.getEntityCount());
+        }
+        return String.format("Counting %s: %d of %d chunks (%d%%) after %d ticks.",
+                             _world.getName(), _index, _chunks.length,
+                             _chunks.length == 0 ? 100 : 100 * _index / _chunks.length,
+                             _ticks);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Capture chunks until the deadline passes or all chunks have been
+     * captured, starting the aggregation once they have.
+     *
+     * Called by the {@link CountScheduler} once per tick.
+     *
+     * @param deadline the System.nanoTime() value at which to stop.
+     * @return true if all chunks have been captured.
+     * @see io.totemo.ec.BudgetedTask#step(long)
+     */
+    @Override
+    public boolean step(long deadline) {
+        long start = System.nanoTime();
+        long oldestReusable = System.currentTimeMillis() - 1000L * EntityControl.CONFIG.CHUNK_RESCAN_SECONDS;
+        ++_ticks;
+
+        // Always count at least one chunk per tick to guarantee progress.
+        do {
+            if (_index >= _chunks.length) {
+                break;
+            }
+            Chunk chunk = _chunks[_index++];
+            if (chunk.isLoaded()) {
+                ChunkCount previous = (_previous != null) ? _previous.getChunkCount(Keys.chunk(chunk.getX(), chunk.getZ()))
+                                                          : null;
+                if (previous != null && !previous.isDirty() && previous.getCountedMillis() >= oldestReusable) {
+                    _reused.add(previous);
+                } else {
+                    _snapshot.addChunk(chunk, _loc);
+                }
+            } else {
+                ++_skippedChunks;
+            }
+        } while (System.nanoTime() < deadline);
+        _countingNanos += System.nanoTime() - start;
+
+        if (_index >= _chunks.length) {
+            EntityControl.METRICS.record(Metrics.Phase.SNAPSHOT, _countingNanos);
+            Bukkit.getScheduler().runTaskAsynchronously(_plugin, this::aggregate);
+            return true;
+        }
+        return false;
+    } // step
+
+    // ------------------------------------------------------------------------
+    /**
+     * Aggregate the snapshot into a new {@link WorldCount}, off the server
+     * thread, then schedule {@link #finish(WorldCount)} on the server thread,
+     * or {@link #fail()} if the snapshot could not be aggregated.
+     */
+    protected void aggregate() {
+        long start = System.nanoTime();
+        WorldCount count = null;
+        ParallelAggregator aggregator = _plugin.getAggregator();
+        if (aggregator != null) {
+            try {
+                count = new WorldCount();
+                aggregator.aggregate(count, _world, _snapshot, _reused, EntityControl.CONFIG.PAGE_SIZE);
+            } catch (RejectedExecutionException ex) {
+                // The aggregator was shut down by a reload. Fall through.
+                count = null;
+            } catch (RuntimeException ex) {
+                _plugin.getLogger().log(Level.WARNING, "Parallel aggregation of " + _world.getName() +
+                                                       " failed; aggregating serially.", ex);
+                count = null;
+            }
+        }
+        if (count == null) {
+            try {
+                count = new WorldCount();
+                count.clear(_snapshot.getChunkCount() + _reused.size());
+                count.countSnapshot(_world, _snapshot);
+                for (ChunkCount chunkCount : _reused) {
+                    count.addChunkCount(chunkCount);
+                }
+                count.prepare();
+            } catch (RuntimeException ex) {
+                _plugin.getLogger().log(Level.SEVERE, "Could not aggregate the count of " + _world.getName() + ".", ex);
+                count = null;
+            }
+        }
+        _aggregateNanos = System.nanoTime() - start;
+        EntityControl.METRICS.record(Metrics.Phase.AGGREGATE, _aggregateNanos);
+
+        if (_plugin.isEnabled()) {
+            WorldCount result = count;
+            Bukkit.getScheduler().runTask(_plugin, () -> {
+                if (result != null) {
+                    finish(result);
+                } else {
+                    fail();
+                }
+            });
+        }
+    } // aggregate
+
+    // ------------------------------------------------------------------------
+    /**
+     * Abandon a count whose snapshot could not be aggregated, keeping the
+     * previous results of the World.
+     */
+    protected void fail() {
+        _plugin.onCountFailed(this);
+        if (_report) {
+            _sender.sendMessage(ChatColor.RED + "The count of " + _world.getName() +
+                                " failed; see the server log. The previous results are kept.");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Publish the completed count and report the results.
+     *
+     * @param count the new counts for the World.
+     */
+    protected void finish(WorldCount count) {
+        _plugin.onCountFinished(this, count);
+        if (!_report) {
+            return;
+        }
+
+        count.summarise(_sender);
+        long elapsedMillis = System.currentTimeMillis() - _startMillis;
+        _sender.sendMessage(ChatColor.GOLD + String.format("Counted %d loaded chunks in %d milliseconds over %d ticks (%.2f ms on the server thread, %.2f ms aggregating).",
+                                                           _chunks.length - _skippedChunks, elapsedMillis, _ticks,
+                                                           _countingNanos * 1e-6, _aggregateNanos * 1e-6));
+        if (!_reused.isEmpty()) {
+            _sender.sendMessage(ChatColor.GOLD + String.format("Read %d changed chunks; reused the counts of %d unchanged chunks.",
+                                                               _snapshot.getChunkCount(), _reused.size()));
+        }
+        if (_skippedChunks != 0) {
+            _sender.sendMessage(ChatColor.GOLD + String.format("Skipped %d chunks that unloaded during the count.", _skippedChunks));
+        }
+    } // finish
+
+    // ------------------------------------------------------------------------
+    /**
+     * Owning plugin.
+     */
+    protected final EntityControl _plugin;
+
+    /**
+     * The command sender to be notified of results.
+     */
+    protected final CommandSender _sender;
+
+    /**
+     * If true, send the results to the sender when finished.
+     */
+    protected final boolean _report;
+
+    /**
+     * The World being counted.
+     */
+    protected final World _world;
+
+    /**
+     * The chunks that were loaded when the count started.
+     */
+    protected final Chunk[] _chunks;
+
+    /**
+     * The previous count of the World, or null.
+     */
+    protected final WorldCount _previous;
+
+    /**
+     * Counts of unchanged chunks carried over from the previous count.
+     */
+    protected final ArrayList<ChunkCount> _reused = new ArrayList<ChunkCount>();
+
+    /**
+     * The entity types and positions captured so far.
+     */
+    protected final EntitySnapshot _snapshot;
+
+    /**
+     * Reused to read entity positions.
+     */
+    protected final Location _loc = new Location(null, 0, 0, 0);
+
+    /**
+     * Index of the next chunk in _chunks to count.
+     */
+    protected int _index;
+
+    /**
+     * Number of chunks that were unloaded before they could be counted.
+     */
+    protected int _skippedChunks;
+
+    /**
+     * Number of ticks in which this task has run.
+     */
+    protected int _ticks;
+
+    /**
+     * Total time spent counting, in nanoseconds, excluding the time between
+     * ticks.
+     */
+    protected long _countingNanos;
+
+    /**
+     * Time spent aggregating the snapshot, in nanoseconds.
+     */
+    protected volatile long _aggregateNanos;
+
+    /**
+     * Wall clock time when the count was started.
+     */
+    protected long _startMillis;
+} // class CountTask
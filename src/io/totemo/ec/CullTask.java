@@ -0,0 +1,445 @@
+package io.totemo.ec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Tameable;
+
+// ----------------------------------------------------------------------------
+/**
+ * A repeating task that removes entities in excess of the configured
+ * {@link EntityCaps} from one World.
+ *
+ * Like {@link CountTask}, the loaded chunks are visited over several ticks,
+ * driven by the {@link CountScheduler}, which shares the configured counting
+ * budget per tick between all counts and culls. Each chunk is
+ * grouped into boxes by a {@link ChunkCount}; only chunks where a box or
+ * chunk cap is exceeded are searched for entities to remove. Each chunk is
+ * culled within a single tick.
+ *
+ * World caps can only be checked once every chunk has been visited, so
+ * removable entities of world-capped types are collected as the chunks are
+ * visited, and the excess is removed, again within the per-tick budget, after
+ * the last chunk.
+ *
+ * Players, named entities and tamed mobs are counted towards caps but never
+ * removed.
+ */
+public class CullTask implements BudgetedTask {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param culler the owning {@link Culler}.
+     * @param world the World to cull.
+     */
+    public CullTask(Culler culler, World world) {
+        _culler = culler;
+        _world = world;
+        _chunks = world.getLoadedChunks();
+        _caps = EntityControl.CONFIG.CAPS;
+        _minSection = world.getMinHeight() >> 4;
+        _maxSection = (world.getMaxHeight() - 1) >> 4;
+
+        if (EntityControl.CONFIG.CULL_ORDER.equalsIgnoreCase("farthest")) {
+            List<Player> players = world.getPlayers();
+            _players = new double[3 * players.size()];
+            for (int i = 0; i < players.size(); ++i) {
+                players.get(i).getLocation(_loc);
+                _players[3 * i] = _loc.getX();
+                _players[3 * i + 1] = _loc.getY();
+                _players[3 * i + 2] = _loc.getZ();
+            }
+        } else {
+            _players = null;
+        }
+
+        if (_caps.hasWorldCaps()) {
+            _worldTotals = new int[EntityCounts.ENTITY_TYPES.length];
+            _worldCandidates = new ArrayList<ArrayList<Entity>>();
+            for (int ordinal = 0; ordinal < _worldTotals.length; ++ordinal) {
+                _worldCandidates.add(_caps.getWorldCap(ordinal) != EntityCaps.UNCAPPED ? new ArrayList<Entity>() : null);
+            }
+        } else {
+            _worldTotals = null;
+            _worldCandidates = null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the World being culled.
+     *
+     * @return the World being culled.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of entities removed so far, by EntityType ordinal.
+     *
+     * @return the number of entities removed so far, by EntityType ordinal.
+     */
+    public int[] getRemoved() {
+        return _removed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total number of entities removed so far.
+     *
+     * @return the total number of entities removed so far.
+     */
+    public int getTotalRemoved() {
+        int total = 0;
+        for (int removed : _removed) {
+            total += removed;
+        }
+        return total;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total time spent culling, in nanoseconds.
+     *
+     * @return the total time spent culling, in nanoseconds.
+     */
+    public long getNanos() {
+        return _nanos;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of ticks over which culling was spread.
+     *
+     * @return the number of ticks over which culling was spread.
+     */
+    public int getTicks() {
+        return _ticks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cull chunks, then the world-wide excess, until the deadline passes or
+     * the pass is complete.
+     *
+     * Called by the {@link CountScheduler} once per tick.
+     *
+     * @param deadline the System.nanoTime() value at which to stop.
+     * @return true if the pass is complete.
+     * @see io.totemo.ec.BudgetedTask#step(long)
+     */
+    @Override
+    public boolean step(long deadline) {
+        long start = System.nanoTime();
+        ++_ticks;
+
+        do {
+            if (_index < _chunks.length) {
+                Chunk chunk = _chunks[_index++];
+                if (chunk.isLoaded()) {
+                    cullChunk(chunk);
+                }
+                if (_index == _chunks.length) {
+                    selectWorldExcess();
+                }
+            } else if (_pendingIndex < _pending.size()) {
+                Entity entity = _pending.get(_pendingIndex++);
+                if (entity.isValid()) {
+                    entity.remove();
+                    ++_removed[entity.getType().ordinal()];
+                }
+            } else {
+                break;
+            }
+        } while (System.nanoTime() < deadline);
+        _nanos += System.nanoTime() - start;
+
+        if (_index >= _chunks.length && _pendingIndex >= _pending.size()) {
+            _culler.finishCull(this);
+            return true;
+        }
+        return false;
+    } // step
+
+    // ------------------------------------------------------------------------
+    /**
+     * Enforce box and chunk caps in one chunk, and record its remaining
+     * entities of world-capped types.
+     *
+     * @param chunk the loaded chunk.
+     */
+    protected void cullChunk(Chunk chunk) {
+        Entity[] entities = chunk.getEntities();
+        ChunkCount chunkCount = new ChunkCount(chunk, entities, _loc);
+
+        _chunkTotals.clear();
+        for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+            Box16Count box = chunkCount.getBox(i);
+            for (int slot = 0; slot < box.getSlotCount(); ++slot) {
+                int ordinal = box.getSlotOrdinal(slot);
+                int total = box.getSlotTotal(slot);
+                int excess = total - _caps.getBoxCap(ordinal);
+                if (excess > 0) {
+                    total -= removeExcess(entities, ordinal, chunkCount.getBoxSection(i), excess);
+                }
+                _chunkTotals.add(ordinal, total);
+            }
+        }
+
+        for (int slot = 0; slot < _chunkTotals.getSlotCount(); ++slot) {
+            int ordinal = _chunkTotals.getSlotOrdinal(slot);
+            int total = _chunkTotals.getSlotTotal(slot);
+            int excess = total - _caps.getChunkCap(ordinal);
+            if (excess > 0) {
+                total -= removeExcess(entities, ordinal, ANY_SECTION, excess);
+            }
+            if (_worldTotals != null) {
+                _worldTotals[ordinal] += total;
+            }
+        }
+
+        if (_worldCandidates != null) {
+            for (Entity entity : entities) {
+                ArrayList<Entity> candidates = _worldCandidates.get(entity.getType().ordinal());
+                if (candidates != null && entity.isValid() && isRemovable(entity)) {
+                    candidates.add(entity);
+                }
+            }
+        }
+    } // cullChunk
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove up to the specified number of removable entities of one type
+     * from a chunk, in the configured order.
+     *
+     * @param entities the entities in the chunk.
+     * @param ordinal the EntityType ordinal.
+     * @param section the section of the box to remove from, or
+     *        {@link #ANY_SECTION} to remove from the whole chunk.
+     * @param excess the number of entities to remove.
+     * @return the number of entities removed.
+     */
+    protected int removeExcess(Entity[] entities, int ordinal, int section, int excess) {
+        ArrayList<Entity> candidates = new ArrayList<Entity>();
+        for (Entity entity : entities) {
+            if (entity.getType().ordinal() == ordinal && entity.isValid() && isRemovable(entity)
+                && (section == ANY_SECTION || getSection(entity) == section)) {
+                candidates.add(entity);
+            }
+        }
+
+        Entity[] ordered = order(candidates);
+        int count = Math.min(excess, ordered.length);
+        for (int i = 0; i < count; ++i) {
+            ordered[i].remove();
+        }
+        _removed[ordinal] += count;
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * When all chunks have been visited, choose the entities to remove to
+     * bring each world-capped type within its cap.
+     */
+    protected void selectWorldExcess() {
+        if (_worldTotals == null) {
+            return;
+        }
+
+        for (int ordinal = 0; ordinal < _worldTotals.length; ++ordinal) {
+            int excess = _worldTotals[ordinal] - _caps.getWorldCap(ordinal);
+            if (excess > 0) {
+                Entity[] ordered = order(_worldCandidates.get(ordinal));
+                _pending.addAll(Arrays.asList(ordered).subList(0, Math.min(excess, ordered.length)));
+            }
+        }
+        _worldCandidates.clear();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the candidate entities for removal in the order in which they
+     * should be removed.
+     *
+     * @param candidates the candidate entities, all of which are valid.
+     * @return the ordered candidates.
+     */
+    protected Entity[] order(ArrayList<Entity> candidates) {
+        int count = candidates.size();
+        double[] priorities = new double[count];
+        Integer[] indices = new Integer[count];
+        for (int i = 0; i < count; ++i) {
+            priorities[i] = getPriority(candidates.get(i));
+            indices[i] = i;
+        }
+        Arrays.sort(indices, (a, b) -> Double.compare(priorities[b], priorities[a]));
+
+        Entity[] ordered = new Entity[count];
+        for (int i = 0; i < count; ++i) {
+            ordered[i] = candidates.get(indices[i]);
+        }
+        return ordered;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the removal priority of an entity; higher priorities are removed
+     * first.
+     *
+     * When culling the farthest entities, the priority is the squared
+     * distance to the nearest player; otherwise, or if there are no players
+     * in the world, it is the entity's age in ticks.
+     *
+     * @param entity the entity.
+     * @return the removal priority.
+     */
+    protected double getPriority(Entity entity) {
+        if (_players == null || _players.length == 0) {
+            return entity.getTicksLived();
+        }
+
+        entity.getLocation(_loc);
+        double nearest = Double.MAX_VALUE;
+        for (int i = 0; i < _players.length; i += 3) {
+            double dx = _loc.getX() - _players[i];
+            double dy = _loc.getY() - _players[i + 1];
+            double dz = _loc.getZ() - _players[i + 2];
+            nearest = Math.min(nearest, dx * dx + dy * dy + dz * dz);
+        }
+        return nearest;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the section of the box that an entity is counted in, clamped to
+     * the World's height range in the same way as {@link ChunkCount}.
+     *
+     * @param entity the entity.
+     * @return the section index.
+     */
+    protected int getSection(Entity entity) {
+        entity.getLocation(_loc);
+        return Math.max(_minSection, Math.min(_maxSection, _loc.getBlockY() >> 4));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if an entity can be removed by culling.
+     *
+     * @param entity the entity.
+     * @return true if the entity is not a player, named or tamed.
+     */
+    protected static boolean isRemovable(Entity entity) {
+        return !(entity instanceof Player)
+               && entity.customName() == null
+               && !(entity instanceof Tameable && ((Tameable) entity).isTamed());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Section argument to {@link #removeExcess(Entity[], int, int, int)}
+     * signifying the whole chunk.
+     */
+    protected static final int ANY_SECTION = Integer.MIN_VALUE;
+
+    /**
+     * The owning {@link Culler}.
+     */
+    protected final Culler _culler;
+
+    /**
+     * The World being culled.
+     */
+    protected final World _world;
+
+    /**
+     * The chunks that were loaded when the pass started.
+     */
+    protected final Chunk[] _chunks;
+
+    /**
+     * The caps in effect when the pass started.
+     */
+    protected final EntityCaps _caps;
+
+    /**
+     * Lowest section index of the World.
+     */
+    protected final int _minSection;
+
+    /**
+     * Highest section index of the World.
+     */
+    protected final int _maxSection;
+
+    /**
+     * Packed X, Y and Z coordinates of the players in the World when the pass
+     * started, if culling the farthest entities first; otherwise null.
+     */
+    protected final double[] _players;
+
+    /**
+     * Number of entities of each type remaining after box and chunk culling,
+     * if any types are capped per world; otherwise null.
+     */
+    protected final int[] _worldTotals;
+
+    /**
+     * Removable entities of each world-capped type, indexed by EntityType
+     * ordinal (null for other types), or null if no types are capped per
+     * world.
+     */
+    protected final ArrayList<ArrayList<Entity>> _worldCandidates;
+
+    /**
+     * Entities to remove to enforce world caps, after all chunks have been
+     * visited.
+     */
+    protected final ArrayList<Entity> _pending = new ArrayList<Entity>();
+
+    /**
+     * Totals by type of the current chunk.
+     */
+    protected final EntityCounts _chunkTotals = new EntityCounts();
+
+    /**
+     * Number of entities removed, by EntityType ordinal.
+     */
+    protected final int[] _removed = new int[EntityCounts.ENTITY_TYPES.length];
+
+    /**
+     * Location reused when reading entity locations.
+     */
+    protected final Location _loc = new Location(null, 0, 0, 0);
+
+    /**
+     * Index of the next chunk in _chunks to visit.
+     */
+    protected int _index;
+
+    /**
+     * Index of the next entity in _pending to remove.
+     */
+    protected int _pendingIndex;
+
+    /**
+     * Number of ticks over which the pass has run.
+     */
+    protected int _ticks;
+
+    /**
+     * Total time spent culling, in nanoseconds.
+     */
+    protected long _nanos;
+} // class CullTask
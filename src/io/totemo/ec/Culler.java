@@ -0,0 +1,125 @@
+package io.totemo.ec;
+
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.scheduler.BukkitTask;
+
+// ----------------------------------------------------------------------------
+/**
+ * Periodically starts a {@link CullTask} in every world to remove entities in
+ * excess of the configured {@link EntityCaps}.
+ *
+ * The tasks are driven by the {@link CountScheduler}, so culling shares the
+ * per-tick budget with counting instead of adding to it.
+ */
+public class Culler {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param plugin the owning plugin.
+     */
+    public Culler(EntityControl plugin) {
+        _plugin = plugin;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Enable or disable periodic culling.
+     *
+     * Any passes in progress are cancelled. If enabled, culling restarts with
+     * the current period and caps.
+     *
+     * @param enabled true to enable culling.
+     */
+    public void setEnabled(boolean enabled) {
+        if (isEnabled()) {
+            _cullTimer.cancel();
+            _cullTimer = null;
+            for (CullTask task : _cullTasks.values()) {
+                _plugin.getCountScheduler().remove(task);
+            }
+            _cullTasks.clear();
+        }
+
+        if (enabled) {
+            long periodTicks = Math.max(1, 20L * EntityControl.CONFIG.CULL_PERIOD_SECONDS);
+            _cullTimer = Bukkit.getScheduler().runTaskTimer(_plugin, this::cullAll, periodTicks, periodTicks);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if periodic culling is enabled.
+     *
+     * @return true if periodic culling is enabled.
+     */
+    public boolean isEnabled() {
+        return _cullTimer != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start a culling pass of every world that is not already being culled.
+     */
+    public void cullAll() {
+        for (World world : Bukkit.getWorlds()) {
+            if (!_cullTasks.containsKey(world.getName())) {
+                CullTask task = new CullTask(this, world);
+                _cullTasks.put(world.getName(), task);
+                _plugin.getCountScheduler().add(task);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Called by a {@link CullTask} when its pass is complete, to log the
+     * entities removed.
+     *
+     * @param task the finished task.
+     */
+    protected void finishCull(CullTask task) {
+        World world = task.getWorld();
+        _cullTasks.remove(world.getName());
+
+        Logger logger = _plugin.getLogger();
+        int total = task.getTotalRemoved();
+        if (total != 0) {
+            StringBuilder types = new StringBuilder();
+            int[] removed = task.getRemoved();
+            for (int ordinal = 0; ordinal < removed.length; ++ordinal) {
+                if (removed[ordinal] != 0) {
+                    types.append(types.length() == 0 ? "" : ", ");
+                    types.append(removed[ordinal]).append(' ').append(EntityCounts.ENTITY_TYPES[ordinal].name());
+                }
+            }
+            logger.info(String.format("Culled %d entities in %s: %s.", total, world.getName(), types));
+        }
+        if (EntityControl.CONFIG.DEBUG) {
+            logger.info(String.format("Culling %s took %.2f ms over %d ticks.",
+                                      world.getName(), task.getNanos() * 1e-6, task.getTicks()));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The owning plugin.
+     */
+    protected final EntityControl _plugin;
+
+    /**
+     * Map from world name to the {@link CullTask} currently culling that
+     * world.
+     */
+    protected HashMap<String, CullTask> _cullTasks = new HashMap<String, CullTask>();
+
+    /**
+     * Repeating task that starts culling passes, or null if culling is
+     * disabled.
+     */
+    protected BukkitTask _cullTimer;
+} // class Culler
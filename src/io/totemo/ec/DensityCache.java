@@ -0,0 +1,210 @@
+package io.totemo.ec;
+
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * Per-box, per-chunk and per-world entity counts of one World, indexed for
+ * constant time lookup by {@link SpawnLimiter} on every spawn event.
+ *
+ * The cache is built from the most recently published counts of the World (or
+ * starts empty if there are none) and is then adjusted as entities are added
+ * to and removed from the World, until it is rebuilt from the next published
+ * counts. Lookups neither allocate nor scan.
+ *
+ * Boxes are keyed by {@link Keys#box(int, int, int)} and chunks by
+ * {@link Keys#chunk(int, int)}. As in {@link ChunkCount}, entities above or
+ * below the World's height range are counted in its highest or lowest box.
+ */
+public class DensityCache {
+    // ------------------------------------------------------------------------
+    /**
+     * Build a cache from the chunk counts of a {@link WorldCount}.
+     *
+     * @param world the counted World.
+     * @param count the counts.
+     * @return the cache.
+     */
+    public static DensityCache of(World world, WorldCount count) {
+        DensityCache cache = new DensityCache(world, count._chunkCounts.size());
+        for (ChunkCount chunkCount : count._chunkCounts) {
+            long chunkKey = chunkCount.getChunkKey();
+            int chunkX = Keys.chunkX(chunkKey);
+            int chunkZ = Keys.chunkZ(chunkKey);
+            for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+                Box16Count box = chunkCount.getBox(i);
+                int section = chunkCount.getBoxSection(i);
+                for (int slot = 0; slot < box.getSlotCount(); ++slot) {
+                    cache.add(chunkX, section, chunkZ, box.getSlotOrdinal(slot), box.getSlotTotal(slot));
+                }
+            }
+        }
+        return cache;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Build a cache from a {@link LiveWorldCensus}.
+     *
+     * @param world the World of the census.
+     * @param census the census.
+     * @return the cache.
+     */
+    public static DensityCache of(World world, LiveWorldCensus census) {
+        DensityCache cache = new DensityCache(world, census.getBoxCount());
+        for (int i = 0; i < census._boxes.capacity(); ++i) {
+            EntityCounts counts = census._boxes.valueAt(i);
+            if (counts != null) {
+                long boxKey = census._boxes.keyAt(i);
+                int section = cache.getSection(Keys.boxY(boxKey) << 4);
+                for (int slot = 0; slot < counts.getSlotCount(); ++slot) {
+                    cache.add(Keys.boxX(boxKey), section, Keys.boxZ(boxKey),
+                              counts.getSlotOrdinal(slot), counts.getSlotTotal(slot));
+                }
+            }
+        }
+        return cache;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * Constructs an empty cache.
+     *
+     * @param world the World.
+     * @param expectedChunks the expected number of populated chunks.
+     */
+    public DensityCache(World world, int expectedChunks) {
+        _minSection = world.getMinHeight() >> 4;
+        _maxSection = (world.getMaxHeight() - 1) >> 4;
+        _boxes = new LongObjectMap<EntityCounts>(2 * expectedChunks);
+        _chunks = new LongObjectMap<EntityCounts>(expectedChunks);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the section of the box containing the specified block Y
+     * coordinate, clamped to the World's height range.
+     *
+     * @param blockY the block Y coordinate.
+     * @return the section index.
+     */
+    public int getSection(int blockY) {
+        return Math.max(_minSection, Math.min(_maxSection, blockY >> 4));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of entities of a type in a box.
+     *
+     * @param boxKey the box key, with a section from
+     *        {@link #getSection(int)}.
+     * @param ordinal the EntityType ordinal.
+     * @return the number of entities.
+     */
+    public int getBoxTotal(long boxKey, int ordinal) {
+        EntityCounts counts = _boxes.get(boxKey);
+        return (counts != null) ? counts.getTotal(ordinal) : 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of entities of a type in a chunk.
+     *
+     * @param chunkKey the chunk key.
+     * @param ordinal the EntityType ordinal.
+     * @return the number of entities.
+     */
+    public int getChunkTotal(long chunkKey, int ordinal) {
+        EntityCounts counts = _chunks.get(chunkKey);
+        return (counts != null) ? counts.getTotal(ordinal) : 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of entities of a type in the World.
+     *
+     * @param ordinal the EntityType ordinal.
+     * @return the number of entities.
+     */
+    public int getWorldTotal(int ordinal) {
+        return _totals.getTotal(ordinal);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Adjust the number of entities of a type in a box, its chunk and the
+     * World.
+     *
+     * Decrements that would make the count of the box negative are ignored,
+     * since the entity was not counted when the cache was built.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param section the section, from {@link #getSection(int)}.
+     * @param chunkZ the chunk Z coordinate.
+     * @param ordinal the EntityType ordinal.
+     * @param delta the amount to add; may be negative.
+     */
+    public void add(int chunkX, int section, int chunkZ, int ordinal, int delta) {
+        add(Keys.box(chunkX, section, chunkZ), ordinal, delta);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Adjust the number of entities of a type in a box, its chunk and the
+     * World.
+     *
+     * @param boxKey the box key, with a section from
+     *        {@link #getSection(int)}.
+     * @param ordinal the EntityType ordinal.
+     * @param delta the amount to add; may be negative.
+     * @see #add(int, int, int, int, int)
+     */
+    public void add(long boxKey, int ordinal, int delta) {
+        EntityCounts box = _boxes.get(boxKey);
+        if (delta < 0 && (box == null || box.getTotal(ordinal) < -delta)) {
+            return;
+        }
+        if (box == null) {
+            box = new EntityCounts();
+            _boxes.put(boxKey, box);
+        }
+        box.add(ordinal, delta);
+
+        long chunkKey = Keys.boxChunk(boxKey);
+        EntityCounts chunk = _chunks.get(chunkKey);
+        if (chunk == null) {
+            chunk = new EntityCounts();
+            _chunks.put(chunkKey, chunk);
+        }
+        chunk.add(ordinal, delta);
+        _totals.add(ordinal, delta);
+    } // add
+
+    // ------------------------------------------------------------------------
+    /**
+     * Lowest section index of the World.
+     */
+    protected final int _minSection;
+
+    /**
+     * Highest section index of the World.
+     */
+    protected final int _maxSection;
+
+    /**
+     * Counts of each populated box, keyed by box key.
+     */
+    protected final LongObjectMap<EntityCounts> _boxes;
+
+    /**
+     * Counts of each populated chunk, keyed by chunk key.
+     */
+    protected final LongObjectMap<EntityCounts> _chunks;
+
+    /**
+     * Total counts of the World.
+     */
+    protected final EntityCounts _totals = new EntityCounts();
+} // class DensityCache
@@ -0,0 +1,221 @@
+package io.totemo.ec;
+
+import java.util.HashMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityTeleportEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+
+import com.destroystokyo.paper.event.entity.EntityAddToWorldEvent;
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
+
+import io.papermc.paper.event.entity.EntityMoveEvent;
+
+// ----------------------------------------------------------------------------
+/**
+ * Marks the {@link ChunkCount}s of the most recent count of each World dirty
+ * when entities are added to, removed from or move between boxes of the
+ * corresponding chunks, so that the next count only reads changed chunks.
+ *
+ * Non-living entities do not raise movement events, so a chunk whose counts
+ * have not been marked dirty is nevertheless re-read once its counts are older
+ * than the configured maximum age.
+ *
+ * A chunk that changes while its World is being counted may already have been
+ * captured by the count, which would then publish clean counts of its old
+ * contents. The keys of such chunks are therefore also remembered until the
+ * count finishes, and the new counts of those chunks are marked dirty too.
+ */
+public class DirtyChunkTracker implements Listener {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param plugin the owning plugin.
+     */
+    public DirtyChunkTracker(EntityControl plugin) {
+        _plugin = plugin;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Enable or disable the tracker by registering or unregistering its event
+     * handlers.
+     *
+     * @param enabled true to enable the tracker.
+     */
+    public void setEnabled(boolean enabled) {
+        _dirtiedDuringCount.clear();
+        if (enabled != _enabled) {
+            _enabled = enabled;
+            if (enabled) {
+                Bukkit.getServer().getPluginManager().registerEvents(this, _plugin);
+            } else {
+                HandlerList.unregisterAll(this);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the tracker is enabled.
+     *
+     * @return true if the tracker is enabled.
+     */
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Mark the chunks that changed during a count of a World dirty in the
+     * count's results.
+     *
+     * Called when the count finishes or fails, before the results (if any)
+     * are published.
+     *
+     * @param world the counted World.
+     * @param count the new counts, or null if the count failed.
+     */
+    public void onCountFinished(World world, WorldCount count) {
+        LongObjectMap<Boolean> keys = _dirtiedDuringCount.remove(world.getName());
+        if (keys != null && count != null) {
+            for (int i = 0; i < keys.capacity(); ++i) {
+                if (keys.valueAt(i) != null) {
+                    ChunkCount chunkCount = count.getChunkCount(keys.keyAt(i));
+                    if (chunkCount != null) {
+                        chunkCount.markDirty();
+                    }
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Mark the chunk of an added entity dirty.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityAddToWorld(EntityAddToWorldEvent event) {
+        markDirty(event.getEntity().getLocation(_scratch));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Mark the chunk of a removed entity dirty.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityRemoveFromWorld(EntityRemoveFromWorldEvent event) {
+        markDirty(event.getEntity().getLocation(_scratch));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Mark the chunks of a living entity that crosses a box boundary dirty.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityMove(EntityMoveEvent event) {
+        markMoved(event.getFrom(), event.getTo());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Mark the chunks of a player who crosses a box boundary dirty.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        markMoved(event.getFrom(), event.getTo());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Mark the chunks of a player who teleports dirty.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event) {
+        markMoved(event.getFrom(), event.getTo());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Mark the chunks of a non-player entity that teleports dirty.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityTeleport(EntityTeleportEvent event) {
+        markMoved(event.getFrom(), event.getTo());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Mark the chunks at both ends of a movement dirty if the movement crosses
+     * a box boundary.
+     *
+     * @param from the old location.
+     * @param to the new location; may be null.
+     */
+    protected void markMoved(Location from, Location to) {
+        if (to != null && LiveCensus.crossesBox(from, to)) {
+            markDirty(from);
+            markDirty(to);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Mark the chunk containing the specified location dirty in the most
+     * recent count of its World, if that chunk was counted, and remember it
+     * if the World is being counted.
+     *
+     * @param loc the location.
+     */
+    protected void markDirty(Location loc) {
+        World world = loc.getWorld();
+        if (world != null) {
+            long chunkKey = Keys.chunk(loc.getBlockX() >> 4, loc.getBlockZ() >> 4);
+            WorldCount count = _plugin.findWorldCount(world.getName());
+            if (count != null) {
+                ChunkCount chunkCount = count.getChunkCount(chunkKey);
+                if (chunkCount != null) {
+                    chunkCount.markDirty();
+                }
+            }
+            if (_plugin._countTasks.containsKey(world.getName())) {
+                LongObjectMap<Boolean> keys = _dirtiedDuringCount.get(world.getName());
+                if (keys == null) {
+                    keys = new LongObjectMap<Boolean>();
+                    _dirtiedDuringCount.put(world.getName(), keys);
+                }
+                keys.put(chunkKey, Boolean.TRUE);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Owning plugin.
+     */
+    protected final EntityControl _plugin;
+
+    /**
+     * True if the event handlers are registered.
+     */
+    protected boolean _enabled;
+
+    /**
+     * Map from world name to the keys of the chunks that changed while the
+     * World was being counted.
+     */
+    protected final HashMap<String, LongObjectMap<Boolean>> _dirtiedDuringCount = new HashMap<String, LongObjectMap<Boolean>>();
+
+    /**
+     * Reusable Location for Entity.getLocation(Location).
+     */
+    protected final Location _scratch = new Location(null, 0, 0, 0);
+} // class DirtyChunkTracker
@@ -0,0 +1,207 @@
+package io.totemo.ec;
+
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.EntityType;
+
+// ----------------------------------------------------------------------------
+/**
+ * Configured maximum numbers of entities of each type per 16x16x16 box, per
+ * chunk and per world, used both for culling caps and spawn limits.
+ *
+ * Caps are stored in arrays indexed by EntityType ordinal, so that they can
+ * be looked up for every counted type without hashing. Types without a cap at
+ * some scope have a cap of {@link #UNCAPPED} there.
+ */
+public class EntityCaps {
+    /**
+     * The cap of entity types that are not capped.
+     */
+    public static final int UNCAPPED = Integer.MAX_VALUE;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load caps from a configuration section of the form:
+     *
+     * <pre>
+     * box:
+     *   COW: 40
+     * chunk:
+     *   ITEM: 300
+     * world:
+     *   ZOMBIE: 2000
+     * </pre>
+     *
+     * Invalid entity type names, negative caps and caps on players are logged
+     * and ignored.
+     *
+     * @param section the configuration section, or null if there is none.
+     * @param path the path of the section, used in log messages.
+     * @param logger used to log invalid settings.
+     * @return the caps.
+     */
+    public static EntityCaps load(ConfigurationSection section, String path, Logger logger) {
+        EntityCaps caps = new EntityCaps();
+        if (section != null) {
+            caps._anyCaps |= loadScope(section, path, "box", caps._box, logger);
+            caps._anyCaps |= loadScope(section, path, "chunk", caps._chunk, logger);
+            caps._anyCaps |= loadScope(section, path, "world", caps._world, logger);
+            for (int ordinal = 0; ordinal < caps._capped.length; ++ordinal) {
+                caps._capped[ordinal] = caps._box[ordinal] != UNCAPPED
+                                        || caps._chunk[ordinal] != UNCAPPED
+                                        || caps._world[ordinal] != UNCAPPED;
+                caps._anyWorldCaps |= (caps._world[ordinal] != UNCAPPED);
+            }
+        }
+        return caps;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * Constructs caps with no type capped.
+     */
+    public EntityCaps() {
+        Arrays.fill(_box, UNCAPPED);
+        Arrays.fill(_chunk, UNCAPPED);
+        Arrays.fill(_world, UNCAPPED);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if any entity type is capped at any scope.
+     *
+     * @return true if any entity type is capped at any scope.
+     */
+    public boolean hasCaps() {
+        return _anyCaps;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if any entity type is capped per world.
+     *
+     * @return true if any entity type is capped per world.
+     */
+    public boolean hasWorldCaps() {
+        return _anyWorldCaps;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified entity type is capped at any scope.
+     *
+     * @param ordinal the EntityType ordinal.
+     * @return true if the type is capped.
+     */
+    public boolean isCapped(int ordinal) {
+        return _capped[ordinal];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the maximum number of entities of a type per 16x16x16 box.
+     *
+     * @param ordinal the EntityType ordinal.
+     * @return the cap, or {@link #UNCAPPED}.
+     */
+    public int getBoxCap(int ordinal) {
+        return _box[ordinal];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the maximum number of entities of a type per chunk.
+     *
+     * @param ordinal the EntityType ordinal.
+     * @return the cap, or {@link #UNCAPPED}.
+     */
+    public int getChunkCap(int ordinal) {
+        return _chunk[ordinal];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the maximum number of entities of a type per world.
+     *
+     * @param ordinal the EntityType ordinal.
+     * @return the cap, or {@link #UNCAPPED}.
+     */
+    public int getWorldCap(int ordinal) {
+        return _world[ordinal];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Load the caps of one scope.
+     *
+     * @param section the parent configuration section.
+     * @param path the path of the parent section, used in log messages.
+     * @param scope the name of the scope's subsection.
+     * @param caps the array of caps to update.
+     * @param logger used to log invalid settings.
+     * @return true if any caps were loaded.
+     */
+    protected static boolean loadScope(ConfigurationSection section, String path, String scope, int[] caps, Logger logger) {
+        ConfigurationSection scopeSection = section.getConfigurationSection(scope);
+        if (scopeSection == null) {
+            return false;
+        }
+
+        boolean loaded = false;
+        for (String typeName : scopeSection.getKeys(false)) {
+            EntityType type;
+            try {
+                type = EntityType.valueOf(typeName.toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                logger.warning("Invalid entity type in " + path + "." + scope + ": " + typeName);
+                continue;
+            }
+
+            int cap = scopeSection.getInt(typeName, -1);
+            if (type == EntityType.PLAYER) {
+                logger.warning("Players cannot be capped (" + path + "." + scope + ").");
+            } else if (cap < 0) {
+                logger.warning("Invalid cap for " + typeName + " in " + path + "." + scope + ".");
+            } else {
+                caps[type.ordinal()] = cap;
+                loaded = true;
+            }
+        }
+        return loaded;
+    } // loadScope
+
+    // ------------------------------------------------------------------------
+    /**
+     * Caps per box, indexed by EntityType ordinal.
+     */
+    protected final int[] _box = new int[EntityCounts.ENTITY_TYPES.length];
+
+    /**
+     * Caps per chunk, indexed by EntityType ordinal.
+     */
+    protected final int[] _chunk = new int[EntityCounts.ENTITY_TYPES.length];
+
+    /**
+     * Caps per world, indexed by EntityType ordinal.
+     */
+    protected final int[] _world = new int[EntityCounts.ENTITY_TYPES.length];
+
+    /**
+     * True for each EntityType ordinal that is capped at any scope.
+     */
+    protected final boolean[] _capped = new boolean[EntityCounts.ENTITY_TYPES.length];
+
+    /**
+     * True if any type is capped at any scope.
+     */
+    protected boolean _anyCaps;
+
+    /**
+     * True if any type is capped per world.
+     */
+    protected boolean _anyWorldCaps;
+} // class EntityCaps
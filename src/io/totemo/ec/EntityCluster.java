@@ -0,0 +1,148 @@
+package io.totemo.ec;
+
+import org.bukkit.Location;
+import org.bukkit.entity.EntityType;
+
+// ----------------------------------------------------------------------------
+/**
+ * A group of entities of one type spread over one or more adjacent 16x16x16
+ * boxes, such as a farm that crosses box or chunk borders.
+ *
+ * Clusters are found by {@link ClusterDetector} and listed by /ec clusters.
+ */
+public final class EntityCluster {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param type the entity type.
+     * @param count the total number of entities in the cluster.
+     * @param boxCount the number of boxes in the cluster.
+     * @param minBoxX the minimum chunk X coordinate of the boxes.
+     * @param minBoxY the minimum section of the boxes.
+     * @param minBoxZ the minimum chunk Z coordinate of the boxes.
+     * @param maxBoxX the maximum chunk X coordinate of the boxes.
+     * @param maxBoxY the maximum section of the boxes.
+     * @param maxBoxZ the maximum chunk Z coordinate of the boxes.
+     * @param location representative location to use as a teleport target.
+     */
+    public EntityCluster(EntityType type, int count, int boxCount,
+                         int minBoxX, int minBoxY, int minBoxZ, int maxBoxX, int maxBoxY, int maxBoxZ,
+                         Location location) {
+        _type = type;
+        _count = count;
+        _boxCount = boxCount;
+        _minBoxX = minBoxX;
+        _minBoxY = minBoxY;
+        _minBoxZ = minBoxZ;
+        _maxBoxX = maxBoxX;
+        _maxBoxY = maxBoxY;
+        _maxBoxZ = maxBoxZ;
+        _location = location;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the type of all entities in this cluster.
+     *
+     * @return the type of all entities in this cluster.
+     */
+    public EntityType getEntityType() {
+        return _type;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total number of entities in this cluster.
+     *
+     * @return the total number of entities in this cluster.
+     */
+    public int getCount() {
+        return _count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of 16x16x16 boxes in this cluster.
+     *
+     * @return the number of boxes.
+     */
+    public int getBoxCount() {
+        return _boxCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a description of the block bounds of this cluster, in the form
+     * "(x1, y1, z1) to (x2, y2, z2)".
+     *
+     * @return the description of the bounds.
+     */
+    public String getBounds() {
+        return String.format("(%d, %d, %d) to (%d, %d, %d)",
+                             _minBoxX << 4, _minBoxY << 4, _minBoxZ << 4,
+                             (_maxBoxX << 4) + 15, (_maxBoxY << 4) + 15, (_maxBoxZ << 4) + 15);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the location of an entity in the most populous box of the
+     * cluster.
+     *
+     * @return the teleport target.
+     */
+    public Location getLocation() {
+        return _location;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The entity type.
+     */
+    private final EntityType _type;
+
+    /**
+     * Total number of entities in the cluster.
+     */
+    private final int _count;
+
+    /**
+     * Number of boxes in the cluster.
+     */
+    private final int _boxCount;
+
+    /**
+     * Minimum chunk X coordinate of the boxes.
+     */
+    private final int _minBoxX;
+
+    /**
+     * Minimum section of the boxes.
+     */
+    private final int _minBoxY;
+
+    /**
+     * Minimum chunk Z coordinate of the boxes.
+     */
+    private final int _minBoxZ;
+
+    /**
+     * Maximum chunk X coordinate of the boxes.
+     */
+    private final int _maxBoxX;
+
+    /**
+     * Maximum section of the boxes.
+     */
+    private final int _maxBoxY;
+
+    /**
+     * Maximum chunk Z coordinate of the boxes.
+     */
+    private final int _maxBoxZ;
+
+    /**
+     * Representative location to use as a teleport target.
+     */
+    private final Location _location;
+} // class EntityCluster
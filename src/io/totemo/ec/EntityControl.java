@@ -1,13 +1,25 @@
 package io.totemo.ec;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
-import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.OfflinePlayer;
 import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 
@@ -21,6 +33,11 @@ public class EntityControl extends JavaPlugin {
      */
     public static Configuration CONFIG;
 
+    /**
+     * Timings and gauges for /ec stats and the {@link MetricsExporter}.
+     */
+    public static final Metrics METRICS = new Metrics();
+
     // ------------------------------------------------------------------------
     /**
      * @see org.bukkit.plugin.java.JavaPlugin#onEnable()
@@ -30,6 +47,15 @@ public class EntityControl extends JavaPlugin {
         saveDefaultConfig();
         CONFIG = new Configuration(this);
         CONFIG.reload();
+        _census.setEnabled(CONFIG.LIVE_CENSUS);
+        _dirtyTracker.setEnabled(CONFIG.INCREMENTAL_COUNT);
+        _culler.setEnabled(isCullingEnabled());
+        _spawnLimiter.setEnabled(CONFIG.SPAWN_LIMITS.hasCaps());
+        _history.setEnabled(CONFIG.HISTORY);
+        _listSessions.setEnabled(true);
+        _metricsExporter.setEnabled(true);
+        _lagMonitor.setEnabled(CONFIG.LAG_MSPT > 0);
+        configureAggregator();
     }
 
     // ------------------------------------------------------------------------
@@ -38,6 +64,27 @@ public class EntityControl extends JavaPlugin {
      */
     @Override
     public void onDisable() {
+        for (CountTask task : _countTasks.values()) {
+            task.cancel();
+        }
+        _countTasks.clear();
+        _globalCount = null;
+        for (OfflineScan scan : _offlineScans.values()) {
+            scan.cancel();
+        }
+        _offlineScans.clear();
+        _census.setEnabled(false);
+        _dirtyTracker.setEnabled(false);
+        _culler.setEnabled(false);
+        _spawnLimiter.setEnabled(false);
+        _history.setEnabled(false);
+        _listSessions.setEnabled(false);
+        _metricsExporter.setEnabled(false);
+        _lagMonitor.setEnabled(false);
+        if (_aggregator != null) {
+            _aggregator.shutdown();
+            _aggregator = null;
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -50,8 +97,22 @@ public class EntityControl extends JavaPlugin {
      *      <li>/ec reload</li>
      *      <li>/ec debug</li>
      *      <li>/ec count [world]</li>
-     *      <li>/ec list [world] [page]</li>
-     *      <li>/ec tp [world] id</li>
+     *      <li>/ec count -all</li>
+     *      <li>/ec list [world] [page] [-w world] [-a | -d | -t type,...]</li>
+     *      <li>/ec tp [world] id [-w world]</li>
+     *      <li>/ec remove type [radius | x y z w h d] [-w world]</li>
+     *      <li>/ec find name prefix</li>
+     *      <li>/ec find owner player</li>
+     *      <li>/ec find tp id</li>
+     *      <li>/ec history [type] [hours] [-w world]</li>
+     *      <li>/ec heatmap [world] [type] [-b]</li>
+     *      <li>/ec clusters [world] [page] [-w world] [-a | -d | -t type,...]</li>
+     *      <li>/ec clusters tp [world] id [-w world]</li>
+     *      <li>/ec blocks [world] [page] [-w world]</li>
+     *      <li>/ec blocks tp [world] id [-w world]</li>
+     *      <li>/ec stats</li>
+     *      <li>/ec scan-offline [world]</li>
+     *      <li>/ec near [radius] [type]</li>
      *      </ul>
      */
     @Override
@@ -67,6 +128,14 @@ public class EntityControl extends JavaPlugin {
                     return true;
                 }
                 CONFIG.reload();
+                _census.setEnabled(CONFIG.LIVE_CENSUS);
+                _dirtyTracker.setEnabled(CONFIG.INCREMENTAL_COUNT);
+                _culler.setEnabled(isCullingEnabled());
+                _spawnLimiter.setEnabled(CONFIG.SPAWN_LIMITS.hasCaps());
+                _history.setEnabled(CONFIG.HISTORY);
+                _metricsExporter.setEnabled(true);
+                _lagMonitor.setEnabled(CONFIG.LAG_MSPT > 0);
+                configureAggregator();
                 sender.sendMessage(ChatColor.GOLD + "EntityControl configuration reloaded.");
                 return true;
             }
@@ -85,6 +154,31 @@ public class EntityControl extends JavaPlugin {
             if (handleTP(sender, args)) {
                 return true;
             }
+            if (handleRemove(sender, args)) {
+                return true;
+            }
+            if (handleFind(sender, args)) {
+                return true;
+            }
+            if (handleHistory(sender, args)) {
+                return true;
+            }
+            if (handleHeatmap(sender, args)) {
+                return true;
+            }
+            if (handleClusters(sender, args)) {
+                return true;
+            }
+            if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+                METRICS.show(sender);
+                return true;
+            }
+            if (handleScanOffline(sender, args)) {
+                return true;
+            }
+            if (handleNear(sender, args)) {
+                return true;
+            }
         }
 
         sender.sendMessage(ChatColor.RED + "Invalid command syntax.");
@@ -93,7 +187,7 @@ public class EntityControl extends JavaPlugin {
 
     // ------------------------------------------------------------------------
     /**
-     * Handle /ec count [world].
+     * Handle /ec count [world] and /ec count -all.
      *
      * @param sender the command sender.
      * @param args command arguments.
@@ -101,6 +195,10 @@ public class EntityControl extends JavaPlugin {
      */
     protected boolean handleCount(CommandSender sender, String[] args) {
         if (args.length >= 1 && args.length <= 2 && args[0].equalsIgnoreCase("count")) {
+            if (args.length == 2 && args[1].equalsIgnoreCase("-all")) {
+                countAllWorlds(sender);
+                return true;
+            }
             World world = getWorldFromArgs(sender, args, (args.length == 2) ? 1 : -1);
             if (world != null) {
                 countWorld(sender, world);
@@ -113,7 +211,10 @@ public class EntityControl extends JavaPlugin {
 
     // ------------------------------------------------------------------------
     /**
-     * Handle /ec list [world] [page].
+     * Handle /ec list [world] [page] [-w world] [-a | -d | -t type,...].
+     *
+     * Groups are listed through the sender's {@link ListView}, using the
+     * filter chosen by the most recent -a, -d or -t option.
      *
      * @param sender the command sender.
      * @param args command arguments.
@@ -121,7 +222,15 @@ public class EntityControl extends JavaPlugin {
      *         error handling.
      */
     protected boolean handleList(CommandSender sender, String[] args) {
-        if (args.length >= 1 && args.length <= 3 && args[0].equalsIgnoreCase("list")) {
+        if (args.length < 1 || !args[0].equalsIgnoreCase("list")) {
+            return false;
+        }
+        ListSessions.Session session = _listSessions.get(sender);
+        args = parseListOptions(sender, args, session);
+        if (args == null) {
+            return true;
+        }
+        if (args.length <= 3) {
             World world;
             int page = 1;
 
@@ -155,12 +264,10 @@ public class EntityControl extends JavaPlugin {
                 return true;
             }
 
-            WorldCount worldCount = getWorldCount(world.getName());
-            if (!worldCount.hasCounts()) {
-                countWorld(sender, world);
+            WorldCount worldCount = getFinishedWorldCount(sender, world);
+            if (worldCount != null) {
+                worldCount.list(sender, page, session.getView(world.getName(), worldCount));
             }
-
-            worldCount.list(sender, page);
             return true;
         } else {
             return false;
@@ -169,7 +276,9 @@ public class EntityControl extends JavaPlugin {
 
     // ------------------------------------------------------------------------
     /**
-     * Handle /ec tp [world] id.
+     * Handle /ec tp [world] id [-w world].
+     *
+     * IDs are those shown by the sender's most recent /ec list of the world.
      *
      * @param sender the command sender.
      * @param args command arguments.
@@ -177,7 +286,14 @@ public class EntityControl extends JavaPlugin {
      *         error handling.
      */
     protected boolean handleTP(CommandSender sender, String[] args) {
-        if (args.length >= 2 && args.length <= 3 && args[0].equalsIgnoreCase("tp")) {
+        if (args.length < 1 || !args[0].equalsIgnoreCase("tp")) {
+            return false;
+        }
+        args = parseListOptions(sender, args, null);
+        if (args == null) {
+            return true;
+        }
+        if (args.length >= 2 && args.length <= 3) {
             if (!(sender instanceof Player)) {
                 sender.sendMessage(ChatColor.RED + "You must be in game to teleport.");
                 return true;
@@ -213,19 +329,757 @@ public class EntityControl extends JavaPlugin {
                 return true;
             }
 
-            WorldCount worldCount = getWorldCount(world.getName());
-            if (!worldCount.hasCounts()) {
-                countWorld(sender, world);
+            WorldCount worldCount = getFinishedWorldCount(sender, world);
+            if (worldCount != null) {
+                worldCount.tp(sender, id, _listSessions.get(sender).getView(world.getName(), worldCount));
             }
+            return true;
 
-            worldCount.tp(sender, id);
+        } else {
+            return false;
+        }
+    } // handleTP
 
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /ec clusters [world] [page] [-w world] [-a | -d | -t type,...],
+     * /ec clusters tp [world] id [-w world], /ec blocks [world] [page]
+     * [-w world] and /ec blocks tp [world] id [-w world].
+     *
+     * Like /ec list and /ec tp, but for {@link EntityCluster}s: groups of the
+     * same entity type in adjacent boxes are combined, so that farms that
+     * cross box or chunk borders are ranked by their full size. The sender's
+     * list filter applies.
+     *
+     * /ec blocks lists and teleports to {@link BlockEntityGroup}s instead:
+     * the block entities of one Material in a box. The list filter, which
+     * selects entity types, does not apply.
+     *
+     * @param sender the command sender.
+     * @param args command arguments.
+     * @return true if command was handled; false if Bukkit should do standard
+     *         error handling.
+     */
+    protected boolean handleClusters(CommandSender sender, String[] args) {
+        if (args.length < 1 || !(args[0].equalsIgnoreCase("clusters") || args[0].equalsIgnoreCase("blocks"))) {
+            return false;
+        }
+
+        boolean blocks = args[0].equalsIgnoreCase("blocks");
+        boolean tp = (args.length >= 2 && args[1].equalsIgnoreCase("tp"));
+        ListSessions.Session session = _listSessions.get(sender);
+        args = parseListOptions(sender, args, (tp || blocks) ? null : session);
+        if (args == null) {
             return true;
+        }
+        int first = tp ? 2 : 1;
+        if (args.length - first > 2 || (tp && args.length == first)) {
+            return false;
+        }
+        if (tp && !(sender instanceof Player)) {
+            sender.sendMessage(ChatColor.RED + "You must be in game to teleport.");
+            return true;
+        }
+
+        // The last argument is the page or ID, if numeric; otherwise a world.
+        int number = 1;
+        int worldIndex = -1;
+        if (args.length > first) {
+            String last = args[args.length - 1];
+            try {
+                number = Integer.parseInt(last);
+                if (args.length - first == 2) {
+                    worldIndex = first;
+                }
+            } catch (NumberFormatException ex) {
+                if (tp || args.length - first == 2) {
+                    sender.sendMessage(ChatColor.RED + last + " is not a valid " + (tp ? "id" : "page") + " number.");
+                    return true;
+                }
+                worldIndex = first;
+            }
+        }
+
+        World world = getWorldFromArgs(sender, args, worldIndex);
+        if (world == null) {
+            return true;
+        }
+        WorldCount worldCount = getFinishedWorldCount(sender, world);
+        if (worldCount != null) {
+            if (blocks) {
+                if (tp) {
+                    worldCount.tpBlockGroup(sender, number);
+                } else {
+                    worldCount.listBlockGroups(sender, number);
+                }
+            } else if (tp) {
+                worldCount.tpCluster(sender, number, session.getFilter());
+            } else {
+                worldCount.listClusters(sender, number, session.getFilter());
+            }
+        }
+        return true;
+    } // handleClusters
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the -w world option and, if a session is specified, the list
+     * filter options from command arguments.
+     *
+     * The world named by -w is moved to the first argument after the
+     * subcommand (and the subcommand's own first argument, if it is "tp"),
+     * where the handlers expect an optional world name. The filter options
+     * set the session's filter: -a shows all types, -d restores the default
+     * filter and -t shows only the comma-separated types that follow.
+     *
+     * @param sender the command sender.
+     * @param args command arguments.
+     * @param session the sender's list session, or null if filter options
+     *        are not allowed.
+     * @return the remaining arguments, or null if the options were invalid,
+     *         in which case the sender has been told why.
+     */
+    protected String[] parseListOptions(CommandSender sender, String[] args, ListSessions.Session session) {
+        ArrayList<String> remaining = new ArrayList<String>();
+        String worldName = null;
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if (arg.equalsIgnoreCase("-w")) {
+                if (i + 1 >= args.length) {
+                    sender.sendMessage(ChatColor.RED + "You must specify a world after -w.");
+                    return null;
+                }
+                worldName = args[++i];
+            } else if (session != null && arg.equalsIgnoreCase("-a")) {
+                session.setFilter(ListFilter.ALL);
+                sender.sendMessage(ChatColor.GOLD + "Showing " + ListFilter.ALL + ".");
+            } else if (session != null && arg.equalsIgnoreCase("-d")) {
+                session.setFilter(ListFilter.DEFAULT);
+                sender.sendMessage(ChatColor.GOLD + "Showing " + ListFilter.DEFAULT + ".");
+            } else if (session != null && arg.equalsIgnoreCase("-t")) {
+                if (i + 1 >= args.length) {
+                    sender.sendMessage(ChatColor.RED + "You must specify entity types after -t.");
+                    return null;
+                }
+                ArrayList<EntityType> types = new ArrayList<EntityType>();
+                for (String typeName : args[++i].split(",")) {
+                    try {
+                        types.add(EntityType.valueOf(typeName.toUpperCase()));
+                    } catch (IllegalArgumentException ex) {
+                        sender.sendMessage(ChatColor.RED + typeName + " is not a valid entity type.");
+                        return null;
+                    }
+                }
+                ListFilter filter = ListFilter.showing(types);
+                session.setFilter(filter);
+                sender.sendMessage(ChatColor.GOLD + "Showing " + filter + ".");
+            } else {
+                remaining.add(arg);
+            }
+        }
+        if (worldName != null) {
+            int worldIndex = (remaining.size() > 1 && remaining.get(1).equalsIgnoreCase("tp")) ? 2 : 1;
+            remaining.add(worldIndex, worldName);
+        }
+        return remaining.toArray(new String[remaining.size()]);
+    } // parseListOptions
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /ec remove type [radius | x y z w h d] [-w world].
+     *
+     * With no coordinates, or just a radius, entities are removed within a
+     * sphere centred on the player, of the specified or default radius. With
+     * coordinates, they are removed within a box of the specified width,
+     * height and depth centred on x, y, z, in the world given by -w or the
+     * default world.
+     *
+     * @param sender the command sender.
+     * @param args command arguments.
+     * @return true if command was handled; false if Bukkit should do standard
+     *         error handling.
+     */
+    protected boolean handleRemove(CommandSender sender, String[] args) {
+        if (args.length < 2 || !args[0].equalsIgnoreCase("remove")) {
+            return false;
+        }
+        if (!sender.hasPermission("EntityControl.admin")) {
+            sender.sendMessage(ChatColor.RED + "You don't have permission to remove entities.");
+            return true;
+        }
+
+        EntityType type;
+        try {
+            type = EntityType.valueOf(args[1].toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            sender.sendMessage(ChatColor.RED + args[1] + " is not a valid entity type.");
+            return true;
+        }
+        if (type == EntityType.PLAYER) {
+            sender.sendMessage(ChatColor.RED + "Players cannot be removed.");
+            return true;
+        }
+
+        // Separate the optional world from the numeric arguments.
+        String worldName = null;
+        ArrayList<Double> values = new ArrayList<Double>();
+        for (int i = 2; i < args.length; ++i) {
+            if (args[i].equalsIgnoreCase("-w")) {
+                if (i + 1 >= args.length) {
+                    sender.sendMessage(ChatColor.RED + "You must specify a world after -w.");
+                    return true;
+                }
+                worldName = args[++i];
+            } else {
+                try {
+                    values.add(Double.parseDouble(args[i]));
+                } catch (NumberFormatException ex) {
+                    sender.sendMessage(ChatColor.RED + args[i] + " is not a valid number.");
+                    return true;
+                }
+            }
+        }
+
+        World world;
+        Location min;
+        Location max;
+        double radius;
+        if (values.size() <= 1) {
+            if (!(sender instanceof Player)) {
+                sender.sendMessage(ChatColor.RED + "You must specify a box (x y z w h d) from the console.");
+                return true;
+            }
+            Location centre = ((Player) sender).getLocation();
+            world = centre.getWorld();
+            if (worldName != null && !worldName.equals(world.getName())) {
+                sender.sendMessage(ChatColor.RED + "A radius can only be used in your current world.");
+                return true;
+            }
+            radius = values.isEmpty() ? RemoveTask.DEFAULT_RADIUS : values.get(0);
+            if (radius <= 0) {
+                sender.sendMessage(ChatColor.RED + "The radius must be positive.");
+                return true;
+            }
+            min = centre.clone().add(-radius, -radius, -radius);
+            max = centre.clone().add(radius, radius, radius);
+
+        } else if (values.size() == 6) {
+            world = (worldName != null) ? getWorldFromArgs(sender, new String[] { worldName }, 0)
+                                        : getWorldFromArgs(sender, args, -1);
+            if (world == null) {
+                return true;
+            }
+            double halfWidth = 0.5 * values.get(3);
+            double halfHeight = 0.5 * values.get(4);
+            double halfDepth = 0.5 * values.get(5);
+            if (halfWidth <= 0 || halfHeight <= 0 || halfDepth <= 0) {
+                sender.sendMessage(ChatColor.RED + "The box dimensions must be positive.");
+                return true;
+            }
+            min = new Location(world, values.get(0) - halfWidth, values.get(1) - halfHeight, values.get(2) - halfDepth);
+            max = new Location(world, values.get(0) + halfWidth, values.get(1) + halfHeight, values.get(2) + halfDepth);
+            radius = 0;
 
         } else {
+            sender.sendMessage(ChatColor.RED + "Specify either a radius or a box: x y z width height depth.");
+            return true;
+        }
+
+        // Without the dirty tracker, changes since the count are unknown. An
+        // offline count reads loaded chunks from possibly stale region files.
+        WorldCount count = _dirtyTracker.isEnabled() ? findWorldCount(world.getName()) : null;
+        if (count != null && count.isOffline()) {
+            count = null;
+        }
+        long[] chunkKeys = RemoveTask.selectChunks(world, count, type, min, max);
+        sender.sendMessage(ChatColor.GOLD + String.format("Removing %s from %d chunks of %s.",
+                                                          type.name(), chunkKeys.length, world.getName()));
+        getCountScheduler().add(new RemoveTask(sender, world, type, min, max, radius, chunkKeys));
+        return true;
+    } // handleRemove
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /ec find name prefix, /ec find owner player and /ec find tp id.
+     *
+     * Named entities and tamed mobs are looked up in the {@link NameIndex} of
+     * the most recent count of every world. The results are remembered per
+     * sender so that /ec find tp can teleport to them by ID.
+     *
+     * @param sender the command sender.
+     * @param args command arguments.
+     * @return true if command was handled; false if Bukkit should do standard
+     *         error handling.
+     */
+    protected boolean handleFind(CommandSender sender, String[] args) {
+        if (args.length < 3 || !args[0].equalsIgnoreCase("find")) {
             return false;
         }
-    } // handleTP
+
+        if (args[1].equalsIgnoreCase("tp")) {
+            if (!(sender instanceof Player)) {
+                sender.sendMessage(ChatColor.RED + "You must be in game to teleport.");
+                return true;
+            }
+            List<NamedEntity> results = _findResults.get(sender.getName());
+            int id;
+            try {
+                id = Integer.parseInt(args[2]);
+            } catch (NumberFormatException ex) {
+                sender.sendMessage(ChatColor.RED + args[2] + " is not a valid id number.");
+                return true;
+            }
+            if (results == null || id < 1 || id > results.size()) {
+                sender.sendMessage(ChatColor.RED + "There is no search result with that ID.");
+                return true;
+            }
+
+            // Go to where the entity is now, if it is loaded.
+            NamedEntity named = results.get(id - 1);
+            Entity entity = Bukkit.getEntity(named.getEntityId());
+            Location location = (entity != null && entity.isValid()) ? entity.getLocation() : named.getLocation();
+            ((Player) sender).teleport(location);
+            sender.sendMessage(ChatColor.GOLD + "Teleported to " + describe(id, named));
+            return true;
+        }
+
+        boolean byName = args[1].equalsIgnoreCase("name");
+        String prefix = null;
+        UUID ownerId = null;
+        if (byName) {
+            // Allow names containing spaces.
+            StringBuilder words = new StringBuilder(args[2]);
+            for (int i = 3; i < args.length; ++i) {
+                words.append(' ').append(args[i]);
+            }
+            prefix = words.toString();
+        } else if (args[1].equalsIgnoreCase("owner") && args.length == 3) {
+            ownerId = getPlayerId(args[2]);
+            if (ownerId == null) {
+                sender.sendMessage(ChatColor.RED + args[2] + " is not a known player.");
+                return true;
+            }
+        } else {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        ArrayList<NamedEntity> results = new ArrayList<NamedEntity>();
+        int worlds = 0;
+        for (WorldCount count : _worldCounts.values()) {
+            if (count.hasCounts()) {
+                NameIndex index = count.getNameIndex();
+                results.addAll(byName ? index.findByName(prefix) : index.findByOwner(ownerId));
+                ++worlds;
+            }
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        _findResults.put(sender.getName(), results);
+
+        if (worlds == 0) {
+            sender.sendMessage(ChatColor.GOLD + "No worlds have been counted yet. Use /ec count first.");
+            return true;
+        }
+        int shown = Math.min(results.size(), CONFIG.PAGE_SIZE);
+        for (int i = 0; i < shown; ++i) {
+            sender.sendMessage(ChatColor.YELLOW + describe(i + 1, results.get(i)));
+        }
+        if (shown < results.size()) {
+            sender.sendMessage(ChatColor.GOLD + String.format("... and %d more.", results.size() - shown));
+        }
+        sender.sendMessage(ChatColor.GOLD + String.format("Found %d matches in %d counted worlds in %.1f microseconds.",
+                                                          results.size(), worlds, elapsedNanos * 1e-3));
+        return true;
+    } // handleFind
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /ec history [type] [hours] [-w world].
+     *
+     * Shows the recorded totals of an entity type (or all entities) in a
+     * World over the specified number of hours (default 24), thinned out to
+     * at most a page of lines. The history is read in the background.
+     *
+     * @param sender the command sender.
+     * @param args command arguments.
+     * @return true if command was handled; false if Bukkit should do standard
+     *         error handling.
+     */
+    protected boolean handleHistory(CommandSender sender, String[] args) {
+        if (args.length < 1 || !args[0].equalsIgnoreCase("history")) {
+            return false;
+        }
+        if (!_history.isEnabled()) {
+            sender.sendMessage(ChatColor.RED + "Census history is disabled in the configuration.");
+            return true;
+        }
+
+        String worldName = null;
+        EntityType type = null;
+        double hours = 24;
+        for (int i = 1; i < args.length; ++i) {
+            if (args[i].equalsIgnoreCase("-w")) {
+                if (i + 1 >= args.length) {
+                    sender.sendMessage(ChatColor.RED + "You must specify a world after -w.");
+                    return true;
+                }
+                worldName = args[++i];
+            } else {
+                try {
+                    hours = Double.parseDouble(args[i]);
+                    if (hours <= 0) {
+                        sender.sendMessage(ChatColor.RED + "The number of hours must be positive.");
+                        return true;
+                    }
+                } catch (NumberFormatException ex) {
+                    try {
+                        type = EntityType.valueOf(args[i].toUpperCase());
+                    } catch (IllegalArgumentException ex2) {
+                        sender.sendMessage(ChatColor.RED + args[i] + " is not a valid entity type or number of hours.");
+                        return true;
+                    }
+                }
+            }
+        }
+
+        World world = (worldName != null) ? getWorldFromArgs(sender, new String[] { worldName }, 0)
+                                           : getWorldFromArgs(sender, args, -1);
+        if (world == null) {
+            return true;
+        }
+
+        String what = (type != null) ? type.name() : "entities";
+        String where = world.getName();
+        String span = (hours == Math.rint(hours)) ? Long.toString((long) hours) : Double.toString(hours);
+        long sinceMillis = System.currentTimeMillis() - (long) (hours * 3600000);
+        _history.query(where, (type != null) ? type.name() : null, sinceMillis, points -> {
+            if (points == null) {
+                sender.sendMessage(ChatColor.RED + "The history of " + where + " could not be read.");
+                return;
+            }
+            if (points.isEmpty()) {
+                sender.sendMessage(ChatColor.GOLD + String.format("No %s history of %s in the last %s hours.",
+                                                                  what, where, span));
+                return;
+            }
+
+            sender.sendMessage(ChatColor.GOLD + String.format("History of %s in %s over the last %s hours:",
+                                                              what, where, span));
+            SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm");
+            int rows = Math.max(2, CONFIG.PAGE_SIZE);
+            int n = points.size();
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (long[] point : points) {
+                min = Math.min(min, point[1]);
+                max = Math.max(max, point[1]);
+            }
+
+            long previous = points.get(0)[1];
+            for (int row = 0; row < Math.min(rows, n); ++row) {
+                long[] point = points.get((n <= rows) ? row : (int) ((long) row * (n - 1) / (rows - 1)));
+                sender.sendMessage(ChatColor.YELLOW + String.format("%s  %d (%+d)", format.format(new Date(point[0])),
+                                                                    point[1], point[1] - previous));
+                previous = point[1];
+            }
+            sender.sendMessage(ChatColor.GOLD + String.format("Min %d, max %d over %d counts.", min, max, n));
+        });
+        return true;
+    } // handleHistory
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /ec heatmap [world] [type] [-b].
+     *
+     * Exports the per-chunk totals of an entity type (or all entities) from
+     * the most recent count of a World to a {@link HeatmapExport} file in the
+     * heatmaps directory of the plugin's data folder. With -b, the totals of
+     * each 16x16x16 box are stored instead. The file is written
+     * asynchronously.
+     *
+     * @param sender the command sender.
+     * @param args command arguments.
+     * @return true if command was handled; false if Bukkit should do standard
+     *         error handling.
+     */
+    protected boolean handleHeatmap(CommandSender sender, String[] args) {
+        if (args.length < 1 || !args[0].equalsIgnoreCase("heatmap")) {
+            return false;
+        }
+        if (!sender.hasPermission("EntityControl.admin")) {
+            sender.sendMessage(ChatColor.RED + "You don't have permission to export heatmaps.");
+            return true;
+        }
+
+        boolean boxes = false;
+        ArrayList<String> positional = new ArrayList<String>();
+        for (int i = 1; i < args.length; ++i) {
+            if (args[i].equalsIgnoreCase("-b")) {
+                boxes = true;
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        if (positional.size() > 2) {
+            return false;
+        }
+
+        // A single argument is a type if it names one, else a world.
+        String worldName = null;
+        String typeName = null;
+        if (positional.size() == 2) {
+            worldName = positional.get(0);
+            typeName = positional.get(1);
+        } else if (positional.size() == 1) {
+            String arg = positional.get(0);
+            if (Arrays.stream(EntityCounts.ENTITY_TYPES).anyMatch(t -> t.name().equalsIgnoreCase(arg))) {
+                typeName = arg;
+            } else {
+                worldName = arg;
+            }
+        }
+
+        EntityType type = null;
+        if (typeName != null) {
+            try {
+                type = EntityType.valueOf(typeName.toUpperCase());
+            } catch (IllegalArgumentException ex) {
+                sender.sendMessage(ChatColor.RED + typeName + " is not a valid entity type.");
+                return true;
+            }
+        }
+
+        World world = (worldName != null) ? getWorldFromArgs(sender, new String[] { worldName }, 0)
+                                           : getWorldFromArgs(sender, args, -1);
+        if (world == null) {
+            return true;
+        }
+        WorldCount worldCount = getFinishedWorldCount(sender, world);
+        if (worldCount == null) {
+            return true;
+        }
+
+        File directory = new File(getDataFolder(), "heatmaps");
+        String fileName = String.format("%s-%s%s-%s%s", world.getName(), (type != null) ? type.name() : "ALL",
+                                        boxes ? "-boxes" : "",
+                                        new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()),
+                                        HeatmapExport.SUFFIX);
+        File file = new File(directory, fileName);
+        HeatmapExport export = new HeatmapExport(world, worldCount, (type != null) ? type.ordinal() : -1, boxes);
+        sender.sendMessage(ChatColor.GOLD + "Exporting a heatmap of " + world.getName() + ".");
+        Bukkit.getScheduler().runTaskAsynchronously(this, () -> {
+            long start = System.nanoTime();
+            String error = null;
+            try {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Could not create " + directory);
+                }
+                export.write(file);
+            } catch (IOException ex) {
+                error = ex.getMessage();
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            String failure = error;
+            Bukkit.getScheduler().runTask(this, () -> {
+                if (failure != null) {
+                    sender.sendMessage(ChatColor.RED + "The heatmap could not be written: " + failure);
+                } else {
+                    sender.sendMessage(ChatColor.GOLD + String.format("Wrote %d chunks in %d tiles (%d bytes) to %s in %.2f ms.",
+                                                                      export.getChunkCount(), export.getTileCount(),
+                                                                      export.getSize(), file.getPath(),
+                                                                      elapsedNanos * 1e-6));
+                }
+            });
+        });
+        return true;
+    } // handleHeatmap
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /ec scan-offline [world].
+     *
+     * Counts every chunk of the World that has been saved, loaded or not, by
+     * reading its entity region files with an {@link OfflineScan}. The result
+     * replaces the World's counts for /ec list, /ec tp, /ec clusters and
+     * /ec heatmap until the next count.
+     *
+     * @param sender the command sender.
+     * @param args command arguments.
+     * @return true if command was handled.
+     */
+    protected boolean handleScanOffline(CommandSender sender, String[] args) {
+        if (args.length < 1 || args.length > 2 || !args[0].equalsIgnoreCase("scan-offline")) {
+            return false;
+        }
+        if (!sender.hasPermission("EntityControl.admin")) {
+            sender.sendMessage(ChatColor.RED + "You don't have permission to scan region files.");
+            return true;
+        }
+
+        World world = getWorldFromArgs(sender, args, (args.length == 2) ? 1 : -1);
+        if (world == null) {
+            return true;
+        }
+        OfflineScan scan = _offlineScans.get(world.getName());
+        if (scan != null) {
+            sender.sendMessage(ChatColor.GOLD + scan.getProgress());
+        } else {
+            scan = new OfflineScan(this, sender, world);
+            _offlineScans.put(world.getName(), scan);
+            scan.start();
+            sender.sendMessage(ChatColor.GOLD + "Started scanning the entity region files of " + world.getName() + ".");
+        }
+        return true;
+    } // handleScanOffline
+
+    // ------------------------------------------------------------------------
+    /**
+     * Handle /ec near [radius] [type].
+     *
+     * Shows the groups of the most recent count of the player's World within
+     * the radius (default {@link BoxIndex#DEFAULT_RADIUS}) of the player,
+     * looked up in the World's {@link BoxIndex}. The radius and type may be
+     * given in either order.
+     *
+     * @param sender the command sender.
+     * @param args command arguments.
+     * @return true if command was handled; false if Bukkit should do standard
+     *         error handling.
+     */
+    protected boolean handleNear(CommandSender sender, String[] args) {
+        if (args.length < 1 || args.length > 3 || !args[0].equalsIgnoreCase("near")) {
+            return false;
+        }
+        if (!(sender instanceof Player)) {
+            sender.sendMessage(ChatColor.RED + "You must be in game to list nearby entities.");
+            return true;
+        }
+
+        double radius = BoxIndex.DEFAULT_RADIUS;
+        EntityType type = null;
+        for (int i = 1; i < args.length; ++i) {
+            try {
+                radius = Double.parseDouble(args[i]);
+                if (!(radius > 0)) {
+                    sender.sendMessage(ChatColor.RED + "The radius must be positive.");
+                    return true;
+                }
+            } catch (NumberFormatException ex) {
+                try {
+                    type = EntityType.valueOf(args[i].toUpperCase());
+                } catch (IllegalArgumentException ex2) {
+                    sender.sendMessage(ChatColor.RED + args[i] + " is neither a radius nor a valid entity type.");
+                    return true;
+                }
+            }
+        }
+
+        Location centre = ((Player) sender).getLocation();
+        WorldCount worldCount = getFinishedWorldCount(sender, centre.getWorld());
+        if (worldCount != null) {
+            worldCount.near(sender, centre, radius, (type != null) ? type.ordinal() : -1);
+        }
+        return true;
+    } // handleNear
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a one-line description of a search result.
+     *
+     * @param id the 1-based ID of the result.
+     * @param named the named entity or tamed mob.
+     * @return the description.
+     */
+    protected String describe(int id, NamedEntity named) {
+        Location loc = named.getLocation();
+        StringBuilder description = new StringBuilder();
+        description.append('(').append(id).append(") ").append(named.getEntityType().name());
+        if (named.getName() != null) {
+            description.append(" \"").append(named.getName()).append('"');
+        }
+        if (named.getOwnerId() != null) {
+            String ownerName = Bukkit.getOfflinePlayer(named.getOwnerId()).getName();
+            description.append(" owned by ").append(ownerName != null ? ownerName : named.getOwnerId().toString());
+        }
+        description.append(String.format(" at %s %d %d %d", loc.getWorld().getName(),
+                                         loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()));
+        return description.toString();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the UUID of a player specified by name or UUID, or null if the
+     * player is not known to the server.
+     *
+     * Only online players and players in the server's profile cache are
+     * resolved by name, so that no web lookup is done.
+     *
+     * @param nameOrId the player's name or UUID.
+     * @return the player's UUID, or null.
+     */
+    protected UUID getPlayerId(String nameOrId) {
+        Player player = Bukkit.getPlayerExact(nameOrId);
+        if (player != null) {
+            return player.getUniqueId();
+        }
+        OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayerIfCached(nameOrId);
+        if (offlinePlayer != null) {
+            return offlinePlayer.getUniqueId();
+        }
+        try {
+            return UUID.fromString(nameOrId);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link CountScheduler} that drives {@link CountTask}s,
+     * {@link CullTask}s, {@link ReconcileTask}s and {@link RemoveTask}s.
+     *
+     * @return the {@link CountScheduler}.
+     */
+    public CountScheduler getCountScheduler() {
+        return _countScheduler;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link ParallelAggregator} used to aggregate counts, or null
+     * if counts are aggregated on a single thread.
+     *
+     * @return the {@link ParallelAggregator}, or null.
+     */
+    public ParallelAggregator getAggregator() {
+        return _aggregator;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Create, replace or discard the {@link ParallelAggregator} according to
+     * the configured number of aggregation threads.
+     */
+    protected void configureAggregator() {
+        int threads = CONFIG.AGGREGATION_THREADS;
+        if (_aggregator != null && _aggregator.getThreads() != threads) {
+            _aggregator.shutdown();
+            _aggregator = null;
+        }
+        if (_aggregator == null && threads > 1) {
+            _aggregator = new ParallelAggregator(threads);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the configuration calls for periodic culling.
+     *
+     * @return true if the cull period is positive and some types are capped.
+     */
+    protected boolean isCullingEnabled() {
+        return CONFIG.CULL_PERIOD_SECONDS > 0 && CONFIG.CAPS.hasCaps();
+    }
 
     // ------------------------------------------------------------------------
     /**
@@ -273,39 +1127,314 @@ public class EntityControl extends JavaPlugin {
      * @return the {@link WorldCount}.
      */
     protected WorldCount getWorldCount(String worldName) {
-        WorldCount count = _worldCounts.get(worldName);
-        if (count == null) {
-            count = new WorldCount();
-            _worldCounts.put(worldName, count);
-        }
-        return count;
+        return _worldCounts.computeIfAbsent(worldName, name -> new WorldCount());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the {@link WorldCount} most recently published for the named
+     * World, or null if there is none.
+     *
+     * @param worldName the name of the World.
+     * @return the {@link WorldCount}, or null.
+     */
+    public WorldCount findWorldCount(String worldName) {
+        return _worldCounts.get(worldName);
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Update the stored counts for the specified world.
+     * Return the most recently finished {@link WorldCount} for the specified
+     * world, or null if there is none yet.
+     *
+     * If a count of the world is in progress, its progress is shown to the
+     * sender. If no count has been started, one is started. In either case,
+     * the previous results (if any) remain usable until the new count
+     * finishes.
+     *
+     * @param sender the command sender to be notified.
+     * @param world the (non-null) World.
+     * @return the most recently finished {@link WorldCount}, or null.
+     */
+    protected WorldCount getFinishedWorldCount(CommandSender sender, World world) {
+        WorldCount worldCount = getWorldCount(world.getName());
+        CountTask task = _countTasks.get(world.getName());
+        if (task != null) {
+            sender.sendMessage(ChatColor.GOLD + task.getProgress());
+        } else if (!worldCount.hasCounts()) {
+            countWorld(sender, world);
+            worldCount = getWorldCount(world.getName());
+        }
+
+        if (worldCount.hasCounts()) {
+            if (task != null) {
+                sender.sendMessage(ChatColor.GOLD + "Showing the results of the previous count.");
+            }
+            return worldCount;
+        } else {
+            sender.sendMessage(ChatColor.GOLD + "Try again when the count has finished.");
+            return null;
+        }
+    } // getFinishedWorldCount
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start a task to update the stored counts for the specified world.
+     *
+     * The counting is spread over several ticks by {@link CountTask}. If a
+     * count of the world is already in progress, its progress is reported
+     * instead. If the live census is enabled and populated, its counts are
+     * used immediately, without scanning chunks.
      *
      * @param sender the comamnd sender to be notified of results.
      * @param world the (non-null) World.
      */
     protected void countWorld(CommandSender sender, World world) {
-        long start = System.currentTimeMillis();
-        Chunk[] loadedChunks = world.getLoadedChunks();
+        countWorld(sender, world, true);
+    }
 
-        WorldCount count = getWorldCount(world.getName());
-        count.clear(loadedChunks.length);
-        for (Chunk chunk : loadedChunks) {
-            count.countChunk(chunk);
+    // ------------------------------------------------------------------------
+    /**
+     * Start a task to update the stored counts for the specified world,
+     * optionally without sending messages.
+     *
+     * @param sender the comamnd sender to be notified of results.
+     * @param world the (non-null) World.
+     * @param report if true, send progress and results to the sender.
+     * @see #countWorld(CommandSender, World)
+     */
+    protected void countWorld(CommandSender sender, World world, boolean report) {
+        LiveWorldCensus census = _census.getInitialisedCensus(world);
+        if (census != null) {
+            long start = System.nanoTime();
+            WorldCount count = census.snapshot(world);
+            METRICS.record(Metrics.Phase.SNAPSHOT, System.nanoTime() - start);
+            _spawnLimiter.update(world, census);
+            publish(world, count);
+            if (report) {
+                count.summarise(sender);
+                sender.sendMessage(ChatColor.GOLD + String.format("Copied %d boxes from the live census in %.2f milliseconds.",
+                                                                  census.getBoxCount(), (System.nanoTime() - start) * 1e-6));
+            }
+            return;
         }
 
-        count.summarise(sender);
-        long elapsedMillis = System.currentTimeMillis() - start;
-        sender.sendMessage(ChatColor.GOLD + String.format("Counted %d loaded chunks in %d milliseconds.", loadedChunks.length, elapsedMillis));
+        CountTask task = _countTasks.get(world.getName());
+        if (task != null) {
+            if (report) {
+                sender.sendMessage(ChatColor.GOLD + task.getProgress());
+            }
+        } else {
+            WorldCount previous = CONFIG.INCREMENTAL_COUNT ? findWorldCount(world.getName()) : null;
+            if (previous != null && previous.isOffline()) {
+                previous = null;
+            }
+            task = new CountTask(this, sender, world, previous, report);
+            _countTasks.put(world.getName(), task);
+            task.start();
+            if (report) {
+                sender.sendMessage(ChatColor.GOLD + "Started counting entities in " + world.getName() + ".");
+            }
+        }
     } // countWorld
 
+    // ------------------------------------------------------------------------
+    /**
+     * Count all worlds, then send the sender the totals of all worlds and the
+     * largest groups across all worlds.
+     *
+     * The chunks of all worlds are captured concurrently by the
+     * {@link CountScheduler}, within the same per-tick time budget as a
+     * single world. Worlds already being counted are not counted again; their
+     * counts in progress are awaited. Only one /ec count -all can be in
+     * progress at a time.
+     *
+     * @param sender the command sender.
+     */
+    protected void countAllWorlds(CommandSender sender) {
+        if (_globalCount != null) {
+            sender.sendMessage(ChatColor.GOLD + _globalCount.getProgress());
+            return;
+        }
+
+        List<World> worlds = Bukkit.getServer().getWorlds();
+        ArrayList<String> worldNames = new ArrayList<String>();
+        for (World world : worlds) {
+            worldNames.add(world.getName());
+        }
+        _globalCount = new GlobalCount(sender, worldNames);
+        sender.sendMessage(ChatColor.GOLD + "Started counting entities in " + worldNames.size() + " worlds.");
+        for (World world : worlds) {
+            countWorld(sender, world, false);
+        }
+    } // countAllWorlds
+
+    // ------------------------------------------------------------------------
+    /**
+     * Called by a {@link CountTask} when it has finished counting, to publish
+     * the new counts for use by /ec list and /ec tp.
+     *
+     * @param task the finished task.
+     * @param count the new counts for the task's World.
+     */
+    protected void onCountFinished(CountTask task, WorldCount count) {
+        _countTasks.remove(task.getWorld().getName());
+        _dirtyTracker.onCountFinished(task.getWorld(), count);
+        _spawnLimiter.update(task.getWorld(), count);
+        publish(task.getWorld(), count);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Called by a {@link CountTask} whose snapshot could not be aggregated,
+     * so that the World can be counted again and so that any /ec count -all
+     * or lag diagnostic awaiting it completes without it.
+     *
+     * @param task the failed task.
+     */
+    protected void onCountFailed(CountTask task) {
+        _countTasks.remove(task.getWorld().getName());
+        _dirtyTracker.onCountFinished(task.getWorld(), null);
+        notifyWorldCounted(task.getWorld().getName(), null);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Called by an {@link OfflineScan} when it has finished, to publish the
+     * counts read from region files for use by /ec list and /ec tp.
+     *
+     * The counts are not passed to the spawn limiter, history or metrics,
+     * which describe loaded chunks only.
+     *
+     * @param scan the finished scan.
+     * @param count the counts of the scan's World, or null if there were no
+     *        region files.
+     */
+    protected void onOfflineScanFinished(OfflineScan scan, WorldCount count) {
+        _offlineScans.remove(scan.getWorld().getName());
+        if (count != null) {
+            _worldCounts.put(scan.getWorld().getName(), count);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Publish the new counts of a World, record them in the history and the
+     * metrics, and pass them to any /ec count -all that awaits them.
+     *
+     * @param world the World.
+     * @param count the new counts.
+     */
+    protected void publish(World world, WorldCount count) {
+        _worldCounts.put(world.getName(), count);
+        _history.record(world, count);
+        METRICS.update(world.getName(), count);
+        notifyWorldCounted(world.getName(), count);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pass the new counts of a World to any /ec count -all and lag diagnostic
+     * that await them.
+     *
+     * @param worldName the name of the World.
+     * @param count the new counts, or null if the count failed.
+     */
+    protected void notifyWorldCounted(String worldName, WorldCount count) {
+        GlobalCount global = _globalCount;
+        if (global != null && global.onWorldCounted(worldName, count)) {
+            _globalCount = null;
+            global.merge(_listSessions.get(global.getSender()).getFilter(), CONFIG.PAGE_SIZE);
+            global.report();
+        }
+        _lagMonitor.onWorldCounted(worldName, count);
+    }
+
     // ------------------------------------------------------------------------
     /**
      * Map from world name to corresponding {@link WorldCount}s.
+     *
+     * Counts are published on the server thread, but the map is concurrent so
+     * that the most recently published counts can be looked up from other
+     * threads without locking.
+     */
+    protected final ConcurrentHashMap<String, WorldCount> _worldCounts = new ConcurrentHashMap<String, WorldCount>();
+
+    /**
+     * Map from world name to the {@link CountTask} currently counting that
+     * world.
+     */
+    protected HashMap<String, CountTask> _countTasks = new HashMap<String, CountTask>();
+
+    /**
+     * Map from command sender name to the results of their most recent
+     * /ec find, for /ec find tp.
+     */
+    protected HashMap<String, List<NamedEntity>> _findResults = new HashMap<String, List<NamedEntity>>();
+
+    /**
+     * Drives the chunk capture of all {@link CountTask}s within one per-tick
+     * time budget.
+     */
+    protected CountScheduler _countScheduler = new CountScheduler(this);
+
+    /**
+     * The /ec count -all in progress, or null.
+     */
+    protected GlobalCount _globalCount;
+
+    /**
+     * Map from world name to the {@link OfflineScan} currently reading that
+     * world's region files.
+     */
+    protected HashMap<String, OfflineScan> _offlineScans = new HashMap<String, OfflineScan>();
+
+    /**
+     * Incrementally maintained entity counts, used when enabled in the
+     * configuration.
+     */
+    protected LiveCensus _census = new LiveCensus(this);
+
+    /**
+     * Marks changed chunks for incremental counts, when enabled in the
+     * configuration.
+     */
+    protected DirtyChunkTracker _dirtyTracker = new DirtyChunkTracker(this);
+
+    /**
+     * Removes entities in excess of the configured caps, when enabled.
+     */
+    protected Culler _culler = new Culler(this);
+
+    /**
+     * Cancels spawns that would exceed the configured limits, when enabled.
+     */
+    protected SpawnLimiter _spawnLimiter = new SpawnLimiter(this);
+
+    /**
+     * Records the totals of each count on disk, when enabled.
+     */
+    protected CensusHistory _history = new CensusHistory(this);
+
+    /**
+     * Per-sender filters and views for /ec list, /ec tp and /ec clusters.
+     */
+    protected ListSessions _listSessions = new ListSessions(this);
+
+    /**
+     * Serves or writes {@link #METRICS} in the Prometheus text format, when
+     * configured.
+     */
+    protected MetricsExporter _metricsExporter = new MetricsExporter(this, METRICS);
+
+    /**
+     * Starts a diagnostic count of all worlds when ticks are slow.
+     */
+    protected LagMonitor _lagMonitor = new LagMonitor(this);
+
+    /**
+     * Parallel aggregator of counts, or null if aggregation is single
+     * threaded.
      */
-    protected HashMap<String, WorldCount> _worldCounts = new HashMap<String, WorldCount>();
+    protected volatile ParallelAggregator _aggregator;
 } // class EntityControl
\ No newline at end of file
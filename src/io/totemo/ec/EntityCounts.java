@@ -1,5 +1,7 @@
 package io.totemo.ec;
 
+import java.util.Arrays;
+
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.EntityType;
 
@@ -8,6 +10,16 @@ import org.bukkit.entity.EntityType;
  * Stores counts of Entities.
  *
  * EntityCounts can be filtered by EntityType and summed.
+ *
+ * Counts start out in a sparse representation: packed arrays of the ordinals
+ * of the types present and their counts, searched linearly. This suits
+ * per-box counts, which typically hold only one or two types. When more than
+ * {@link #getDenseThreshold()} types are present, the counts switch to a dense
+ * array indexed by EntityType.ordinal(), which suits world totals.
+ *
+ * The counts can be iterated by visiting slot indices from 0 to
+ * {@link #getSlotCount()} - 1 and calling {@link #getSlotOrdinal(int)} and
+ * {@link #getSlotTotal(int)}; callers should skip slots with a zero total.
  */
 public class EntityCounts {
     // ------------------------------------------------------------------------
@@ -17,13 +29,24 @@ public class EntityCounts {
      */
     public static final EntityType[] ENTITY_TYPES = EntityType.values();
 
+    /**
+     * The number of distinct types present above which the dense
+     * representation is used.
+     */
+    public static final int DENSE_THRESHOLD = 8;
+
     // ------------------------------------------------------------------------
     /**
      * Clear all counts to zero.
+     *
+     * Dense counts remain dense, on the assumption that they will be refilled
+     * similarly.
      */
     public void clear() {
-        for (int i = 0; i < _counts.length; ++i) {
-            _counts[i] = 0;
+        if (_dense != null) {
+            Arrays.fill(_dense, 0);
+        } else {
+            _size = 0;
         }
     }
 
@@ -34,7 +57,72 @@ public class EntityCounts {
      * @param entity the entity.
      */
     public void addEntity(Entity entity) {
-        ++_counts[entity.getType().ordinal()];
+        add(entity.getType().ordinal(), 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Uncount the specified entity.
+     *
+     * @param entity the entity.
+     */
+    public void removeEntity(Entity entity) {
+        add(entity.getType().ordinal(), -1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Adjust the count of entities of the specified type.
+     *
+     * @param ordinal the EntityType.ordinal() value identifying the EntityType.
+     * @param delta the amount to add to the count; may be negative.
+     */
+    public void add(int ordinal, int delta) {
+        if (_dense != null) {
+            _dense[ordinal] += delta;
+            return;
+        }
+
+        int index = find(ordinal);
+        if (index >= 0) {
+            if ((_values[index] += delta) == 0) {
+                // Keep the sparse entries packed: move the last into the hole.
+                --_size;
+                _ordinals[index] = _ordinals[_size];
+                _values[index] = _values[_size];
+            }
+        } else if (delta != 0) {
+            if (_size == getDenseThreshold()) {
+                makeDense();
+                _dense[ordinal] += delta;
+            } else {
+                if (_size == _ordinals.length) {
+                    _ordinals = Arrays.copyOf(_ordinals, 2 * _size);
+                    _values = Arrays.copyOf(_values, 2 * _size);
+                }
+                _ordinals[_size] = (short) ordinal;
+                _values[_size] = delta;
+                ++_size;
+            }
+        }
+    } // add
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if all counts are zero.
+     *
+     * @return true if all counts are zero.
+     */
+    public boolean isEmpty() {
+        if (_dense == null) {
+            return _size == 0;
+        }
+        for (int i = 0; i < _dense.length; ++i) {
+            if (_dense[i] != 0) {
+                return false;
+            }
+        }
+        return true;
     }
 
     // ------------------------------------------------------------------------
@@ -45,7 +133,7 @@ public class EntityCounts {
      * @Return the stored total count of entities of the specified type.
      */
     public int getTotal(EntityType type) {
-        return _counts[type.ordinal()];
+        return getTotal(type.ordinal());
     }
 
     // ------------------------------------------------------------------------
@@ -56,7 +144,44 @@ public class EntityCounts {
      * @Return the stored total count of entities of the specified type.
      */
     public int getTotal(int ordinal) {
-        return _counts[ordinal];
+        if (_dense != null) {
+            return _dense[ordinal];
+        }
+        int index = find(ordinal);
+        return (index >= 0) ? _values[index] : 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of slots to visit when iterating over the counts.
+     *
+     * @return the number of slots to visit when iterating over the counts.
+     */
+    public int getSlotCount() {
+        return (_dense != null) ? _dense.length : _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the EntityType.ordinal() value of the type counted in the
+     * specified slot.
+     *
+     * @param slot the slot index, from 0 to getSlotCount() - 1.
+     * @return the EntityType.ordinal() value of the type counted in the slot.
+     */
+    public int getSlotOrdinal(int slot) {
+        return (_dense != null) ? slot : _ordinals[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the count in the specified slot, which may be zero.
+     *
+     * @param slot the slot index, from 0 to getSlotCount() - 1.
+     * @return the count in the specified slot.
+     */
+    public int getSlotTotal(int slot) {
+        return (_dense != null) ? _dense[slot] : _values[slot];
     }
 
     // ------------------------------------------------------------------------
@@ -66,14 +191,92 @@ public class EntityCounts {
      * @param accumulator the object that accumulates counts.
      */
     public void addTo(EntityCounts accumulator) {
-        for (int i = 0; i < _counts.length; ++i) {
-            accumulator._counts[i] += _counts[i];
+        if (_dense != null) {
+            for (int i = 0; i < _dense.length; ++i) {
+                if (_dense[i] != 0) {
+                    accumulator.add(i, _dense[i]);
+                }
+            }
+        } else {
+            for (int i = 0; i < _size; ++i) {
+                accumulator.add(_ordinals[i], _values[i]);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the specified type in the sparse arrays, or -1 if
+     * not present.
+     *
+     * @param ordinal the EntityType.ordinal() value identifying the EntityType.
+     * @return the index in the sparse arrays, or -1.
+     */
+    protected int find(int ordinal) {
+        for (int i = 0; i < _size; ++i) {
+            if (_ordinals[i] == ordinal) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of distinct types that can be counted, which is the
+     * length of the dense array.
+     *
+     * @return the number of EntityType values.
+     */
+    protected int getTypeCount() {
+        return ENTITY_TYPES.length;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of distinct types present above which the dense
+     * representation is used.
+     *
+     * @return {@link #DENSE_THRESHOLD}.
+     */
+    protected int getDenseThreshold() {
+        return DENSE_THRESHOLD;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Switch from the sparse to the dense representation.
+     */
+    protected void makeDense() {
+        _dense = new int[getTypeCount()];
+        for (int i = 0; i < _size; ++i) {
+            _dense[_ordinals[i]] = _values[i];
         }
+        _ordinals = null;
+        _values = null;
+        _size = 0;
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Counts for each EntityType, indexed by EntityType.ordinal().
+     * Counts for each EntityType, indexed by EntityType.ordinal(), once the
+     * dense representation is in use; null before then.
+     */
+    protected int[] _dense;
+
+    /**
+     * EntityType.ordinal() values of the types with non-zero counts, in the
+     * sparse representation.
+     */
+    protected short[] _ordinals = new short[2];
+
+    /**
+     * Counts corresponding to _ordinals, in the sparse representation.
+     */
+    protected int[] _values = new int[2];
+
+    /**
+     * Number of entries in use in _ordinals and _values.
      */
-    protected int[] _counts = new int[ENTITY_TYPES.length];
-} // class EntityCounts
\ No newline at end of file
+    protected int _size;
+} // class EntityCounts
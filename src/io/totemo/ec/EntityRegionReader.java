@@ -0,0 +1,508 @@
+package io.totemo.ec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.bukkit.entity.EntityType;
+
+// ----------------------------------------------------------------------------
+/**
+ * Reads the types and positions of the entities in an entity region file
+ * (entities/r.X.Z.mca) into an {@link EntitySnapshot}, without loading any
+ * chunks.
+ *
+ * A region file begins with a 4 KiB table of the location of each of its
+ * 32x32 chunks, as a 3-byte offset and a 1-byte length in 4 KiB sectors. At
+ * the offset, each chunk has a 4-byte length, a 1-byte compression type and
+ * the compressed NBT, or, if the high bit of the compression type is set, the
+ * NBT is in a separate c.X.Z.mcc file. The file is memory-mapped and each
+ * chunk is decompressed straight out of the mapping by an
+ * {@link NbtReader}, which picks out the id and Pos of each entry in the
+ * chunk's Entities list and of their Passengers, and skips everything else.
+ *
+ * Zlib, gzip and uncompressed chunks are supported; chunks in any other
+ * format (such as LZ4), and chunks that cannot be parsed because they are
+ * being rewritten by the server, are skipped and counted. Entity IDs that do
+ * not name an EntityType known to the server are counted and ignored.
+ *
+ * Each reader is used by one thread at a time.
+ */
+public class EntityRegionReader {
+    /**
+     * Suffix of region file names.
+     */
+    public static final String SUFFIX = ".mca";
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param typesById map from namespaced entity ID to EntityType ordinal;
+     *        shared and not modified.
+     */
+    public EntityRegionReader(HashMap<String, Integer> typesById) {
+        _typesById = typesById;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a map from namespaced entity ID (such as "minecraft:cow") to
+     * EntityType ordinal, for all types known to the server.
+     *
+     * @return the map.
+     */
+    @SuppressWarnings("deprecation")
+    public static HashMap<String, Integer> getTypesById() {
+        HashMap<String, Integer> typesById = new HashMap<String, Integer>();
+        for (EntityType type : EntityCounts.ENTITY_TYPES) {
+            String name = type.getName();
+            if (name != null) {
+                typesById.put(name.contains(":") ? name : "minecraft:" + name, type.ordinal());
+            }
+        }
+        return typesById;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if a file name is that of a region file, "r.X.Z.mca".
+     *
+     * @param fileName the file name.
+     * @return true if the name is that of a region file.
+     */
+    public static boolean isRegionFile(String fileName) {
+        return parseRegion(fileName) != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the entities of every chunk in a region file into a snapshot.
+     *
+     * @param file the region file.
+     * @param snapshot the snapshot to add chunks to.
+     * @throws IOException if the file cannot be read or its name is not that
+     *         of a region file.
+     */
+    public void read(File file, EntitySnapshot snapshot) throws IOException {
+        int[] region = parseRegion(file.getName());
+        if (region == null) {
+            throw new IOException(file + " is not a region file.");
+        }
+
+        ByteBuffer map = map(file);
+        if (map.capacity() < HEADER_BYTES) {
+            // New, empty region files have no header.
+            return;
+        }
+        for (int index = 0; index < CHUNKS; ++index) {
+            int location = map.getInt(4 * index);
+            if (location == 0) {
+                continue;
+            }
+            long chunkKey = Keys.chunk(32 * region[0] + (index & 31), 32 * region[1] + (index >> 5));
+            snapshot.beginChunk(chunkKey);
+            try {
+                if (readChunk(file, map, location, chunkKey)) {
+                    readEntities(snapshot);
+                    snapshot.endChunk();
+                    ++_chunks;
+                    continue;
+                }
+            } catch (IOException | RuntimeException ex) {
+                // Corrupt, or partly written: skipped below.
+            }
+            snapshot.discardChunk();
+            ++_skippedChunks;
+        }
+        ++_regions;
+    } // read
+
+    // ------------------------------------------------------------------------
+    /**
+     * Release the native resources of the decompressor. The reader cannot be
+     * used afterwards.
+     */
+    public void close() {
+        _inflater.end();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of region files read.
+     *
+     * @return the number of region files.
+     */
+    public int getRegionCount() {
+        return _regions;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of chunks read.
+     *
+     * @return the number of chunks.
+     */
+    public int getChunkCount() {
+        return _chunks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of chunks skipped because they were corrupt or in an
+     * unsupported format.
+     *
+     * @return the number of chunks skipped.
+     */
+    public int getSkippedChunkCount() {
+        return _skippedChunks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of entities skipped because their IDs were unknown or
+     * they had no position.
+     *
+     * @return the number of entities skipped.
+     */
+    public int getSkippedEntityCount() {
+        return _skippedEntities;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Prepare the NBT reader to read a chunk's data.
+     *
+     * @param file the region file.
+     * @param map the mapping of the region file.
+     * @param location the chunk's entry in the location table.
+     * @param chunkKey the key of the chunk.
+     * @return true if the chunk can be read; false if its compression type is
+     *         not supported.
+     * @throws IOException if an external chunk file cannot be read or the
+     *         location is out of range.
+     */
+    protected boolean readChunk(File file, ByteBuffer map, int location, long chunkKey) throws IOException {
+        long offset = (long) (location >>> 8) * SECTOR_BYTES;
+        if (offset < HEADER_BYTES || offset + 5 > map.capacity()) {
+            throw new IOException("Chunk out of range.");
+        }
+        int length = map.getInt((int) offset);
+        int compression = map.get((int) offset + 4) & 0xFF;
+        ByteBuffer data;
+        if ((compression & EXTERNAL) != 0) {
+            compression &= ~EXTERNAL;
+            data = map(new File(file.getParentFile(),
+                                String.format("c.%d.%d.mcc", Keys.chunkX(chunkKey), Keys.chunkZ(chunkKey))));
+        } else {
+            if (length < 1 || offset + 4 + length > map.capacity()) {
+                throw new IOException("Chunk out of range.");
+            }
+            ByteBuffer slice = map.duplicate();
+            slice.position((int) offset + 5);
+            slice.limit((int) offset + 4 + length);
+            data = slice.slice();
+        }
+
+        _source.reset(data);
+        switch (compression) {
+        case GZIP:
+            _nbt.reset(new GZIPInputStream(_source));
+            return true;
+        case ZLIB:
+            _inflater.reset();
+            _nbt.reset(new InflaterInputStream(_source, _inflater, 8192));
+            return true;
+        case UNCOMPRESSED:
+            _nbt.reset(_source);
+            return true;
+        default:
+            return false;
+        }
+    } // readChunk
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the Entities list of the chunk's root compound.
+     *
+     * @param snapshot the snapshot.
+     * @throws IOException if the NBT is invalid.
+     */
+    protected void readEntities(EntitySnapshot snapshot) throws IOException {
+        if (_nbt.readType() != NbtReader.COMPOUND) {
+            throw new IOException("Chunk is not a compound.");
+        }
+        _nbt.readName();
+        for (int type = _nbt.readType(); type != NbtReader.END; type = _nbt.readType()) {
+            _nbt.readName();
+            if (type == NbtReader.LIST && _nbt.isName(ENTITIES)) {
+                readEntityList(snapshot, 0);
+            } else {
+                _nbt.skip(type);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a list of entity compounds whose tag type and name have been read.
+     *
+     * @param snapshot the snapshot.
+     * @param depth the number of vehicles enclosing the entities.
+     * @throws IOException if the NBT is invalid.
+     */
+    protected void readEntityList(EntitySnapshot snapshot, int depth) throws IOException {
+        int elementType = _nbt.readType();
+        int length = _nbt.readLength();
+        if (elementType != NbtReader.COMPOUND || depth > MAX_DEPTH) {
+            _nbt.skipList(elementType, length);
+            return;
+        }
+        for (int i = 0; i < length; ++i) {
+            readEntity(snapshot, depth);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read one entity compound, and any passengers it carries.
+     *
+     * @param snapshot the snapshot.
+     * @param depth the number of vehicles enclosing the entity.
+     * @throws IOException if the NBT is invalid.
+     */
+    protected void readEntity(EntitySnapshot snapshot, int depth) throws IOException {
+        Integer ordinal = null;
+        boolean positioned = false;
+        double x = 0, y = 0, z = 0;
+        for (int type = _nbt.readType(); type != NbtReader.END; type = _nbt.readType()) {
+            _nbt.readName();
+            if (type == NbtReader.STRING && _nbt.isName(ID)) {
+                ordinal = _typesById.get(_nbt.readString());
+            } else if (type == NbtReader.LIST && _nbt.isName(POS)) {
+                int elementType = _nbt.readType();
+                int length = _nbt.readLength();
+                if (elementType == NbtReader.DOUBLE && length == 3) {
+                    x = _nbt.readDouble();
+                    y = _nbt.readDouble();
+                    z = _nbt.readDouble();
+                    positioned = true;
+                } else {
+                    _nbt.skipList(elementType, length);
+                }
+            } else if (type == NbtReader.LIST && _nbt.isName(PASSENGERS)) {
+                readEntityList(snapshot, depth + 1);
+            } else {
+                _nbt.skip(type);
+            }
+        }
+
+        if (ordinal != null && positioned) {
+            snapshot.addEntity(ordinal, x, y, z);
+        } else {
+            ++_skippedEntities;
+        }
+    } // readEntity
+
+    // ------------------------------------------------------------------------
+    /**
+     * Map a file read-only.
+     *
+     * @param file the file.
+     * @return the mapping.
+     * @throws IOException if the file cannot be mapped.
+     */
+    protected static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Parse the region coordinates from a region file name, "r.X.Z.mca".
+     *
+     * @param fileName the file name.
+     * @return the region X and Z coordinates, or null if the name is not that
+     *         of a region file.
+     */
+    protected static int[] parseRegion(String fileName) {
+        String[] parts = fileName.split("\\.");
+        if (parts.length != 4 || !parts[0].equals("r") || !parts[3].equals("mca")) {
+            return null;
+        }
+        try {
+            return new int[] { Integer.parseInt(parts[1]), Integer.parseInt(parts[2]) };
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * An InputStream over the remaining bytes of a ByteBuffer, which can be
+     * reused for other buffers.
+     */
+    protected static final class ByteBufferInputStream extends InputStream {
+        // --------------------------------------------------------------------
+        /**
+         * Start reading another buffer.
+         *
+         * @param buffer the buffer.
+         */
+        public void reset(ByteBuffer buffer) {
+            _buffer = buffer;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public int read() {
+            return _buffer.hasRemaining() ? _buffer.get() & 0xFF : -1;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!_buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(length, _buffer.remaining());
+            _buffer.get(bytes, offset, n);
+            return n;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * @see java.io.InputStream#available()
+         */
+        @Override
+        public int available() {
+            return _buffer.remaining();
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * The buffer.
+         */
+        private ByteBuffer _buffer;
+    } // inner class ByteBufferInputStream
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of chunks in a region.
+     */
+    protected static final int CHUNKS = 32 * 32;
+
+    /**
+     * Size of a region file sector in bytes.
+     */
+    protected static final int SECTOR_BYTES = 4096;
+
+    /**
+     * Size of the location and timestamp tables at the start of a region
+     * file.
+     */
+    protected static final int HEADER_BYTES = 2 * SECTOR_BYTES;
+
+    /**
+     * Compression type of gzip.
+     */
+    protected static final int GZIP = 1;
+
+    /**
+     * Compression type of zlib.
+     */
+    protected static final int ZLIB = 2;
+
+    /**
+     * Compression type of uncompressed NBT.
+     */
+    protected static final int UNCOMPRESSED = 3;
+
+    /**
+     * Flag in the compression type of chunks stored in a c.X.Z.mcc file.
+     */
+    protected static final int EXTERNAL = 0x80;
+
+    /**
+     * Maximum depth of passengers read; deeper passengers are skipped.
+     */
+    protected static final int MAX_DEPTH = 16;
+
+    /**
+     * Name of the root list of entities.
+     */
+    protected static final byte[] ENTITIES = NbtReader.name("Entities");
+
+    /**
+     * Name of the namespaced ID of an entity.
+     */
+    protected static final byte[] ID = NbtReader.name("id");
+
+    /**
+     * Name of the position of an entity.
+     */
+    protected static final byte[] POS = NbtReader.name("Pos");
+
+    /**
+     * Name of the list of entities riding an entity.
+     */
+    protected static final byte[] PASSENGERS = NbtReader.name("Passengers");
+
+    /**
+     * Map from namespaced entity ID to EntityType ordinal.
+     */
+    protected final HashMap<String, Integer> _typesById;
+
+    /**
+     * Reused streaming NBT reader.
+     */
+    protected final NbtReader _nbt = new NbtReader();
+
+    /**
+     * Reused stream over the current chunk's compressed data.
+     */
+    protected final ByteBufferInputStream _source = new ByteBufferInputStream();
+
+    /**
+     * Reused zlib decompressor.
+     */
+    protected final Inflater _inflater = new Inflater();
+
+    /**
+     * Number of region files read.
+     */
+    protected int _regions;
+
+    /**
+     * Number of chunks read.
+     */
+    protected int _chunks;
+
+    /**
+     * Number of chunks skipped.
+     */
+    protected int _skippedChunks;
+
+    /**
+     * Number of entities skipped.
+     */
+    protected int _skippedEntities;
+} // class EntityRegionReader
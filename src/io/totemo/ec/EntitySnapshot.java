@@ -0,0 +1,539 @@
+package io.totemo.ec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.entity.Entity;
+
+// ----------------------------------------------------------------------------
+/**
+ * The types and positions of all entities in a set of chunks, captured as
+ * primitives on the server thread so that they can be aggregated on another
+ * thread.
+ *
+ * Entities are stored chunk by chunk: the entities of the chunk with index c
+ * occupy entity indices {@link #getChunkStart(int)} (inclusive) to
+ * {@link #getChunkEnd(int)} (exclusive).
+ *
+ * Named entities and tamed mobs are also recorded as {@link NamedEntity}
+ * instances, chunk by chunk, for the {@link NameIndex}.
+ *
+ * If requested, the Materials and block coordinates of the block entities
+ * (tile entities) of each chunk are captured in the same way, into a second
+ * set of arrays indexed from {@link #getBlockStart(int)} to
+ * {@link #getBlockEnd(int)}.
+ */
+public class EntitySnapshot {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param world the World containing the chunks to be captured.
+     * @param expectedChunks the expected number of chunks.
+     */
+    public EntitySnapshot(World world, int expectedChunks) {
+        this(world, expectedChunks, false);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param world the World containing the chunks to be captured.
+     * @param expectedChunks the expected number of chunks.
+     * @param blockEntities if true, {@link #addChunk(Chunk, Location)} also
+     *        captures the chunk's block entities.
+     */
+    public EntitySnapshot(World world, int expectedChunks, boolean blockEntities) {
+        this(world.getMinHeight() >> 4, (world.getMaxHeight() - 1) >> 4, expectedChunks, blockEntities);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor for chunks that are not read from a World, given the
+     * World's range of sections.
+     *
+     * @param minSection the lowest section (block Y >> 4) of the World.
+     * @param maxSection the highest section (block Y >> 4) of the World.
+     * @param expectedChunks the expected number of chunks.
+     * @param blockEntities if true, {@link #addChunk(Chunk, Location)} also
+     *        captures the chunk's block entities.
+     */
+    public EntitySnapshot(int minSection, int maxSection, int expectedChunks, boolean blockEntities) {
+        _blockEntities = blockEntities;
+        _minSection = minSection;
+        _maxSection = maxSection;
+        _captureMillis = System.currentTimeMillis();
+        int chunkCapacity = Math.max(1, expectedChunks);
+        _chunkKeys = new long[chunkCapacity];
+        _chunkStarts = new int[chunkCapacity + 1];
+        _ordinals = new short[4 * chunkCapacity];
+        _coords = new double[3 * _ordinals.length];
+        _namedStarts = new int[chunkCapacity + 1];
+        _blockStarts = new int[chunkCapacity + 1];
+        _blockOrdinals = new short[blockEntities ? 4 * chunkCapacity : 0];
+        _blockCoords = new int[3 * _blockOrdinals.length];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Capture the types and positions of all entities in the specified chunk,
+     * and of its block entities if requested.
+     *
+     * Block entities are read without taking a snapshot of their state, since
+     * only their Material and position are required.
+     *
+     * This must be called on the server thread.
+     *
+     * @param chunk the loaded chunk.
+     * @param loc a Location that is reused to read entity positions.
+     */
+    public void addChunk(Chunk chunk, Location loc) {
+        Entity[] entities = chunk.getEntities();
+        reserveChunk();
+        reserveEntities(entities.length);
+
+        _chunkKeys[_chunkCount] = Keys.chunk(chunk.getX(), chunk.getZ());
+        for (Entity entity : entities) {
+            entity.getLocation(loc);
+            int i = _entityCount++;
+            _ordinals[i] = (short) entity.getType().ordinal();
+            _coords[3 * i] = loc.getX();
+            _coords[3 * i + 1] = loc.getY();
+            _coords[3 * i + 2] = loc.getZ();
+            addNamed(entity, loc);
+        }
+
+        if (_blockEntities) {
+            BlockState[] states = chunk.getTileEntities(false);
+            reserveBlockEntities(states.length);
+            for (BlockState state : states) {
+                int i = _blockEntityCount++;
+                _blockOrdinals[i] = (short) state.getType().ordinal();
+                _blockCoords[3 * i] = state.getX();
+                _blockCoords[3 * i + 1] = state.getY();
+                _blockCoords[3 * i + 2] = state.getZ();
+            }
+        }
+        endChunk();
+    } // addChunk
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start capturing a chunk entity by entity, from data that was not read
+     * from a loaded Chunk, such as a region file.
+     *
+     * Entities are then added by {@link #addEntity(int, double, double, double)}
+     * and the chunk is completed by {@link #endChunk()} or abandoned by
+     * {@link #discardChunk()}. These methods do not access the World and can
+     * be called from any thread, provided that only one thread uses this
+     * snapshot.
+     *
+     * @param chunkKey the key of the chunk (see {@link Keys#chunk(int, int)}).
+     */
+    public void beginChunk(long chunkKey) {
+        reserveChunk();
+        _chunkKeys[_chunkCount] = chunkKey;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add an entity to the chunk begun by {@link #beginChunk(long)}.
+     *
+     * @param ordinal the EntityType.ordinal() value of the entity.
+     * @param x the X coordinate.
+     * @param y the Y coordinate.
+     * @param z the Z coordinate.
+     */
+    public void addEntity(int ordinal, double x, double y, double z) {
+        reserveEntities(1);
+        int i = _entityCount++;
+        _ordinals[i] = (short) ordinal;
+        _coords[3 * i] = x;
+        _coords[3 * i + 1] = y;
+        _coords[3 * i + 2] = z;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Complete the chunk begun by {@link #beginChunk(long)}.
+     */
+    public void endChunk() {
+        _chunkStarts[++_chunkCount] = _entityCount;
+        _namedStarts[_chunkCount] = _named.size();
+        _blockStarts[_chunkCount] = _blockEntityCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Abandon the chunk begun by {@link #beginChunk(long)}, removing any
+     * entities added to it.
+     */
+    public void discardChunk() {
+        _entityCount = _chunkStarts[_chunkCount];
+        _blockEntityCount = _blockStarts[_chunkCount];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Ensure that there is room for one more chunk.
+     */
+    protected void reserveChunk() {
+        if (_chunkCount == _chunkKeys.length) {
+            _chunkKeys = Arrays.copyOf(_chunkKeys, 2 * _chunkCount);
+            _chunkStarts = Arrays.copyOf(_chunkStarts, 2 * _chunkCount + 1);
+            _namedStarts = Arrays.copyOf(_namedStarts, 2 * _chunkCount + 1);
+            _blockStarts = Arrays.copyOf(_blockStarts, 2 * _chunkCount + 1);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Ensure that there is room for the specified number of additional
+     * entities.
+     *
+     * @param entities the number of entities.
+     */
+    protected void reserveEntities(int entities) {
+        if (_entityCount + entities > _ordinals.length) {
+            int capacity = Math.max(_entityCount + entities, 2 * _ordinals.length);
+            _ordinals = Arrays.copyOf(_ordinals, capacity);
+            _coords = Arrays.copyOf(_coords, 3 * capacity);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Ensure that there is room for the specified number of additional block
+     * entities.
+     *
+     * @param blockEntities the number of block entities.
+     */
+    protected void reserveBlockEntities(int blockEntities) {
+        if (_blockEntityCount + blockEntities > _blockOrdinals.length) {
+            int capacity = Math.max(_blockEntityCount + blockEntities, 2 * _blockOrdinals.length);
+            _blockOrdinals = Arrays.copyOf(_blockOrdinals, capacity);
+            _blockCoords = Arrays.copyOf(_blockCoords, 3 * capacity);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the named entities and tamed mobs in the specified chunk.
+     *
+     * @param chunk the chunk index.
+     * @return the named entities and tamed mobs in the chunk.
+     */
+    public List<NamedEntity> getNamedEntities(int chunk) {
+        return _named.subList(_namedStarts[chunk], _namedStarts[chunk + 1]);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record an entity if it is named or tamed.
+     *
+     * @param entity the entity.
+     * @param loc the entity's location.
+     */
+    protected void addNamed(Entity entity, Location loc) {
+        NamedEntity named = NamedEntity.of(entity, loc);
+        if (named != null) {
+            _named.add(named);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the lowest section (block Y >> 4) of the World.
+     *
+     * @return the lowest section of the World.
+     */
+    public int getMinSection() {
+        return _minSection;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the highest section (block Y >> 4) of the World.
+     *
+     * @return the highest section of the World.
+     */
+    public int getMaxSection() {
+        return _maxSection;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the time when capture of the snapshot started, in milliseconds
+     * since the epoch.
+     *
+     * @return the time when capture of the snapshot started.
+     */
+    public long getCaptureMillis() {
+        return _captureMillis;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of chunks captured.
+     *
+     * @return the number of chunks captured.
+     */
+    public int getChunkCount() {
+        return _chunkCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of entities captured.
+     *
+     * @return the number of entities captured.
+     */
+    public int getEntityCount() {
+        return _entityCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key of the specified chunk (see {@link Keys#chunk(int, int)}).
+     *
+     * @param chunk the chunk index.
+     * @return the chunk key.
+     */
+    public long getChunkKey(int chunk) {
+        return _chunkKeys[chunk];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the first entity in the specified chunk.
+     *
+     * @param chunk the chunk index.
+     * @return the index of the first entity in the chunk.
+     */
+    public int getChunkStart(int chunk) {
+        return _chunkStarts[chunk];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return one more than the index of the last entity in the specified
+     * chunk.
+     *
+     * @param chunk the chunk index.
+     * @return the end of the range of entity indices in the chunk.
+     */
+    public int getChunkEnd(int chunk) {
+        return _chunkStarts[chunk + 1];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the EntityType.ordinal() value of the specified entity.
+     *
+     * @param entity the entity index.
+     * @return the EntityType.ordinal() value of the entity.
+     */
+    public int getOrdinal(int entity) {
+        return _ordinals[entity];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the X coordinate of the specified entity.
+     *
+     * @param entity the entity index.
+     * @return the X coordinate.
+     */
+    public double getX(int entity) {
+        return _coords[3 * entity];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Y coordinate of the specified entity.
+     *
+     * @param entity the entity index.
+     * @return the Y coordinate.
+     */
+    public double getY(int entity) {
+        return _coords[3 * entity + 1];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Z coordinate of the specified entity.
+     *
+     * @param entity the entity index.
+     * @return the Z coordinate.
+     */
+    public double getZ(int entity) {
+        return _coords[3 * entity + 2];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of block entities captured.
+     *
+     * @return the number of block entities captured.
+     */
+    public int getBlockEntityCount() {
+        return _blockEntityCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of the first block entity in the specified chunk.
+     *
+     * @param chunk the chunk index.
+     * @return the index of the first block entity in the chunk.
+     */
+    public int getBlockStart(int chunk) {
+        return _blockStarts[chunk];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return one more than the index of the last block entity in the
+     * specified chunk.
+     *
+     * @param chunk the chunk index.
+     * @return the end of the range of block entity indices in the chunk.
+     */
+    public int getBlockEnd(int chunk) {
+        return _blockStarts[chunk + 1];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Material.ordinal() value of the specified block entity.
+     *
+     * @param blockEntity the block entity index.
+     * @return the Material.ordinal() value of the block entity.
+     */
+    public int getBlockOrdinal(int blockEntity) {
+        return _blockOrdinals[blockEntity];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the block X coordinate of the specified block entity.
+     *
+     * @param blockEntity the block entity index.
+     * @return the block X coordinate.
+     */
+    public int getBlockX(int blockEntity) {
+        return _blockCoords[3 * blockEntity];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the block Y coordinate of the specified block entity.
+     *
+     * @param blockEntity the block entity index.
+     * @return the block Y coordinate.
+     */
+    public int getBlockY(int blockEntity) {
+        return _blockCoords[3 * blockEntity + 1];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the block Z coordinate of the specified block entity.
+     *
+     * @param blockEntity the block entity index.
+     * @return the block Z coordinate.
+     */
+    public int getBlockZ(int blockEntity) {
+        return _blockCoords[3 * blockEntity + 2];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * True if addChunk() captures block entities.
+     */
+    protected final boolean _blockEntities;
+
+    /**
+     * The lowest section (block Y >> 4) of the World.
+     */
+    protected final int _minSection;
+
+    /**
+     * The highest section (block Y >> 4) of the World.
+     */
+    protected final int _maxSection;
+
+    /**
+     * The time when capture of the snapshot started.
+     */
+    protected final long _captureMillis;
+
+    /**
+     * Number of chunks captured.
+     */
+    protected int _chunkCount;
+
+    /**
+     * Number of entities captured.
+     */
+    protected int _entityCount;
+
+    /**
+     * Chunk keys, by chunk index.
+     */
+    protected long[] _chunkKeys;
+
+    /**
+     * Index of the first entity of each chunk, by chunk index, with an extra
+     * trailing entry holding the entity count.
+     */
+    protected int[] _chunkStarts;
+
+    /**
+     * EntityType.ordinal() values, by entity index.
+     */
+    protected short[] _ordinals;
+
+    /**
+     * X, Y and Z coordinates, packed three per entity index.
+     */
+    protected double[] _coords;
+
+    /**
+     * Named entities and tamed mobs, chunk by chunk.
+     */
+    protected ArrayList<NamedEntity> _named = new ArrayList<NamedEntity>();
+
+    /**
+     * Index in _named of the first named entity of each chunk; entry
+     * [_chunkCount] is the total.
+     */
+    protected int[] _namedStarts;
+
+    /**
+     * Number of block entities captured.
+     */
+    protected int _blockEntityCount;
+
+    /**
+     * Index of the first block entity of each chunk, by chunk index, with an
+     * extra trailing entry holding the block entity count.
+     */
+    protected int[] _blockStarts;
+
+    /**
+     * Material.ordinal() values, by block entity index.
+     */
+    protected short[] _blockOrdinals;
+
+    /**
+     * Block X, Y and Z coordinates, packed three per block entity index.
+     */
+    protected int[] _blockCoords;
+} // class EntitySnapshot
@@ -0,0 +1,223 @@
+package io.totemo.ec;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+// ----------------------------------------------------------------------------
+/**
+ * One /ec count -all: the Worlds whose counts are awaited and, once they have
+ * all been published, the totals of all Worlds and the largest groups across
+ * all Worlds.
+ *
+ * The global top N groups are merged from the top N groups of each World
+ * shown by a filter, since every one of them is among the top N of its own
+ * World. Each World's selection is the same shared prefix that /ec list
+ * extends, so the merge does not disturb the IDs shown by /ec list.
+ *
+ * Instances are used only on the server thread.
+ */
+public class GlobalCount {
+    // ------------------------------------------------------------------------
+    /**
+     * Inner POD type pairing a row of a World's sorted {@link GroupTable}
+     * with the name of its World.
+     */
+    protected static final class Ranked {
+        public GroupTable table;
+        public int row;
+        public String worldName;
+
+        // --------------------------------------------------------------------
+        /**
+         * Convenience constructor.
+         *
+         * @param table the table containing the group.
+         * @param row the row of the group in the table.
+         * @param worldName the name of the group's World.
+         */
+        public Ranked(GroupTable table, int row, String worldName) {
+            this.table = table;
+            this.row = row;
+            this.worldName = worldName;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the number of entities in the group.
+         *
+         * @return the count.
+         */
+        public int getCount() {
+            return table.getCount(row);
+        }
+    } // inner class Ranked
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param sender the command sender to be sent the results.
+     * @param worldNames the names of the Worlds to await.
+     */
+    public GlobalCount(CommandSender sender, Collection<String> worldNames) {
+        _sender = sender;
+        _pending.addAll(worldNames);
+        _worldTotal = _pending.size();
+        _startMillis = System.currentTimeMillis();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the command sender to be sent the results.
+     *
+     * @return the command sender.
+     */
+    public CommandSender getSender() {
+        return _sender;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the published counts of a World.
+     *
+     * Counts of Worlds that are not awaited, or that were already received,
+     * are ignored. A World whose count failed is no longer awaited, and is
+     * left out of the results.
+     *
+     * @param worldName the name of the World.
+     * @param count the counts, or null if the count failed.
+     * @return true if the counts of all Worlds have now been received.
+     */
+    public boolean onWorldCounted(String worldName, WorldCount count) {
+        if (_pending.remove(worldName) && count != null) {
+            _counts.put(worldName, count);
+        }
+        return _pending.isEmpty();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a short description of the progress of this count, suitable for
+     * sending to a command sender.
+     *
+     * @return a short description of the progress of this count.
+     */
+    public String getProgress() {
+        return String.format("Counting all worlds: %d of %d finished; waiting for %s.",
+                             _counts.size(), _worldTotal, String.join(", ", _pending));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Total the counts of all Worlds and rank the largest groups across all
+     * Worlds.
+     *
+     * @param filter the filter of types to rank.
+     * @param rows the number of groups to rank.
+     */
+    public void merge(ListFilter filter, int rows) {
+        _filter = filter;
+        _totals = new EntityCounts();
+        ArrayList<Ranked> candidates = new ArrayList<Ranked>();
+        for (Map.Entry<String, WorldCount> entry : _counts.entrySet()) {
+            WorldCount count = entry.getValue();
+            count.getTotals().addTo(_totals);
+
+            ListView view = new ListView(count, filter);
+            view.select(null, rows);
+            for (int i = 0; i < Math.min(rows, view.getSelectedCount()); ++i) {
+                candidates.add(new Ranked(count._sortedGroups, view.getRow(i), entry.getKey()));
+            }
+        }
+
+        // Collections.sort() is stable, so ties rank in World order.
+        Collections.sort(candidates, new Comparator<Ranked>() {
+            @Override
+            public int compare(Ranked left, Ranked right) {
+                return right.getCount() - left.getCount();
+            }
+        });
+        _topGroups = candidates.subList(0, Math.min(rows, candidates.size()));
+    } // merge
+
+    // ------------------------------------------------------------------------
+    /**
+     * Send the merged results to the sender.
+     *
+     * Call {@link #merge(ListFilter, int)} first.
+     */
+    public void report() {
+        _sender.sendMessage(ChatColor.GOLD + String.format("Counted %d of %d worlds in %d milliseconds.",
+                                                           _counts.size(), _worldTotal,
+                                                           System.currentTimeMillis() - _startMillis));
+        WorldCount.summarise(_sender, _totals);
+
+        String header = ChatColor.translateAlternateColorCodes('&', String.format("&f---------- &6Top &e%d &6groups in all worlds (%s) &f----------",
+                                                                                  _topGroups.size(), _filter));
+        _sender.sendMessage(header);
+        for (int i = 0; i < _topGroups.size(); ++i) {
+            Ranked ranked = _topGroups.get(i);
+            GroupTable table = ranked.table;
+            int row = ranked.row;
+            String line = String.format("%s(% 3d) %s% 3d %s%-18s %s%s (%d, %d, %d)",
+                                        ChatColor.GOLD.toString(), i + 1,
+                                        ChatColor.GREEN.toString(), table.getCount(row),
+                                        ChatColor.YELLOW.toString(), table.getEntityType(row).name(),
+                                        ChatColor.GOLD.toString(), ranked.worldName,
+                                        table.getBlockX(row), table.getBlockY(row), table.getBlockZ(row));
+            _sender.sendMessage(line);
+        }
+        _sender.sendMessage(header);
+    } // report
+
+    // ------------------------------------------------------------------------
+    /**
+     * The command sender to be sent the results.
+     */
+    protected final CommandSender _sender;
+
+    /**
+     * Names of the Worlds whose counts have not yet been received.
+     */
+    protected final LinkedHashSet<String> _pending = new LinkedHashSet<String>();
+
+    /**
+     * Map from world name to received counts, in the order received.
+     */
+    protected final LinkedHashMap<String, WorldCount> _counts = new LinkedHashMap<String, WorldCount>();
+
+    /**
+     * Number of Worlds counted.
+     */
+    protected final int _worldTotal;
+
+    /**
+     * Wall clock time when the count was started.
+     */
+    protected final long _startMillis;
+
+    /**
+     * The filter of ranked types, set by merge().
+     */
+    protected ListFilter _filter;
+
+    /**
+     * Totals of all Worlds, set by merge().
+     */
+    protected EntityCounts _totals;
+
+    /**
+     * The largest groups across all Worlds in descending order, set by
+     * merge().
+     */
+    protected List<Ranked> _topGroups;
+} // class GlobalCount
@@ -0,0 +1,399 @@
+package io.totemo.ec;
+
+import java.util.Arrays;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.EntityType;
+
+// ----------------------------------------------------------------------------
+/**
+ * A table of groups of entities (non-zero counts of a type in a box) of one
+ * World, stored as parallel columns of primitives rather than as one
+ * {@link EntityGroup} object per group.
+ *
+ * Each row holds the EntityType ordinal, the count, the key of the chunk
+ * containing the group's representative location and that location itself:
+ * X and Z as float offsets from the chunk's minimum corner, which keeps
+ * sub-block precision anywhere in the World, and Y as an absolute float. A
+ * Location is only made for a row when it is needed as a teleport target.
+ *
+ * Tables are sorted by sorting a permutation of row indices, then reordering
+ * each column once. Sorting and merging are stable, so rows with equal counts
+ * keep the order in which they were added.
+ */
+public class GroupTable {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param world the World containing the groups.
+     * @param capacity the expected number of rows.
+     */
+    public GroupTable(World world, int capacity) {
+        _world = world;
+        capacity = Math.max(1, capacity);
+        _ordinals = new int[capacity];
+        _counts = new int[capacity];
+        _chunkKeys = new long[capacity];
+        _x = new float[capacity];
+        _y = new float[capacity];
+        _z = new float[capacity];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the World containing the groups.
+     *
+     * @return the World.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of rows.
+     *
+     * @return the number of rows.
+     */
+    public int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a row.
+     *
+     * @param ordinal the EntityType.ordinal() value of the group's type.
+     * @param count the number of entities in the group.
+     * @param x the X coordinate of the representative location.
+     * @param y the Y coordinate of the representative location.
+     * @param z the Z coordinate of the representative location.
+     */
+    public void add(int ordinal, int count, double x, double y, double z) {
+        if (_size == _counts.length) {
+            grow(2 * _size);
+        }
+        int chunkX = Location.locToBlock(x) >> 4;
+        int chunkZ = Location.locToBlock(z) >> 4;
+        int row = _size++;
+        _ordinals[row] = ordinal;
+        _counts[row] = count;
+        _chunkKeys[row] = Keys.chunk(chunkX, chunkZ);
+        _x[row] = Math.min((float) (x - (chunkX << 4)), MAX_OFFSET);
+        _y[row] = (float) y;
+        _z[row] = Math.min((float) (z - (chunkZ << 4)), MAX_OFFSET);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a row for an {@link EntityGroup}, such as one from the live
+     * census.
+     *
+     * @param group the group.
+     */
+    public void add(EntityGroup group) {
+        Location loc = group.getLocation();
+        add(group.getEntityType().ordinal(), group.getCount(), loc.getX(), loc.getY(), loc.getZ());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the EntityType.ordinal() value of the type of a row.
+     *
+     * @param row the row index.
+     * @return the ordinal.
+     */
+    public int getOrdinal(int row) {
+        return _ordinals[row];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the EntityType of a row.
+     *
+     * @param row the row index.
+     * @return the EntityType.
+     */
+    public EntityType getEntityType(int row) {
+        return EntityCounts.ENTITY_TYPES[_ordinals[row]];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of entities in the group of a row.
+     *
+     * @param row the row index.
+     * @return the count.
+     */
+    public int getCount(int row) {
+        return _counts[row];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key of the chunk containing the representative location of
+     * a row (see {@link Keys#chunk(int, int)}).
+     *
+     * @param row the row index.
+     * @return the chunk key.
+     */
+    public long getChunkKey(int row) {
+        return _chunkKeys[row];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the X coordinate of the representative location of a row.
+     *
+     * @param row the row index.
+     * @return the X coordinate.
+     */
+    public double getX(int row) {
+        return ((double) Keys.chunkX(_chunkKeys[row]) * 16) + _x[row];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Y coordinate of the representative location of a row.
+     *
+     * @param row the row index.
+     * @return the Y coordinate.
+     */
+    public double getY(int row) {
+        return _y[row];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the Z coordinate of the representative location of a row.
+     *
+     * @param row the row index.
+     * @return the Z coordinate.
+     */
+    public double getZ(int row) {
+        return ((double) Keys.chunkZ(_chunkKeys[row]) * 16) + _z[row];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the block X coordinate of the representative location of a row.
+     *
+     * @param row the row index.
+     * @return the block X coordinate.
+     */
+    public int getBlockX(int row) {
+        return (Keys.chunkX(_chunkKeys[row]) << 4) + (int) _x[row];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the block Y coordinate of the representative location of a row.
+     *
+     * @param row the row index.
+     * @return the block Y coordinate.
+     */
+    public int getBlockY(int row) {
+        return Location.locToBlock(_y[row]);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the block Z coordinate of the representative location of a row.
+     *
+     * @param row the row index.
+     * @return the block Z coordinate.
+     */
+    public int getBlockZ(int row) {
+        return (Keys.chunkZ(_chunkKeys[row]) << 4) + (int) _z[row];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new Location for the representative location of a row, as a
+     * teleport target.
+     *
+     * @param row the row index.
+     * @return the Location.
+     */
+    public Location getLocation(int row) {
+        return new Location(_world, getX(row), getY(row), getZ(row));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Sort the rows in descending order of count, keeping rows with equal
+     * counts in their current order.
+     */
+    public void sortDescending() {
+        if (_size < 2) {
+            return;
+        }
+
+        // Bottom-up merge sort of the row indices.
+        int[] permutation = new int[_size];
+        int[] scratch = new int[_size];
+        for (int i = 0; i < _size; ++i) {
+            permutation[i] = i;
+        }
+        for (int width = 1; width < _size; width *= 2) {
+            for (int lo = 0; lo < _size; lo += 2 * width) {
+                int mid = Math.min(lo + width, _size);
+                int hi = Math.min(lo + 2 * width, _size);
+                int l = lo;
+                int r = mid;
+                int i = lo;
+                while (l < mid && r < hi) {
+                    scratch[i++] = (_counts[permutation[r]] > _counts[permutation[l]]) ? permutation[r++]
+                                                                                       : permutation[l++];
+                }
+                while (l < mid) {
+                    scratch[i++] = permutation[l++];
+                }
+                while (r < hi) {
+                    scratch[i++] = permutation[r++];
+                }
+            }
+            int[] swap = permutation;
+            permutation = scratch;
+            scratch = swap;
+        }
+
+        GroupTable sorted = new GroupTable(_world, _size);
+        for (int i = 0; i < _size; ++i) {
+            sorted.copyRow(this, permutation[i]);
+        }
+        adopt(sorted);
+    } // sortDescending
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new table containing the rows of two tables that are each
+     * sorted in descending order of count, also in descending order of count,
+     * preferring the left table when counts are equal.
+     *
+     * @param left the left table.
+     * @param right the right table.
+     * @return the merged table.
+     */
+    public static GroupTable merge(GroupTable left, GroupTable right) {
+        GroupTable result = new GroupTable(left._world, left._size + right._size);
+        int l = 0;
+        int r = 0;
+        while (l < left._size && r < right._size) {
+            if (right._counts[r] > left._counts[l]) {
+                result.copyRow(right, r++);
+            } else {
+                result.copyRow(left, l++);
+            }
+        }
+        while (l < left._size) {
+            result.copyRow(left, l++);
+        }
+        while (r < right._size) {
+            result.copyRow(right, r++);
+        }
+        return result;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append a copy of a row of another table.
+     *
+     * @param source the other table.
+     * @param row the index of the row in the other table.
+     */
+    protected void copyRow(GroupTable source, int row) {
+        if (_size == _counts.length) {
+            grow(2 * _size);
+        }
+        int i = _size++;
+        _ordinals[i] = source._ordinals[row];
+        _counts[i] = source._counts[row];
+        _chunkKeys[i] = source._chunkKeys[row];
+        _x[i] = source._x[row];
+        _y[i] = source._y[row];
+        _z[i] = source._z[row];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Take over the columns of another table.
+     *
+     * @param other the other table, which must not be used afterwards.
+     */
+    protected void adopt(GroupTable other) {
+        _ordinals = other._ordinals;
+        _counts = other._counts;
+        _chunkKeys = other._chunkKeys;
+        _x = other._x;
+        _y = other._y;
+        _z = other._z;
+        _size = other._size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Grow the columns to the specified capacity.
+     *
+     * @param capacity the new capacity.
+     */
+    protected void grow(int capacity) {
+        _ordinals = Arrays.copyOf(_ordinals, capacity);
+        _counts = Arrays.copyOf(_counts, capacity);
+        _chunkKeys = Arrays.copyOf(_chunkKeys, capacity);
+        _x = Arrays.copyOf(_x, capacity);
+        _y = Arrays.copyOf(_y, capacity);
+        _z = Arrays.copyOf(_z, capacity);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The largest offset within a chunk, which keeps offsets that round up to
+     * 16 in their own chunk.
+     */
+    protected static final float MAX_OFFSET = Math.nextDown(16.0f);
+
+    /**
+     * The World containing the groups.
+     */
+    protected final World _world;
+
+    /**
+     * Number of rows.
+     */
+    protected int _size;
+
+    /**
+     * EntityType.ordinal() values, by row.
+     */
+    protected int[] _ordinals;
+
+    /**
+     * Entity counts, by row.
+     */
+    protected int[] _counts;
+
+    /**
+     * Keys of the chunks containing the representative locations, by row.
+     */
+    protected long[] _chunkKeys;
+
+    /**
+     * X coordinates of the representative locations relative to the minimum
+     * X of their chunks, by row.
+     */
+    protected float[] _x;
+
+    /**
+     * Y coordinates of the representative locations, by row.
+     */
+    protected float[] _y;
+
+    /**
+     * Z coordinates of the representative locations relative to the minimum
+     * Z of their chunks, by row.
+     */
+    protected float[] _z;
+} // class GroupTable
@@ -0,0 +1,350 @@
+package io.totemo.ec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * Writes the per-chunk (or per-box) entity totals of a {@link WorldCount} to
+ * a grid file for /ec heatmap, through a memory-mapped buffer.
+ *
+ * The grid is divided into tiles of 32x32 chunks, aligned with region files.
+ * Only tiles containing counted chunks are stored. All values are
+ * little-endian ints, so that the file can be read directly as an array by
+ * external tools. The file consists of:
+ * <ul>
+ * <li>a header of {@link #HEADER_SIZE} bytes:
+ * <ul>
+ * <li>0: the magic bytes "ECHM",</li>
+ * <li>4: the format {@link #VERSION},</li>
+ * <li>8: the time of export in milliseconds since the epoch, as a long,</li>
+ * <li>16: the width of a tile in chunks ({@link #TILE_SIZE}),</li>
+ * <li>20, 24: the region X and Z coordinates of the first tile column and
+ * row,</li>
+ * <li>28, 32: the number of tile columns (X) and rows (Z),</li>
+ * <li>36: the number of layers per chunk: 1 for chunk totals, or the number
+ * of 16x16x16 boxes in the height of the World for box totals,</li>
+ * <li>40: the section (block Y / 16) of the first layer of box totals,</li>
+ * <li>44: the number of stored tiles,</li>
+ * <li>48: the EntityType ordinal counted, or -1 for all types,</li>
+ * <li>52: the offset of the first tile in the file,</li>
+ * <li>56: the number of chunks counted,</li>
+ * <li>64: the counted type name (or "ALL"), as zero-padded ASCII.</li>
+ * </ul>
+ * </li>
+ * <li>a tile index of columns x rows ints, in row-major order, each the
+ * number of the stored tile for that region, or -1 if none,</li>
+ * <li>the stored tiles, each 32 rows (Z) of 32 chunks (X) of layers ints.</li>
+ * </ul>
+ *
+ * The counts are streamed from the {@link ChunkCount}s (or, for counts of the
+ * live census, the {@link EntityGroup}s) straight into the mapped file,
+ * without building any per-chunk objects. Since published WorldCounts are not
+ * modified, the export can run on any thread.
+ */
+public class HeatmapExport {
+    /**
+     * Magic bytes at the start of every heatmap file ("ECHM").
+     */
+    public static final byte[] MAGIC = { 'E', 'C', 'H', 'M' };
+
+    /**
+     * Format version.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Size of the fixed header in bytes.
+     */
+    public static final int HEADER_SIZE = 128;
+
+    /**
+     * Width and depth of a tile in chunks.
+     */
+    public static final int TILE_SIZE = 32;
+
+    /**
+     * Maximum number of tiles in the bounding grid of the counted chunks.
+     */
+    public static final int MAX_GRID_TILES = 1 << 24;
+
+    /**
+     * File name suffix of heatmaps.
+     */
+    public static final String SUFFIX = ".ecm";
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * Must be called on the server thread.
+     *
+     * @param world the counted World.
+     * @param count the published counts.
+     * @param ordinal the EntityType ordinal to count, or -1 for all types.
+     * @param boxes true to store box totals; false to store chunk totals.
+     */
+    public HeatmapExport(World world, WorldCount count, int ordinal, boolean boxes) {
+        _count = count;
+        _ordinal = ordinal;
+        _minSection = world.getMinHeight() >> 4;
+        _maxSection = (world.getMaxHeight() - 1) >> 4;
+        _layers = boxes ? _maxSection - _minSection + 1 : 1;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the heatmap file.
+     *
+     * @param file the file to write; replaced if it exists.
+     * @throws IOException if the file cannot be written or would be too
+     *         large.
+     */
+    public void write(File file) throws IOException {
+        // Find the bounds of the counted regions.
+        int[] bounds = { Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE };
+        forEachCount((chunkX, section, chunkZ, total) -> {
+            bounds[0] = Math.min(bounds[0], chunkX >> 5);
+            bounds[1] = Math.min(bounds[1], chunkZ >> 5);
+            bounds[2] = Math.max(bounds[2], chunkX >> 5);
+            bounds[3] = Math.max(bounds[3], chunkZ >> 5);
+        });
+        if (bounds[0] > bounds[2]) {
+            bounds[0] = bounds[1] = bounds[2] = bounds[3] = 0;
+        }
+        _minRegionX = bounds[0];
+        _minRegionZ = bounds[1];
+        _columns = bounds[2] - bounds[0] + 1;
+        _rows = bounds[3] - bounds[1] + 1;
+        if ((long) _columns * _rows > MAX_GRID_TILES) {
+            throw new IOException("The counted chunks span too many regions: " + _columns + " x " + _rows + ".");
+        }
+
+        // Number the populated tiles in row-major order.
+        int[] index = new int[_columns * _rows];
+        forEachCount((chunkX, section, chunkZ, total) -> {
+            index[((chunkZ >> 5) - _minRegionZ) * _columns + (chunkX >> 5) - _minRegionX] = 1;
+        });
+        _tiles = 0;
+        _chunks = 0;
+        for (int i = 0; i < index.length; ++i) {
+            index[i] = (index[i] != 0) ? _tiles++ : -1;
+        }
+
+        long tileBytes = 4L * TILE_SIZE * TILE_SIZE * _layers;
+        long dataOffset = HEADER_SIZE + 4L * index.length;
+        _size = dataOffset + _tiles * tileBytes;
+        if (_size > Integer.MAX_VALUE) {
+            throw new IOException("The heatmap would be too large: " + _size + " bytes.");
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            // Truncate first so that the mapped file is zero filled.
+            channel.truncate(0);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, _size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            int cellBytes = 4 * _layers;
+            forEachCount((chunkX, section, chunkZ, total) -> {
+                int tile = index[((chunkZ >> 5) - _minRegionZ) * _columns + (chunkX >> 5) - _minRegionX];
+                int cell = (chunkZ & (TILE_SIZE - 1)) * TILE_SIZE + (chunkX & (TILE_SIZE - 1));
+                int offset = (int) (dataOffset + tile * tileBytes) + cell * cellBytes
+                             + ((_layers == 1) ? 0 : 4 * (section - _minSection));
+                buffer.putInt(offset, buffer.getInt(offset) + total);
+            });
+
+            // Count the populated chunks.
+            for (int tile = 0; tile < _tiles; ++tile) {
+                for (int cell = 0; cell < TILE_SIZE * TILE_SIZE; ++cell) {
+                    int offset = (int) (dataOffset + tile * tileBytes) + cell * cellBytes;
+                    for (int layer = 0; layer < _layers; ++layer) {
+                        if (buffer.getInt(offset + 4 * layer) != 0) {
+                            ++_chunks;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            buffer.put(0, MAGIC[0]).put(1, MAGIC[1]).put(2, MAGIC[2]).put(3, MAGIC[3]);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, System.currentTimeMillis());
+            buffer.putInt(16, TILE_SIZE);
+            buffer.putInt(20, _minRegionX);
+            buffer.putInt(24, _minRegionZ);
+            buffer.putInt(28, _columns);
+            buffer.putInt(32, _rows);
+            buffer.putInt(36, _layers);
+            buffer.putInt(40, _minSection);
+            buffer.putInt(44, _tiles);
+            buffer.putInt(48, _ordinal);
+            buffer.putInt(52, (int) dataOffset);
+            buffer.putInt(56, _chunks);
+            String typeName = (_ordinal < 0) ? "ALL" : EntityCounts.ENTITY_TYPES[_ordinal].name();
+            byte[] name = Arrays.copyOf(typeName.getBytes(StandardCharsets.US_ASCII), HEADER_SIZE - 64);
+            for (int i = 0; i < name.length; ++i) {
+                buffer.put(64 + i, name[i]);
+            }
+            for (int i = 0; i < index.length; ++i) {
+                buffer.putInt(HEADER_SIZE + 4 * i, index[i]);
+            }
+            buffer.force();
+        }
+    } // write
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of stored tiles.
+     *
+     * @return the number of stored tiles.
+     */
+    public int getTileCount() {
+        return _tiles;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of chunks with a non-zero total.
+     *
+     * @return the number of chunks with a non-zero total.
+     */
+    public int getChunkCount() {
+        return _chunks;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the size of the file in bytes.
+     *
+     * @return the size of the file in bytes.
+     */
+    public long getSize() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Receives the non-zero totals of the counted type in each box.
+     */
+    protected interface BoxVisitor {
+        /**
+         * Visit the total of a box.
+         *
+         * @param chunkX the chunk X coordinate.
+         * @param section the section, clamped to the World's height range.
+         * @param chunkZ the chunk Z coordinate.
+         * @param total the number of entities.
+         */
+        void visit(int chunkX, int section, int chunkZ, int total);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Pass the non-zero total of the counted type in each box to a visitor.
+     *
+     * @param visitor the visitor.
+     */
+    protected void forEachCount(BoxVisitor visitor) {
+        for (ChunkCount chunkCount : _count._chunkCounts) {
+            long chunkKey = chunkCount.getChunkKey();
+            int chunkX = Keys.chunkX(chunkKey);
+            int chunkZ = Keys.chunkZ(chunkKey);
+            for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+                Box16Count box = chunkCount.getBox(i);
+                int total = 0;
+                if (_ordinal < 0) {
+                    for (int slot = 0; slot < box.getSlotCount(); ++slot) {
+                        total += box.getSlotTotal(slot);
+                    }
+                } else {
+                    total = box.getTotal(_ordinal);
+                }
+                if (total != 0) {
+                    visitor.visit(chunkX, chunkCount.getBoxSection(i), chunkZ, total);
+                }
+            }
+        }
+
+        // Counts of the live census only have groups.
+        if (_count._chunkCounts.isEmpty() && _count._groups != null) {
+            for (EntityGroup group : _count._groups) {
+                if (_ordinal < 0 || group.getEntityType().ordinal() == _ordinal) {
+                    Location loc = group.getLocation();
+                    int section = Math.max(_minSection, Math.min(_maxSection, loc.getBlockY() >> 4));
+                    visitor.visit(loc.getBlockX() >> 4, section, loc.getBlockZ() >> 4, group.getCount());
+                }
+            }
+        }
+    } // forEachCount
+
+    // ------------------------------------------------------------------------
+    /**
+     * The counts to export.
+     */
+    protected final WorldCount _count;
+
+    /**
+     * The EntityType ordinal to count, or -1 for all types.
+     */
+    protected final int _ordinal;
+
+    /**
+     * Lowest section index of the World.
+     */
+    protected final int _minSection;
+
+    /**
+     * Highest section index of the World.
+     */
+    protected final int _maxSection;
+
+    /**
+     * Number of ints stored per chunk.
+     */
+    protected final int _layers;
+
+    /**
+     * Region X coordinate of the first tile column.
+     */
+    protected int _minRegionX;
+
+    /**
+     * Region Z coordinate of the first tile row.
+     */
+    protected int _minRegionZ;
+
+    /**
+     * Number of tile columns.
+     */
+    protected int _columns;
+
+    /**
+     * Number of tile rows.
+     */
+    protected int _rows;
+
+    /**
+     * Number of stored tiles.
+     */
+    protected int _tiles;
+
+    /**
+     * Number of chunks with a non-zero total.
+     */
+    protected int _chunks;
+
+    /**
+     * Size of the file in bytes.
+     */
+    protected long _size;
+} // class HeatmapExport
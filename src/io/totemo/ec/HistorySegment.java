@@ -0,0 +1,416 @@
+package io.totemo.ec;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+// ----------------------------------------------------------------------------
+/**
+ * One append-only segment file of the {@link CensusHistory} of a World.
+ *
+ * A segment starts with a header:
+ * <ul>
+ * <li>the magic number {@link #MAGIC} and format {@link #VERSION}, as
+ * big-endian ints,</li>
+ * <li>a varint count of entity types, followed by the name of each type in
+ * ordinal order, as a varint length and UTF-8 bytes.</li>
+ * </ul>
+ * Ordinals in records refer to this table, so that segments remain readable
+ * if the server's EntityType enum changes. A segment whose table differs from
+ * the running server's is never appended to.
+ *
+ * The header is followed by records, each a big-endian int payload length
+ * and the payload:
+ * <ul>
+ * <li>the time of the count in milliseconds since the epoch, as a big-endian
+ * long,</li>
+ * <li>a flags byte; {@link #KEY_FRAME} if the chunk totals are relative to
+ * an empty world rather than the previous record,</li>
+ * <li>a varint count of entity types with non-zero totals, followed by the
+ * varint ordinal and varint total of each,</li>
+ * <li>a varint count of chunks whose total changed, followed by, in
+ * ascending order of chunk key, the zig-zag varint difference between the
+ * chunk key and the previous chunk key in the record (or 0, so that the
+ * first key is stored in full), and the zig-zag varint change in the chunk's
+ * total.</li>
+ * </ul>
+ * Chunk totals are thus delta-encoded against the previous record; a chunk
+ * whose total falls to 0 is no longer counted. Readers that only need type
+ * totals skip the chunk section using the payload length.
+ *
+ * Instances are only used by the history's writer thread.
+ */
+public class HistorySegment {
+    /**
+     * Magic number at the start of every segment ("ECH1").
+     */
+    public static final int MAGIC = 0x45434831;
+
+    /**
+     * Format version.
+     *
+     * Version 1 segments stored the first changed chunk key of each record
+     * as 0, so their chunk totals cannot be decoded. Their type totals are
+     * still read, but they are never appended to.
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * Record flag: chunk totals are relative to an empty world.
+     */
+    public static final int KEY_FRAME = 1;
+
+    /**
+     * File name suffix of segments.
+     */
+    public static final String SUFFIX = ".seg";
+
+    // ------------------------------------------------------------------------
+    /**
+     * Open the segment file for appending, creating it with a header if it
+     * does not exist.
+     *
+     * @param file the segment file.
+     * @throws IOException if the file cannot be opened or written.
+     */
+    public HistorySegment(File file) throws IOException {
+        _file = file;
+        _channel = new RandomAccessFile(file, "rw").getChannel();
+        if (_channel.size() == 0) {
+            _channel.write(ByteBuffer.wrap(encodeHeader()));
+            _unsynced = true;
+        }
+        _channel.position(_channel.size());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the segment file.
+     *
+     * @return the segment file.
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the size of the segment in bytes.
+     *
+     * @return the size of the segment in bytes.
+     * @throws IOException if the size cannot be determined.
+     */
+    public long size() throws IOException {
+        return _channel.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append an encoded record payload.
+     *
+     * The data reaches the operating system immediately but is only forced
+     * to the storage device by {@link #sync()}.
+     *
+     * @param payload the record payload.
+     * @param length the number of bytes of payload to write.
+     * @throws IOException if the write fails.
+     */
+    public void append(byte[] payload, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + length);
+        buffer.putInt(length).put(payload, 0, length).flip();
+        while (buffer.hasRemaining()) {
+            _channel.write(buffer);
+        }
+        _unsynced = true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Force appended data to the storage device, if there is any.
+     *
+     * @throws IOException if the sync fails.
+     */
+    public void sync() throws IOException {
+        if (_unsynced) {
+            _channel.force(false);
+            _unsynced = false;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Sync and close the segment.
+     *
+     * @throws IOException if the sync or close fails.
+     */
+    public void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            _channel.close();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified segment file has a valid header whose type
+     * table matches the running server's entity types.
+     *
+     * @param file the segment file.
+     * @return true if records can be appended to the segment.
+     */
+    public static boolean isAppendable(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            String[] types = readHeader(in, VERSION);
+            if (types == null || types.length != EntityCounts.ENTITY_TYPES.length) {
+                return false;
+            }
+            for (int i = 0; i < types.length; ++i) {
+                if (!types[i].equals(EntityCounts.ENTITY_TYPES[i].name())) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the time and total of every record in a segment file at or after
+     * the specified time.
+     *
+     * @param file the segment file.
+     * @param typeName the name of the entity type whose totals are read, or
+     *        null to read the total of all types.
+     * @param sinceMillis the earliest time of interest.
+     * @param points receives the points as {time, total} pairs.
+     * @throws IOException if the file cannot be read or is corrupt.
+     */
+    public static void readTotals(File file, String typeName, long sinceMillis, List<long[]> points)
+    throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            String[] types = readHeader(in, 1);
+            if (types == null) {
+                throw new IOException("Not a history segment: " + file);
+            }
+            int wanted = (typeName != null) ? Arrays.asList(types).indexOf(typeName) : -1;
+            if (typeName != null && wanted < 0) {
+                // The type did not exist when the segment was written.
+                return;
+            }
+
+            // A record truncated by a crash ends the segment.
+            try {
+                readRecords(in, wanted, sinceMillis, points);
+            } catch (EOFException ex) {
+                // Nothing more to read.
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the time and total of every record following the header.
+     *
+     * @param in the input stream, positioned after the header.
+     * @param ordinal the ordinal in the segment's type table of the entity
+     *        type whose totals are read, or -1 for all types.
+     * @param sinceMillis the earliest time of interest.
+     * @param points receives the points as {time, total} pairs.
+     * @throws IOException if the file cannot be read or ends.
+     */
+    protected static void readRecords(DataInputStream in, int ordinal, long sinceMillis, List<long[]> points)
+    throws IOException {
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException ex) {
+                return;
+            }
+
+            long millis = in.readLong();
+            in.readByte();
+            long total = 0;
+            int used = 9;
+            int typeCount = (int) readVarLong(in);
+            used += varLongSize(typeCount);
+            for (int i = 0; i < typeCount; ++i) {
+                int typeOrdinal = (int) readVarLong(in);
+                long count = readVarLong(in);
+                used += varLongSize(typeOrdinal) + varLongSize(count);
+                if (ordinal < 0 || typeOrdinal == ordinal) {
+                    total += count;
+                }
+            }
+
+            // Skip the chunk totals.
+            for (int remaining = length - used; remaining > 0;) {
+                int skipped = in.skipBytes(remaining);
+                if (skipped <= 0) {
+                    throw new EOFException();
+                }
+                remaining -= skipped;
+            }
+            if (millis >= sinceMillis) {
+                points.add(new long[] { millis, total });
+            }
+        }
+    } // readRecords
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write an unsigned varint: 7 bits per byte, least significant first,
+     * with the high bit set on all but the last byte.
+     *
+     * @param buffer the buffer to write to; must have at least 10 bytes
+     *        free at offset.
+     * @param offset the offset in buffer.
+     * @param value the value, treated as unsigned.
+     * @return the offset after the varint.
+     */
+    public static int writeVarLong(byte[] buffer, int offset, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read an unsigned varint written by
+     * {@link #writeVarLong(byte[], int, long)}.
+     *
+     * @param in the input stream.
+     * @return the value.
+     * @throws IOException if the stream ends or the varint is malformed.
+     */
+    public static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint.");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of bytes in the varint encoding of a value.
+     *
+     * @param value the value, treated as unsigned.
+     * @return the encoded size in bytes.
+     */
+    public static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            ++size;
+        }
+        return size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Map a signed value to an unsigned one, so that values of small
+     * magnitude have short varint encodings.
+     *
+     * @param value the signed value.
+     * @return the zig-zag encoded value.
+     */
+    public static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Encode the segment header for the running server's entity types.
+     *
+     * @return the header bytes.
+     */
+    protected static byte[] encodeHeader() {
+        byte[][] names = new byte[EntityCounts.ENTITY_TYPES.length][];
+        int size = 8 + 10;
+        for (int i = 0; i < names.length; ++i) {
+            names[i] = EntityCounts.ENTITY_TYPES[i].name().getBytes(StandardCharsets.UTF_8);
+            size += 10 + names[i].length;
+        }
+
+        byte[] header = new byte[size];
+        ByteBuffer.wrap(header).putInt(MAGIC).putInt(VERSION);
+        int offset = writeVarLong(header, 8, names.length);
+        for (byte[] name : names) {
+            offset = writeVarLong(header, offset, name.length);
+            System.arraycopy(name, 0, header, offset, name.length);
+            offset += name.length;
+        }
+        return Arrays.copyOf(header, offset);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a segment header.
+     *
+     * @param in the input stream, positioned at the start of the file.
+     * @param minVersion the oldest acceptable format version.
+     * @return the entity type names in ordinal order, or null if the header
+     *         is not valid.
+     * @throws IOException if the file cannot be read.
+     */
+    protected static String[] readHeader(DataInputStream in, int minVersion) throws IOException {
+        try {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            int version = in.readInt();
+            if (version < minVersion || version > VERSION) {
+                return null;
+            }
+            String[] types = new String[(int) readVarLong(in)];
+            for (int i = 0; i < types.length; ++i) {
+                byte[] name = new byte[(int) readVarLong(in)];
+                in.readFully(name);
+                types[i] = new String(name, StandardCharsets.UTF_8);
+            }
+            return types;
+        } catch (EOFException ex) {
+            return null;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The segment file.
+     */
+    protected final File _file;
+
+    /**
+     * Channel used to append to the file.
+     */
+    protected final FileChannel _channel;
+
+    /**
+     * True if data has been written since the last sync.
+     */
+    protected boolean _unsynced;
+} // class HistorySegment
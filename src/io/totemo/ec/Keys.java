@@ -0,0 +1,125 @@
+package io.totemo.ec;
+
+// ----------------------------------------------------------------------------
+/**
+ * Static methods to pack chunk and 16x16x16 box coordinates into a single
+ * long, for use as keys in a {@link LongObjectMap}.
+ *
+ * Box keys hold the chunk X and Z coordinates in 28 bits each and the box Y
+ * index (block Y >> 4) in the low 8 bits, which covers the full range of
+ * coordinates in a vanilla world. Chunk keys hold the chunk X and Z
+ * coordinates in the upper and lower 32 bits, respectively.
+ */
+public final class Keys {
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key of the 16x16x16 box with the specified coordinates.
+     *
+     * @param chunkX the chunk X coordinate (block X >> 4).
+     * @param boxY the box Y index (block Y >> 4).
+     * @param chunkZ the chunk Z coordinate (block Z >> 4).
+     * @return the packed box key.
+     */
+    public static long box(int chunkX, int boxY, int chunkZ) {
+        return ((long) chunkX << 36) | (((long) chunkZ & 0xFFFFFFFL) << 8) | (boxY & 0xFFL);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key of the 16x16x16 box containing the specified block
+     * coordinates.
+     *
+     * @param blockX the block X coordinate.
+     * @param blockY the block Y coordinate.
+     * @param blockZ the block Z coordinate.
+     * @return the packed box key.
+     */
+    public static long boxAt(int blockX, int blockY, int blockZ) {
+        return box(blockX >> 4, blockY >> 4, blockZ >> 4);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk X coordinate of a box key.
+     *
+     * @param boxKey the box key.
+     * @return the chunk X coordinate.
+     */
+    public static int boxX(long boxKey) {
+        return (int) (boxKey >> 36);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the box Y index of a box key.
+     *
+     * @param boxKey the box key.
+     * @return the box Y index (block Y >> 4).
+     */
+    public static int boxY(long boxKey) {
+        return (int) (boxKey << 56 >> 56);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk Z coordinate of a box key.
+     *
+     * @param boxKey the box key.
+     * @return the chunk Z coordinate.
+     */
+    public static int boxZ(long boxKey) {
+        return (int) (boxKey << 28 >> 36);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key of the chunk containing the specified box.
+     *
+     * @param boxKey the box key.
+     * @return the chunk key.
+     */
+    public static long boxChunk(long boxKey) {
+        return chunk(boxX(boxKey), boxZ(boxKey));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key of the chunk with the specified coordinates.
+     *
+     * @param chunkX the chunk X coordinate.
+     * @param chunkZ the chunk Z coordinate.
+     * @return the packed chunk key.
+     */
+    public static long chunk(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk X coordinate of a chunk key.
+     *
+     * @param chunkKey the chunk key.
+     * @return the chunk X coordinate.
+     */
+    public static int chunkX(long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the chunk Z coordinate of a chunk key.
+     *
+     * @param chunkKey the chunk key.
+     * @return the chunk Z coordinate.
+     */
+    public static int chunkZ(long chunkKey) {
+        return (int) chunkKey;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Not instantiable.
+     */
+    private Keys() {
+    }
+} // class Keys
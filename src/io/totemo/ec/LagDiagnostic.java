@@ -0,0 +1,263 @@
+package io.totemo.ec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+
+// ----------------------------------------------------------------------------
+/**
+ * An automatic census of all Worlds started by the {@link LagMonitor} when
+ * the server has been slow for a configured number of consecutive ticks.
+ *
+ * The census awaits and merges the counts of all Worlds exactly as
+ * /ec count -all does, but instead of sending the results to a command
+ * sender, it writes them to a text file in the diagnostics folder: the tick
+ * durations that triggered it, the totals of each World and of all Worlds,
+ * the largest entity and block entity groups across all Worlds, and the
+ * phase timings. The text is formatted on the server thread, which only
+ * visits the top groups and the totals, and written by an asynchronous task.
+ */
+public class LagDiagnostic extends GlobalCount {
+    // ------------------------------------------------------------------------
+    /**
+     * Inner POD type pairing a block entity group with the name of its World.
+     */
+    protected static final class RankedBlocks {
+        public BlockEntityGroup group;
+        public String worldName;
+
+        // --------------------------------------------------------------------
+        /**
+         * Convenience constructor.
+         *
+         * @param group the group.
+         * @param worldName the name of the group's World.
+         */
+        public RankedBlocks(BlockEntityGroup group, String worldName) {
+            this.group = group;
+            this.worldName = worldName;
+        }
+    } // inner class RankedBlocks
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param plugin the owning plugin.
+     * @param worldNames the names of the Worlds to await.
+     * @param slowTicks the number of consecutive slow ticks that triggered
+     *        the census.
+     * @param meanMillis the mean duration of those ticks in milliseconds.
+     * @param maxMillis the maximum duration of those ticks in milliseconds.
+     */
+    public LagDiagnostic(EntityControl plugin, Collection<String> worldNames,
+                         int slowTicks, double meanMillis, double maxMillis) {
+        super(Bukkit.getConsoleSender(), worldNames);
+        _plugin = plugin;
+        _slowTicks = slowTicks;
+        _meanMillis = meanMillis;
+        _maxMillis = maxMillis;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the merged results to a new diagnostic file in the background.
+     *
+     * Call {@link #merge(ListFilter, int)} first.
+     *
+     * @see io.totemo.ec.GlobalCount#report()
+     */
+    @Override
+    public void report() {
+        String text = format();
+        File directory = new File(_plugin.getDataFolder(), "diagnostics");
+        File file = new File(directory, "lag-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(_startMillis)) + ".txt");
+        Bukkit.getScheduler().runTaskAsynchronously(_plugin, () -> {
+            try {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Could not create " + directory);
+                }
+                Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+                _plugin.getLogger().info("Wrote lag diagnostic " + file.getPath() + ".");
+            } catch (IOException ex) {
+                _plugin.getLogger().log(Level.WARNING, "Could not write lag diagnostic " + file.getPath() + ".", ex);
+            }
+        });
+    } // report
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the text of the diagnostic file.
+     *
+     * @return the text.
+     */
+    protected String format() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("EntityControl lag diagnostic, ")
+            .append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z").format(new Date(_startMillis))).append('\n');
+        out.append(String.format("Trigger: %d consecutive ticks of at least %.1f ms (mean %.2f ms, max %.2f ms).\n",
+                                 _slowTicks, EntityControl.CONFIG.LAG_MSPT, _meanMillis, _maxMillis));
+        out.append(String.format("Counted %d of %d worlds in %d milliseconds.\n",
+                                 _counts.size(), _worldTotal, System.currentTimeMillis() - _startMillis));
+
+        BlockEntityCounts blockTotals = new BlockEntityCounts();
+        ArrayList<RankedBlocks> blockCandidates = new ArrayList<RankedBlocks>();
+        int rows = EntityControl.CONFIG.LAG_TOP_GROUPS;
+        out.append("\nWorlds:\n");
+        for (Map.Entry<String, WorldCount> entry : _counts.entrySet()) {
+            WorldCount count = entry.getValue();
+            count.getBlockTotals().addTo(blockTotals);
+            BlockEntityGroup[] blockGroups = count.getBlockGroups();
+            for (int i = 0; i < Math.min(rows, blockGroups.length); ++i) {
+                blockCandidates.add(new RankedBlocks(blockGroups[i], entry.getKey()));
+            }
+            out.append(String.format("  %s: %d entities in %d boxes, %d groups, %d block entities.\n",
+                                     entry.getKey(), sum(count.getTotals()), count.getBoxCount(),
+                                     count.getGroupCount(), sum(count.getBlockTotals())));
+        }
+
+        out.append("\nEntities: ");
+        appendTotals(out, _totals, EntityCounts.ENTITY_TYPES);
+        out.append("Block entities: ");
+        appendTotals(out, blockTotals, BlockEntityCounts.MATERIALS);
+
+        out.append(String.format("\nTop %d entity groups in all worlds (%s):\n", _topGroups.size(), _filter));
+        for (int i = 0; i < _topGroups.size(); ++i) {
+            Ranked ranked = _topGroups.get(i);
+            appendGroup(out, i, ranked.getCount(), ranked.table.getEntityType(ranked.row).name(), ranked.worldName,
+                        ranked.table.getBlockX(ranked.row), ranked.table.getBlockY(ranked.row), ranked.table.getBlockZ(ranked.row));
+        }
+
+        // Collections.sort() is stable, so ties rank in World order.
+        Collections.sort(blockCandidates, new Comparator<RankedBlocks>() {
+            @Override
+            public int compare(RankedBlocks left, RankedBlocks right) {
+                return right.group.getCount() - left.group.getCount();
+            }
+        });
+        int blockRows = Math.min(rows, blockCandidates.size());
+        out.append(String.format("\nTop %d block entity groups in all worlds:\n", blockRows));
+        for (int i = 0; i < blockRows; ++i) {
+            RankedBlocks ranked = blockCandidates.get(i);
+            Location loc = ranked.group.getLocation();
+            appendGroup(out, i, ranked.group.getCount(), ranked.group.getMaterial().name(), ranked.worldName,
+                        loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+        }
+
+        out.append("\nPhase timings (samples, mean, p50, p99, max):\n");
+        for (Metrics.Phase phase : Metrics.Phase.values()) {
+            TimingHistogram timing = EntityControl.METRICS.getTiming(phase);
+            long samples = timing.getCount();
+            if (samples == 0) {
+                out.append(String.format("  %-9s no samples\n", phase.getLabel()));
+            } else {
+                out.append(String.format("  %-9s %d, %.2f ms, <%.2f ms, <%.2f ms, %.2f ms\n",
+                                         phase.getLabel(), samples,
+                                         timing.getSumNanos() * 1e-6 / samples,
+                                         timing.getQuantileBound(0.5) * 1e-6,
+                                         timing.getQuantileBound(0.99) * 1e-6,
+                                         timing.getMaxNanos() * 1e-6));
+            }
+        }
+        return out.toString();
+    } // format
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append one ranked group as a line of text.
+     *
+     * @param out the buffer to append to.
+     * @param index the 0-based rank.
+     * @param count the number of entities or block entities.
+     * @param type the name of the type.
+     * @param worldName the name of the World.
+     * @param x the block X coordinate of the representative location.
+     * @param y the block Y coordinate of the representative location.
+     * @param z the block Z coordinate of the representative location.
+     */
+    protected static void appendGroup(StringBuilder out, int index, int count, String type, String worldName,
+                                      int x, int y, int z) {
+        out.append(String.format("  (% 3d) % 5d %-18s %s (%d, %d, %d)\n",
+                                 index + 1, count, type, worldName, x, y, z));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append the grand total and the non-zero totals of each type, in
+     * descending order, as a line of text.
+     *
+     * @param out the buffer to append to.
+     * @param totals the totals.
+     * @param types the types, indexed by the ordinals of the totals.
+     */
+    protected static void appendTotals(StringBuilder out, EntityCounts totals, Enum<?>[] types) {
+        Integer[] ordinals = new Integer[totals.getSlotCount()];
+        int size = 0;
+        for (int slot = 0; slot < totals.getSlotCount(); ++slot) {
+            if (totals.getSlotTotal(slot) != 0) {
+                ordinals[size++] = totals.getSlotOrdinal(slot);
+            }
+        }
+        Arrays.sort(ordinals, 0, size, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer left, Integer right) {
+                return totals.getTotal(right) - totals.getTotal(left);
+            }
+        });
+
+        out.append(sum(totals));
+        for (int i = 0; i < size; ++i) {
+            out.append(", ").append(types[ordinals[i]].name()).append(": ").append(totals.getTotal(ordinals[i]));
+        }
+        out.append('\n');
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the sum of all counts.
+     *
+     * @param totals the counts.
+     * @return the sum.
+     */
+    protected static int sum(EntityCounts totals) {
+        int sum = 0;
+        for (int slot = 0; slot < totals.getSlotCount(); ++slot) {
+            sum += totals.getSlotTotal(slot);
+        }
+        return sum;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The owning plugin.
+     */
+    protected final EntityControl _plugin;
+
+    /**
+     * Number of consecutive slow ticks that triggered the census.
+     */
+    protected final int _slowTicks;
+
+    /**
+     * Mean duration of the slow ticks in milliseconds.
+     */
+    protected final double _meanMillis;
+
+    /**
+     * Maximum duration of the slow ticks in milliseconds.
+     */
+    protected final double _maxMillis;
+} // class LagDiagnostic
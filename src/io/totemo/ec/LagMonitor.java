@@ -0,0 +1,176 @@
+package io.totemo.ec;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+
+import com.destroystokyo.paper.event.server.ServerTickEndEvent;
+
+// ----------------------------------------------------------------------------
+/**
+ * Watches the duration of every server tick and, when the configured number
+ * of consecutive ticks have each taken at least the configured number of
+ * milliseconds, counts all Worlds and writes a {@link LagDiagnostic} file, so
+ * that there is a record of what was loaded during every lag spike.
+ *
+ * The per-tick cost is one comparison, and while ticks are slow, an
+ * addition and a maximum. The counts are ordinary budgeted counts, driven by
+ * the {@link CountScheduler} like /ec count -all, and are published for
+ * /ec list as usual. Only one diagnostic is in progress at a time, and a new
+ * one is not started until the configured cooldown has passed since the
+ * previous one started.
+ */
+public class LagMonitor implements Listener {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param plugin the owning plugin.
+     */
+    public LagMonitor(EntityControl plugin) {
+        _plugin = plugin;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Enable or disable the monitor by registering or unregistering its event
+     * handler.
+     *
+     * Disabling the monitor abandons any diagnostic in progress.
+     *
+     * @param enabled true to enable the monitor.
+     */
+    public void setEnabled(boolean enabled) {
+        if (enabled != _enabled) {
+            _enabled = enabled;
+            _slowTicks = 0;
+            if (enabled) {
+                Bukkit.getServer().getPluginManager().registerEvents(this, _plugin);
+            } else {
+                HandlerList.unregisterAll(this);
+                _diagnostic = null;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the duration of a tick and start a diagnostic census if enough
+     * consecutive ticks have been slow.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onServerTickEnd(ServerTickEndEvent event) {
+        double millis = event.getTickDuration();
+        if (millis < EntityControl.CONFIG.LAG_MSPT) {
+            _slowTicks = 0;
+            return;
+        }
+
+        if (_slowTicks++ == 0) {
+            _slowSumMillis = 0;
+            _slowMaxMillis = 0;
+        }
+        _slowSumMillis += millis;
+        _slowMaxMillis = Math.max(_slowMaxMillis, millis);
+        if (_slowTicks >= EntityControl.CONFIG.LAG_TICKS) {
+            trigger(_slowTicks, _slowSumMillis / _slowTicks, _slowMaxMillis);
+            _slowTicks = 0;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the published counts of a World in the diagnostic in progress,
+     * if any, and write the diagnostic when all Worlds have been counted.
+     *
+     * @param worldName the name of the World.
+     * @param count the counts, or null if the count failed.
+     */
+    public void onWorldCounted(String worldName, WorldCount count) {
+        LagDiagnostic diagnostic = _diagnostic;
+        if (diagnostic != null && diagnostic.onWorldCounted(worldName, count)) {
+            _diagnostic = null;
+            diagnostic.merge(ListFilter.DEFAULT, EntityControl.CONFIG.LAG_TOP_GROUPS);
+            diagnostic.report();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start a diagnostic census of all Worlds, unless one is in progress or
+     * the previous one started less than the cooldown ago.
+     *
+     * A diagnostic that has been in progress for longer than the cooldown,
+     * such as one awaiting a World that was unloaded, is abandoned.
+     *
+     * @param slowTicks the number of consecutive slow ticks.
+     * @param meanMillis the mean duration of those ticks.
+     * @param maxMillis the maximum duration of those ticks.
+     */
+    protected void trigger(int slowTicks, double meanMillis, double maxMillis) {
+        long now = System.currentTimeMillis();
+        long cooldownMillis = 60_000L * Math.max(1, EntityControl.CONFIG.LAG_COOLDOWN_MINUTES);
+        if (now - _lastStartMillis < cooldownMillis) {
+            return;
+        }
+        if (_diagnostic != null) {
+            _plugin.getLogger().warning("Abandoned a lag diagnostic that did not finish: " + _diagnostic.getProgress());
+        }
+
+        List<World> worlds = Bukkit.getServer().getWorlds();
+        ArrayList<String> worldNames = new ArrayList<String>();
+        for (World world : worlds) {
+            worldNames.add(world.getName());
+        }
+        _lastStartMillis = now;
+        _diagnostic = new LagDiagnostic(_plugin, worldNames, slowTicks, meanMillis, maxMillis);
+        _plugin.getLogger().warning(String.format("%d consecutive ticks took at least %.1f ms (mean %.2f ms, max %.2f ms). Counting %d worlds for a lag diagnostic.",
+                                                  slowTicks, EntityControl.CONFIG.LAG_MSPT, meanMillis, maxMillis,
+                                                  worldNames.size()));
+        for (World world : worlds) {
+            _plugin.countWorld(Bukkit.getConsoleSender(), world, false);
+        }
+    } // trigger
+
+    // ------------------------------------------------------------------------
+    /**
+     * The owning plugin.
+     */
+    protected final EntityControl _plugin;
+
+    /**
+     * True if the event handler is registered.
+     */
+    protected boolean _enabled;
+
+    /**
+     * Number of consecutive ticks that took at least the threshold.
+     */
+    protected int _slowTicks;
+
+    /**
+     * Sum of the durations of the consecutive slow ticks, in milliseconds.
+     */
+    protected double _slowSumMillis;
+
+    /**
+     * Maximum duration of the consecutive slow ticks, in milliseconds.
+     */
+    protected double _slowMaxMillis;
+
+    /**
+     * Wall clock time when the most recent diagnostic was started, or 0.
+     */
+    protected long _lastStartMillis;
+
+    /**
+     * The diagnostic in progress, or null.
+     */
+    protected LagDiagnostic _diagnostic;
+} // class LagMonitor
@@ -0,0 +1,126 @@
+package io.totemo.ec;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.bukkit.entity.EntityType;
+
+// ----------------------------------------------------------------------------
+/**
+ * The set of entity types shown by a {@link ListView}.
+ *
+ * Filters are immutable and can be shared between sessions.
+ */
+public final class ListFilter {
+    /**
+     * The filter used unless a session chooses another: item frames and armor
+     * stands, which are usually decorations rather than farms, are hidden.
+     */
+    public static final ListFilter DEFAULT = hiding(EntityType.ITEM_FRAME, EntityType.GLOW_ITEM_FRAME,
+                                                    EntityType.ARMOR_STAND);
+
+    /**
+     * The filter that shows all types.
+     */
+    public static final ListFilter ALL = hiding();
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a filter that shows only the specified types.
+     *
+     * @param types the shown types.
+     * @return the filter.
+     */
+    public static ListFilter showing(Collection<EntityType> types) {
+        boolean[] shown = new boolean[EntityCounts.ENTITY_TYPES.length];
+        StringBuilder description = new StringBuilder();
+        for (EntityType type : types) {
+            shown[type.ordinal()] = true;
+            description.append(description.length() == 0 ? "only " : ", ").append(type.name());
+        }
+        return new ListFilter(shown, description.toString());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a filter that shows all but the specified types.
+     *
+     * @param types the hidden types.
+     * @return the filter.
+     */
+    public static ListFilter hiding(EntityType... types) {
+        boolean[] shown = new boolean[EntityCounts.ENTITY_TYPES.length];
+        Arrays.fill(shown, true);
+        StringBuilder description = new StringBuilder();
+        for (EntityType type : types) {
+            shown[type.ordinal()] = false;
+            description.append(description.length() == 0 ? "all except " : ", ").append(type.name());
+        }
+        return new ListFilter(shown, (types.length == 0) ? "all types" : description.toString());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if entities of the specified type are shown.
+     *
+     * @param ordinal the EntityType.ordinal() value identifying the EntityType.
+     * @return true if the type is shown.
+     */
+    public boolean isShown(int ordinal) {
+        return _shown[ordinal];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if this filter shows all types.
+     *
+     * @return true if this filter shows all types.
+     */
+    public boolean isAll() {
+        return _all;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a description of the shown types, for messages.
+     *
+     * @return the description.
+     */
+    @Override
+    public String toString() {
+        return _description;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param shown true for each EntityType ordinal that is shown.
+     * @param description the description of the shown types.
+     */
+    private ListFilter(boolean[] shown, String description) {
+        _shown = shown;
+        _description = description;
+        boolean all = true;
+        for (boolean s : shown) {
+            all &= s;
+        }
+        _all = all;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * True for each EntityType ordinal that is shown.
+     */
+    private final boolean[] _shown;
+
+    /**
+     * True if all types are shown.
+     */
+    private final boolean _all;
+
+    /**
+     * Description of the shown types.
+     */
+    private final String _description;
+} // class ListFilter
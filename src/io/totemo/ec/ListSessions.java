@@ -0,0 +1,185 @@
+package io.totemo.ec;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.scheduler.BukkitTask;
+
+// ----------------------------------------------------------------------------
+/**
+ * The /ec list sessions of command senders: each sender's chosen
+ * {@link ListFilter} and their {@link ListView} of each World.
+ *
+ * Sessions are created when first used and evicted when their player logs
+ * out or when they have not been used for the configured idle time. Views
+ * are created lazily and replaced when a World's counts are republished or
+ * the filter changes, so that group IDs stay stable between /ec list and
+ * /ec tp until then.
+ */
+public class ListSessions implements Listener {
+    // ------------------------------------------------------------------------
+    /**
+     * One sender's session.
+     */
+    public static final class Session {
+        // --------------------------------------------------------------------
+        /**
+         * Return the sender's filter.
+         *
+         * @return the filter.
+         */
+        public ListFilter getFilter() {
+            return _filter;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Set the sender's filter, discarding views made with the previous
+         * filter.
+         *
+         * @param filter the filter.
+         */
+        public void setFilter(ListFilter filter) {
+            if (filter != _filter) {
+                _filter = filter;
+                _views.clear();
+            }
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the sender's view of the current counts of a World, creating
+         * it if necessary.
+         *
+         * @param worldName the name of the World.
+         * @param count the World's most recently published counts.
+         * @return the view.
+         */
+        public ListView getView(String worldName, WorldCount count) {
+            ListView view = _views.get(worldName);
+            if (view == null || view.getWorldCount() != count) {
+                view = new ListView(count, _filter);
+                _views.put(worldName, view);
+            }
+            return view;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * The filter.
+         */
+        private ListFilter _filter = ListFilter.DEFAULT;
+
+        /**
+         * Map from world name to view.
+         */
+        private final HashMap<String, ListView> _views = new HashMap<String, ListView>();
+
+        /**
+         * Time when the session was last used, from System.currentTimeMillis().
+         */
+        private long _lastUsedMillis;
+    } // inner class Session
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param plugin the owning plugin.
+     */
+    public ListSessions(EntityControl plugin) {
+        _plugin = plugin;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start or stop tracking logouts and evicting idle sessions.
+     *
+     * All sessions are discarded.
+     *
+     * @param enabled true to start.
+     */
+    public void setEnabled(boolean enabled) {
+        _sessions.clear();
+        if (_evictTimer != null) {
+            _evictTimer.cancel();
+            _evictTimer = null;
+            HandlerList.unregisterAll(this);
+        }
+        if (enabled) {
+            Bukkit.getServer().getPluginManager().registerEvents(this, _plugin);
+            _evictTimer = Bukkit.getScheduler().runTaskTimer(_plugin, this::evictIdle, EVICT_PERIOD_TICKS,
+                                                             EVICT_PERIOD_TICKS);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the session of a command sender, creating it if necessary, and
+     * mark it as used.
+     *
+     * @param sender the command sender.
+     * @return the session.
+     */
+    public Session get(CommandSender sender) {
+        Session session = _sessions.get(sender.getName());
+        if (session == null) {
+            session = new Session();
+            _sessions.put(sender.getName(), session);
+        }
+        session._lastUsedMillis = System.currentTimeMillis();
+        return session;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard the session of a player who logs out.
+     *
+     * @param event the event.
+     */
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        _sessions.remove(event.getPlayer().getName());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Discard sessions that have been idle for longer than the configured
+     * time.
+     */
+    protected void evictIdle() {
+        long cutoff = System.currentTimeMillis() - 60000L * EntityControl.CONFIG.SESSION_IDLE_MINUTES;
+        for (Iterator<Session> it = _sessions.values().iterator(); it.hasNext();) {
+            if (it.next()._lastUsedMillis < cutoff) {
+                it.remove();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Period in ticks between checks for idle sessions.
+     */
+    protected static final long EVICT_PERIOD_TICKS = 20 * 60;
+
+    /**
+     * The owning plugin.
+     */
+    protected final EntityControl _plugin;
+
+    /**
+     * Map from command sender name to session.
+     */
+    protected final HashMap<String, Session> _sessions = new HashMap<String, Session>();
+
+    /**
+     * Repeating task that evicts idle sessions, or null if stopped.
+     */
+    protected BukkitTask _evictTimer;
+} // class ListSessions
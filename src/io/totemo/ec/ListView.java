@@ -0,0 +1,185 @@
+package io.totemo.ec;
+
+import java.util.Arrays;
+
+import org.bukkit.command.CommandSender;
+
+// ----------------------------------------------------------------------------
+/**
+ * One session's filtered view of the sorted groups of a {@link WorldCount}.
+ *
+ * The view does not copy any groups. It records the row indices of the shown
+ * groups in the WorldCount's shared sorted {@link GroupTable}, which is only
+ * ever extended, so that the IDs of groups already shown stay stable. Indices
+ * are collected lazily as more rows are listed, and the shared table is
+ * extended by {@link WorldCount#selectGroups(CommandSender, int)} when the
+ * view runs out of groups to scan. A view that shows all types needs no
+ * indices at all.
+ *
+ * Views are used only on the server thread.
+ */
+public class ListView {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param count the counts.
+     * @param filter the filter.
+     */
+    public ListView(WorldCount count, ListFilter filter) {
+        _count = count;
+        _filter = filter;
+        _indices = filter.isAll() ? null : new int[16];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the counts viewed.
+     *
+     * @return the counts viewed.
+     */
+    public WorldCount getWorldCount() {
+        return _count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the filter.
+     *
+     * @return the filter.
+     */
+    public ListFilter getFilter() {
+        return _filter;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total number of groups shown by the filter, whether or not
+     * they have been selected yet.
+     *
+     * @return the number of shown groups.
+     */
+    public int getGroupCount() {
+        if (_groupCount < 0) {
+            if (_filter.isAll()) {
+                _groupCount = _count.getGroupCount();
+            } else {
+                int[] typeGroupCounts = _count.getTypeGroupCounts();
+                int groupCount = 0;
+                for (int ordinal = 0; ordinal < typeGroupCounts.length; ++ordinal) {
+                    if (_filter.isShown(ordinal)) {
+                        groupCount += typeGroupCounts[ordinal];
+                    }
+                }
+                _groupCount = groupCount;
+            }
+        }
+        return _groupCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of shown groups that have been selected, and can be
+     * retrieved by {@link #getRow(int)}.
+     *
+     * @return the number of selected shown groups.
+     */
+    public int getSelectedCount() {
+        return _filter.isAll() ? _count.getSelectedCount() : _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the row of the shown group at the specified 0-based index in the
+     * WorldCount's sorted {@link GroupTable}.
+     *
+     * @param index the index, less than {@link #getSelectedCount()}.
+     * @return the row index.
+     */
+    public int getRow(int index) {
+        return _filter.isAll() ? index : _indices[index];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Ensure that at least the specified number of the largest shown groups
+     * (or all of them, if there are fewer) are selected.
+     *
+     * @param sender CommandSender to send messages to, or null to send none.
+     * @param rows the number of rows required.
+     */
+    public void select(CommandSender sender, int rows) {
+        if (_filter.isAll()) {
+            extend(sender, rows);
+            return;
+        }
+
+        rows = Math.min(rows, getGroupCount());
+        while (_size < rows) {
+            GroupTable sorted = _count._sortedGroups;
+            if (sorted == null || _scanned >= sorted.size()) {
+                // Each hidden group scanned needs a replacement.
+                extend(sender, _scanned + rows - _size);
+                sorted = _count._sortedGroups;
+                if (_scanned >= sorted.size()) {
+                    break;
+                }
+            }
+            for (; _scanned < sorted.size() && _size < rows; ++_scanned) {
+                if (_filter.isShown(sorted.getOrdinal(_scanned))) {
+                    if (_size == _indices.length) {
+                        _indices = Arrays.copyOf(_indices, 2 * _size);
+                    }
+                    _indices[_size++] = _scanned;
+                }
+            }
+        }
+    } // select
+
+    // ------------------------------------------------------------------------
+    /**
+     * Extend the shared selection of the WorldCount.
+     *
+     * @param sender CommandSender to send messages to, or null to send none.
+     * @param rows the number of rows required.
+     */
+    protected void extend(CommandSender sender, int rows) {
+        if (sender != null) {
+            _count.selectGroups(sender, rows);
+        } else {
+            _count.select(rows);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The counts viewed.
+     */
+    protected final WorldCount _count;
+
+    /**
+     * The filter.
+     */
+    protected final ListFilter _filter;
+
+    /**
+     * Indices in the shared sorted array of the shown groups, in order, or
+     * null if all types are shown.
+     */
+    protected int[] _indices;
+
+    /**
+     * Number of valid elements of _indices.
+     */
+    protected int _size;
+
+    /**
+     * Number of elements of the shared sorted array scanned so far.
+     */
+    protected int _scanned;
+
+    /**
+     * Total number of shown groups, or -1 if not yet computed.
+     */
+    protected int _groupCount = -1;
+} // class ListView
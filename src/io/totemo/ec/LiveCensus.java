@@ -0,0 +1,406 @@
+package io.totemo.ec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityTeleportEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.destroystokyo.paper.event.entity.EntityAddToWorldEvent;
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
+
+import io.papermc.paper.event.entity.EntityMoveEvent;
+
+// ----------------------------------------------------------------------------
+/**
+ * Maintains per-box entity counts for all worlds incrementally, in response
+ * to entity events, so that totals and groups can be queried without
+ * scanning chunks.
+ *
+ * Entities are added and removed when they are added to or removed from a
+ * world, which includes spawning, death and chunk loading and unloading.
+ * Living entities and players are moved between boxes when they cross a box
+ * boundary. Other entities (items, minecarts, projectiles) do not raise
+ * movement events; they are re-filed by a periodic {@link ReconcileTask},
+ * which also corrects and reports any other drift from the actual entities.
+ */
+public class LiveCensus implements Listener {
+    /**
+     * Result of {@link #track(Entity, Location)}: the entity was not
+     * previously tracked.
+     */
+    public static final int ADDED = 0;
+
+    /**
+     * Result of {@link #track(Entity, Location)}: the entity was tracked in a
+     * different box.
+     */
+    public static final int MOVED = 1;
+
+    /**
+     * Result of {@link #track(Entity, Location)}: the entity was already
+     * tracked in the correct box.
+     */
+    public static final int UNCHANGED = 2;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param plugin the owning plugin.
+     */
+    public LiveCensus(EntityControl plugin) {
+        _plugin = plugin;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Enable or disable the census.
+     *
+     * Enabling the census registers event handlers and starts periodic
+     * reconciliation, the first pass of which populates the census. Disabling
+     * it discards all counts.
+     *
+     * @param enabled true to enable the census.
+     */
+    public void setEnabled(boolean enabled) {
+        if (enabled == isEnabled()) {
+            return;
+        }
+
+        if (enabled) {
+            Bukkit.getServer().getPluginManager().registerEvents(this, _plugin);
+            long periodTicks = Math.max(1, 20L * EntityControl.CONFIG.RECONCILE_PERIOD_SECONDS);
+            _reconcileTimer = Bukkit.getScheduler().runTaskTimer(_plugin, this::reconcileAll, 1, periodTicks);
+        } else {
+            HandlerList.unregisterAll(this);
+            _reconcileTimer.cancel();
+            _reconcileTimer = null;
+            for (ReconcileTask task : _reconcileTasks.values()) {
+                _plugin.getCountScheduler().remove(task);
+            }
+            _reconcileTasks.clear();
+            _worlds.clear();
+            _tracked.clear();
+        }
+    } // setEnabled
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the census is enabled.
+     *
+     * @return true if the census is enabled.
+     */
+    public boolean isEnabled() {
+        return _reconcileTimer != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the census of the specified World if it has been populated, or
+     * null if not.
+     *
+     * @param world the World.
+     * @return the populated census of the World, or null.
+     */
+    public LiveWorldCensus getInitialisedCensus(World world) {
+        LiveWorldCensus census = _worlds.get(world.getName());
+        return (census != null && census.isInitialised()) ? census : null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start a reconciliation pass of every world that is not already being
+     * reconciled.
+     */
+    public void reconcileAll() {
+        for (World world : Bukkit.getWorlds()) {
+            if (!_reconcileTasks.containsKey(world.getName())) {
+                ReconcileTask task = new ReconcileTask(this, world);
+                _reconcileTasks.put(world.getName(), task);
+                _plugin.getCountScheduler().add(task);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count an entity that has been added to a world.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityAddToWorld(EntityAddToWorldEvent event) {
+        Entity entity = event.getEntity();
+        track(entity, entity.getLocation(_scratch));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Uncount an entity that has been removed from a world.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityRemoveFromWorld(EntityRemoveFromWorldEvent event) {
+        untrack(event.getEntity());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Re-file a living entity that has crossed a box boundary.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityMove(EntityMoveEvent event) {
+        if (crossesBox(event.getFrom(), event.getTo())) {
+            track(event.getEntity(), event.getTo());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Re-file a player who has crossed a box boundary.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        if (crossesBox(event.getFrom(), event.getTo())) {
+            track(event.getPlayer(), event.getTo());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Re-file a player who has teleported within a world.
+     *
+     * Teleports between worlds are handled as a removal and an addition.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event) {
+        onPlayerMove(event);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Re-file a non-player entity that has teleported within a world.
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onEntityTeleport(EntityTeleportEvent event) {
+        Location to = event.getTo();
+        if (to != null && to.getWorld() == event.getFrom().getWorld() && crossesBox(event.getFrom(), to)) {
+            track(event.getEntity(), to);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a reusable Location instance for use with
+     * Entity.getLocation(Location), to avoid allocation.
+     *
+     * @return a reusable Location instance.
+     */
+    protected Location getScratchLocation() {
+        return _scratch;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start tracking an entity, or re-file it in the box containing the
+     * specified location.
+     *
+     * @param entity the entity.
+     * @param loc the current location of the entity.
+     * @return {@link #ADDED}, {@link #MOVED} or {@link #UNCHANGED}.
+     */
+    protected int track(Entity entity, Location loc) {
+        LiveWorldCensus census = getWorldCensus(loc.getWorld());
+        long boxKey = Keys.boxAt(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+        long id = entity.getEntityId();
+        Tracked tracked = _tracked.get(id);
+        if (tracked == null) {
+            tracked = new Tracked(entity, census, boxKey);
+            _tracked.put(id, tracked);
+            census.add(boxKey, tracked.ordinal);
+            return ADDED;
+        }
+
+        tracked.pass = census._pass;
+        if (tracked.census == census && tracked.boxKey == boxKey) {
+            return UNCHANGED;
+        }
+        tracked.census.remove(tracked.boxKey, tracked.ordinal);
+        census.add(boxKey, tracked.ordinal);
+        tracked.census = census;
+        tracked.boxKey = boxKey;
+        return MOVED;
+    } // track
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop tracking an entity.
+     *
+     * @param entity the entity.
+     */
+    protected void untrack(Entity entity) {
+        Tracked tracked = _tracked.remove(entity.getEntityId());
+        if (tracked != null) {
+            tracked.census.remove(tracked.boxKey, tracked.ordinal);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Called by a {@link ReconcileTask} before it visits the first chunk.
+     *
+     * @param world the World being reconciled.
+     */
+    protected void beginReconcile(World world) {
+        ++getWorldCensus(world)._pass;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Called by a {@link ReconcileTask} when it has visited all chunks.
+     *
+     * Tracked entities in the World that were not seen during the pass are
+     * re-filed at their current location if still valid, or removed from the
+     * census if not. Any drift is then logged.
+     *
+     * @param task the finished task.
+     */
+    protected void finishReconcile(ReconcileTask task) {
+        World world = task.getWorld();
+        _reconcileTasks.remove(world.getName());
+        LiveWorldCensus census = getWorldCensus(world);
+
+        ArrayList<Tracked> unseen = new ArrayList<>();
+        for (int slot = 0; slot < _tracked.capacity(); ++slot) {
+            Tracked tracked = _tracked.valueAt(slot);
+            if (tracked != null && tracked.census == census && tracked.pass != census._pass) {
+                unseen.add(tracked);
+            }
+        }
+
+        int misfiled = task._misfiled;
+        int stale = 0;
+        for (Tracked tracked : unseen) {
+            if (tracked.entity.isValid()) {
+                if (track(tracked.entity, tracked.entity.getLocation(_scratch)) != UNCHANGED) {
+                    ++misfiled;
+                }
+            } else {
+                untrack(tracked.entity);
+                ++stale;
+            }
+        }
+
+        Logger logger = _plugin.getLogger();
+        if (!census._initialised) {
+            census._initialised = true;
+            logger.info(String.format("Live census of %s initialised with %d entities in %.2f ms.",
+                                      world.getName(), task._untracked, task._nanos * 1e-6));
+        } else if (task._untracked + misfiled + stale != 0) {
+            logger.info(String.format("Live census of %s drifted: corrected %d untracked, %d misfiled and %d stale entities.",
+                                      world.getName(), task._untracked, misfiled, stale));
+        } else if (EntityControl.CONFIG.DEBUG) {
+            logger.info(String.format("Live census of %s has no drift (%.2f ms).",
+                                      world.getName(), task._nanos * 1e-6));
+        }
+    } // finishReconcile
+
+    // ------------------------------------------------------------------------
+    /**
+     * Get or create the census of the specified World.
+     *
+     * @param world the World.
+     * @return the {@link LiveWorldCensus}.
+     */
+    protected LiveWorldCensus getWorldCensus(World world) {
+        LiveWorldCensus census = _worlds.get(world.getName());
+        if (census == null) {
+            census = new LiveWorldCensus();
+            _worlds.put(world.getName(), census);
+        }
+        return census;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if two locations are in different 16x16x16 boxes.
+     *
+     * @param from the old location.
+     * @param to the new location.
+     * @return true if two locations are in different 16x16x16 boxes.
+     */
+    protected static boolean crossesBox(Location from, Location to) {
+        return (from.getBlockX() >> 4) != (to.getBlockX() >> 4) ||
+               (from.getBlockY() >> 4) != (to.getBlockY() >> 4) ||
+               (from.getBlockZ() >> 4) != (to.getBlockZ() >> 4);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The box in which a tracked entity is currently counted.
+     */
+    protected static final class Tracked {
+        public final Entity entity;
+        public final int ordinal;
+        public LiveWorldCensus census;
+        public long boxKey;
+        public int pass;
+
+        // --------------------------------------------------------------------
+        /**
+         * Constructor.
+         *
+         * @param entity the entity.
+         * @param census the census of the entity's World.
+         * @param boxKey the key of the box containing the entity.
+         */
+        public Tracked(Entity entity, LiveWorldCensus census, long boxKey) {
+            this.entity = entity;
+            this.ordinal = entity.getType().ordinal();
+            this.census = census;
+            this.boxKey = boxKey;
+            this.pass = census._pass;
+        }
+    } // inner class Tracked
+
+    // ------------------------------------------------------------------------
+    /**
+     * Owning plugin.
+     */
+    protected final EntityControl _plugin;
+
+    /**
+     * Map from world name to corresponding {@link LiveWorldCensus}.
+     */
+    protected HashMap<String, LiveWorldCensus> _worlds = new HashMap<String, LiveWorldCensus>();
+
+    /**
+     * Map from entity ID to the box in which the entity is counted.
+     */
+    protected LongObjectMap<Tracked> _tracked = new LongObjectMap<Tracked>(4096);
+
+    /**
+     * Map from world name to the {@link ReconcileTask} reconciling that world.
+     */
+    protected HashMap<String, ReconcileTask> _reconcileTasks = new HashMap<String, ReconcileTask>();
+
+    /**
+     * Repeating task that starts reconciliation passes; null when the census
+     * is disabled.
+     */
+    protected BukkitTask _reconcileTimer;
+
+    /**
+     * Reusable Location for Entity.getLocation(Location).
+     */
+    protected final Location _scratch = new Location(null, 0, 0, 0);
+} // class LiveCensus
@@ -0,0 +1,139 @@
+package io.totemo.ec;
+
+import java.util.ArrayList;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * Entity counts for one World, maintained incrementally by a
+ * {@link LiveCensus} as entities are added, removed and move between
+ * 16x16x16 boxes.
+ */
+public class LiveWorldCensus {
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the census has been populated by an initial
+     * reconciliation pass over all loaded chunks.
+     *
+     * @return true if the census is ready to be queried.
+     */
+    public boolean isInitialised() {
+        return _initialised;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total counts of all entities in the World, by type.
+     *
+     * @return the total counts of all entities in the World, by type.
+     */
+    public EntityCounts getTotals() {
+        return _totals;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of populated 16x16x16 boxes.
+     *
+     * @return the number of populated 16x16x16 boxes.
+     */
+    public int getBoxCount() {
+        return _boxes.size();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count one entity of the specified type in the specified box.
+     *
+     * @param boxKey the box key (see {@link Keys#box(int, int, int)}).
+     * @param ordinal the EntityType.ordinal() value identifying the EntityType.
+     */
+    public void add(long boxKey, int ordinal) {
+        EntityCounts counts = _boxes.get(boxKey);
+        if (counts == null) {
+            counts = new EntityCounts();
+            _boxes.put(boxKey, counts);
+        }
+        counts.add(ordinal, 1);
+        _totals.add(ordinal, 1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Uncount one entity of the specified type in the specified box.
+     *
+     * Boxes are discarded when they no longer contain any entities.
+     *
+     * @param boxKey the box key (see {@link Keys#box(int, int, int)}).
+     * @param ordinal the EntityType.ordinal() value identifying the EntityType.
+     */
+    public void remove(long boxKey, int ordinal) {
+        EntityCounts counts = _boxes.get(boxKey);
+        if (counts != null) {
+            counts.add(ordinal, -1);
+            if (counts.isEmpty()) {
+                _boxes.remove(boxKey);
+            }
+        }
+        _totals.add(ordinal, -1);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a {@link WorldCount} holding a copy of the current counts, for
+     * use by /ec list and /ec tp.
+     *
+     * Since the census does not track entity locations within a box, the
+     * teleport target of each group is the centre of its box.
+     *
+     * @param world the World corresponding to this census.
+     * @return a new {@link WorldCount}.
+     */
+    public WorldCount snapshot(World world) {
+        EntityCounts totals = new EntityCounts();
+        _totals.addTo(totals);
+
+        ArrayList<EntityGroup> groups = new ArrayList<>(_boxes.size());
+        for (int slot = 0; slot < _boxes.capacity(); ++slot) {
+            EntityCounts counts = _boxes.valueAt(slot);
+            if (counts != null) {
+                long boxKey = _boxes.keyAt(slot);
+                Location centre = new Location(world,
+                    (Keys.boxX(boxKey) << 4) + 8.5,
+                    (Keys.boxY(boxKey) << 4) + 8,
+                    (Keys.boxZ(boxKey) << 4) + 8.5);
+                for (int i = 0; i < counts.getSlotCount(); ++i) {
+                    int count = counts.getSlotTotal(i);
+                    if (count != 0) {
+                        groups.add(new EntityGroup(EntityCounts.ENTITY_TYPES[counts.getSlotOrdinal(i)], count, centre));
+                    }
+                }
+            }
+        }
+        return new WorldCount(totals, groups);
+    } // snapshot
+
+    // ------------------------------------------------------------------------
+    /**
+     * Counts of entities in each populated box, keyed by box key.
+     */
+    protected LongObjectMap<EntityCounts> _boxes = new LongObjectMap<EntityCounts>();
+
+    /**
+     * Total counts of entities in the World.
+     */
+    protected EntityCounts _totals = new EntityCounts();
+
+    /**
+     * Number of the current (or most recent) reconciliation pass, used to
+     * identify tracked entities that were not seen by the pass.
+     */
+    protected int _pass;
+
+    /**
+     * True once the first reconciliation pass has finished.
+     */
+    protected boolean _initialised;
+} // class LiveWorldCensus
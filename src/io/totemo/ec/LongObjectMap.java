@@ -0,0 +1,269 @@
+package io.totemo.ec;
+
+import java.util.Arrays;
+
+// ----------------------------------------------------------------------------
+/**
+ * A hash map from primitive long keys to non-null object values.
+ *
+ * Keys are stored unboxed in an open-addressed table with linear probing, so
+ * lookups and insertions of existing keys do not allocate. Empty slots are
+ * identified by a null value, which is why null values are not permitted.
+ *
+ * The contents can be iterated without allocation by visiting slot indices
+ * from 0 to {@link #capacity()} - 1 and skipping those where
+ * {@link #valueAt(int)} returns null. The map must not be modified during
+ * such an iteration.
+ *
+ * @param <V> the value type.
+ */
+public class LongObjectMap<V> {
+    // ------------------------------------------------------------------------
+    /**
+     * Default constructor.
+     */
+    public LongObjectMap() {
+        this(16);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param expectedSize the number of entries that can be stored without
+     *        resizing the table.
+     */
+    @SuppressWarnings("unchecked")
+    public LongObjectMap(int expectedSize) {
+        int capacity = tableSizeFor(expectedSize);
+        _keys = new long[capacity];
+        _values = (V[]) new Object[capacity];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of entries in the map.
+     *
+     * @return the number of entries in the map.
+     */
+    public int size() {
+        return _size;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the map has no entries.
+     *
+     * @return true if the map has no entries.
+     */
+    public boolean isEmpty() {
+        return _size == 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the value for the specified key, or null if not present.
+     *
+     * @param key the key.
+     * @return the value for the specified key, or null if not present.
+     */
+    public V get(long key) {
+        int mask = _keys.length - 1;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            V value = _values[i];
+            if (value == null) {
+                return null;
+            } else if (_keys[i] == key) {
+                return value;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the map contains the specified key.
+     *
+     * @param key the key.
+     * @return true if the map contains the specified key.
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Associate a value with a key, replacing any previous value.
+     *
+     * @param key the key.
+     * @param value the non-null value.
+     * @return the previous value, or null if there was none.
+     */
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException("null values are not permitted");
+        }
+        int mask = _keys.length - 1;
+        int i = hash(key) & mask;
+        for (; _values[i] != null; i = (i + 1) & mask) {
+            if (_keys[i] == key) {
+                V old = _values[i];
+                _values[i] = value;
+                return old;
+            }
+        }
+        _keys[i] = key;
+        _values[i] = value;
+        if (++_size > (_keys.length >> 1) + (_keys.length >> 2)) {
+            resize(_keys.length << 1);
+        }
+        return null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove the entry for the specified key.
+     *
+     * @param key the key.
+     * @return the removed value, or null if the key was not present.
+     */
+    public V remove(long key) {
+        int mask = _keys.length - 1;
+        int i = hash(key) & mask;
+        for (;; i = (i + 1) & mask) {
+            V value = _values[i];
+            if (value == null) {
+                return null;
+            } else if (_keys[i] == key) {
+                break;
+            }
+        }
+
+        V removed = _values[i];
+        --_size;
+
+        // Shift back subsequent entries in the probe sequence so that there
+        // are no holes between an entry and its home slot.
+        for (int j = (i + 1) & mask; _values[j] != null; j = (j + 1) & mask) {
+            int home = hash(_keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                _keys[i] = _keys[j];
+                _values[i] = _values[j];
+                i = j;
+            }
+        }
+        _values[i] = null;
+        return removed;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        Arrays.fill(_values, null);
+        _size = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of slots in the table, for iteration.
+     *
+     * @return the number of slots in the table.
+     */
+    public int capacity() {
+        return _keys.length;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key in the specified slot; only meaningful if
+     * {@link #valueAt(int)} is non-null.
+     *
+     * @param slot the slot index.
+     * @return the key in the specified slot.
+     */
+    public long keyAt(int slot) {
+        return _keys[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the value in the specified slot, or null if the slot is empty.
+     *
+     * @param slot the slot index.
+     * @return the value in the specified slot, or null if the slot is empty.
+     */
+    public V valueAt(int slot) {
+        return _values[slot];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Rehash all entries into a table of the specified capacity.
+     *
+     * @param capacity the new capacity, a power of two.
+     */
+    @SuppressWarnings("unchecked")
+    protected void resize(int capacity) {
+        long[] oldKeys = _keys;
+        V[] oldValues = _values;
+        _keys = new long[capacity];
+        _values = (V[]) new Object[capacity];
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; ++j) {
+            if (oldValues[j] != null) {
+                int i = hash(oldKeys[j]) & mask;
+                while (_values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                _keys[i] = oldKeys[j];
+                _values[i] = oldValues[j];
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Mix the bits of a key to give a well-distributed hash code, since packed
+     * coordinates differ mostly in a few bit positions.
+     *
+     * @param key the key.
+     * @return the hash code.
+     */
+    protected static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the power of two table size that can hold the specified number of
+     * entries below the load factor of 0.75.
+     *
+     * @param expectedSize the expected number of entries.
+     * @return the table size.
+     */
+    protected static int tableSizeFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity < (1 << 30) && (capacity >> 1) + (capacity >> 2) < expectedSize) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Keys, by slot.
+     */
+    protected long[] _keys;
+
+    /**
+     * Values, by slot; null in empty slots.
+     */
+    protected V[] _values;
+
+    /**
+     * Number of entries.
+     */
+    protected int _size;
+} // class LongObjectMap
@@ -0,0 +1,288 @@
+package io.totemo.ec;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+import org.bukkit.ChatColor;
+import org.bukkit.command.CommandSender;
+
+// ----------------------------------------------------------------------------
+/**
+ * Timings of the phases of counting and listing, and gauges of the entity
+ * load of each World as of its most recent count.
+ *
+ * Timings are recorded into {@link TimingHistogram}s from whichever thread
+ * runs the phase. Gauges are replaced as a whole, on the server thread, when
+ * a count is published, so readers on other threads always see a consistent
+ * set of gauges for each World. Both can be read from any thread, by
+ * /ec stats and by the {@link MetricsExporter}.
+ */
+public class Metrics {
+    // ------------------------------------------------------------------------
+    /**
+     * Timed phases.
+     */
+    public enum Phase {
+        /**
+         * Capturing the entities of loaded chunks (or copying the live census)
+         * on the server thread; the total of one count.
+         */
+        SNAPSHOT,
+
+        /**
+         * Aggregating a snapshot into a {@link WorldCount}.
+         */
+        AGGREGATE,
+
+        /**
+         * Selecting and sorting the largest groups of a {@link WorldCount}.
+         */
+        SORT,
+
+        /**
+         * Listing one page of groups.
+         */
+        LIST;
+
+        // --------------------------------------------------------------------
+        /**
+         * Return the lower case name used in labels and messages.
+         *
+         * @return the label.
+         */
+        public String getLabel() {
+            return name().toLowerCase();
+        }
+    } // enum Phase
+
+    // ------------------------------------------------------------------------
+    /**
+     * Gauges of one World, as of its most recent count.
+     */
+    public static final class WorldGauges {
+        // --------------------------------------------------------------------
+        /**
+         * Constructor.
+         *
+         * @param count the published counts, which must not be modified by
+         *        other threads during this call.
+         */
+        public WorldGauges(WorldCount count) {
+            EntityCounts totals = count.getTotals();
+            _typeTotals = new int[EntityCounts.ENTITY_TYPES.length];
+            int entities = 0;
+            for (int ordinal = 0; ordinal < _typeTotals.length; ++ordinal) {
+                _typeTotals[ordinal] = totals.getTotal(ordinal);
+                entities += _typeTotals[ordinal];
+            }
+            _entities = entities;
+            _boxes = count.getBoxCount();
+            _groups = count.getGroupCount();
+            _publishedMillis = System.currentTimeMillis();
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Total entities of each type, indexed by EntityType ordinal.
+         */
+        private final int[] _typeTotals;
+
+        /**
+         * Total entities of all types.
+         */
+        private final int _entities;
+
+        /**
+         * Number of populated 16x16x16 boxes.
+         */
+        private final int _boxes;
+
+        /**
+         * Number of groups (non-zero counts of a type in a box).
+         */
+        private final int _groups;
+
+        /**
+         * Time when the count was published, from System.currentTimeMillis().
+         */
+        private final long _publishedMillis;
+    } // inner class WorldGauges
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     */
+    public Metrics() {
+        for (Phase phase : Phase.values()) {
+            _timings.put(phase, new TimingHistogram());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record the duration of a phase.
+     *
+     * @param phase the phase.
+     * @param nanos the duration in nanoseconds.
+     */
+    public void record(Phase phase, long nanos) {
+        _timings.get(phase).record(nanos);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the timings of a phase.
+     *
+     * @param phase the phase.
+     * @return the histogram of its durations.
+     */
+    public TimingHistogram getTiming(Phase phase) {
+        return _timings.get(phase);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replace the gauges of a World with those of its newly published counts.
+     *
+     * @param worldName the name of the World.
+     * @param count the counts.
+     */
+    public void update(String worldName, WorldCount count) {
+        _gauges.put(worldName, new WorldGauges(count));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Show the timings and gauges to a command sender.
+     *
+     * @param sender the command sender.
+     */
+    public void show(CommandSender sender) {
+        sender.sendMessage(ChatColor.GOLD + "Phase timings (samples, mean, p50, p99, max):");
+        for (Phase phase : Phase.values()) {
+            TimingHistogram timing = _timings.get(phase);
+            long count = timing.getCount();
+            if (count == 0) {
+                sender.sendMessage(String.format("%s%-9s %sno samples", ChatColor.YELLOW, phase.getLabel(),
+                                                 ChatColor.GOLD));
+                continue;
+            }
+            sender.sendMessage(String.format("%s%-9s %s%d%s, %.2f ms, <%.2f ms, <%.2f ms, %.2f ms",
+                                             ChatColor.YELLOW, phase.getLabel(),
+                                             ChatColor.GREEN, count, ChatColor.GOLD,
+                                             timing.getSumNanos() * 1e-6 / count,
+                                             timing.getQuantileBound(0.5) * 1e-6,
+                                             timing.getQuantileBound(0.99) * 1e-6,
+                                             timing.getMaxNanos() * 1e-6));
+        }
+
+        if (_gauges.isEmpty()) {
+            sender.sendMessage(ChatColor.GOLD + "No worlds have been counted.");
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, WorldGauges> entry : new TreeMap<String, WorldGauges>(_gauges).entrySet()) {
+            WorldGauges gauges = entry.getValue();
+            sender.sendMessage(String.format("%s%s%s: %s%d%s entities in %d boxes, %d groups, counted %d seconds ago.",
+                                             ChatColor.YELLOW, entry.getKey(), ChatColor.GOLD,
+                                             ChatColor.GREEN, gauges._entities, ChatColor.GOLD,
+                                             gauges._boxes, gauges._groups,
+                                             (now - gauges._publishedMillis) / 1000));
+        }
+    } // show
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append all timings and gauges in the Prometheus text exposition format.
+     *
+     * @param out the buffer to append to.
+     */
+    public void writePrometheus(StringBuilder out) {
+        out.append("# HELP entitycontrol_phase_seconds Time spent in each phase of counting and listing.\n");
+        out.append("# TYPE entitycontrol_phase_seconds histogram\n");
+        for (Phase phase : Phase.values()) {
+            TimingHistogram timing = _timings.get(phase);
+            long cumulative = 0;
+            for (int bucket = 0; bucket <= TimingHistogram.BUCKETS; ++bucket) {
+                cumulative += timing.getBucketCount(bucket);
+                out.append("entitycontrol_phase_seconds_bucket{phase=\"").append(phase.getLabel()).append("\",le=\"");
+                if (bucket < TimingHistogram.BUCKETS) {
+                    out.append(TimingHistogram.getBound(bucket) * 1e-9);
+                } else {
+                    out.append("+Inf");
+                }
+                out.append("\"} ").append(cumulative).append('\n');
+            }
+            out.append("entitycontrol_phase_seconds_sum{phase=\"").append(phase.getLabel()).append("\"} ")
+                .append(timing.getSumNanos() * 1e-9).append('\n');
+            out.append("entitycontrol_phase_seconds_count{phase=\"").append(phase.getLabel()).append("\"} ")
+                .append(cumulative).append('\n');
+        }
+
+        TreeMap<String, WorldGauges> gauges = new TreeMap<String, WorldGauges>(_gauges);
+        out.append("# HELP entitycontrol_entities Entities of each type as of the most recent count.\n");
+        out.append("# TYPE entitycontrol_entities gauge\n");
+        for (Map.Entry<String, WorldGauges> entry : gauges.entrySet()) {
+            int[] typeTotals = entry.getValue()._typeTotals;
+            for (int ordinal = 0; ordinal < typeTotals.length; ++ordinal) {
+                if (typeTotals[ordinal] != 0) {
+                    out.append("entitycontrol_entities{world=\"").append(escape(entry.getKey()))
+                        .append("\",type=\"").append(EntityCounts.ENTITY_TYPES[ordinal].name()).append("\"} ")
+                        .append(typeTotals[ordinal]).append('\n');
+                }
+            }
+        }
+        writeGauge(out, gauges, "entitycontrol_boxes", "Populated 16x16x16 boxes as of the most recent count.",
+                   world -> world._boxes);
+        writeGauge(out, gauges, "entitycontrol_groups", "Groups (non-zero counts of a type in a box) as of the most recent count.",
+                   world -> world._groups);
+        writeGauge(out, gauges, "entitycontrol_count_timestamp_seconds", "Time when the most recent count was published.",
+                   world -> world._publishedMillis / 1000);
+    } // writePrometheus
+
+    // ------------------------------------------------------------------------
+    /**
+     * Append one gauge of every World.
+     *
+     * @param out the buffer to append to.
+     * @param gauges map from world name to gauges.
+     * @param name the metric name.
+     * @param help the metric description.
+     * @param value extracts the value of the gauge.
+     */
+    protected static void writeGauge(StringBuilder out, Map<String, WorldGauges> gauges,
+                                     String name, String help, ToLongFunction<WorldGauges> value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        for (Map.Entry<String, WorldGauges> entry : gauges.entrySet()) {
+            out.append(name).append("{world=\"").append(escape(entry.getKey())).append("\"} ")
+                .append(value.applyAsLong(entry.getValue())).append('\n');
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Escape a Prometheus label value.
+     *
+     * @param value the value.
+     * @return the value with backslashes, double quotes and line feeds
+     *         escaped.
+     */
+    protected static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Histogram of each phase.
+     */
+    protected final EnumMap<Phase, TimingHistogram> _timings = new EnumMap<Phase, TimingHistogram>(Phase.class);
+
+    /**
+     * Map from world name to the gauges of its most recent count.
+     */
+    protected final ConcurrentHashMap<String, WorldGauges> _gauges = new ConcurrentHashMap<String, WorldGauges>();
+} // class Metrics
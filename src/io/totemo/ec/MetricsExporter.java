@@ -0,0 +1,183 @@
+package io.totemo.ec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.logging.Level;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// ----------------------------------------------------------------------------
+/**
+ * Exports {@link Metrics} in the Prometheus text exposition format, through a
+ * local HTTP endpoint, a periodically rewritten file, or both, as configured.
+ *
+ * The HTTP endpoint serves /metrics from the JDK's built-in HTTP server on
+ * its own thread, and binds to the loopback address by default. The file is
+ * written by an asynchronous task, to a temporary file that is then renamed
+ * over the previous one, so that a collector such as the node exporter's
+ * textfile collector never reads a partial file. Neither touches the server
+ * thread.
+ */
+public class MetricsExporter {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param plugin the owning plugin.
+     * @param metrics the metrics to export.
+     */
+    public MetricsExporter(EntityControl plugin, Metrics metrics) {
+        _plugin = plugin;
+        _metrics = metrics;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start or stop exporting.
+     *
+     * Any running endpoint and file writer are stopped. If enabled, they are
+     * restarted according to the current configuration.
+     *
+     * @param enabled true to start.
+     */
+    public void setEnabled(boolean enabled) {
+        if (_server != null) {
+            _server.stop(0);
+            _server = null;
+        }
+        if (_fileTimer != null) {
+            _fileTimer.cancel();
+            _fileTimer = null;
+        }
+        if (!enabled) {
+            return;
+        }
+
+        if (EntityControl.CONFIG.METRICS_PORT > 0) {
+            try {
+                HttpServer server = HttpServer.create(new InetSocketAddress(EntityControl.CONFIG.METRICS_ADDRESS,
+                                                                            EntityControl.CONFIG.METRICS_PORT), 0);
+                server.createContext(PATH, this::handle);
+                server.start();
+                _server = server;
+            } catch (IOException ex) {
+                _plugin.getLogger().log(Level.WARNING, "Could not serve metrics on " + EntityControl.CONFIG.METRICS_ADDRESS +
+                                                       ":" + EntityControl.CONFIG.METRICS_PORT + ".", ex);
+            }
+        }
+
+        if (!EntityControl.CONFIG.METRICS_FILE.isEmpty()) {
+            File file = new File(EntityControl.CONFIG.METRICS_FILE);
+            if (!file.isAbsolute()) {
+                file = new File(_plugin.getDataFolder(), EntityControl.CONFIG.METRICS_FILE);
+            }
+            final File target = file;
+            long periodTicks = 20L * Math.max(1, EntityControl.CONFIG.METRICS_FILE_SECONDS);
+            _fileTimer = Bukkit.getScheduler().runTaskTimerAsynchronously(_plugin, () -> write(target),
+                                                                          periodTicks, periodTicks);
+        }
+    } // setEnabled
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the metrics as Prometheus text.
+     *
+     * @return the text.
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder(4096);
+        _metrics.writePrometheus(out);
+        return out.toString();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Serve an HTTP request for the metrics.
+     *
+     * @param exchange the request and response.
+     * @throws IOException if the response cannot be sent.
+     */
+    protected void handle(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if (method.equals("HEAD")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Write the metrics to a file, replacing it atomically.
+     *
+     * @param file the file.
+     */
+    protected void write(File file) {
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (directory != null) {
+                directory.mkdirs();
+            }
+            Files.write(temporary.toPath(), render().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporary.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            _plugin.getLogger().log(Level.WARNING, "Could not write metrics to " + file + ".", ex);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Path of the HTTP endpoint.
+     */
+    public static final String PATH = "/metrics";
+
+    /**
+     * Content type of the Prometheus text exposition format.
+     */
+    protected static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * The owning plugin.
+     */
+    protected final EntityControl _plugin;
+
+    /**
+     * The metrics to export.
+     */
+    protected final Metrics _metrics;
+
+    /**
+     * The HTTP server, or null if not serving.
+     */
+    protected HttpServer _server;
+
+    /**
+     * Repeating asynchronous task that writes the file, or null if not
+     * writing.
+     */
+    protected BukkitTask _fileTimer;
+} // class MetricsExporter
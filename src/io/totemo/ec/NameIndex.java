@@ -0,0 +1,142 @@
+package io.totemo.ec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+// ----------------------------------------------------------------------------
+/**
+ * An index of the named entities and tamed mobs in a {@link WorldCount}, by
+ * name prefix and by owner.
+ *
+ * Names are held in an array sorted case-insensitively, so that all names with
+ * a given prefix form a contiguous range found by binary search. Owners are
+ * mapped to the list of their tamed mobs. The index is immutable once built
+ * and can be queried from any thread.
+ */
+public class NameIndex {
+    // ------------------------------------------------------------------------
+    /**
+     * Build the index from the named entities recorded in chunk counts.
+     *
+     * @param chunkCounts the chunk counts.
+     */
+    public NameIndex(List<ChunkCount> chunkCounts) {
+        ArrayList<NamedEntity> named = new ArrayList<NamedEntity>();
+        for (ChunkCount chunkCount : chunkCounts) {
+            for (NamedEntity entity : chunkCount.getNamedEntities()) {
+                if (entity.getName() != null) {
+                    named.add(entity);
+                }
+                if (entity.getOwnerId() != null) {
+                    ArrayList<NamedEntity> owned = _byOwner.get(entity.getOwnerId());
+                    if (owned == null) {
+                        owned = new ArrayList<NamedEntity>();
+                        _byOwner.put(entity.getOwnerId(), owned);
+                    }
+                    owned.add(entity);
+                }
+            }
+        }
+
+        int count = named.size();
+        String[] keys = new String[count];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; ++i) {
+            keys[i] = key(named.get(i).getName());
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> keys[a].compareTo(keys[b]));
+
+        _byName = new NamedEntity[count];
+        _keys = new String[count];
+        for (int i = 0; i < count; ++i) {
+            _byName[i] = named.get(order[i]);
+            _keys[i] = keys[order[i]];
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of named entities in the index.
+     *
+     * @return the number of named entities.
+     */
+    public int getNamedCount() {
+        return _byName.length;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return all entities whose names start with the specified prefix,
+     * ignoring case, in name order.
+     *
+     * @param prefix the name prefix.
+     * @return the matching entities.
+     */
+    public List<NamedEntity> findByName(String prefix) {
+        String key = key(prefix);
+        int low = 0;
+        int high = _keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (_keys[mid].compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        int end = low;
+        while (end < _keys.length && _keys[end].startsWith(key)) {
+            ++end;
+        }
+        return Arrays.asList(_byName).subList(low, end);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return all tamed mobs owned by the specified player.
+     *
+     * @param ownerId the UUID of the owner.
+     * @return the owner's tamed mobs.
+     */
+    public List<NamedEntity> findByOwner(UUID ownerId) {
+        ArrayList<NamedEntity> owned = _byOwner.get(ownerId);
+        return (owned != null) ? Collections.unmodifiableList(owned) : Collections.<NamedEntity> emptyList();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the sort key of a name.
+     *
+     * The key is lower case in the root locale, so that the ordering of keys
+     * is consistent with prefix matching.
+     *
+     * @param name the name.
+     * @return the key.
+     */
+    protected static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Named entities in ascending order of key.
+     */
+    protected final NamedEntity[] _byName;
+
+    /**
+     * Keys of the names in _byName.
+     */
+    protected final String[] _keys;
+
+    /**
+     * Map from owner UUID to tamed mobs.
+     */
+    protected final HashMap<UUID, ArrayList<NamedEntity>> _byOwner = new HashMap<UUID, ArrayList<NamedEntity>>();
+} // class NameIndex
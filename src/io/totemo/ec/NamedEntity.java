@@ -0,0 +1,171 @@
+package io.totemo.ec;
+
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Tameable;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
+
+// ----------------------------------------------------------------------------
+/**
+ * The name, owner and position of a named entity or tamed mob, recorded when
+ * its chunk was counted, for /ec find.
+ *
+ * Instances are immutable and can be shared between threads.
+ */
+public final class NamedEntity {
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new NamedEntity recording the specified entity if it is named
+     * or tamed, or null if it is neither.
+     *
+     * This must be called on the server thread. The custom name is recorded
+     * as plain text, without formatting.
+     *
+     * @param entity the entity.
+     * @param loc the entity's current location.
+     * @return a new NamedEntity, or null.
+     */
+    public static NamedEntity of(Entity entity, Location loc) {
+        Component customName = entity.customName();
+        String name = (customName != null) ? PlainTextComponentSerializer.plainText().serialize(customName) : null;
+        UUID ownerId = (entity instanceof Tameable) ? ((Tameable) entity).getOwnerUniqueId() : null;
+        if (name == null && ownerId == null) {
+            return null;
+        }
+        return new NamedEntity(loc.getWorld(), entity.getUniqueId(), entity.getType(), name, ownerId,
+                               loc.getX(), loc.getY(), loc.getZ());
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param world the World containing the entity.
+     * @param entityId the UUID of the entity.
+     * @param type the entity type.
+     * @param name the custom name of the entity, or null.
+     * @param ownerId the UUID of the owner of a tamed mob, or null.
+     * @param x the X coordinate.
+     * @param y the Y coordinate.
+     * @param z the Z coordinate.
+     */
+    public NamedEntity(World world, UUID entityId, EntityType type, String name, UUID ownerId,
+                       double x, double y, double z) {
+        _world = world;
+        _entityId = entityId;
+        _type = type;
+        _name = name;
+        _ownerId = ownerId;
+        _x = x;
+        _y = y;
+        _z = z;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the UUID of the entity.
+     *
+     * @return the UUID of the entity.
+     */
+    public UUID getEntityId() {
+        return _entityId;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the entity type.
+     *
+     * @return the entity type.
+     */
+    public EntityType getEntityType() {
+        return _type;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the custom name of the entity, or null if it has none.
+     *
+     * @return the custom name, or null.
+     */
+    public String getName() {
+        return _name;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the UUID of the owner of a tamed mob, or null if the entity is
+     * not tamed.
+     *
+     * @return the owner's UUID, or null.
+     */
+    public UUID getOwnerId() {
+        return _ownerId;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the key of the chunk containing the entity when it was counted.
+     *
+     * @return the chunk key (see {@link Keys#chunk(int, int)}).
+     */
+    public long getChunkKey() {
+        return Keys.chunk(Location.locToBlock(_x) >> 4, Location.locToBlock(_z) >> 4);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a new Location where the entity was when it was counted.
+     *
+     * @return the entity's Location.
+     */
+    public Location getLocation() {
+        return new Location(_world, _x, _y, _z);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The World containing the entity.
+     */
+    private final World _world;
+
+    /**
+     * The UUID of the entity.
+     */
+    private final UUID _entityId;
+
+    /**
+     * The entity type.
+     */
+    private final EntityType _type;
+
+    /**
+     * The custom name, or null.
+     */
+    private final String _name;
+
+    /**
+     * The owner's UUID, or null.
+     */
+    private final UUID _ownerId;
+
+    /**
+     * The X coordinate.
+     */
+    private final double _x;
+
+    /**
+     * The Y coordinate.
+     */
+    private final double _y;
+
+    /**
+     * The Z coordinate.
+     */
+    private final double _z;
+} // class NamedEntity
@@ -0,0 +1,445 @@
+package io.totemo.ec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// ----------------------------------------------------------------------------
+/**
+ * A streaming reader of uncompressed binary NBT (Minecraft's Named Binary
+ * Tag format), for pulling a few values out of a large structure without
+ * building a tree of tags.
+ *
+ * The caller walks the structure: it reads a tag type with
+ * {@link #readType()}, the tag's name with {@link #readName()}, and then
+ * either reads the payload with the method for its type or skips it with
+ * {@link #skip(int)}. Names are compared in place, as bytes, with
+ * {@link #isName(byte[])}, so walking past uninteresting tags allocates
+ * nothing.
+ *
+ * The reader buffers its input itself and can be reused for many streams by
+ * {@link #reset(InputStream)}. Instances are not thread-safe.
+ */
+public class NbtReader {
+    /**
+     * Tag type ending a compound.
+     */
+    public static final int END = 0;
+
+    /**
+     * Tag type of a signed byte.
+     */
+    public static final int BYTE = 1;
+
+    /**
+     * Tag type of a big-endian short.
+     */
+    public static final int SHORT = 2;
+
+    /**
+     * Tag type of a big-endian int.
+     */
+    public static final int INT = 3;
+
+    /**
+     * Tag type of a big-endian long.
+     */
+    public static final int LONG = 4;
+
+    /**
+     * Tag type of a big-endian float.
+     */
+    public static final int FLOAT = 5;
+
+    /**
+     * Tag type of a big-endian double.
+     */
+    public static final int DOUBLE = 6;
+
+    /**
+     * Tag type of an int length followed by that many bytes.
+     */
+    public static final int BYTE_ARRAY = 7;
+
+    /**
+     * Tag type of an unsigned short length followed by modified UTF-8.
+     */
+    public static final int STRING = 8;
+
+    /**
+     * Tag type of an element type byte, an int length and that many unnamed
+     * payloads.
+     */
+    public static final int LIST = 9;
+
+    /**
+     * Tag type of named tags up to an {@link #END} tag.
+     */
+    public static final int COMPOUND = 10;
+
+    /**
+     * Tag type of an int length followed by that many ints.
+     */
+    public static final int INT_ARRAY = 11;
+
+    /**
+     * Tag type of an int length followed by that many longs.
+     */
+    public static final int LONG_ARRAY = 12;
+
+    /**
+     * Maximum nesting of lists and compounds skipped by {@link #skip(int)},
+     * the same limit that Minecraft applies when reading NBT. Deeper nesting
+     * is treated as corrupt data rather than exhausting the stack.
+     */
+    public static final int MAX_DEPTH = 512;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the ASCII bytes of a tag name, for {@link #isName(byte[])}.
+     *
+     * @param name the name.
+     * @return the bytes.
+     */
+    public static byte[] name(String name) {
+        return name.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start reading a new stream, discarding anything buffered from the
+     * previous one.
+     *
+     * @param in the uncompressed NBT stream.
+     */
+    public void reset(InputStream in) {
+        _in = in;
+        _position = 0;
+        _limit = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a tag type.
+     *
+     * @return the type, from {@link #END} to {@link #LONG_ARRAY}.
+     * @throws IOException if the stream ends or the type is invalid.
+     */
+    public int readType() throws IOException {
+        int type = readByte() & 0xFF;
+        if (type > LONG_ARRAY) {
+            throw new IOException("Invalid NBT tag type " + type + ".");
+        }
+        return type;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the name of a tag into the name buffer.
+     *
+     * @throws IOException if the stream ends.
+     */
+    public void readName() throws IOException {
+        _nameLength = readUnsignedShort();
+        if (_nameLength > _name.length) {
+            _name = Arrays.copyOf(_name, Math.max(_nameLength, 2 * _name.length));
+        }
+        readFully(_name, _nameLength);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the most recently read name is the specified name.
+     *
+     * @param name the name, as returned by {@link #name(String)}.
+     * @return true if the names are equal.
+     */
+    public boolean isName(byte[] name) {
+        if (name.length != _nameLength) {
+            return false;
+        }
+        for (int i = 0; i < _nameLength; ++i) {
+            if (_name[i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the payload of a {@link #STRING} tag.
+     *
+     * Modified UTF-8 only differs from UTF-8 in its encoding of NUL and
+     * supplementary characters, neither of which occur in identifiers.
+     *
+     * @return the string.
+     * @throws IOException if the stream ends.
+     */
+    public String readString() throws IOException {
+        int length = readUnsignedShort();
+        byte[] bytes = new byte[length];
+        readFully(bytes, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a byte, such as the element type of a {@link #LIST}.
+     *
+     * @return the byte.
+     * @throws IOException if the stream ends.
+     */
+    public byte readByte() throws IOException {
+        if (_position == _limit) {
+            fill();
+        }
+        return _buffer[_position++];
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a big-endian unsigned short.
+     *
+     * @return the value.
+     * @throws IOException if the stream ends.
+     */
+    public int readUnsignedShort() throws IOException {
+        return ((readByte() & 0xFF) << 8) | (readByte() & 0xFF);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read a big-endian int, such as the length of a {@link #LIST}.
+     *
+     * @return the value.
+     * @throws IOException if the stream ends.
+     */
+    public int readInt() throws IOException {
+        return (readUnsignedShort() << 16) | readUnsignedShort();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the payload of a {@link #DOUBLE} tag.
+     *
+     * @return the value.
+     * @throws IOException if the stream ends.
+     */
+    public double readDouble() throws IOException {
+        long high = readInt() & 0xFFFFFFFFL;
+        long low = readInt() & 0xFFFFFFFFL;
+        return Double.longBitsToDouble((high << 32) | low);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Skip the payload of a tag.
+     *
+     * @param type the tag type.
+     * @throws IOException if the stream ends, contains an invalid type or is
+     *         nested more than {@link #MAX_DEPTH} deep.
+     */
+    public void skip(int type) throws IOException {
+        skip(type, 0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Skip the elements of a {@link #LIST} whose header has been read.
+     *
+     * @param elementType the type of the elements.
+     * @param length the number of elements.
+     * @throws IOException if the stream ends, contains an invalid type or is
+     *         nested more than {@link #MAX_DEPTH} deep.
+     */
+    public void skipList(int elementType, int length) throws IOException {
+        skipList(elementType, length, 0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Skip the payload of a tag nested within lists and compounds.
+     *
+     * @param type the tag type.
+     * @param depth the number of enclosing lists and compounds being skipped.
+     * @throws IOException if the stream ends, contains an invalid type or is
+     *         nested more than {@link #MAX_DEPTH} deep.
+     */
+    protected void skip(int type, int depth) throws IOException {
+        switch (type) {
+        case END:
+            break;
+        case STRING:
+            skipBytes(readUnsignedShort());
+            break;
+        case BYTE_ARRAY:
+            skipBytes(readLength());
+            break;
+        case INT_ARRAY:
+            skipBytes(4L * readLength());
+            break;
+        case LONG_ARRAY:
+            skipBytes(8L * readLength());
+            break;
+        case LIST:
+            skipList(readType(), readLength(), depth);
+            break;
+        case COMPOUND:
+            checkDepth(depth);
+            for (int child = readType(); child != END; child = readType()) {
+                skipBytes(readUnsignedShort());
+                skip(child, depth + 1);
+            }
+            break;
+        default:
+            skipBytes(PAYLOAD_SIZES[type]);
+            break;
+        }
+    } // skip
+
+    // ------------------------------------------------------------------------
+    /**
+     * Skip the elements of a {@link #LIST} nested within lists and compounds.
+     *
+     * @param elementType the type of the elements.
+     * @param length the number of elements.
+     * @param depth the number of enclosing lists and compounds being skipped.
+     * @throws IOException if the stream ends, contains an invalid type or is
+     *         nested more than {@link #MAX_DEPTH} deep.
+     */
+    protected void skipList(int elementType, int length, int depth) throws IOException {
+        int size = PAYLOAD_SIZES[elementType];
+        if (size >= 0) {
+            skipBytes((long) size * length);
+        } else {
+            checkDepth(depth);
+            for (int i = 0; i < length; ++i) {
+                skip(elementType, depth + 1);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Check that a list or compound is not nested too deeply to skip.
+     *
+     * @param depth the number of enclosing lists and compounds being skipped.
+     * @throws IOException if depth is {@link #MAX_DEPTH} or more.
+     */
+    protected void checkDepth(int depth) throws IOException {
+        if (depth >= MAX_DEPTH) {
+            throw new IOException("NBT nested more than " + MAX_DEPTH + " deep.");
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the length of an array or list.
+     *
+     * @return the non-negative length.
+     * @throws IOException if the stream ends or the length is negative.
+     */
+    public int readLength() throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            throw new IOException("Invalid NBT length " + length + ".");
+        }
+        return length;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read bytes into an array.
+     *
+     * @param bytes the array.
+     * @param length the number of bytes to read.
+     * @throws IOException if the stream ends.
+     */
+    protected void readFully(byte[] bytes, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            if (_position == _limit) {
+                fill();
+            }
+            int n = Math.min(length - offset, _limit - _position);
+            System.arraycopy(_buffer, _position, bytes, offset, n);
+            _position += n;
+            offset += n;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Skip bytes.
+     *
+     * @param length the number of bytes to skip.
+     * @throws IOException if the stream ends.
+     */
+    protected void skipBytes(long length) throws IOException {
+        while (length > 0) {
+            if (_position == _limit) {
+                fill();
+            }
+            int n = (int) Math.min(length, _limit - _position);
+            _position += n;
+            length -= n;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Refill the empty buffer.
+     *
+     * @throws IOException if the stream has ended.
+     */
+    protected void fill() throws IOException {
+        int n;
+        do {
+            n = _in.read(_buffer, 0, _buffer.length);
+        } while (n == 0);
+        if (n < 0) {
+            throw new EOFException("Truncated NBT.");
+        }
+        _position = 0;
+        _limit = n;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Size in bytes of the payload of each tag type, or -1 if variable.
+     */
+    protected static final int[] PAYLOAD_SIZES = { 0, 1, 2, 4, 8, 4, 8, -1, -1, -1, -1, -1, -1 };
+
+    /**
+     * The stream.
+     */
+    protected InputStream _in;
+
+    /**
+     * Buffered bytes of the stream.
+     */
+    protected final byte[] _buffer = new byte[8192];
+
+    /**
+     * Index of the next unread byte in _buffer.
+     */
+    protected int _position;
+
+    /**
+     * One more than the index of the last valid byte in _buffer.
+     */
+    protected int _limit;
+
+    /**
+     * The most recently read tag name.
+     */
+    protected byte[] _name = new byte[32];
+
+    /**
+     * Number of valid bytes in _name.
+     */
+    protected int _nameLength;
+} // class NbtReader
@@ -0,0 +1,334 @@
+package io.totemo.ec;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+
+// ----------------------------------------------------------------------------
+/**
+ * Counts the entities of a whole World, loaded or not, by reading its entity
+ * region files on worker threads, for /ec scan-offline.
+ *
+ * The region files are listed by an asynchronous task, which then starts the
+ * configured number of workers. Each worker repeatedly claims the next
+ * unread region file and reads it with its own {@link EntityRegionReader}
+ * into its own {@link EntitySnapshot}, then converts its snapshot into
+ * {@link ChunkCount}s. The last worker to finish merges the chunk counts of
+ * all workers into a new {@link WorldCount} and prepares it, exactly as a
+ * {@link CountTask} does, before it is published to the plugin on the server
+ * thread. No chunks are loaded and nothing but the final publication runs on
+ * the server thread.
+ *
+ * Loaded chunks are counted as they were last saved, which may differ from
+ * their current contents. Entity region files do not record names or owners,
+ * so /ec find does not see offline entities.
+ */
+public class OfflineScan {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * Must be called on the server thread.
+     *
+     * @param plugin the owning plugin, to which the count is published.
+     * @param sender the command sender to be notified of results.
+     * @param world the (non-null) World to scan.
+     */
+    public OfflineScan(EntityControl plugin, CommandSender sender, World world) {
+        _plugin = plugin;
+        _sender = sender;
+        _world = world;
+        _directory = getEntitiesDirectory(world);
+        _typesById = EntityRegionReader.getTypesById();
+        _snapshots = new EntitySnapshot[Math.max(1, EntityControl.CONFIG.OFFLINE_SCAN_THREADS)];
+        for (int i = 0; i < _snapshots.length; ++i) {
+            _snapshots[i] = new EntitySnapshot(world, 1024);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the directory containing the entity region files of a World.
+     *
+     * @param world the World.
+     * @return the directory, which may not exist.
+     */
+    public static File getEntitiesDirectory(World world) {
+        File folder = world.getWorldFolder();
+        switch (world.getEnvironment()) {
+        case NETHER:
+            folder = new File(folder, "DIM-1");
+            break;
+        case THE_END:
+            folder = new File(folder, "DIM1");
+            break;
+        default:
+            break;
+        }
+        File directory = new File(folder, "entities");
+        return directory.isDirectory() ? directory : new File(world.getWorldFolder(), "entities");
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Start scanning in the background.
+     */
+    public void start() {
+        _startMillis = System.currentTimeMillis();
+        Bukkit.getScheduler().runTaskAsynchronously(_plugin, this::list);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Stop scanning as soon as possible, without publishing results.
+     */
+    public void cancel() {
+        _cancelled = true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the World being scanned.
+     *
+     * @return the World being scanned.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return a short description of the progress of this scan, suitable for
+     * sending to a command sender.
+     *
+     * @return a short description of the progress of this scan.
+     */
+    public String getProgress() {
+        File[] files = _files;
+        if (files == null) {
+            return String.format("Scanning %s offline: listing region files.", _world.getName());
+        }
+        return String.format("Scanning %s offline: %d of %d region files on %d threads.",
+                             _world.getName(), _doneFiles.get(), files.length, _snapshots.length);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * List the region files and start the workers.
+     */
+    protected void list() {
+        File[] files = _directory.listFiles((dir, name) -> EntityRegionReader.isRegionFile(name));
+        if (files == null || files.length == 0) {
+            if (_plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(_plugin, () -> finish(null));
+            }
+            return;
+        }
+
+        _chunkCounts = new ArrayList<ArrayList<ChunkCount>>();
+        _files = files;
+        int workers = Math.min(_snapshots.length, files.length);
+        _runningWorkers.set(workers);
+        for (int i = 0; i < workers; ++i) {
+            EntitySnapshot snapshot = _snapshots[i];
+            Bukkit.getScheduler().runTaskAsynchronously(_plugin, () -> work(snapshot));
+        }
+    } // list
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read region files until none are left, then convert the snapshot into
+     * chunk counts. The last worker to finish merges the results.
+     *
+     * @param snapshot the worker's snapshot.
+     */
+    protected void work(EntitySnapshot snapshot) {
+        EntityRegionReader reader = new EntityRegionReader(_typesById);
+        try {
+            int index;
+            while (!_cancelled && _plugin.isEnabled() && (index = _nextFile.getAndIncrement()) < _files.length) {
+                try {
+                    reader.read(_files[index], snapshot);
+                } catch (IOException | InternalError ex) {
+                    // InternalError: the mapped file was truncated while read.
+                    _failedFiles.incrementAndGet();
+                }
+                _doneFiles.incrementAndGet();
+            }
+
+            ArrayList<ChunkCount> chunkCounts = new ArrayList<ChunkCount>(snapshot.getChunkCount());
+            if (!_cancelled) {
+                for (int chunk = 0; chunk < snapshot.getChunkCount(); ++chunk) {
+                    chunkCounts.add(new ChunkCount(_world, snapshot, chunk));
+                }
+            }
+            synchronized (this) {
+                _chunkCounts.add(chunkCounts);
+                _entities += snapshot.getEntityCount();
+                _skippedChunks += reader.getSkippedChunkCount();
+                _skippedEntities += reader.getSkippedEntityCount();
+            }
+        } finally {
+            reader.close();
+            if (_runningWorkers.decrementAndGet() == 0) {
+                merge();
+            }
+        }
+    } // work
+
+    // ------------------------------------------------------------------------
+    /**
+     * Merge the chunk counts of all workers into a new {@link WorldCount} and
+     * schedule {@link #finish(WorldCount)} on the server thread.
+     */
+    protected void merge() {
+        if (_cancelled || !_plugin.isEnabled()) {
+            return;
+        }
+        long start = System.nanoTime();
+        WorldCount count = new WorldCount();
+        synchronized (this) {
+            int chunks = 0;
+            for (ArrayList<ChunkCount> chunkCounts : _chunkCounts) {
+                chunks += chunkCounts.size();
+            }
+            count.clear(chunks);
+            for (ArrayList<ChunkCount> chunkCounts : _chunkCounts) {
+                for (ChunkCount chunkCount : chunkCounts) {
+                    count.addChunkCount(chunkCount);
+                }
+            }
+            _chunkCounts = null;
+        }
+        count.setOffline();
+        count.prepare();
+        _mergeNanos = System.nanoTime() - start;
+        Bukkit.getScheduler().runTask(_plugin, () -> finish(count));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Publish the completed count and report the results.
+     *
+     * @param count the new counts for the World, or null if there were no
+     *        region files.
+     */
+    protected void finish(WorldCount count) {
+        _plugin.onOfflineScanFinished(this, count);
+        if (count == null) {
+            _sender.sendMessage(ChatColor.RED + "There are no entity region files in " + _directory.getPath() + ".");
+            return;
+        }
+
+        count.summarise(_sender);
+        _sender.sendMessage(ChatColor.GOLD + String.format("Scanned %d chunks (%d entities) in %d region files in %d milliseconds on %d threads (%.2f ms merging).",
+                                                           count._chunkCounts.size(), _entities, _files.length,
+                                                           System.currentTimeMillis() - _startMillis,
+                                                           Math.min(_snapshots.length, _files.length),
+                                                           _mergeNanos * 1e-6));
+        if (_failedFiles.get() != 0 || _skippedChunks != 0 || _skippedEntities != 0) {
+            _sender.sendMessage(ChatColor.GOLD + String.format("Skipped %d unreadable region files, %d unreadable chunks and %d entities of unknown types.",
+                                                               _failedFiles.get(), _skippedChunks, _skippedEntities));
+        }
+        _sender.sendMessage(ChatColor.GOLD + "Loaded chunks are counted as they were last saved. The next /ec count replaces these results.");
+    } // finish
+
+    // ------------------------------------------------------------------------
+    /**
+     * Owning plugin.
+     */
+    protected final EntityControl _plugin;
+
+    /**
+     * The command sender to be notified of results.
+     */
+    protected final CommandSender _sender;
+
+    /**
+     * The World being scanned.
+     */
+    protected final World _world;
+
+    /**
+     * The directory of entity region files.
+     */
+    protected final File _directory;
+
+    /**
+     * Map from namespaced entity ID to EntityType ordinal, shared by the
+     * readers.
+     */
+    protected final HashMap<String, Integer> _typesById;
+
+    /**
+     * One snapshot per worker; the length is the maximum number of workers.
+     */
+    protected final EntitySnapshot[] _snapshots;
+
+    /**
+     * The region files, or null until listed.
+     */
+    protected volatile File[] _files;
+
+    /**
+     * Index of the next region file to be claimed by a worker.
+     */
+    protected final AtomicInteger _nextFile = new AtomicInteger();
+
+    /**
+     * Number of region files read or failed.
+     */
+    protected final AtomicInteger _doneFiles = new AtomicInteger();
+
+    /**
+     * Number of region files that could not be read.
+     */
+    protected final AtomicInteger _failedFiles = new AtomicInteger();
+
+    /**
+     * Number of workers that have not finished.
+     */
+    protected final AtomicInteger _runningWorkers = new AtomicInteger();
+
+    /**
+     * Chunk counts of each finished worker; guarded by this.
+     */
+    protected ArrayList<ArrayList<ChunkCount>> _chunkCounts;
+
+    /**
+     * Number of entities read; guarded by this.
+     */
+    protected int _entities;
+
+    /**
+     * Number of chunks skipped; guarded by this.
+     */
+    protected int _skippedChunks;
+
+    /**
+     * Number of entities of unknown types skipped; guarded by this.
+     */
+    protected int _skippedEntities;
+
+    /**
+     * Time spent merging, in nanoseconds.
+     */
+    protected volatile long _mergeNanos;
+
+    /**
+     * True if the scan has been cancelled.
+     */
+    protected volatile boolean _cancelled;
+
+    /**
+     * Wall clock time when the scan was started.
+     */
+    protected long _startMillis;
+} // class OfflineScan
@@ -0,0 +1,330 @@
+package io.totemo.ec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+
+import org.bukkit.World;
+
+// ----------------------------------------------------------------------------
+/**
+ * Aggregates an {@link EntitySnapshot} into a {@link WorldCount} using a
+ * fork-join pool.
+ *
+ * The chunks of the snapshot, and any unchanged chunk counts carried over
+ * from a previous count, are split into contiguous partitions, several per
+ * thread to balance uneven entity densities. Each partition builds its
+ * {@link ChunkCount}s, partial totals and a partial histogram of group counts
+ * in parallel. The partial totals and histograms are merged to find the
+ * threshold count for the top rows, as in
+ * {@link WorldCount#selectGroups(org.bukkit.command.CommandSender, int)}. Each
+ * partition then selects and sorts its share of those groups in parallel, and
+ * the sorted partitions are combined by a parallel merge sort.
+ *
+ * Partitions are merged in chunk order and the merge prefers the left
+ * partition when counts are equal, so the result is identical to serial
+ * aggregation.
+ */
+public class ParallelAggregator {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param threads the number of worker threads.
+     */
+    public ParallelAggregator(int threads) {
+        _pool = new ForkJoinPool(threads);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of worker threads.
+     *
+     * @return the number of worker threads.
+     */
+    public int getThreads() {
+        return _pool.getParallelism();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Shut down the worker threads.
+     */
+    public void shutdown() {
+        _pool.shutdown();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Aggregate the snapshot into the specified {@link WorldCount}, computing
+     * its totals and selecting the specified number of groups.
+     *
+     * @param count the WorldCount to populate; it should be empty and must not
+     *        be shared with other threads until this method returns.
+     * @param world the World containing the captured chunks.
+     * @param snapshot the snapshot.
+     * @param reused the counts of unchanged chunks carried over from a
+     *        previous count, which are not in the snapshot.
+     * @param rows the number of groups to select.
+     */
+    public void aggregate(WorldCount count, World world, EntitySnapshot snapshot, List<ChunkCount> reused, int rows) {
+        int chunks = snapshot.getChunkCount();
+        int snapshotPartitions = Math.max(1, Math.min(chunks, PARTITIONS_PER_THREAD * getThreads()));
+        int reusedPartitions = Math.min(reused.size(), PARTITIONS_PER_THREAD * getThreads());
+        int partitionCount = snapshotPartitions + reusedPartitions;
+        ArrayList<Partition> partitions = new ArrayList<>(partitionCount);
+        for (int p = 0; p < snapshotPartitions; ++p) {
+            partitions.add(new Partition(world, snapshot,
+                (int) ((long) chunks * p / snapshotPartitions),
+                (int) ((long) chunks * (p + 1) / snapshotPartitions)));
+        }
+        for (int p = 0; p < reusedPartitions; ++p) {
+            List<ChunkCount> range = reused.subList(reused.size() * p / reusedPartitions,
+                                                    reused.size() * (p + 1) / reusedPartitions);
+            partitions.add(new Partition(world, range.toArray(new ChunkCount[range.size()])));
+        }
+        chunks += reused.size();
+
+        // Count chunks, totals and histograms in parallel.
+        ArrayList<Callable<Void>> countTasks = new ArrayList<>(partitionCount);
+        for (Partition partition : partitions) {
+            countTasks.add(() -> {
+                partition.count();
+                return null;
+            });
+        }
+        invokeAll(countTasks);
+
+        // Merge the partial results in chunk order.
+        ArrayList<ChunkCount> chunkCounts = new ArrayList<>(chunks);
+        EntityCounts totals = new EntityCounts();
+        int[] histogram = new int[1];
+        int groupCount = 0;
+        for (Partition partition : partitions) {
+            chunkCounts.addAll(Arrays.asList(partition.chunkCounts));
+            partition.totals.addTo(totals);
+            if (partition.histogram.length > histogram.length) {
+                histogram = Arrays.copyOf(histogram, partition.histogram.length);
+            }
+            for (int i = 0; i < partition.histogram.length; ++i) {
+                histogram[i] += partition.histogram[i];
+            }
+            groupCount += partition.groupCount;
+        }
+
+        // Find the threshold count and share out the quota of groups with
+        // exactly the threshold count among partitions in chunk order.
+        rows = Math.min(rows, groupCount);
+        int threshold = histogram.length - 1;
+        int above = 0;
+        while (threshold > 0 && above + histogram[threshold] < rows) {
+            above += histogram[threshold];
+            --threshold;
+        }
+        int tieQuota = rows - above;
+        for (Partition partition : partitions) {
+            int ties = (threshold < partition.histogram.length) ? partition.histogram[threshold] : 0;
+            partition.tieQuota = Math.min(ties, tieQuota);
+            tieQuota -= partition.tieQuota;
+        }
+
+        // Select and sort each partition's groups in parallel.
+        final int finalThreshold = threshold;
+        ArrayList<Callable<Void>> selectTasks = new ArrayList<>(partitionCount);
+        for (Partition partition : partitions) {
+            selectTasks.add(() -> {
+                partition.select(finalThreshold);
+                return null;
+            });
+        }
+        invokeAll(selectTasks);
+
+        GroupTable[] sorted = new GroupTable[partitionCount];
+        for (int p = 0; p < partitionCount; ++p) {
+            sorted[p] = partitions.get(p).groups;
+        }
+        GroupTable sortedGroups = _pool.invoke(new MergeTask(sorted, 0, partitionCount));
+
+        count.setAggregates(chunkCounts, totals, histogram, groupCount, sortedGroups);
+    } // aggregate
+
+    // ------------------------------------------------------------------------
+    /**
+     * Run the tasks in the pool and wait for them all to complete.
+     *
+     * @param tasks the tasks.
+     */
+    protected void invokeAll(List<Callable<Void>> tasks) {
+        try {
+            for (Future<Void> future : _pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted during aggregation", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("aggregation failed", ex.getCause());
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * A contiguous range of chunks in the snapshot and the partial results
+     * computed from them.
+     */
+    protected static final class Partition {
+        public final World world;
+        public final EntitySnapshot snapshot;
+        public final int start;
+        public final int end;
+        public ChunkCount[] chunkCounts;
+        public EntityCounts totals;
+        public int[] histogram;
+        public int groupCount;
+        public int tieQuota;
+        public GroupTable groups;
+
+        // --------------------------------------------------------------------
+        /**
+         * Constructor.
+         *
+         * @param world the World containing the captured chunks.
+         * @param snapshot the snapshot.
+         * @param start the index of the first chunk in the partition.
+         * @param end one more than the index of the last chunk.
+         */
+        public Partition(World world, EntitySnapshot snapshot, int start, int end) {
+            this.world = world;
+            this.snapshot = snapshot;
+            this.start = start;
+            this.end = end;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Constructor for a partition of existing ChunkCounts.
+         *
+         * @param world the World containing the chunks.
+         * @param chunkCounts the existing counts.
+         */
+        public Partition(World world, ChunkCount[] chunkCounts) {
+            this.world = world;
+            this.snapshot = null;
+            this.start = 0;
+            this.end = chunkCounts.length;
+            this.chunkCounts = chunkCounts;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * Build the ChunkCounts if necessary, then the partial totals and
+         * partial histogram.
+         */
+        public void count() {
+            if (snapshot != null) {
+                chunkCounts = new ChunkCount[end - start];
+            }
+            totals = new EntityCounts();
+            histogram = new int[64];
+            for (int c = start; c < end; ++c) {
+                ChunkCount chunkCount = (snapshot != null) ? chunkCounts[c - start] = new ChunkCount(world, snapshot, c)
+                                                           : chunkCounts[c];
+                for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+                    Box16Count box = chunkCount.getBox(i);
+                    box.addCountsTo(totals);
+                    for (int slot = 0; slot < box.getSlotCount(); ++slot) {
+                        histogram = WorldCount.tally(histogram, box.getSlotTotal(slot));
+                        ++groupCount;
+                    }
+                }
+            }
+        } // count
+
+        // --------------------------------------------------------------------
+        /**
+         * Add rows to a new table for the groups whose count exceeds the
+         * threshold, and for the first tieQuota groups with exactly the
+         * threshold count, then sort them.
+         *
+         * @param threshold the threshold count.
+         */
+        public void select(int threshold) {
+            int above = 0;
+            for (int i = threshold + 1; i < histogram.length; ++i) {
+                above += histogram[i];
+            }
+            groups = new GroupTable(world, above + tieQuota);
+            int ties = tieQuota;
+            for (ChunkCount chunkCount : chunkCounts) {
+                for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+                    Box16Count box = chunkCount.getBox(i);
+                    for (int slot = 0; slot < box.getSlotCount(); ++slot) {
+                        int count = box.getSlotTotal(slot);
+                        if (count > threshold || (count == threshold && ties-- > 0)) {
+                            box.addSlotTo(slot, groups);
+                        }
+                    }
+                }
+            }
+            groups.sortDescending();
+        } // select
+    } // inner class Partition
+
+    // ------------------------------------------------------------------------
+    /**
+     * Merges a range of sorted tables by recursively merging the two halves
+     * of the range in parallel.
+     */
+    @SuppressWarnings("serial")
+    protected static final class MergeTask extends RecursiveTask<GroupTable> {
+        // --------------------------------------------------------------------
+        /**
+         * Constructor.
+         *
+         * @param sorted the tables, each sorted in descending order of count.
+         * @param lo the index of the first table to merge.
+         * @param hi one more than the index of the last table to merge.
+         */
+        public MergeTask(GroupTable[] sorted, int lo, int hi) {
+            _sorted = sorted;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        // --------------------------------------------------------------------
+        /**
+         * @see java.util.concurrent.RecursiveTask#compute()
+         */
+        @Override
+        protected GroupTable compute() {
+            if (_hi - _lo == 1) {
+                return _sorted[_lo];
+            }
+            int mid = (_lo + _hi) >>> 1;
+            MergeTask left = new MergeTask(_sorted, _lo, mid);
+            left.fork();
+            GroupTable right = new MergeTask(_sorted, mid, _hi).compute();
+            return GroupTable.merge(left.join(), right);
+        }
+
+        private final GroupTable[] _sorted;
+        private final int _lo;
+        private final int _hi;
+    } // inner class MergeTask
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of partitions of the chunks per thread.
+     */
+    protected static final int PARTITIONS_PER_THREAD = 4;
+
+    /**
+     * The worker threads.
+     */
+    protected final ForkJoinPool _pool;
+} // class ParallelAggregator
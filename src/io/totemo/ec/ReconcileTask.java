@@ -0,0 +1,124 @@
+package io.totemo.ec;
+
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+
+// ----------------------------------------------------------------------------
+/**
+ * A repeating task that compares the {@link LiveCensus} of one World with
+ * the entities actually present in its loaded chunks, correcting any drift.
+ *
+ * Like {@link CountTask}, the chunks are visited over several ticks, driven
+ * by the {@link CountScheduler}, which shares the configured counting budget
+ * per tick between all counts, culls and reconciliations. Each chunk is
+ * reconciled within a single tick, so the census is consistent with the
+ * chunk's entities at that instant.
+ */
+public class ReconcileTask implements BudgetedTask {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param census the live census.
+     * @param world the World to reconcile.
+     */
+    public ReconcileTask(LiveCensus census, World world) {
+        _census = census;
+        _world = world;
+        _chunks = world.getLoadedChunks();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the World being reconciled.
+     *
+     * @return the World being reconciled.
+     */
+    public World getWorld() {
+        return _world;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Reconcile chunks until the deadline passes or all chunks have been
+     * visited.
+     *
+     * Called by the {@link CountScheduler} once per tick.
+     *
+     * @param deadline the System.nanoTime() value at which to stop.
+     * @return true if all chunks have been visited.
+     * @see io.totemo.ec.BudgetedTask#step(long)
+     */
+    @Override
+    public boolean step(long deadline) {
+        long start = System.nanoTime();
+        if (_index == 0) {
+            _census.beginReconcile(_world);
+        }
+
+        do {
+            if (_index >= _chunks.length) {
+                break;
+            }
+            Chunk chunk = _chunks[_index++];
+            if (chunk.isLoaded()) {
+                for (Entity entity : chunk.getEntities()) {
+                    switch (_census.track(entity, entity.getLocation(_census.getScratchLocation()))) {
+                    case LiveCensus.ADDED:
+                        ++_untracked;
+                        break;
+                    case LiveCensus.MOVED:
+                        ++_misfiled;
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            }
+        } while (System.nanoTime() < deadline);
+        _nanos += System.nanoTime() - start;
+
+        if (_index >= _chunks.length) {
+            _census.finishReconcile(this);
+            return true;
+        }
+        return false;
+    } // step
+
+    // ------------------------------------------------------------------------
+    /**
+     * The live census.
+     */
+    protected final LiveCensus _census;
+
+    /**
+     * The World being reconciled.
+     */
+    protected final World _world;
+
+    /**
+     * The chunks that were loaded when the pass started.
+     */
+    protected final Chunk[] _chunks;
+
+    /**
+     * Index of the next chunk in _chunks to visit.
+     */
+    protected int _index;
+
+    /**
+     * Number of entities that were present but not tracked by the census.
+     */
+    protected int _untracked;
+
+    /**
+     * Number of entities that were tracked in the wrong box.
+     */
+    protected int _misfiled;
+
+    /**
+     * Total time spent reconciling, in nanoseconds.
+     */
+    protected long _nanos;
+} // class ReconcileTask
@@ -0,0 +1,328 @@
+package io.totemo.ec;
+
+import java.util.Arrays;
+
+import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+
+// ----------------------------------------------------------------------------
+/**
+ * A task that removes all entities of one type from a region of a World, for
+ * /ec remove.
+ *
+ * The region is either an axis-aligned box or a sphere. Only the chunks
+ * passed to the constructor are visited; {@link #selectChunks} uses the chunk
+ * index of the most recent {@link WorldCount} to choose only those that may
+ * contain entities of the type in the region. Entities are removed over
+ * several ticks, driven by the {@link CountScheduler}, which shares the
+ * configured counting budget per tick with all other counts, culls and
+ * removals, so that a chunk holding thousands of entities is itself spread
+ * over several ticks. Chunks that are not loaded when they are reached are
+ * skipped.
+ *
+ * Players, named entities and tamed mobs are not removed.
+ */
+public class RemoveTask implements BudgetedTask {
+    /**
+     * The radius of the region when /ec remove is run in game without a
+     * radius or box.
+     */
+    public static final double DEFAULT_RADIUS = 32;
+
+    /**
+     * The maximum number of chunks in the bounds of a region for which each
+     * chunk position is checked; larger regions are matched against the
+     * loaded chunks instead.
+     */
+    public static final long MAX_CHECKED_CHUNKS = 4096;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the keys of the loaded chunks within the specified bounds that
+     * may contain entities of a type, according to the most recent count of
+     * the World.
+     *
+     * If the World has not been counted, or the count is null because changes
+     * since the count are not tracked, all loaded chunks within the bounds are
+     * returned. Chunks whose counts are older than chunk_rescan_seconds are
+     * also always returned.
+     *
+     * @param world the World.
+     * @param count the most recent count of the World, or null.
+     * @param type the type of entity.
+     * @param min the minimum corner of the bounds.
+     * @param max the maximum corner of the bounds.
+     * @return the keys of the selected chunks.
+     */
+    public static long[] selectChunks(World world, WorldCount count, EntityType type, Location min, Location max) {
+        int minChunkX = min.getBlockX() >> 4;
+        int minChunkZ = min.getBlockZ() >> 4;
+        int maxChunkX = max.getBlockX() >> 4;
+        int maxChunkZ = max.getBlockZ() >> 4;
+        int minWorldSection = world.getMinHeight() >> 4;
+        int maxWorldSection = (world.getMaxHeight() - 1) >> 4;
+        int minSection = Math.max(minWorldSection, Math.min(maxWorldSection, min.getBlockY() >> 4));
+        int maxSection = Math.max(minWorldSection, Math.min(maxWorldSection, max.getBlockY() >> 4));
+        int ordinal = type.ordinal();
+        boolean counted = (count != null && count.hasCounts());
+
+        long[] keys = new long[16];
+        int size = 0;
+        long area = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+        if (area <= MAX_CHECKED_CHUNKS) {
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; ++chunkX) {
+                for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; ++chunkZ) {
+                    long key = Keys.chunk(chunkX, chunkZ);
+                    if (world.isChunkLoaded(chunkX, chunkZ)
+                        && (!counted || count.mayContain(key, ordinal, minSection, maxSection))) {
+                        if (size == keys.length) {
+                            keys = Arrays.copyOf(keys, 2 * size);
+                        }
+                        keys[size++] = key;
+                    }
+                }
+            }
+        } else {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                int chunkX = chunk.getX();
+                int chunkZ = chunk.getZ();
+                long key = Keys.chunk(chunkX, chunkZ);
+                if (chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ
+                    && (!counted || count.mayContain(key, ordinal, minSection, maxSection))) {
+                    if (size == keys.length) {
+                        keys = Arrays.copyOf(keys, 2 * size);
+                    }
+                    keys[size++] = key;
+                }
+            }
+        }
+        return Arrays.copyOf(keys, size);
+    } // selectChunks
+
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param sender the command sender to be notified of results.
+     * @param world the World.
+     * @param type the type of entity to remove.
+     * @param min the minimum corner of the bounds of the region.
+     * @param max the maximum corner of the bounds of the region.
+     * @param radius the radius of a spherical region centred in the bounds,
+     *        or 0 if the region is the bounding box.
+     * @param chunkKeys the keys of the chunks to visit.
+     */
+    public RemoveTask(CommandSender sender, World world, EntityType type, Location min, Location max, double radius,
+                      long[] chunkKeys) {
+        _sender = sender;
+        _world = world;
+        _type = type;
+        _minX = min.getX();
+        _minY = min.getY();
+        _minZ = min.getZ();
+        _maxX = max.getX();
+        _maxY = max.getY();
+        _maxZ = max.getZ();
+        _radiusSquared = radius * radius;
+        _chunkKeys = chunkKeys;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Remove entities until the deadline passes or all chunks have been
+     * visited.
+     *
+     * Called by the {@link CountScheduler} once per tick.
+     *
+     * @param deadline the System.nanoTime() value at which to stop.
+     * @return true if all chunks have been visited.
+     * @see io.totemo.ec.BudgetedTask#step(long)
+     */
+    @Override
+    public boolean step(long deadline) {
+        long start = System.nanoTime();
+        ++_ticks;
+
+        do {
+            if (_entities == null || _entityIndex >= _entities.length) {
+                if (!nextChunk()) {
+                    break;
+                }
+            } else {
+                Entity entity = _entities[_entityIndex++];
+                if (entity.getType() == _type && entity.isValid() && contains(entity.getLocation(_loc))) {
+                    if (CullTask.isRemovable(entity)) {
+                        entity.remove();
+                        ++_removed;
+                    } else {
+                        ++_kept;
+                    }
+                }
+            }
+        } while (System.nanoTime() < deadline);
+        _nanos += System.nanoTime() - start;
+
+        if (_entities == null) {
+            _sender.sendMessage(ChatColor.GOLD + String.format("Removed %d %s from %d chunks of %s in %.2f ms over %d ticks.",
+                                                               _removed, _type.name(), _visitedChunks, _world.getName(),
+                                                               _nanos * 1e-6, _ticks));
+            if (_kept != 0) {
+                _sender.sendMessage(ChatColor.GOLD + String.format("Kept %d named or tamed %s.", _kept, _type.name()));
+            }
+            return true;
+        }
+        return false;
+    } // step
+
+    // ------------------------------------------------------------------------
+    /**
+     * Read the entities of the next loaded chunk.
+     *
+     * @return true if there was another loaded chunk; false if all chunks have
+     *         been visited, in which case _entities is set to null.
+     */
+    protected boolean nextChunk() {
+        while (_chunkIndex < _chunkKeys.length) {
+            long chunkKey = _chunkKeys[_chunkIndex++];
+            int chunkX = Keys.chunkX(chunkKey);
+            int chunkZ = Keys.chunkZ(chunkKey);
+            if (_world.isChunkLoaded(chunkX, chunkZ)) {
+                _entities = _world.getChunkAt(chunkX, chunkZ).getEntities();
+                _entityIndex = 0;
+                ++_visitedChunks;
+                return true;
+            }
+        }
+        _entities = null;
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the region contains the specified location.
+     *
+     * @param loc the location.
+     * @return true if the region contains the location.
+     */
+    protected boolean contains(Location loc) {
+        double x = loc.getX();
+        double y = loc.getY();
+        double z = loc.getZ();
+        if (_radiusSquared > 0) {
+            double dx = x - 0.5 * (_minX + _maxX);
+            double dy = y - 0.5 * (_minY + _maxY);
+            double dz = z - 0.5 * (_minZ + _maxZ);
+            return dx * dx + dy * dy + dz * dz <= _radiusSquared;
+        } else {
+            return x >= _minX && x <= _maxX && y >= _minY && y <= _maxY && z >= _minZ && z <= _maxZ;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The command sender to be notified of results.
+     */
+    protected final CommandSender _sender;
+
+    /**
+     * The World.
+     */
+    protected final World _world;
+
+    /**
+     * The type of entity to remove.
+     */
+    protected final EntityType _type;
+
+    /**
+     * Minimum X coordinate of the region.
+     */
+    protected final double _minX;
+
+    /**
+     * Minimum Y coordinate of the region.
+     */
+    protected final double _minY;
+
+    /**
+     * Minimum Z coordinate of the region.
+     */
+    protected final double _minZ;
+
+    /**
+     * Maximum X coordinate of the region.
+     */
+    protected final double _maxX;
+
+    /**
+     * Maximum Y coordinate of the region.
+     */
+    protected final double _maxY;
+
+    /**
+     * Maximum Z coordinate of the region.
+     */
+    protected final double _maxZ;
+
+    /**
+     * Square of the radius of a spherical region, or 0 for a box.
+     */
+    protected final double _radiusSquared;
+
+    /**
+     * Keys of the chunks to visit.
+     */
+    protected final long[] _chunkKeys;
+
+    /**
+     * Location reused when reading entity locations.
+     */
+    protected final Location _loc = new Location(null, 0, 0, 0);
+
+    /**
+     * Index of the next chunk in _chunkKeys to visit.
+     */
+    protected int _chunkIndex;
+
+    /**
+     * The entities of the current chunk, or null before the first chunk and
+     * after the last.
+     */
+    protected Entity[] _entities;
+
+    /**
+     * Index of the next entity in _entities to check.
+     */
+    protected int _entityIndex;
+
+    /**
+     * Number of loaded chunks visited.
+     */
+    protected int _visitedChunks;
+
+    /**
+     * Number of entities removed.
+     */
+    protected int _removed;
+
+    /**
+     * Number of matching entities that were not removed because they were
+     * named or tamed.
+     */
+    protected int _kept;
+
+    /**
+     * Number of ticks over which the task has run.
+     */
+    protected int _ticks;
+
+    /**
+     * Total time spent removing entities, in nanoseconds.
+     */
+    protected long _nanos;
+} // class RemoveTask
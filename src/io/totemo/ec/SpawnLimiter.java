@@ -0,0 +1,268 @@
+package io.totemo.ec;
+
+import java.util.HashMap;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.CreatureSpawnEvent;
+import org.bukkit.event.entity.EntitySpawnEvent;
+import org.bukkit.event.entity.ItemSpawnEvent;
+
+import com.destroystokyo.paper.event.entity.EntityAddToWorldEvent;
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
+
+// ----------------------------------------------------------------------------
+/**
+ * Cancels creature and item spawns that would exceed the configured spawn
+ * limits per box, chunk or world.
+ *
+ * Densities are looked up in a {@link DensityCache} per World, which is
+ * rebuilt whenever counts of the World are published and kept up to date for
+ * limited types as entities are added to and removed from the World. A World
+ * that has not been counted starts with an empty cache, so entities that
+ * were already present are not taken into account until the first count.
+ *
+ * Entities usually move between being added and being removed, so each
+ * limited entity added to a cache is remembered, by entity ID, with the box
+ * it was counted in, and is removed from that box rather than from the box
+ * where it is removed. Entities that were counted when the cache was built
+ * are removed from the box where they are removed.
+ *
+ * Spawns by commands, plugins and spawn eggs are always allowed.
+ */
+public class SpawnLimiter implements Listener {
+    // ------------------------------------------------------------------------
+    /**
+     * Constructor.
+     *
+     * @param plugin the owning plugin.
+     */
+    public SpawnLimiter(EntityControl plugin) {
+        _plugin = plugin;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Enable or disable the limiter by registering or unregistering its event
+     * handlers.
+     *
+     * The density caches are discarded, since the set of limited types may
+     * have changed. They are rebuilt when counts are next published.
+     *
+     * @param enabled true to enable the limiter.
+     */
+    public void setEnabled(boolean enabled) {
+        _caches.clear();
+        _counted.clear();
+        if (enabled != _enabled) {
+            _enabled = enabled;
+            if (enabled) {
+                Bukkit.getServer().getPluginManager().registerEvents(this, _plugin);
+            } else {
+                HandlerList.unregisterAll(this);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the limiter is enabled.
+     *
+     * @return true if the limiter is enabled.
+     */
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Rebuild the density cache of a World from newly published counts.
+     *
+     * @param world the World.
+     * @param count the counts.
+     */
+    public void update(World world, WorldCount count) {
+        if (_enabled) {
+            _caches.put(world.getName(), DensityCache.of(world, count));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Rebuild the density cache of a World from its live census.
+     *
+     * @param world the World.
+     * @param census the live census of the World.
+     */
+    public void update(World world, LiveWorldCensus census) {
+        if (_enabled) {
+            _caches.put(world.getName(), DensityCache.of(world, census));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Admit or cancel creature spawns.
+     */
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onCreatureSpawn(CreatureSpawnEvent event) {
+        switch (event.getSpawnReason()) {
+        case COMMAND:
+        case CUSTOM:
+        case SPAWNER_EGG:
+            break;
+        default:
+            admit(event);
+            break;
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Admit or cancel item spawns.
+     */
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onItemSpawn(ItemSpawnEvent event) {
+        admit(event);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count a limited entity that has been added to a world.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityAddToWorld(EntityAddToWorldEvent event) {
+        Entity entity = event.getEntity();
+        int ordinal = entity.getType().ordinal();
+        if (EntityControl.CONFIG.SPAWN_LIMITS.isCapped(ordinal)) {
+            DensityCache cache = getCache(entity.getWorld());
+            Location loc = entity.getLocation(_scratch);
+            long boxKey = Keys.box(loc.getBlockX() >> 4, cache.getSection(loc.getBlockY()), loc.getBlockZ() >> 4);
+            cache.add(boxKey, ordinal, 1);
+            _counted.put(entity.getEntityId(), new Counted(cache, boxKey));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Uncount a limited entity that has been removed from a world.
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntityRemoveFromWorld(EntityRemoveFromWorldEvent event) {
+        Entity entity = event.getEntity();
+        Counted counted = _counted.remove(entity.getEntityId());
+        int ordinal = entity.getType().ordinal();
+        if (EntityControl.CONFIG.SPAWN_LIMITS.isCapped(ordinal)) {
+            DensityCache cache = getCache(entity.getWorld());
+            if (counted != null && counted.cache == cache) {
+                cache.add(counted.boxKey, ordinal, -1);
+            } else {
+                // Counted when the cache was built, where it is now or not.
+                Location loc = entity.getLocation(_scratch);
+                cache.add(loc.getBlockX() >> 4, cache.getSection(loc.getBlockY()), loc.getBlockZ() >> 4, ordinal, -1);
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Cancel a spawn if the box, chunk or world where it would occur already
+     * has at least the limit of entities of the spawned type.
+     *
+     * @param event the spawn event.
+     */
+    protected void admit(EntitySpawnEvent event) {
+        Entity entity = event.getEntity();
+        int ordinal = entity.getType().ordinal();
+        EntityCaps limits = EntityControl.CONFIG.SPAWN_LIMITS;
+        if (!limits.isCapped(ordinal)) {
+            return;
+        }
+
+        DensityCache cache = getCache(entity.getWorld());
+        Location loc = entity.getLocation(_scratch);
+        int chunkX = loc.getBlockX() >> 4;
+        int chunkZ = loc.getBlockZ() >> 4;
+        int section = cache.getSection(loc.getBlockY());
+        if (cache.getBoxTotal(Keys.box(chunkX, section, chunkZ), ordinal) >= limits.getBoxCap(ordinal)
+            || cache.getChunkTotal(Keys.chunk(chunkX, chunkZ), ordinal) >= limits.getChunkCap(ordinal)
+            || cache.getWorldTotal(ordinal) >= limits.getWorldCap(ordinal)) {
+            event.setCancelled(true);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Get or create the density cache of a World.
+     *
+     * If the World has not been counted, the cache is initialised from the
+     * live census if that is available, or is otherwise empty.
+     *
+     * @param world the World.
+     * @return the density cache.
+     */
+    protected DensityCache getCache(World world) {
+        DensityCache cache = _caches.get(world.getName());
+        if (cache == null) {
+            LiveWorldCensus census = _plugin._census.getInitialisedCensus(world);
+            cache = (census != null) ? DensityCache.of(world, census) : new DensityCache(world, 0);
+            _caches.put(world.getName(), cache);
+        }
+        return cache;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * The cache and box in which a limited entity was counted when it was
+     * added to its World.
+     */
+    protected static final class Counted {
+        public final DensityCache cache;
+        public final long boxKey;
+
+        // --------------------------------------------------------------------
+        /**
+         * Constructor.
+         *
+         * @param cache the cache that counted the entity.
+         * @param boxKey the key of the box in which it was counted.
+         */
+        public Counted(DensityCache cache, long boxKey) {
+            this.cache = cache;
+            this.boxKey = boxKey;
+        }
+    } // inner class Counted
+
+    // ------------------------------------------------------------------------
+    /**
+     * The owning plugin.
+     */
+    protected final EntityControl _plugin;
+
+    /**
+     * Map from world name to density cache.
+     */
+    protected HashMap<String, DensityCache> _caches = new HashMap<String, DensityCache>();
+
+    /**
+     * Map from entity ID to the cache and box in which each limited entity
+     * added since its cache was built is counted.
+     */
+    protected LongObjectMap<Counted> _counted = new LongObjectMap<Counted>(1024);
+
+    /**
+     * Location reused when reading entity locations.
+     */
+    protected final Location _scratch = new Location(null, 0, 0, 0);
+
+    /**
+     * True if the limiter is enabled.
+     */
+    protected boolean _enabled;
+} // class SpawnLimiter
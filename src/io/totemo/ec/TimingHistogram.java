@@ -0,0 +1,142 @@
+package io.totemo.ec;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// ----------------------------------------------------------------------------
+/**
+ * A histogram of durations with power-of-two bucket bounds, safe to update
+ * from any thread.
+ *
+ * Bucket i counts durations less than 2^(i + 14) nanoseconds (bucket 0: under
+ * 16.4 microseconds; the last finite bucket: under 34.4 seconds), and a final
+ * bucket counts longer durations. The bucket of a duration is found from its
+ * number of leading zero bits, so recording costs a few atomic increments and
+ * no search or allocation.
+ */
+public class TimingHistogram {
+    /**
+     * Number of buckets with finite bounds.
+     */
+    public static final int BUCKETS = 22;
+
+    /**
+     * Base 2 logarithm of the bound of bucket 0, in nanoseconds.
+     */
+    public static final int MIN_SHIFT = 14;
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the upper bound of a bucket, in nanoseconds.
+     *
+     * @param bucket the bucket index, less than {@link #BUCKETS}.
+     * @return the exclusive upper bound.
+     */
+    public static long getBound(int bucket) {
+        return 1L << (bucket + MIN_SHIFT);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Record a duration.
+     *
+     * @param nanos the duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = Math.min(BUCKETS, 64 - Long.numberOfLeadingZeros(nanos >>> MIN_SHIFT));
+        _buckets.incrementAndGet(bucket);
+        _sumNanos.add(nanos);
+        _maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of durations in a bucket.
+     *
+     * @param bucket the bucket index, up to and including {@link #BUCKETS}
+     *        for the unbounded bucket.
+     * @return the number of durations.
+     */
+    public long getBucketCount(int bucket) {
+        return _buckets.get(bucket);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of durations recorded.
+     *
+     * @return the number of durations.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int bucket = 0; bucket <= BUCKETS; ++bucket) {
+            count += _buckets.get(bucket);
+        }
+        return count;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the sum of the durations recorded, in nanoseconds.
+     *
+     * @return the sum.
+     */
+    public long getSumNanos() {
+        return _sumNanos.sum();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the longest duration recorded, in nanoseconds.
+     *
+     * @return the longest duration, or 0 if none have been recorded.
+     */
+    public long getMaxNanos() {
+        return _maxNanos.get();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the upper bound of the bucket containing the specified quantile
+     * of the recorded durations.
+     *
+     * @param quantile the quantile, from 0 to 1.
+     * @return the bound in nanoseconds; the longest duration if the quantile
+     *         falls in the unbounded bucket; 0 if no durations are recorded.
+     */
+    public long getQuantileBound(double quantile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long cumulative = 0;
+        for (int bucket = 0; bucket < BUCKETS; ++bucket) {
+            cumulative += _buckets.get(bucket);
+            if (cumulative >= rank) {
+                return Math.min(getBound(bucket), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Number of durations in each bucket; the last is unbounded.
+     */
+    protected final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS + 1);
+
+    /**
+     * Sum of all durations in nanoseconds.
+     */
+    protected final LongAdder _sumNanos = new LongAdder();
+
+    /**
+     * Longest duration in nanoseconds.
+     */
+    protected final AtomicLong _maxNanos = new AtomicLong();
+} // class TimingHistogram
@@ -7,6 +7,7 @@ import java.util.Comparator;
 import org.bukkit.ChatColor;
 import org.bukkit.Chunk;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.EntityType;
 import org.bukkit.entity.Player;
@@ -24,6 +25,23 @@ public class WorldCount {
      */
     public WorldCount() {
         _chunkCounts = new ArrayList<ChunkCount>(0);
+        _chunkIndex = new LongObjectMap<ChunkCount>(0);
+        _boxIndex = new BoxIndex(0);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Construct a WorldCount from precomputed totals and groups, such as a
+     * snapshot of a {@link LiveWorldCensus}.
+     *
+     * @param totals the total counts of all entities in the World.
+     * @param groups the unsorted groups of entities.
+     */
+    public WorldCount(EntityCounts totals, ArrayList<EntityGroup> groups) {
+        _chunkCounts = new ArrayList<ChunkCount>(0);
+        _chunkIndex = new LongObjectMap<ChunkCount>(0);
+        _totals = totals;
+        _groups = groups;
     }
 
     // ------------------------------------------------------------------------
@@ -33,7 +51,7 @@ public class WorldCount {
      * @return true if there are per-chunk counts recorded.
      */
     public boolean hasCounts() {
-        return _chunkCounts.size() != 0;
+        return _chunkCounts.size() != 0 || _groups != null;
     }
 
     // ------------------------------------------------------------------------
@@ -45,7 +63,19 @@ public class WorldCount {
      */
     public void clear(int count) {
         _chunkCounts = new ArrayList<ChunkCount>(count);
+        _chunkIndex = new LongObjectMap<ChunkCount>(count);
+        _boxIndex = new BoxIndex(count);
+        _totals = null;
+        _groups = null;
+        _histogram = null;
+        _groupCount = 0;
         _sortedGroups = null;
+        _typeGroupCounts = null;
+        _nameIndex = null;
+        _clusters = null;
+        _boxCount = -1;
+        _blockTotals = null;
+        _sortedBlockGroups = null;
     }
 
     // ------------------------------------------------------------------------
@@ -56,26 +86,329 @@ public class WorldCount {
      * @param chunk the counted chunk.
      */
     public void countChunk(Chunk chunk) {
-        _chunkCounts.add(new ChunkCount(chunk));
+        addChunkCount(new ChunkCount(chunk));
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Add the counts of a chunk, such as an unchanged {@link ChunkCount} from
+     * a previous count.
+     *
+     * @param chunkCount the chunk's counts.
+     */
+    public void addChunkCount(ChunkCount chunkCount) {
+        _chunkCounts.add(chunkCount);
+        _chunkIndex.put(chunkCount.getChunkKey(), chunkCount);
+        _boxIndex.add(chunkCount);
+        _nameIndex = null;
+        _clusters = null;
+        _boxCount = -1;
+        _blockTotals = null;
+        _sortedBlockGroups = null;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the counts of the chunk with the specified key, or null if the
+     * chunk was not counted.
+     *
+     * @param chunkKey the chunk key (see {@link Keys#chunk(int, int)}).
+     * @return the {@link ChunkCount}, or null.
+     */
+    public ChunkCount getChunkCount(long chunkKey) {
+        return _chunkIndex.get(chunkKey);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the spatial index of the populated boxes.
+     *
+     * The index of a count of chunks is filled as the chunks are added. The
+     * index of a snapshot of the live census is built from its groups the
+     * first time it is needed.
+     *
+     * @return the {@link BoxIndex}.
+     */
+    public BoxIndex getBoxIndex() {
+        if (_boxIndex == null) {
+            BoxIndex index = new BoxIndex(_groups.size());
+            World world = getWorld();
+            if (world != null) {
+                int minSection = world.getMinHeight() >> 4;
+                int maxSection = (world.getMaxHeight() - 1) >> 4;
+                for (EntityGroup group : _groups) {
+                    index.add(group, minSection, maxSection);
+                }
+            }
+            _boxIndex = index;
+        }
+        return _boxIndex;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if the specified chunk may contain entities of a type in a
+     * range of sections, according to these counts.
+     *
+     * Chunks that were not counted, whose counts are marked dirty, or whose
+     * counts are older than the configured chunk_rescan_seconds may contain
+     * anything.
+     *
+     * @param chunkKey the chunk key (see {@link Keys#chunk(int, int)}).
+     * @param ordinal the EntityType ordinal.
+     * @param minSection the lowest section of interest.
+     * @param maxSection the highest section of interest.
+     * @return true if the chunk may contain such entities.
+     */
+    public boolean mayContain(long chunkKey, int ordinal, int minSection, int maxSection) {
+        ChunkCount chunkCount = _chunkIndex.get(chunkKey);
+        long oldestTrusted = System.currentTimeMillis() - 1000L * EntityControl.CONFIG.CHUNK_RESCAN_SECONDS;
+        if (chunkCount == null || chunkCount.isDirty() || chunkCount.getCountedMillis() < oldestTrusted) {
+            return true;
+        }
+        for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+            int section = chunkCount.getBoxSection(i);
+            if (section >= minSection && section <= maxSection
+                && chunkCount.getBox(i).getTotal(ordinal) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Count all entities captured in an {@link EntitySnapshot} of chunks in
+     * the World corresponding to this WorldCount instance.
+     *
+     * This method does not access any chunks and can be called from any
+     * thread, provided that the instance is not shared until it returns.
+     *
+     * @param world the World containing the captured chunks.
+     * @param snapshot the snapshot.
+     */
+    public void countSnapshot(World world, EntitySnapshot snapshot) {
+        for (int chunk = 0; chunk < snapshot.getChunkCount(); ++chunk) {
+            addChunkCount(new ChunkCount(world, snapshot, chunk));
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Replace the contents of this WorldCount with the results of a
+     * {@link ParallelAggregator}.
+     *
+     * @param chunkCounts the per-chunk counts.
+     * @param totals the total counts of all entities in the World.
+     * @param histogram the number of groups having each count.
+     * @param groupCount the total number of groups.
+     * @param sortedGroups the largest groups, in descending order of count.
+     */
+    protected void setAggregates(ArrayList<ChunkCount> chunkCounts, EntityCounts totals,
+                                 int[] histogram, int groupCount, GroupTable sortedGroups) {
+        _chunkCounts = chunkCounts;
+        _chunkIndex = new LongObjectMap<ChunkCount>(chunkCounts.size());
+        _boxIndex = new BoxIndex(chunkCounts.size());
+        for (ChunkCount chunkCount : chunkCounts) {
+            _chunkIndex.put(chunkCount.getChunkKey(), chunkCount);
+            _boxIndex.add(chunkCount);
+        }
+        _totals = totals;
+        _groups = null;
+        _histogram = histogram;
+        _groupCount = groupCount;
+        _sortedGroups = sortedGroups;
+        _nameIndex = new NameIndex(chunkCounts);
+        _clusters = ClusterDetector.detect(this);
+        _blockTotals = null;
+        _sortedBlockGroups = null;
+        getBlockGroups();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Compute the totals, select the groups shown on the first page of /ec
+     * list, build the name index, find the clusters and rank the block
+     * entity groups in advance, so that that work can be done off the server
+     * thread.
+     *
+     * This instance must not be shared with other threads until this method
+     * returns.
+     */
+    public void prepare() {
+        getTotals();
+        select(EntityControl.CONFIG.PAGE_SIZE);
+        getNameIndex();
+        getClusters();
+        getBlockGroups();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the clusters of adjacent boxes containing the same entity type,
+     * in descending order of count, finding them if necessary.
+     *
+     * @return the clusters.
+     */
+    public EntityCluster[] getClusters() {
+        if (_clusters == null) {
+            _clusters = ClusterDetector.detect(this);
+        }
+        return _clusters;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the clusters of the types shown by a filter, in descending order
+     * of count.
+     *
+     * @param filter the filter.
+     * @return the clusters.
+     */
+    public EntityCluster[] getClusters(ListFilter filter) {
+        EntityCluster[] clusters = getClusters();
+        if (filter.isAll()) {
+            return clusters;
+        }
+        return Arrays.stream(clusters)
+            .filter(cluster -> filter.isShown(cluster.getEntityType().ordinal()))
+            .toArray(EntityCluster[]::new);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total number of groups (non-zero counts of a type in a box).
+     *
+     * @return the number of groups.
+     */
+    public int getGroupCount() {
+        if (_histogram == null) {
+            buildHistogram();
+        }
+        return _groupCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Mark these counts as read from region files by an {@link OfflineScan}
+     * rather than from loaded chunks.
+     */
+    public void setOffline() {
+        _offline = true;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return true if these counts were read from region files by an
+     * {@link OfflineScan}.
+     *
+     * Offline counts may include unloaded chunks and stale copies of loaded
+     * chunks, so their chunk counts must not be reused by incremental counts.
+     *
+     * @return true if these counts were read from region files.
+     */
+    public boolean isOffline() {
+        return _offline;
     }
 
     // ------------------------------------------------------------------------
     /**
-     * Inner POD type used to sort total entity counts in descending order for
-     * summarise().
+     * Return the number of populated 16x16x16 boxes, computing it if
+     * necessary.
+     *
+     * @return the number of boxes containing at least one entity.
+     */
+    public int getBoxCount() {
+        if (_boxCount < 0) {
+            int boxCount = 0;
+            if (_chunkCounts.isEmpty() && _groups != null) {
+                // Groups from the live census have one group per type per box.
+                LongObjectMap<Boolean> boxes = new LongObjectMap<Boolean>(_groups.size());
+                for (EntityGroup group : _groups) {
+                    Location loc = group.getLocation();
+                    boxes.put(Keys.boxAt(loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()), Boolean.TRUE);
+                }
+                boxCount = boxes.size();
+            } else {
+                for (ChunkCount chunkCount : _chunkCounts) {
+                    boxCount += chunkCount.getBoxCount();
+                }
+            }
+            _boxCount = boxCount;
+        }
+        return _boxCount;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of groups in the shared sorted array.
+     *
+     * @return the number of groups selected so far.
+     */
+    public int getSelectedCount() {
+        return (_sortedGroups != null) ? _sortedGroups.size() : 0;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the number of groups of each entity type, indexed by ordinal,
+     * computing them if necessary.
+     *
+     * @return the number of groups of each type.
+     */
+    public int[] getTypeGroupCounts() {
+        if (_typeGroupCounts == null) {
+            int[] typeGroupCounts = new int[EntityCounts.ENTITY_TYPES.length];
+            if (_groups != null) {
+                for (EntityGroup group : _groups) {
+                    ++typeGroupCounts[group.getEntityType().ordinal()];
+                }
+            } else {
+                for (ChunkCount chunkCount : _chunkCounts) {
+                    for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+                        Box16Count box = chunkCount.getBox(i);
+                        for (int slot = 0; slot < box.getSlotCount(); ++slot) {
+                            ++typeGroupCounts[box.getSlotOrdinal(slot)];
+                        }
+                    }
+                }
+            }
+            _typeGroupCounts = typeGroupCounts;
+        }
+        return _typeGroupCounts;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the index of named entities and tamed mobs, building it if
+     * necessary.
+     *
+     * @return the {@link NameIndex}.
+     */
+    public NameIndex getNameIndex() {
+        if (_nameIndex == null) {
+            _nameIndex = new NameIndex(_chunkCounts);
+        }
+        return _nameIndex;
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Inner POD type used to sort total entity or block entity counts in
+     * descending order for summarise().
      */
     protected static final class Total {
-        public EntityType type;
+        public Enum<?> type;
         public int count;
 
         // --------------------------------------------------------------------
         /**
          * Convenience constructor.
          *
-         * @param type entity type.
-         * @param count corresponding total number of entities in the World.
+         * @param type entity type or block entity Material.
+         * @param count corresponding total number in the World.
          */
-        public Total(EntityType type, int count) {
+        public Total(Enum<?> type, int count) {
             this.type = type;
             this.count = count;
         }
@@ -83,26 +416,124 @@ public class WorldCount {
 
     // ------------------------------------------------------------------------
     /**
-     * Show the total counts of all entities in this world, in sorted order.
+     * Return the total counts of all entities in this world, by type.
      *
-     * @param sender the command sender to be sent messages.
+     * The totals are computed on first use and cached until clear().
+     *
+     * @return the total counts of all entities in this world, by type.
      */
-    public void summarise(CommandSender sender) {
-        // Add number of entities in all boxes of all chunks to accumulator.
-        EntityCounts accumulator = new EntityCounts();
-        for (ChunkCount chunkCount : _chunkCounts) {
-            for (int i = 0; i <= 15; ++i) {
-                if (chunkCount.hasBox(i)) {
-                    chunkCount.getBox(i).addCountsTo(accumulator);
+    public EntityCounts getTotals() {
+        if (_totals == null) {
+            // Add number of entities in all boxes of all chunks to accumulator.
+            _totals = new EntityCounts();
+            for (ChunkCount chunkCount : _chunkCounts) {
+                for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+                    chunkCount.getBox(i).addCountsTo(_totals);
                 }
             }
         }
+        return _totals;
+    } // getTotals
 
+    // ------------------------------------------------------------------------
+    /**
+     * Return the total counts of all block entities in this world, by
+     * Material.
+     *
+     * The totals are computed on first use and cached until clear().
+     *
+     * @return the total counts of all block entities in this world.
+     */
+    public BlockEntityCounts getBlockTotals() {
+        if (_blockTotals == null) {
+            BlockEntityCounts blockTotals = new BlockEntityCounts();
+            for (ChunkCount chunkCount : _chunkCounts) {
+                for (int i = 0; i < chunkCount.getBlockBoxCount(); ++i) {
+                    chunkCount.getBlockBox(i).addCountsTo(blockTotals);
+                }
+            }
+            _blockTotals = blockTotals;
+        }
+        return _blockTotals;
+    } // getBlockTotals
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return all groups of block entities (non-zero counts of a Material in a
+     * box) in descending order of count, sorting them if necessary.
+     *
+     * Block entity groups are ranked the same way as entity groups: groups
+     * with equal counts are ranked in the order they are visited. They are
+     * far fewer than entity groups, so they are all sorted at once, which
+     * keeps their IDs stable without the incremental selection used for
+     * entity groups.
+     *
+     * @return the sorted groups.
+     */
+    public BlockEntityGroup[] getBlockGroups() {
+        if (_sortedBlockGroups == null) {
+            ArrayList<BlockEntityGroup> groups = new ArrayList<BlockEntityGroup>();
+            for (ChunkCount chunkCount : _chunkCounts) {
+                for (int i = 0; i < chunkCount.getBlockBoxCount(); ++i) {
+                    Box16Count box = chunkCount.getBlockBox(i);
+                    for (int slot = 0; slot < box.getSlotCount(); ++slot) {
+                        groups.add(box.getSlotBlockGroup(slot, chunkCount.getWorld()));
+                    }
+                }
+            }
+            BlockEntityGroup[] sorted = groups.toArray(new BlockEntityGroup[groups.size()]);
+            Arrays.sort(sorted, new Comparator<BlockEntityGroup>() {
+                @Override
+                public int compare(BlockEntityGroup left, BlockEntityGroup right) {
+                    return right.getCount() - left.getCount();
+                }
+            });
+            _sortedBlockGroups = sorted;
+        }
+        return _sortedBlockGroups;
+    } // getBlockGroups
+
+    // ------------------------------------------------------------------------
+    /**
+     * Show the total counts of all entities in this world, and of all block
+     * entities if any were counted, in sorted order.
+     *
+     * @param sender the command sender to be sent messages.
+     */
+    public void summarise(CommandSender sender) {
+        summarise(sender, getTotals());
+        BlockEntityCounts blockTotals = getBlockTotals();
+        if (!blockTotals.isEmpty()) {
+            summarise(sender, "Block entities: ", blockTotals, BlockEntityCounts.MATERIALS);
+        }
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Show total counts of entities, in sorted order.
+     *
+     * @param sender the command sender to be sent messages.
+     * @param accumulator the totals of each type.
+     */
+    public static void summarise(CommandSender sender, EntityCounts accumulator) {
+        summarise(sender, "Total: ", accumulator, EntityCounts.ENTITY_TYPES);
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Show total counts, in sorted order, after a label.
+     *
+     * @param sender the command sender to be sent messages.
+     * @param label the label preceding the grand total.
+     * @param accumulator the totals of each type.
+     * @param types the types, indexed by the ordinals of the accumulator.
+     */
+    protected static void summarise(CommandSender sender, String label, EntityCounts accumulator, Enum<?>[] types) {
         // Sort totals in descending order for reporting.
         int totalEntities = 0;
-        Total[] totals = new Total[EntityCounts.ENTITY_TYPES.length];
+        Total[] totals = new Total[types.length];
         for (int i = 0; i < totals.length; ++i) {
-            totals[i] = new Total(EntityCounts.ENTITY_TYPES[i], accumulator.getTotal(i));
+            totals[i] = new Total(types[i], accumulator.getTotal(i));
             totalEntities += totals[i].count;
         }
 
@@ -114,7 +545,7 @@ public class WorldCount {
         });
 
         StringBuilder s = new StringBuilder(ChatColor.YELLOW.toString());
-        s.append("Total: ");
+        s.append(label);
         s.append(totalEntities);
         for (int i = 0; i < totals.length; ++i) {
             if (totals[i].count == 0) {
@@ -131,17 +562,32 @@ public class WorldCount {
 
     // ------------------------------------------------------------------------
     /**
-     * List entities to the sender in descending order of occcurence frequency.
+     * List entities to the sender in descending order of occcurence frequency,
+     * hiding the types hidden by {@link ListFilter#DEFAULT}.
      *
      * @param sender the command sender.
      * @param page the 1-based page number of output to show.
      */
     public void list(CommandSender sender, int page) {
-        sortGroups(sender);
+        list(sender, page, new ListView(this, ListFilter.DEFAULT));
+    }
 
+    // ------------------------------------------------------------------------
+    /**
+     * List the groups shown by a view to the sender in descending order of
+     * occcurence frequency.
+     *
+     * @param sender the command sender.
+     * @param page the 1-based page number of output to show.
+     * @param view the sender's view of this WorldCount.
+     */
+    public void list(CommandSender sender, int page, ListView view) {
+        long start = System.nanoTime();
         // NB: Page is 1-based.
         final int PAGE_SIZE = EntityControl.CONFIG.PAGE_SIZE;
-        int pageCount = (_sortedGroups.length + PAGE_SIZE - 1) / PAGE_SIZE;
+        view.select(sender, Math.max(page, 1) * PAGE_SIZE);
+
+        int pageCount = (view.getGroupCount() + PAGE_SIZE - 1) / PAGE_SIZE;
         if (page < 1 || page > pageCount) {
             if (pageCount == 0) {
                 sender.sendMessage(ChatColor.RED + "There are 0 results.");
@@ -152,46 +598,51 @@ public class WorldCount {
             String header = ChatColor.translateAlternateColorCodes('&', String.format("&f---------- &6Page &e%d &6of &e%d &f----------",
                                                                                       page, pageCount));
             sender.sendMessage(header);
-            for (int i = (page - 1) * PAGE_SIZE; i < Math.min(page * PAGE_SIZE, _sortedGroups.length); ++i) {
-                Location loc = _sortedGroups[i].getLocation();
+            GroupTable groups = _sortedGroups;
+            for (int i = (page - 1) * PAGE_SIZE; i < Math.min(page * PAGE_SIZE, view.getSelectedCount()); ++i) {
+                int row = view.getRow(i);
                 String line = String.format("%s(% 3d) %s% 3d %s%-18s %s(%d, %d, %d)",
                                             ChatColor.GOLD.toString(), i + 1,
-                                            ChatColor.GREEN.toString(), _sortedGroups[i].getCount(),
-                                            ChatColor.YELLOW.toString(), _sortedGroups[i].getEntityType().name(),
-                                            ChatColor.GOLD.toString(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+                                            ChatColor.GREEN.toString(), groups.getCount(row),
+                                            ChatColor.YELLOW.toString(), groups.getEntityType(row).name(),
+                                            ChatColor.GOLD.toString(), groups.getBlockX(row), groups.getBlockY(row), groups.getBlockZ(row));
                 sender.sendMessage(line);
             }
             sender.sendMessage(header);
         }
+        EntityControl.METRICS.record(Metrics.Phase.LIST, System.nanoTime() - start);
     } // list
 
     // ------------------------------------------------------------------------
     /**
-     * Teleport the sender to the group with the specified 1-based ID.
+     * Teleport the sender to the group with the specified 1-based ID in a
+     * view.
      *
      * @param sender the command sender.
      * @param id the ID, starting at 1.
+     * @param view the sender's view of this WorldCount.
      */
-    public void tp(CommandSender sender, int id) {
-        sortGroups(sender);
+    public void tp(CommandSender sender, int id, ListView view) {
+        view.select(sender, Math.max(id, 1));
 
         int index = id - 1;
-        if (index < 0 || index >= _sortedGroups.length) {
-            if (_sortedGroups.length == 0) {
+        if (index < 0 || index >= view.getSelectedCount()) {
+            if (view.getGroupCount() == 0) {
                 sender.sendMessage(ChatColor.RED + "There are no results to teleport to.");
             } else {
-                sender.sendMessage(ChatColor.RED + "Valid IDs are in the range 1 to " + _sortedGroups.length + ".");
+                sender.sendMessage(ChatColor.RED + "Valid IDs are in the range 1 to " + view.getGroupCount() + ".");
             }
         } else {
-            EntityGroup group = _sortedGroups[index];
+            GroupTable groups = _sortedGroups;
+            int row = view.getRow(index);
             if (sender instanceof Player) {
                 Player player = (Player) sender;
-                Location loc = group.getLocation();
+                Location loc = groups.getLocation(row);
                 player.teleport(loc);
                 sender.sendMessage(String.format("%sTeleporting you to %s%d %s%s %sat (%d, %d, %d).",
                                                  ChatColor.GOLD.toString(),
-                                                 ChatColor.GREEN.toString(), group.getCount(),
-                                                 ChatColor.YELLOW.toString(), group.getEntityType().name(),
+                                                 ChatColor.GREEN.toString(), groups.getCount(row),
+                                                 ChatColor.YELLOW.toString(), groups.getEntityType(row).name(),
                                                  ChatColor.GOLD.toString(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()));
             }
         }
@@ -199,38 +650,349 @@ public class WorldCount {
 
     // ------------------------------------------------------------------------
     /**
-     * Cache sorted groups as teleport targets.
+     * Show the sender the groups in the boxes within a radius of a location,
+     * largest first.
+     *
+     * Only the boxes in range are visited, through the {@link BoxIndex}. A box
+     * that overlaps the sphere is counted in full, and each of its groups is
+     * shown at its representative location, which may be slightly out of
+     * range.
+     *
+     * @param sender the command sender.
+     * @param centre the centre of the sphere.
+     * @param radius the radius.
+     * @param ordinal the EntityType.ordinal() value of the type to show, or
+     *        -1 to show all types.
+     */
+    public void near(CommandSender sender, Location centre, double radius, int ordinal) {
+        long start = System.nanoTime();
+        EntityCounts totals = new EntityCounts();
+        GroupTable groups = new GroupTable(centre.getWorld(), 16);
+        int[] boxes = new int[1];
+        getBoxIndex().visit(centre.getX(), centre.getY(), centre.getZ(), radius, (boxKey, box) -> {
+            ++boxes[0];
+            for (int slot = 0; slot < box.getSlotCount(); ++slot) {
+                int slotOrdinal = box.getSlotOrdinal(slot);
+                if (ordinal < 0 || slotOrdinal == ordinal) {
+                    totals.add(slotOrdinal, box.getSlotTotal(slot));
+                    box.addSlotTo(slot, groups);
+                }
+            }
+        });
+        groups.sortDescending();
+        double elapsedMillis = (System.nanoTime() - start) * 1e-6;
+
+        int entities = 0;
+        for (int row = 0; row < groups.size(); ++row) {
+            entities += groups.getCount(row);
+        }
+        sender.sendMessage(ChatColor.GOLD + String.format("%d %s in %d groups in %d boxes within %.0f blocks (%.2f milliseconds).",
+                                                          entities,
+                                                          (ordinal < 0) ? "entities" : EntityCounts.ENTITY_TYPES[ordinal].name(),
+                                                          groups.size(), boxes[0], radius, elapsedMillis));
+        if (groups.size() == 0) {
+            return;
+        }
+        if (ordinal < 0) {
+            summarise(sender, totals);
+        }
+        for (int row = 0; row < Math.min(groups.size(), EntityControl.CONFIG.PAGE_SIZE); ++row) {
+            double dx = groups.getX(row) - centre.getX();
+            double dy = groups.getY(row) - centre.getY();
+            double dz = groups.getZ(row) - centre.getZ();
+            String line = String.format("%s(% 3d) %s% 3d %s%-18s %s(%d, %d, %d) %d blocks away",
+                                        ChatColor.GOLD.toString(), row + 1,
+                                        ChatColor.GREEN.toString(), groups.getCount(row),
+                                        ChatColor.YELLOW.toString(), groups.getEntityType(row).name(),
+                                        ChatColor.GOLD.toString(), groups.getBlockX(row), groups.getBlockY(row), groups.getBlockZ(row),
+                                        Math.round(Math.sqrt(dx * dx + dy * dy + dz * dz)));
+            sender.sendMessage(line);
+        }
+        if (groups.size() > EntityControl.CONFIG.PAGE_SIZE) {
+            sender.sendMessage(ChatColor.GOLD + String.format("... and %d more groups.", groups.size() - EntityControl.CONFIG.PAGE_SIZE));
+        }
+    } // near
+
+    // ------------------------------------------------------------------------
+    /**
+     * List clusters of adjacent boxes of the types shown by a filter to the
+     * sender in descending order of count.
+     *
+     * @param sender the command sender.
+     * @param page the 1-based page number of output to show.
+     * @param filter the sender's filter.
+     */
+    public void listClusters(CommandSender sender, int page, ListFilter filter) {
+        final int PAGE_SIZE = EntityControl.CONFIG.PAGE_SIZE;
+        EntityCluster[] clusters = getClusters(filter);
+        int pageCount = (clusters.length + PAGE_SIZE - 1) / PAGE_SIZE;
+        if (page < 1 || page > pageCount) {
+            if (pageCount == 0) {
+                sender.sendMessage(ChatColor.RED + "There are 0 results.");
+            } else {
+                sender.sendMessage(ChatColor.RED + "Valid page numbers are 1 to " + pageCount + ".");
+            }
+        } else {
+            String header = ChatColor.translateAlternateColorCodes('&', String.format("&f---------- &6Page &e%d &6of &e%d &f----------",
+                                                                                      page, pageCount));
+            sender.sendMessage(header);
+            for (int i = (page - 1) * PAGE_SIZE; i < Math.min(page * PAGE_SIZE, clusters.length); ++i) {
+                EntityCluster cluster = clusters[i];
+                String line = String.format("%s(% 3d) %s% 3d %s%-18s %s%d boxes %s",
+                                            ChatColor.GOLD.toString(), i + 1,
+                                            ChatColor.GREEN.toString(), cluster.getCount(),
+                                            ChatColor.YELLOW.toString(), cluster.getEntityType().name(),
+                                            ChatColor.GOLD.toString(), cluster.getBoxCount(), cluster.getBounds());
+                sender.sendMessage(line);
+            }
+            sender.sendMessage(header);
+        }
+    } // listClusters
+
+    // ------------------------------------------------------------------------
+    /**
+     * Teleport the sender to the cluster with the specified 1-based ID among
+     * those of the types shown by a filter.
+     *
+     * @param sender the command sender.
+     * @param id the ID, starting at 1.
+     * @param filter the sender's filter.
+     */
+    public void tpCluster(CommandSender sender, int id, ListFilter filter) {
+        EntityCluster[] clusters = getClusters(filter);
+        int index = id - 1;
+        if (index < 0 || index >= clusters.length) {
+            if (clusters.length == 0) {
+                sender.sendMessage(ChatColor.RED + "There are no results to teleport to.");
+            } else {
+                sender.sendMessage(ChatColor.RED + "Valid IDs are in the range 1 to " + clusters.length + ".");
+            }
+        } else if (sender instanceof Player) {
+            EntityCluster cluster = clusters[index];
+            Location loc = cluster.getLocation();
+            ((Player) sender).teleport(loc);
+            sender.sendMessage(String.format("%sTeleporting you to %s%d %s%s %sin %d boxes at (%d, %d, %d).",
+                                             ChatColor.GOLD.toString(),
+                                             ChatColor.GREEN.toString(), cluster.getCount(),
+                                             ChatColor.YELLOW.toString(), cluster.getEntityType().name(),
+                                             ChatColor.GOLD.toString(), cluster.getBoxCount(),
+                                             loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()));
+        }
+    } // tpCluster
+
+    // ------------------------------------------------------------------------
+    /**
+     * List groups of block entities to the sender in descending order of
+     * count.
+     *
+     * @param sender the command sender.
+     * @param page the 1-based page number of output to show.
+     */
+    public void listBlockGroups(CommandSender sender, int page) {
+        final int PAGE_SIZE = EntityControl.CONFIG.PAGE_SIZE;
+        BlockEntityGroup[] groups = getBlockGroups();
+        int pageCount = (groups.length + PAGE_SIZE - 1) / PAGE_SIZE;
+        if (page < 1 || page > pageCount) {
+            if (pageCount == 0) {
+                sender.sendMessage(ChatColor.RED + "There are 0 results.");
+            } else {
+                sender.sendMessage(ChatColor.RED + "Valid page numbers are 1 to " + pageCount + ".");
+            }
+        } else {
+            String header = ChatColor.translateAlternateColorCodes('&', String.format("&f---------- &6Page &e%d &6of &e%d &f----------",
+                                                                                      page, pageCount));
+            sender.sendMessage(header);
+            for (int i = (page - 1) * PAGE_SIZE; i < Math.min(page * PAGE_SIZE, groups.length); ++i) {
+                BlockEntityGroup group = groups[i];
+                Location loc = group.getLocation();
+                String line = String.format("%s(% 3d) %s% 3d %s%-18s %s(%d, %d, %d)",
+                                            ChatColor.GOLD.toString(), i + 1,
+                                            ChatColor.GREEN.toString(), group.getCount(),
+                                            ChatColor.YELLOW.toString(), group.getMaterial().name(),
+                                            ChatColor.GOLD.toString(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+                sender.sendMessage(line);
+            }
+            sender.sendMessage(header);
+        }
+    } // listBlockGroups
+
+    // ------------------------------------------------------------------------
+    /**
+     * Teleport the sender to the top of a block in the block entity group
+     * with the specified 1-based ID.
+     *
+     * @param sender the command sender.
+     * @param id the ID, starting at 1.
+     */
+    public void tpBlockGroup(CommandSender sender, int id) {
+        BlockEntityGroup[] groups = getBlockGroups();
+        int index = id - 1;
+        if (index < 0 || index >= groups.length) {
+            if (groups.length == 0) {
+                sender.sendMessage(ChatColor.RED + "There are no results to teleport to.");
+            } else {
+                sender.sendMessage(ChatColor.RED + "Valid IDs are in the range 1 to " + groups.length + ".");
+            }
+        } else if (sender instanceof Player) {
+            BlockEntityGroup group = groups[index];
+            Location loc = group.getLocation();
+            ((Player) sender).teleport(loc.clone().add(0, 0.5, 0));
+            sender.sendMessage(String.format("%sTeleporting you to %s%d %s%s %sat (%d, %d, %d).",
+                                             ChatColor.GOLD.toString(),
+                                             ChatColor.GREEN.toString(), group.getCount(),
+                                             ChatColor.YELLOW.toString(), group.getMaterial().name(),
+                                             ChatColor.GOLD.toString(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ()));
+        }
+    } // tpBlockGroup
+
+    // ------------------------------------------------------------------------
+    /**
+     * Return the World that was counted, taken from the first chunk or
+     * census group.
+     *
+     * @return the World, or null if nothing was counted.
+     */
+    protected World getWorld() {
+        if (_groups != null) {
+            return _groups.isEmpty() ? null : _groups.get(0).getLocation().getWorld();
+        }
+        return (_chunkCounts == null || _chunkCounts.isEmpty()) ? null : _chunkCounts.get(0).getWorld();
+    }
+
+    // ------------------------------------------------------------------------
+    /**
+     * Ensure that at least the specified number of the largest groups (or all
+     * groups, if there are fewer) are cached in descending order of count as
+     * teleport targets.
+     *
+     * Rather than sorting every group, the groups are first tallied into a
+     * histogram indexed by count, without allocation. The histogram gives the
+     * smallest count that a group must have to be ranked in the top rows,
+     * and only those groups are then copied into a {@link GroupTable} and
+     * sorted. Groups with equal counts are ranked in the order they are
+     * visited, so extending the selection for later pages does not change the
+     * IDs of groups already shown. The selection is at least doubled each
+     * time it is extended, to bound the number of passes when paging through
+     * the list.
      *
      * @param sender CommandSender to send messages to.
+     * @param rows the number of rows required.
      */
-    protected void sortGroups(CommandSender sender) {
-        if (_sortedGroups == null) {
-            long start = System.currentTimeMillis();
+    protected void selectGroups(CommandSender sender, int rows) {
+        long start = System.nanoTime();
+        if (select(rows)) {
+            double elapsedMillis = (System.nanoTime() - start) * 1e-6;
+            sender.sendMessage(ChatColor.GOLD + String.format("Selected the top %d of %d entity groups in %.2f milliseconds.",
+                                                              _sortedGroups.size(), _groupCount, elapsedMillis));
+        }
+    }
 
-            // For all chunks, and for all 16 boxes in a chunk, for each
-            // EntityType that has a non-zero count append an EntityGroup. Note
-            // that groups is initialised with a certain capacity, but starts
-            // with 0 size.
-            ArrayList<EntityGroup> groups = new ArrayList<>(_chunkCounts.size());
+    // ------------------------------------------------------------------------
+    /**
+     * Perform the selection described by
+     * {@link #selectGroups(CommandSender, int)}, without sending messages.
+     *
+     * @param rows the number of rows required.
+     * @return true if groups were selected; false if enough were already
+     *         selected.
+     */
+    protected boolean select(int rows) {
+        if (_histogram == null) {
+            buildHistogram();
+        }
+
+        int selected = (_sortedGroups != null) ? _sortedGroups.size() : 0;
+        if (selected >= Math.min(rows, _groupCount) && _sortedGroups != null) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        rows = Math.min(_groupCount, Math.max(rows, 2 * selected));
+
+        // Find the threshold count: all groups with a larger count are
+        // selected, plus the first tieQuota groups with exactly that count.
+        int threshold = _histogram.length - 1;
+        int above = 0;
+        while (threshold > 0 && above + _histogram[threshold] < rows) {
+            above += _histogram[threshold];
+            --threshold;
+        }
+        int tieQuota = rows - above;
+
+        GroupTable groups = new GroupTable(getWorld(), rows);
+        if (_groups != null) {
+            for (EntityGroup group : _groups) {
+                int count = group.getCount();
+                if (count > threshold || (count == threshold && tieQuota-- > 0)) {
+                    groups.add(group);
+                }
+            }
+        } else {
             for (ChunkCount chunkCount : _chunkCounts) {
-                for (int i = 0; i <= 15; ++i) {
-                    if (chunkCount.hasBox(i)) {
-                        chunkCount.getBox(i).addEntityGroupsTo(groups);
+                for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+                    Box16Count box = chunkCount.getBox(i);
+                    for (int slot = 0; slot < box.getSlotCount(); ++slot) {
+                        int count = box.getSlotTotal(slot);
+                        if (count > threshold || (count == threshold && tieQuota-- > 0)) {
+                            box.addSlotTo(slot, groups);
+                        }
                     }
                 }
             }
+        }
 
-            // Exclude groups of ITEM_FRAME and sort descending by count.
-            _sortedGroups = groups.stream()
-            .filter(g -> g.getEntityType() != EntityType.ITEM_FRAME)
-            .sorted((l, r) -> r.getCount() - l.getCount())
-            .toArray(size -> new EntityGroup[size]);
+        // The sort is stable, preserving the visiting order of groups with
+        // equal counts.
+        groups.sortDescending();
+        _sortedGroups = groups;
+        EntityControl.METRICS.record(Metrics.Phase.SORT, System.nanoTime() - start);
+        return true;
+    } // select
 
-            long elapsedMillis = System.currentTimeMillis() - start;
-            sender.sendMessage(ChatColor.GOLD + String.format("Sorted %d entity groups in %d milliseconds.",
-                                                              _sortedGroups.length, elapsedMillis));
+    // ------------------------------------------------------------------------
+    /**
+     * Tally the number of groups with each count into _histogram, and the
+     * total number of groups into _groupCount.
+     */
+    protected void buildHistogram() {
+        int[] histogram = new int[64];
+        int groupCount = 0;
+        if (_groups != null) {
+            for (EntityGroup group : _groups) {
+                histogram = tally(histogram, group.getCount());
+                ++groupCount;
+            }
+        } else {
+            for (ChunkCount chunkCount : _chunkCounts) {
+                for (int i = 0; i < chunkCount.getBoxCount(); ++i) {
+                    Box16Count box = chunkCount.getBox(i);
+                    for (int slot = 0; slot < box.getSlotCount(); ++slot) {
+                        histogram = tally(histogram, box.getSlotTotal(slot));
+                        ++groupCount;
+                    }
+                }
+            }
         }
-    } // sortGroups
+        _histogram = histogram;
+        _groupCount = groupCount;
+    } // buildHistogram
+
+    // ------------------------------------------------------------------------
+    /**
+     * Increment the histogram entry for the specified count, growing the
+     * histogram if necessary.
+     *
+     * @param histogram the histogram.
+     * @param count the count.
+     * @return the histogram, which may be a new, larger array.
+     */
+    protected static int[] tally(int[] histogram, int count) {
+        if (count >= histogram.length) {
+            histogram = Arrays.copyOf(histogram, Math.max(count + 1, 2 * histogram.length));
+        }
+        ++histogram[count];
+        return histogram;
+    }
 
     // ------------------------------------------------------------------------
     /**
@@ -240,12 +1002,83 @@ public class WorldCount {
     protected ArrayList<ChunkCount> _chunkCounts;
 
     /**
-     * Sorted array of {@link EntityGroup}s which is cached by list() the first
-     * time the groups are sorted (see {@link #sortGroups(CommandSender)}).
+     * Map from chunk key to the corresponding element of _chunkCounts.
+     */
+    protected LongObjectMap<ChunkCount> _chunkIndex;
+
+    /**
+     * Spatial index of the boxes of _chunkCounts, or null if this is a
+     * snapshot of the live census whose index is not yet built.
+     */
+    protected BoxIndex _boxIndex;
+
+    /**
+     * Index of named entities and tamed mobs, or null if not yet built.
+     */
+    protected NameIndex _nameIndex;
+
+    /**
+     * Clusters of adjacent boxes in descending order of count, or null if not
+     * yet found.
+     */
+    protected EntityCluster[] _clusters;
+
+    /**
+     * Total counts of all entities in the world, cached by getTotals().
+     */
+    protected EntityCounts _totals;
+
+    /**
+     * Total counts of all block entities in the world, cached by
+     * getBlockTotals().
+     */
+    protected BlockEntityCounts _blockTotals;
+
+    /**
+     * All block entity groups in descending order of count, cached by
+     * getBlockGroups().
+     */
+    protected BlockEntityGroup[] _sortedBlockGroups;
+
+    /**
+     * Unsorted groups supplied by the constructor, used instead of the groups
+     * of _chunkCounts; null if not supplied.
+     */
+    protected ArrayList<EntityGroup> _groups;
+
+    /**
+     * Number of groups having each count, indexed by count; built on
+     * first use by buildHistogram() and invalidated by clear().
+     */
+    protected int[] _histogram;
+
+    /**
+     * Total number of groups, computed by buildHistogram().
+     */
+    protected int _groupCount;
+
+    /**
+     * Number of populated boxes, or -1 if not yet computed.
+     */
+    protected int _boxCount = -1;
+
+    /**
+     * True if these counts were read from region files.
+     */
+    protected boolean _offline;
+
+    /**
+     * Number of groups of each entity type, indexed by ordinal, or null if
+     * not yet computed.
+     */
+    protected int[] _typeGroupCounts;
+
+    /**
+     * Table of the largest groups in descending order of count, which is
+     * cached and extended by list() and tp() as more rows are required (see
+     * {@link #selectGroups(CommandSender, int)}).
      *
-     * The cache is invalidated by clear(). This is stored as an array partly
-     * because ArrayList<>.sort() is not available in Java 7, which the server
-     * may still be running on.
+     * The cache is invalidated by clear().
      */
-    protected EntityGroup[] _sortedGroups;
-} // class WorldCount
\ No newline at end of file
+    protected GroupTable _sortedGroups;
+} // class WorldCount